@@ -17,6 +17,10 @@ CREATE TABLE `r_pan_file`
     `file_suffix`               varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '' COMMENT '文件后缀',
     `file_preview_content_type` varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '' COMMENT '文件预览的响应头Content-Type的值',
     `identifier`                varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '' COMMENT '文件唯一标识',
+    `compress_codec`            varchar(32) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin  NOT NULL DEFAULT '' COMMENT '文件压缩存储的编码方式，为空表示未压缩',
+    `stored_size`               varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '' COMMENT '文件实际存储的大小',
+    `access_count`              bigint                                                 NOT NULL DEFAULT 0 COMMENT '文件的访问次数，定期衰减',
+    `last_access_time`          datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '文件最近一次被访问的时间',
     `create_user`               bigint                                                 NOT NULL COMMENT '创建人',
     `create_time`               datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
     PRIMARY KEY (`file_id`) USING BTREE
@@ -154,6 +158,23 @@ CREATE TABLE `r_pan_file_chunk`
   DEFAULT CHARSET = utf8mb4
   COLLATE = utf8mb4_bin COMMENT ='文件分片信息表';
 
+-- ----------------------------
+-- Table structure for r_pan_file_pending_delete
+-- ----------------------------
+
+DROP TABLE IF EXISTS `r_pan_file_pending_delete`;
+CREATE TABLE `r_pan_file_pending_delete`
+(
+    `id`          bigint                           NOT NULL AUTO_INCREMENT COMMENT '主键',
+    `real_path`   varchar(700) COLLATE utf8mb4_bin NOT NULL DEFAULT '' COMMENT '待删除文件的真实存储路径',
+    `due_time`    datetime                         NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '到期删除的时间',
+    `create_time` datetime                         NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    PRIMARY KEY (`id`),
+    KEY `idx_due_time` (`due_time`) USING BTREE COMMENT '到期删除时间的索引'
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4
+  COLLATE = utf8mb4_bin COMMENT ='待删除物理文件表';
+
 -- ----------------------------
 -- Table structure for r_pan_error_log
 -- ----------------------------
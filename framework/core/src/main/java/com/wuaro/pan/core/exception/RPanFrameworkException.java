@@ -9,4 +9,8 @@ public class RPanFrameworkException extends RuntimeException {
         super(message);
     }
 
+    public RPanFrameworkException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
 }
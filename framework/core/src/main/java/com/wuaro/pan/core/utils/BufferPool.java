@@ -0,0 +1,260 @@
+package com.wuaro.pan.core.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 公用的IO缓冲区池
+ * <p>
+ * 1、按照 64KB/256KB/1MB 三个规格分配缓冲区，根据预计传输的数据量选择规格，数据量未知时使用最小的规格
+ * 2、分为堆内缓冲区（byte[]）和堆外缓冲区（直接内存的ByteBuffer）两种
+ * 3、归还的缓冲区保存在全局共享的队列中，堆内、堆外分别有全局的字节数上限，超过上限的缓冲区直接丢弃交给GC回收，
+ * 不按线程缓存，避免线程数较多时每个线程各自持有的缓冲区累计占用大量内存
+ * 4、统计从池中获取缓冲区的命中次数、新分配的次数以及池中保留的字节数
+ * <p>
+ * 获取的缓冲区使用完之后必须归还，归还之后不能再使用
+ */
+public class BufferPool {
+
+    public static final int SIZE_64K = 64 * 1024;
+
+    public static final int SIZE_256K = 256 * 1024;
+
+    public static final int SIZE_1M = 1024 * 1024;
+
+    /**
+     * 池中保留的堆内缓冲区默认的字节数上限
+     */
+    public static final long DEFAULT_MAX_RETAINED_HEAP_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * 池中保留的堆外缓冲区默认的字节数上限
+     */
+    public static final long DEFAULT_MAX_RETAINED_DIRECT_BYTES = 32L * 1024 * 1024;
+
+    private static final int[] SIZE_CLASSES = {SIZE_64K, SIZE_256K, SIZE_1M};
+
+    private static final SharedPool<byte[]> HEAP_POOL = new SharedPool<>(DEFAULT_MAX_RETAINED_HEAP_BYTES);
+
+    private static final SharedPool<ByteBuffer> DIRECT_POOL = new SharedPool<>(DEFAULT_MAX_RETAINED_DIRECT_BYTES);
+
+    private static final LongAdder HIT_COUNT = new LongAdder();
+
+    private static final LongAdder MISS_COUNT = new LongAdder();
+
+    private static final LongAdder ALLOCATED_BYTES = new LongAdder();
+
+    private BufferPool() {
+    }
+
+    /**
+     * 设置池中保留的缓冲区的字节数上限
+     * 调小上限不会立即释放已经保留的缓冲区，之后归还的缓冲区在保留字节数降到上限以下之前会被丢弃
+     *
+     * @param maxRetainedHeapBytes   堆内缓冲区的字节数上限，小于等于0表示不保留
+     * @param maxRetainedDirectBytes 堆外缓冲区的字节数上限，小于等于0表示不保留
+     */
+    public static void setMaxRetainedBytes(long maxRetainedHeapBytes, long maxRetainedDirectBytes) {
+        HEAP_POOL.maxRetainedBytes = maxRetainedHeapBytes;
+        DIRECT_POOL.maxRetainedBytes = maxRetainedDirectBytes;
+    }
+
+    /**
+     * 根据预计传输的数据量选择缓冲区的规格
+     *
+     * @param expectedLength 预计传输的字节数，小于等于0表示未知
+     * @return
+     */
+    public static int sizeFor(long expectedLength) {
+        for (int size : SIZE_CLASSES) {
+            if (expectedLength <= size) {
+                return size;
+            }
+        }
+        return SIZE_1M;
+    }
+
+    /**
+     * 获取堆内缓冲区
+     *
+     * @param expectedLength 预计传输的字节数，小于等于0表示未知
+     * @return
+     */
+    public static byte[] acquireHeap(long expectedLength) {
+        int index = indexOf(sizeFor(expectedLength));
+        byte[] buffer = HEAP_POOL.poll(index);
+        if (Objects.nonNull(buffer)) {
+            HIT_COUNT.increment();
+            return buffer;
+        }
+        MISS_COUNT.increment();
+        ALLOCATED_BYTES.add(SIZE_CLASSES[index]);
+        return new byte[SIZE_CLASSES[index]];
+    }
+
+    /**
+     * 归还堆内缓冲区
+     *
+     * @param buffer
+     */
+    public static void release(byte[] buffer) {
+        if (Objects.isNull(buffer)) {
+            return;
+        }
+        int index = indexOf(buffer.length);
+        if (index < 0) {
+            return;
+        }
+        HEAP_POOL.offer(index, buffer);
+    }
+
+    /**
+     * 获取堆外缓冲区
+     * 返回的缓冲区已经清空，position为0，limit为容量
+     *
+     * @param expectedLength 预计传输的字节数，小于等于0表示未知
+     * @return
+     */
+    public static ByteBuffer acquireDirect(long expectedLength) {
+        int index = indexOf(sizeFor(expectedLength));
+        ByteBuffer buffer = DIRECT_POOL.poll(index);
+        if (Objects.nonNull(buffer)) {
+            HIT_COUNT.increment();
+            return buffer;
+        }
+        MISS_COUNT.increment();
+        ALLOCATED_BYTES.add(SIZE_CLASSES[index]);
+        return ByteBuffer.allocateDirect(SIZE_CLASSES[index]);
+    }
+
+    /**
+     * 归还堆外缓冲区
+     *
+     * @param buffer
+     */
+    public static void release(ByteBuffer buffer) {
+        if (Objects.isNull(buffer) || !buffer.isDirect()) {
+            return;
+        }
+        int index = indexOf(buffer.capacity());
+        if (index < 0) {
+            return;
+        }
+        buffer.clear();
+        DIRECT_POOL.offer(index, buffer);
+    }
+
+    /**
+     * 从池中直接获取到缓冲区的次数
+     *
+     * @return
+     */
+    public static long getHitCount() {
+        return HIT_COUNT.sum();
+    }
+
+    /**
+     * 池中没有可用的缓冲区而新分配的次数
+     *
+     * @return
+     */
+    public static long getMissCount() {
+        return MISS_COUNT.sum();
+    }
+
+    /**
+     * 新分配的缓冲区的总字节数
+     *
+     * @return
+     */
+    public static long getAllocatedBytes() {
+        return ALLOCATED_BYTES.sum();
+    }
+
+    /**
+     * 归还时超过保留上限而被丢弃的缓冲区数量
+     *
+     * @return
+     */
+    public static long getDroppedCount() {
+        return HEAP_POOL.droppedCount.sum() + DIRECT_POOL.droppedCount.sum();
+    }
+
+    /**
+     * 池中当前保留的堆内缓冲区的字节数
+     *
+     * @return
+     */
+    public static long getRetainedHeapBytes() {
+        return HEAP_POOL.retainedBytes.get();
+    }
+
+    /**
+     * 池中当前保留的堆外缓冲区的字节数
+     *
+     * @return
+     */
+    public static long getRetainedDirectBytes() {
+        return DIRECT_POOL.retainedBytes.get();
+    }
+
+    /*****************************************private*****************************************/
+
+    private static int indexOf(int size) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (SIZE_CLASSES[i] == size) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 全局共享的缓冲区池，每个规格一个队列，所有规格共用一个保留字节数的上限
+     *
+     * @param <T>
+     */
+    private static class SharedPool<T> {
+
+        private final Queue<T>[] queues;
+
+        private final AtomicLong retainedBytes = new AtomicLong();
+
+        private final LongAdder droppedCount = new LongAdder();
+
+        private volatile long maxRetainedBytes;
+
+        @SuppressWarnings("unchecked")
+        SharedPool(long maxRetainedBytes) {
+            this.maxRetainedBytes = maxRetainedBytes;
+            this.queues = new Queue[SIZE_CLASSES.length];
+            for (int i = 0; i < queues.length; i++) {
+                queues[i] = new ConcurrentLinkedQueue<>();
+            }
+        }
+
+        T poll(int index) {
+            T buffer = queues[index].poll();
+            if (Objects.nonNull(buffer)) {
+                retainedBytes.addAndGet(-SIZE_CLASSES[index]);
+            }
+            return buffer;
+        }
+
+        void offer(int index, T buffer) {
+            int size = SIZE_CLASSES[index];
+            if (retainedBytes.addAndGet(size) > maxRetainedBytes) {
+                retainedBytes.addAndGet(-size);
+                droppedCount.increment();
+                return;
+            }
+            queues[index].offer(buffer);
+        }
+
+    }
+
+}
@@ -1,27 +1,34 @@
 package com.wuaro.pan.core.utils;
 
 import cn.hutool.core.date.DateUtil;
+import com.google.common.hash.Hashing;
 import com.wuaro.pan.core.constants.RPanConstants;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.activation.MimetypesFileTypeMap;
 import java.io.*;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * 公用的文件工具类
  */
 public class FileUtils {
 
+    /**
+     * 按哈希值打散的子目录名称的格式
+     */
+    private static final String FAN_OUT_FOLDER_FORMAT = "%02x";
+
     /**
      * 获取文件的后缀
      *
@@ -121,8 +128,32 @@ public class FileUtils {
     }
 
     /**
-     * 将文件的输入流写入到文件中(文件上传的最核心方法，使用零拷贝)
-     * 使用底层的sendfile零拷贝来提高传输效率
+     * 生成按哈希值打散的文件存储路径
+     *
+     * 生成规则：基础路径 + 哈希值的第一个字节 + 哈希值的第二个字节 + 随机的文件名称
+     * 两级子目录一共 256 * 256 个，文件均匀分布，单个目录下的文件数量不会随时间一直增长
+     *
+     * @param basePath
+     * @param filename
+     * @return
+     */
+    public static String generateHashFanOutStoreFileRealPath(String basePath, String filename) {
+        String uuid = UUIDUtil.getUUID();
+        int hash = Hashing.murmur3_32().hashString(uuid, StandardCharsets.UTF_8).asInt();
+        return new StringBuffer(basePath)
+                .append(File.separator)
+                .append(String.format(FAN_OUT_FOLDER_FORMAT, (hash >>> 24) & 0xff))
+                .append(File.separator)
+                .append(String.format(FAN_OUT_FOLDER_FORMAT, (hash >>> 16) & 0xff))
+                .append(File.separator)
+                .append(uuid)
+                .append(getFileSuffix(filename))
+                .toString();
+    }
+
+    /**
+     * 将文件的输入流写入到文件中(文件上传的最核心方法)
+     * 输入流不是文件通道，无法零拷贝，使用缓冲区池中的缓冲区按块写入文件通道
      *
      * @param inputStream
      * @param targetFile
@@ -131,36 +162,71 @@ public class FileUtils {
     /*
     执行逻辑：
         1. 创建文件
-        2. 使用 RandomAccessFile 类打开目标文件以进行读写操作
-            RandomAccessFile 允许对文件进行读取和写入操作，并且可以从文件的任意位置开始
-        3. 获取与 RandomAccessFile 关联的 FileChannel
-            FileChannel 是 Java NIO（New I/O）中的一个类，用于对文件进行高效的 I/O 操作
-        4. 使用 Channels 工具类的 newChannel 方法将 InputStream 转换为 ReadableByteChannel
-            ReadableByteChannel 是 Java NIO 中的一个接口，用于从通道中读取字节
-        5. 使用 FileChannel 的 transferFrom 方法将输入通道中的数据传输到输出通道
-            这个方法尝试从源通道（inputChannel）读取 totalSize 字节的数据，并写入到目标通道（outputChannel）
-            第二个参数 0L 是输出通道中的偏移量，表示从文件的哪个位置开始写入
-            如果 totalSize 为 null 或未知，则可能需要使用其他逻辑来确定何时停止传输
-        6. 关闭输入通道
-            关闭通道会释放与之关联的资源
-        7. 关闭输出通道
-        8. 关闭 RandomAccessFile
-            注意：在关闭 FileChannel 后，通常不需要再显式关闭 RandomAccessFile，因为 FileChannel 的关闭会关闭它
-        9. 关闭输入流
-            注意：这里的 inputStream.close() 是冗余的，因为 inputChannel 在关闭时已经关闭了其底层的流
-            但为了代码的完整性或明确性，有时开发者会显式关闭它
+        2. 使用 RandomAccessFile 类打开目标文件以进行读写操作，并获取与之关联的 FileChannel
+        3. 根据文件总大小从缓冲区池中获取合适规格的堆内缓冲区和堆外缓冲区
+        4. 循环从输入流读取数据到堆内缓冲区，拷贝到堆外缓冲区后按位置写入 FileChannel，最多写入 totalSize 个字节
+            totalSize 为空时一直写到输入流结束
+        5. 归还缓冲区，关闭输入流、FileChannel 和 RandomAccessFile
      */
     public static void writeStream2File(InputStream inputStream, File targetFile, Long totalSize) throws IOException {
         createFile(targetFile);
 
-        RandomAccessFile randomAccessFile = new RandomAccessFile(targetFile, "rw");
-        FileChannel outputChannel = randomAccessFile.getChannel();
-        ReadableByteChannel inputChannel = Channels.newChannel(inputStream);
-        outputChannel.transferFrom(inputChannel, 0L, totalSize);
-        inputChannel.close();
-        outputChannel.close();
-        randomAccessFile.close();
-        inputStream.close();
+        try (InputStream in = inputStream;
+             RandomAccessFile randomAccessFile = new RandomAccessFile(targetFile, "rw");
+             FileChannel outputChannel = randomAccessFile.getChannel()) {
+            copyStream2Channel(in, outputChannel, RPanConstants.ZERO_LONG, Objects.isNull(totalSize) ? Long.MAX_VALUE : totalSize);
+        }
+    }
+
+    /**
+     * 将文件的输入流写入到目标文件中，读取输入流和写入文件分别在调用线程和写入线程中同时进行
+     * 写入线程池没有空闲线程时不排队，退化为 writeStream2File 的边读边写
+     *
+     * @param inputStream
+     * @param targetFile
+     * @param totalSize     文件的总大小，为空时一直写到输入流结束
+     * @param writeExecutor 执行写入的线程池，需要使用直接拒绝的策略
+     * @param bufferCount   读取线程和写入线程之间轮转的缓冲区数量
+     * @throws IOException
+     */
+    public static void writeStream2FilePipelined(InputStream inputStream, File targetFile, Long totalSize, Executor writeExecutor, int bufferCount) throws IOException {
+        createFile(targetFile);
+
+        long length = Objects.isNull(totalSize) ? Long.MAX_VALUE : totalSize;
+        try (InputStream in = inputStream;
+             RandomAccessFile randomAccessFile = new RandomAccessFile(targetFile, "rw");
+             FileChannel outputChannel = randomAccessFile.getChannel()) {
+            try {
+                PipelinedFileWriter.write(in, outputChannel, RPanConstants.ZERO_LONG, length, writeExecutor, bufferCount);
+            } catch (RejectedExecutionException e) {
+                copyStream2Channel(in, outputChannel, RPanConstants.ZERO_LONG, length);
+            }
+        }
+    }
+
+    /**
+     * 将文件的输入流写入到目标文件的指定偏移量处
+     * 目标文件不存在时会被创建，并按照总大小扩展为稀疏文件
+     * 多个线程可以同时向同一个目标文件的不同区间写入
+     *
+     * @param inputStream
+     * @param targetFile
+     * @param position    写入的起始偏移量
+     * @param length      需要写入的字节数
+     * @param totalSize   目标文件的总大小，可以为空
+     * @return 实际写入的字节数
+     * @throws IOException
+     */
+    public static long writeStream2FileAtPosition(InputStream inputStream, File targetFile, long position, long length, Long totalSize) throws IOException {
+        createFile(targetFile);
+        try (InputStream in = inputStream;
+             RandomAccessFile randomAccessFile = new RandomAccessFile(targetFile, "rw");
+             FileChannel outputChannel = randomAccessFile.getChannel()) {
+            if (Objects.nonNull(totalSize) && randomAccessFile.length() < totalSize) {
+                randomAccessFile.setLength(totalSize);
+            }
+            return copyStream2Channel(in, outputChannel, position, length);
+        }
     }
 
     /**
@@ -251,7 +317,45 @@ public class FileUtils {
     }
 
     /**
-     * 利用零拷贝技术读取文件内容并写入到文件的输出流中
+     * 利用零拷贝技术按照顺序合并多个文件到目标文件中
+     * <p>
+     * 1、整个合并过程只打开一次目标文件的FileChannel
+     * 2、如果传入了总大小，先把目标文件扩展到该大小，避免每次追加都修改文件的元数据
+     * 3、每个源文件通过transferTo直接在内核态拷贝到目标文件，数据不经过JVM的堆内存
+     * 4、最终按照实际写入的字节数截断目标文件，保证总大小传错时不会残留多余的字节
+     *
+     * @param target
+     * @param sources
+     * @param totalSize 目标文件的总大小，可以为空
+     * @throws IOException
+     */
+    public static void mergeFiles(File target, List<File> sources, Long totalSize) throws IOException {
+        createFile(target);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(target, "rw");
+             FileChannel targetChannel = randomAccessFile.getChannel()) {
+            if (Objects.nonNull(totalSize) && totalSize > RPanConstants.ZERO_LONG) {
+                randomAccessFile.setLength(totalSize);
+            }
+            for (File source : sources) {
+                try (FileChannel sourceChannel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+                    long sourceSize = sourceChannel.size();
+                    long sourcePosition = RPanConstants.ZERO_LONG;
+                    while (sourcePosition < sourceSize) {
+                        long transferred = sourceChannel.transferTo(sourcePosition, sourceSize - sourcePosition, targetChannel);
+                        if (transferred <= RPanConstants.ZERO_LONG) {
+                            break;
+                        }
+                        sourcePosition += transferred;
+                    }
+                }
+            }
+            targetChannel.truncate(targetChannel.position());
+        }
+    }
+
+    /**
+     * 读取文件内容并写入到文件的输出流中
+     * 输出流不是文件或者Socket通道，无法零拷贝，使用缓冲区池中的缓冲区按块拷贝
      *
      * @param fileInputStream
      * @param outputStream
@@ -259,14 +363,78 @@ public class FileUtils {
      * @throws IOException
      */
     public static void writeFile2OutputStream(FileInputStream fileInputStream, OutputStream outputStream, long length) throws IOException {
-        FileChannel fileChannel = fileInputStream.getChannel();
-        WritableByteChannel writableByteChannel = Channels.newChannel(outputStream);
-        fileChannel.transferTo(RPanConstants.ZERO_LONG, length, writableByteChannel);
+        try (FileInputStream in = fileInputStream;
+             OutputStream out = outputStream;
+             FileChannel fileChannel = in.getChannel()) {
+            copyChannel2Stream(fileChannel, RPanConstants.ZERO_LONG, length, out);
+            out.flush();
+        }
+    }
+
+    /**
+     * 读取文件指定区间的内容并写入到输出流中
+     * 使用FileChannel的位置读取，从指定偏移量开始按块拷贝，缓冲区从缓冲区池中获取
+     * 该方法不会关闭输出流，便于多区间读取时连续写入同一个输出流
+     *
+     * @param file
+     * @param outputStream
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    public static void writeFileRange2OutputStream(File file, OutputStream outputStream, long offset, long length) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            copyChannel2Stream(fileChannel, offset, length, outputStream);
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * 将输入流写入到已经打开的文件通道的指定位置，最多写入length个字节
+     * 写入完成后只关闭输入流，不关闭文件通道，便于多次写入同一个文件通道
+     *
+     * @param inputStream
+     * @param fileChannel
+     * @param position
+     * @param length
+     * @return 实际写入的字节数
+     * @throws IOException
+     */
+    public static long writeStream2Channel(InputStream inputStream, FileChannel fileChannel, long position, long length) throws IOException {
+        try (InputStream in = inputStream) {
+            return copyStream2Channel(in, fileChannel, position, length);
+        }
+    }
+
+    /**
+     * 读取已经打开的文件通道指定区间的内容并写入到输出流中
+     * 该方法不会关闭文件通道和输出流
+     *
+     * @param fileChannel
+     * @param outputStream
+     * @param offset
+     * @param length
+     * @return 实际读取的字节数
+     * @throws IOException
+     */
+    public static long writeChannelRange2OutputStream(FileChannel fileChannel, OutputStream outputStream, long offset, long length) throws IOException {
+        long read = copyChannel2Stream(fileChannel, offset, length, outputStream);
         outputStream.flush();
-        fileInputStream.close();
-        outputStream.close();
-        fileChannel.close();
-        writableByteChannel.close();
+        return read;
+    }
+
+    /**
+     * 普通的流对流数据传输，传输完成后只关闭输入流，不关闭输出流
+     *
+     * @param inputStream
+     * @param outputStream
+     * @throws IOException
+     */
+    public static void writeStream2StreamWithoutCloseOutput(InputStream inputStream, OutputStream outputStream) throws IOException {
+        try (InputStream in = inputStream) {
+            copyStream2Stream(in, outputStream);
+            outputStream.flush();
+        }
     }
 
     /**
@@ -276,14 +444,11 @@ public class FileUtils {
      * @param outputStream
      */
     public static void writeStream2StreamNormal(InputStream inputStream, OutputStream outputStream) throws IOException {
-        byte[] buffer = new byte[1024];
-        int len;
-        while ((len = inputStream.read(buffer)) != RPanConstants.MINUS_ONE_INT) {
-            outputStream.write(buffer, RPanConstants.ZERO_INT, len);
+        try (InputStream in = inputStream;
+             OutputStream out = outputStream) {
+            copyStream2Stream(in, out);
+            out.flush();
         }
-        outputStream.flush();
-        inputStream.close();
-        outputStream.close();
     }
 
     /**
@@ -308,4 +473,105 @@ public class FileUtils {
         return contentType;
     }
 
+    /*****************************************private*****************************************/
+
+    /**
+     * 流对流拷贝，缓冲区从缓冲区池中获取
+     * 数据量未知，先使用最小规格的缓冲区，连续读满缓冲区时换成更大规格的缓冲区
+     *
+     * @param inputStream
+     * @param outputStream
+     * @return 拷贝的字节数
+     * @throws IOException
+     */
+    private static long copyStream2Stream(InputStream inputStream, OutputStream outputStream) throws IOException {
+        byte[] buffer = BufferPool.acquireHeap(RPanConstants.ZERO_LONG);
+        try {
+            long copied = RPanConstants.ZERO_LONG;
+            int len;
+            while ((len = inputStream.read(buffer)) != RPanConstants.MINUS_ONE_INT) {
+                outputStream.write(buffer, RPanConstants.ZERO_INT, len);
+                copied += len;
+                if (len == buffer.length && buffer.length < BufferPool.SIZE_1M) {
+                    byte[] larger = BufferPool.acquireHeap(buffer.length + RPanConstants.ONE_INT);
+                    BufferPool.release(buffer);
+                    buffer = larger;
+                }
+            }
+            return copied;
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * 从输入流读取数据，按位置写入文件通道，最多写入length个字节
+     * 堆内缓冲区用于读取输入流，堆外缓冲区用于写入文件通道，都从缓冲区池中获取
+     *
+     * @param inputStream
+     * @param outputChannel
+     * @param position
+     * @param length
+     * @return 实际写入的字节数
+     * @throws IOException
+     */
+    private static long copyStream2Channel(InputStream inputStream, FileChannel outputChannel, long position, long length) throws IOException {
+        byte[] heapBuffer = BufferPool.acquireHeap(length);
+        ByteBuffer directBuffer = BufferPool.acquireDirect(length);
+        try {
+            long written = RPanConstants.ZERO_LONG;
+            while (written < length) {
+                int len = inputStream.read(heapBuffer, RPanConstants.ZERO_INT, (int) Math.min(heapBuffer.length, length - written));
+                if (len == RPanConstants.MINUS_ONE_INT) {
+                    break;
+                }
+                directBuffer.clear();
+                directBuffer.put(heapBuffer, RPanConstants.ZERO_INT, len);
+                directBuffer.flip();
+                while (directBuffer.hasRemaining()) {
+                    written += outputChannel.write(directBuffer, position + written);
+                }
+            }
+            return written;
+        } finally {
+            BufferPool.release(heapBuffer);
+            BufferPool.release(directBuffer);
+        }
+    }
+
+    /**
+     * 从文件通道的指定位置读取length个字节写入输出流
+     * 堆外缓冲区用于读取文件通道，堆内缓冲区用于写入输出流，都从缓冲区池中获取
+     *
+     * @param inputChannel
+     * @param position
+     * @param length
+     * @param outputStream
+     * @return 实际读取的字节数
+     * @throws IOException
+     */
+    private static long copyChannel2Stream(FileChannel inputChannel, long position, long length, OutputStream outputStream) throws IOException {
+        ByteBuffer directBuffer = BufferPool.acquireDirect(length);
+        byte[] heapBuffer = BufferPool.acquireHeap(length);
+        try {
+            long read = RPanConstants.ZERO_LONG;
+            while (read < length) {
+                directBuffer.clear();
+                directBuffer.limit((int) Math.min(directBuffer.capacity(), length - read));
+                int len = inputChannel.read(directBuffer, position + read);
+                if (len == RPanConstants.MINUS_ONE_INT) {
+                    break;
+                }
+                directBuffer.flip();
+                directBuffer.get(heapBuffer, RPanConstants.ZERO_INT, len);
+                outputStream.write(heapBuffer, RPanConstants.ZERO_INT, len);
+                read += len;
+            }
+            return read;
+        } finally {
+            BufferPool.release(directBuffer);
+            BufferPool.release(heapBuffer);
+        }
+    }
+
 }
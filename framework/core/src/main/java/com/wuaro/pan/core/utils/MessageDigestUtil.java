@@ -1,11 +1,14 @@
 package com.wuaro.pan.core.utils;
 
 import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.HexUtil;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * MessageDigest加密工具类
@@ -100,4 +103,28 @@ public class MessageDigestUtil {
         return encryptString(originContent, SHA256_STR);
     }
 
+    /**
+     * 创建md5的消息摘要对象
+     * 配合 DigestInputStream 使用，在读取流的同时计算摘要
+     *
+     * @return
+     */
+    public static MessageDigest newMd5Digest() {
+        try {
+            return MessageDigest.getInstance(MD5_STR);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RPanFrameworkException("不支持的摘要算法：" + MD5_STR);
+        }
+    }
+
+    /**
+     * 结束摘要计算，获取小写的十六进制摘要串
+     *
+     * @param messageDigest
+     * @return
+     */
+    public static String digestHex(MessageDigest messageDigest) {
+        return HexUtil.encodeHexStr(messageDigest.digest());
+    }
+
 }
@@ -0,0 +1,256 @@
+package com.wuaro.pan.core.utils;
+
+import com.wuaro.pan.core.constants.RPanConstants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+import java.util.concurrent.*;
+
+/**
+ * 读写分离的流水线文件写入
+ * <p>
+ * 1、调用线程只负责从输入流读取数据，填满一个堆内缓冲区之后放入待写入队列，然后接着读取下一个缓冲区
+ * 2、写入线程从待写入队列中取出缓冲区，经过堆外缓冲区按位置写入文件通道，写完之后把缓冲区放回空闲队列
+ * 3、缓冲区的数量固定，空闲队列为空时读取线程阻塞等待，待写入的数据量不会超过所有缓冲区的大小
+ * <p>
+ * 网络读取和磁盘写入同时进行，单个文件的写入速度接近两者中较慢的一方，而不是两者耗时相加
+ */
+public class PipelinedFileWriter {
+
+    /**
+     * 读取线程等待空闲缓冲区时，每隔多久检查一次写入线程是否已经异常退出，单位毫秒
+     */
+    private static final long POLL_INTERVAL_MILLIS = 100L;
+
+    /**
+     * 输入流结束的标记
+     */
+    private static final Chunk END = new Chunk(null, RPanConstants.ZERO_INT);
+
+    private final Executor writeExecutor;
+
+    private final int bufferCount;
+
+    private final BlockingQueue<byte[]> freeBuffers;
+
+    private final BlockingQueue<Chunk> filledChunks;
+
+    private volatile boolean writeFailed = false;
+
+    private PipelinedFileWriter(Executor writeExecutor, int bufferCount) {
+        this.writeExecutor = writeExecutor;
+        this.bufferCount = bufferCount;
+        this.freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        this.filledChunks = new ArrayBlockingQueue<>(bufferCount + RPanConstants.ONE_INT);
+    }
+
+    /**
+     * 从输入流读取数据，按位置写入文件通道，最多写入length个字节
+     * 该方法不会关闭输入流和文件通道
+     *
+     * @param inputStream
+     * @param outputChannel
+     * @param position
+     * @param length
+     * @param writeExecutor 执行写入的线程池，不能使用调用线程执行的拒绝策略
+     * @param bufferCount   缓冲区的数量，至少为2
+     * @return 实际写入的字节数
+     * @throws IOException
+     * @throws RejectedExecutionException 写入线程池拒绝执行时抛出，此时还没有读取输入流，调用方可以改为同步写入
+     */
+    public static long write(InputStream inputStream, FileChannel outputChannel, long position, long length, Executor writeExecutor, int bufferCount) throws IOException {
+        if (bufferCount < 2) {
+            throw new IllegalArgumentException("the buffer count must be at least 2");
+        }
+        return new PipelinedFileWriter(writeExecutor, bufferCount).doWrite(inputStream, outputChannel, position, length);
+    }
+
+    /*****************************************private*****************************************/
+
+    private long doWrite(InputStream inputStream, FileChannel outputChannel, long position, long length) throws IOException {
+        for (int i = 0; i < bufferCount; i++) {
+            freeBuffers.offer(BufferPool.acquireHeap(length));
+        }
+        CompletableFuture<Long> writer;
+        try {
+            writer = CompletableFuture.supplyAsync(() -> writeLoop(outputChannel, position, length), writeExecutor);
+        } catch (RejectedExecutionException e) {
+            releaseBuffers();
+            throw e;
+        }
+
+        Exception readException = null;
+        try {
+            readLoop(inputStream, length, writer);
+        } catch (IOException | RuntimeException e) {
+            readException = e;
+        } finally {
+            filledChunks.offer(END);
+        }
+
+        long written;
+        try {
+            written = awaitWriter(writer);
+        } finally {
+            releaseBuffers();
+        }
+        if (readException instanceof IOException) {
+            throw (IOException) readException;
+        }
+        if (Objects.nonNull(readException)) {
+            throw (RuntimeException) readException;
+        }
+        return written;
+    }
+
+    /**
+     * 读取线程：每次尽量填满一个缓冲区再交给写入线程，减少写入的系统调用次数
+     *
+     * @param inputStream
+     * @param length
+     * @param writer
+     * @throws IOException
+     */
+    private void readLoop(InputStream inputStream, long length, CompletableFuture<Long> writer) throws IOException {
+        long read = RPanConstants.ZERO_LONG;
+        boolean eof = false;
+        while (!eof && read < length && !writeFailed) {
+            byte[] buffer = takeFreeBuffer(writer);
+            int limit = (int) Math.min(buffer.length, length - read);
+            int filled = RPanConstants.ZERO_INT;
+            while (filled < limit) {
+                int len = inputStream.read(buffer, filled, limit - filled);
+                if (len == RPanConstants.MINUS_ONE_INT) {
+                    eof = true;
+                    break;
+                }
+                filled += len;
+            }
+            if (filled == RPanConstants.ZERO_INT) {
+                freeBuffers.offer(buffer);
+                break;
+            }
+            filledChunks.offer(new Chunk(buffer, filled));
+            read += filled;
+        }
+    }
+
+    private byte[] takeFreeBuffer(CompletableFuture<Long> writer) throws IOException {
+        try {
+            byte[] buffer;
+            while (Objects.isNull(buffer = freeBuffers.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS))) {
+                if (writer.isDone()) {
+                    throw new IOException("the writer thread exited unexpectedly");
+                }
+            }
+            return buffer;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a free buffer");
+        }
+    }
+
+    /**
+     * 写入线程：依次写入待写入队列中的缓冲区，直到遇到结束标记
+     * 写入失败之后不再写入，但是继续回收缓冲区，保证读取线程不会一直等待空闲缓冲区
+     *
+     * @param outputChannel
+     * @param position
+     * @param length
+     * @return 实际写入的字节数
+     */
+    private long writeLoop(FileChannel outputChannel, long position, long length) {
+        ByteBuffer directBuffer = BufferPool.acquireDirect(length);
+        long written = RPanConstants.ZERO_LONG;
+        IOException writeException = null;
+        try {
+            while (true) {
+                Chunk chunk = filledChunks.take();
+                if (chunk == END) {
+                    break;
+                }
+                if (Objects.isNull(writeException)) {
+                    try {
+                        written += writeChunk(chunk, outputChannel, position + written, directBuffer);
+                    } catch (IOException e) {
+                        writeException = e;
+                        writeFailed = true;
+                    }
+                }
+                freeBuffers.offer(chunk.buffer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writeFailed = true;
+            throw new UncheckedIOException(new InterruptedIOException("interrupted while writing the file"));
+        } finally {
+            BufferPool.release(directBuffer);
+        }
+        if (Objects.nonNull(writeException)) {
+            throw new UncheckedIOException(writeException);
+        }
+        return written;
+    }
+
+    private int writeChunk(Chunk chunk, FileChannel outputChannel, long position, ByteBuffer directBuffer) throws IOException {
+        int offset = RPanConstants.ZERO_INT;
+        while (offset < chunk.length) {
+            int len = Math.min(directBuffer.capacity(), chunk.length - offset);
+            directBuffer.clear();
+            directBuffer.put(chunk.buffer, offset, len);
+            directBuffer.flip();
+            while (directBuffer.hasRemaining()) {
+                outputChannel.write(directBuffer, position + offset + directBuffer.position());
+            }
+            offset += len;
+        }
+        return offset;
+    }
+
+    private long awaitWriter(CompletableFuture<Long> writer) throws IOException {
+        try {
+            return writer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the writer thread");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("write the file failed", cause);
+        }
+    }
+
+    /**
+     * 写入线程正常结束时所有缓冲区都已经回到空闲队列，异常退出时没有回来的缓冲区交给GC回收
+     */
+    private void releaseBuffers() {
+        byte[] buffer;
+        while (Objects.nonNull(buffer = freeBuffers.poll())) {
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * 一个填充了数据的缓冲区
+     */
+    private static class Chunk {
+
+        private final byte[] buffer;
+
+        private final int length;
+
+        Chunk(byte[] buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.wuaro.pan.core.utils;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 限制读取速率的输入流
+ * 每读取一批字节就从限流器获取同样数量的许可，多个流共用一个限流器时限制的是它们的总速率
+ */
+public class ThrottledInputStream extends FilterInputStream {
+
+    private final RateLimiter rateLimiter;
+
+    /**
+     * @param in
+     * @param rateLimiter 每秒允许读取的字节数
+     */
+    public ThrottledInputStream(InputStream in, RateLimiter rateLimiter) {
+        super(in);
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            rateLimiter.acquire();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int readLength = super.read(b, off, len);
+        if (readLength > 0) {
+            rateLimiter.acquire(readLength);
+        }
+        return readLength;
+    }
+
+}
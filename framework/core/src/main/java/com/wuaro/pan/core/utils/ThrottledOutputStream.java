@@ -0,0 +1,48 @@
+package com.wuaro.pan.core.utils;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 限制写入速率的输出流
+ * 每写入一批字节之前先从限流器获取同样数量的许可，多个流共用一个限流器时限制的是它们的总速率
+ */
+public class ThrottledOutputStream extends FilterOutputStream {
+
+    private final RateLimiter rateLimiter;
+
+    /**
+     * @param out
+     * @param rateLimiter 每秒允许写入的字节数
+     */
+    public ThrottledOutputStream(OutputStream out, RateLimiter rateLimiter) {
+        super(out);
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        rateLimiter.acquire();
+        out.write(b);
+    }
+
+    /**
+     * FilterOutputStream默认逐个字节写入，这里直接整块写入被包装的输出流
+     *
+     * @param b
+     * @param off
+     * @param len
+     * @throws IOException
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > 0) {
+            rateLimiter.acquire(len);
+        }
+        out.write(b, off, len);
+    }
+
+}
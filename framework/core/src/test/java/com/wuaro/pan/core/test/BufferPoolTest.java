@@ -0,0 +1,193 @@
+package com.wuaro.pan.core.test;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.core.utils.BufferPool;
+import com.wuaro.pan.core.utils.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * IO缓冲区池的测试
+ * <p>
+ * 对比原有的每次拷贝分配1KB缓冲区的方式与缓冲区池方式的耗时以及堆内存分配量
+ * 基准测试默认跳过，需要添加启动参数 -Drpan.benchmark=true 才会执行
+ */
+public class BufferPoolTest {
+
+    private static final String BENCHMARK_SWITCH = "rpan.benchmark";
+
+    private File workDir;
+
+    @Before
+    public void before() throws IOException {
+        workDir = Files.createTempDirectory("rpan-buffer-pool").toFile();
+    }
+
+    @After
+    public void after() throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+    }
+
+    /**
+     * 测试缓冲区归还之后再次获取命中池中的缓冲区
+     */
+    @Test
+    public void testReleasedBufferIsReused() {
+        byte[] heapBuffer = BufferPool.acquireHeap(100 * 1024);
+        Assert.assertEquals(BufferPool.SIZE_256K, heapBuffer.length);
+        BufferPool.release(heapBuffer);
+        long hitCount = BufferPool.getHitCount();
+        long retainedHeapBytes = BufferPool.getRetainedHeapBytes();
+        byte[] reusedHeapBuffer = BufferPool.acquireHeap(200 * 1024);
+        Assert.assertEquals(BufferPool.SIZE_256K, reusedHeapBuffer.length);
+        Assert.assertEquals(hitCount + 1, BufferPool.getHitCount());
+        Assert.assertEquals(retainedHeapBytes - BufferPool.SIZE_256K, BufferPool.getRetainedHeapBytes());
+        BufferPool.release(reusedHeapBuffer);
+
+        ByteBuffer directBuffer = BufferPool.acquireDirect(-1);
+        Assert.assertEquals(BufferPool.SIZE_64K, directBuffer.capacity());
+        directBuffer.put((byte) 1);
+        BufferPool.release(directBuffer);
+        hitCount = BufferPool.getHitCount();
+        ByteBuffer reused = BufferPool.acquireDirect(1);
+        Assert.assertEquals(hitCount + 1, BufferPool.getHitCount());
+        Assert.assertEquals(0, reused.position());
+        Assert.assertEquals(reused.capacity(), reused.limit());
+        BufferPool.release(reused);
+    }
+
+    /**
+     * 测试池中保留的字节数不超过全局上限，超过上限归还的缓冲区被丢弃
+     */
+    @Test
+    public void testRetainedBytesAreBounded() {
+        BufferPool.setMaxRetainedBytes(2L * BufferPool.SIZE_1M, BufferPool.SIZE_64K);
+        try {
+            List<byte[]> heapBuffers = Lists.newArrayList();
+            List<ByteBuffer> directBuffers = Lists.newArrayList();
+            for (int i = 0; i < 4; i++) {
+                heapBuffers.add(BufferPool.acquireHeap(BufferPool.SIZE_1M));
+                directBuffers.add(BufferPool.acquireDirect(BufferPool.SIZE_64K));
+            }
+            long droppedCount = BufferPool.getDroppedCount();
+            long retainedHeapBytes = BufferPool.getRetainedHeapBytes();
+            long retainedDirectBytes = BufferPool.getRetainedDirectBytes();
+            heapBuffers.forEach(BufferPool::release);
+            directBuffers.forEach(BufferPool::release);
+
+            Assert.assertTrue(BufferPool.getRetainedHeapBytes() <= Math.max(retainedHeapBytes, 2L * BufferPool.SIZE_1M));
+            Assert.assertTrue(BufferPool.getRetainedDirectBytes() <= Math.max(retainedDirectBytes, BufferPool.SIZE_64K));
+            Assert.assertTrue(BufferPool.getDroppedCount() >= droppedCount + 5);
+        } finally {
+            BufferPool.setMaxRetainedBytes(BufferPool.DEFAULT_MAX_RETAINED_HEAP_BYTES, BufferPool.DEFAULT_MAX_RETAINED_DIRECT_BYTES);
+        }
+    }
+
+    /**
+     * 测试不属于任何规格的缓冲区归还时被丢弃
+     */
+    @Test
+    public void testReleaseUnknownSizeIsIgnored() {
+        long missCount = BufferPool.getMissCount();
+        BufferPool.release(new byte[1000]);
+        byte[] buffer = BufferPool.acquireHeap(1000);
+        Assert.assertEquals(BufferPool.SIZE_64K, buffer.length);
+        BufferPool.release(buffer);
+        Assert.assertTrue(BufferPool.getMissCount() >= missCount);
+    }
+
+    /**
+     * 测试使用缓冲区池的各个拷贝方法内容正确
+     */
+    @Test
+    public void testFileUtilsCopyKeepContent() throws IOException {
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(7).nextBytes(content);
+
+        ByteArrayOutputStream streamOutput = new ByteArrayOutputStream();
+        FileUtils.writeStream2StreamNormal(new ByteArrayInputStream(content), streamOutput);
+        Assert.assertArrayEquals(content, streamOutput.toByteArray());
+
+        File target = new File(workDir, "target");
+        FileUtils.writeStream2File(new ByteArrayInputStream(content), target, (long) content.length);
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+
+        ByteArrayOutputStream fileOutput = new ByteArrayOutputStream();
+        FileUtils.writeFile2OutputStream(new FileInputStream(target), fileOutput, target.length());
+        Assert.assertArrayEquals(content, fileOutput.toByteArray());
+
+        ByteArrayOutputStream rangeOutput = new ByteArrayOutputStream();
+        FileUtils.writeFileRange2OutputStream(target, rangeOutput, 1000L, 2 * 1024 * 1024);
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 1000, 1000 + 2 * 1024 * 1024), rangeOutput.toByteArray());
+    }
+
+    /**
+     * 2000 次 1MB 流对流拷贝的基准测试
+     */
+    @Test
+    public void benchmarkStreamCopy() throws IOException {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_SWITCH));
+
+        byte[] content = new byte[1024 * 1024];
+        int times = 2000;
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        long legacyAllocated = currentThreadAllocatedBytes();
+        long legacyStart = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            InputStream inputStream = new ByteArrayInputStream(content);
+            byte[] buffer = new byte[1024];
+            int len;
+            while ((len = inputStream.read(buffer)) != -1) {
+                sink.write(buffer, 0, len);
+            }
+        }
+        long legacyCost = System.nanoTime() - legacyStart;
+        legacyAllocated = currentThreadAllocatedBytes() - legacyAllocated;
+
+        long pooledAllocated = currentThreadAllocatedBytes();
+        long pooledStart = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            FileUtils.writeStream2StreamWithoutCloseOutput(new ByteArrayInputStream(content), sink);
+        }
+        long pooledCost = System.nanoTime() - pooledStart;
+        pooledAllocated = currentThreadAllocatedBytes() - pooledAllocated;
+
+        long totalMB = (long) times * content.length / 1024 / 1024;
+        System.out.println(String.format("1KB buffer copy: %d ms, %d MB/s, heap allocated: %d KB", legacyCost / 1000000, totalMB * 1000000000L / legacyCost, legacyAllocated / 1024));
+        System.out.println(String.format("pooled buffer copy: %d ms, %d MB/s, heap allocated: %d KB", pooledCost / 1000000, totalMB * 1000000000L / pooledCost, pooledAllocated / 1024));
+        System.out.println(String.format("buffer pool hit: %d, miss: %d", BufferPool.getHitCount(), BufferPool.getMissCount()));
+    }
+
+    /*****************************************private*****************************************/
+
+    /**
+     * 获取当前线程累计分配的堆内存字节数
+     *
+     * @return
+     */
+    private long currentThreadAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.wuaro.pan.core.test;
+
+import com.wuaro.pan.core.utils.FileUtils;
+import com.wuaro.pan.core.utils.PipelinedFileWriter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.*;
+
+/**
+ * 流水线文件写入的测试
+ * <p>
+ * 基准测试默认跳过，需要添加启动参数 -Drpan.benchmark=true 才会执行，
+ * 通过 -Drpan.benchmark.dir=/data/rpan 指定写入的目录，不指定时使用临时目录
+ */
+public class PipelinedFileWriterTest {
+
+    private static final String BENCHMARK_SWITCH = "rpan.benchmark";
+
+    private static final String BENCHMARK_DIR = "rpan.benchmark.dir";
+
+    private File workDir;
+
+    private ExecutorService writeExecutor;
+
+    @Before
+    public void before() throws IOException {
+        workDir = Files.createTempDirectory("rpan-pipelined-write").toFile();
+        writeExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void after() throws IOException {
+        writeExecutor.shutdownNow();
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+    }
+
+    /**
+     * 测试每次只返回少量数据的输入流，内容完整地写入文件，并且不超过指定的总大小
+     */
+    @Test
+    public void testWriteCompleteContent() throws IOException {
+        byte[] content = createContent(5 * 1024 * 1024 + 123, 1);
+        File target = new File(workDir, "known-size");
+        FileUtils.writeStream2FilePipelined(new TrickleInputStream(content, 7000, 0L), target, (long) content.length - 100, writeExecutor, 2);
+        Assert.assertArrayEquals(java.util.Arrays.copyOf(content, content.length - 100), Files.readAllBytes(target.toPath()));
+
+        File unknownSizeTarget = new File(workDir, "unknown-size");
+        FileUtils.writeStream2FilePipelined(new TrickleInputStream(content, 7000, 0L), unknownSizeTarget, null, writeExecutor, 4);
+        Assert.assertArrayEquals(content, Files.readAllBytes(unknownSizeTarget.toPath()));
+    }
+
+    /**
+     * 测试写入线程池拒绝时退化为边读边写
+     */
+    @Test
+    public void testFallbackWhenRejected() throws IOException {
+        ThreadPoolExecutor rejectingExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new SynchronousQueue<>());
+        CountDownLatch latch = new CountDownLatch(1);
+        rejectingExecutor.execute(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            byte[] content = createContent(300 * 1024, 2);
+            File target = new File(workDir, "fallback");
+            FileUtils.writeStream2FilePipelined(new ByteArrayInputStream(content), target, (long) content.length, rejectingExecutor, 2);
+            Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        } finally {
+            latch.countDown();
+            rejectingExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 测试写入失败时抛出异常，读取线程不会一直等待空闲缓冲区
+     */
+    @Test(timeout = 10000L)
+    public void testWriteFailurePropagates() throws IOException {
+        byte[] content = createContent(3 * 1024 * 1024, 3);
+        File target = new File(workDir, "closed");
+        Files.createFile(target.toPath());
+        FileChannel closedChannel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE);
+        closedChannel.close();
+        try {
+            PipelinedFileWriter.write(new ByteArrayInputStream(content), closedChannel, 0L, content.length, writeExecutor, 2);
+            Assert.fail("the write should fail");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getClass().getName(), e instanceof java.nio.channels.ClosedChannelException);
+        }
+    }
+
+    /**
+     * 读取输入流每 256KB 停顿 2ms 模拟网络，写入之后强制刷盘，对比边读边写与流水线写入 256MB 文件的耗时
+     */
+    @Test
+    public void benchmarkPipelinedWrite() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_SWITCH));
+
+        File dir = new File(System.getProperty(BENCHMARK_DIR, workDir.getAbsolutePath()));
+        byte[] content = createContent(256 * 1024 * 1024, 4);
+        for (int round = 0; round < 3; round++) {
+            File syncTarget = new File(dir, "sync-" + round);
+            long start = System.currentTimeMillis();
+            FileUtils.writeStream2File(new TrickleInputStream(content, 256 * 1024, 2L), syncTarget, (long) content.length);
+            force(syncTarget);
+            long syncCost = System.currentTimeMillis() - start;
+
+            File pipelinedTarget = new File(dir, "pipelined-" + round);
+            start = System.currentTimeMillis();
+            FileUtils.writeStream2FilePipelined(new TrickleInputStream(content, 256 * 1024, 2L), pipelinedTarget, (long) content.length, writeExecutor, 4);
+            force(pipelinedTarget);
+            long pipelinedCost = System.currentTimeMillis() - start;
+
+            System.out.println(String.format("round %d, sync: %d ms, pipelined: %d ms", round, syncCost, pipelinedCost));
+            Files.delete(syncTarget.toPath());
+            Files.delete(pipelinedTarget.toPath());
+        }
+    }
+
+    /*****************************************private*****************************************/
+
+    private byte[] createContent(int size, long seed) {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    private void force(File file) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            fileChannel.force(true);
+        }
+    }
+
+    /**
+     * 每次最多返回指定字节数的输入流，可以在每次读取之前停顿，模拟网络数据分批到达
+     */
+    private static class TrickleInputStream extends InputStream {
+
+        private final byte[] content;
+
+        private final int maxReadSize;
+
+        private final long pauseMillis;
+
+        private int position = 0;
+
+        TrickleInputStream(byte[] content, int maxReadSize, long pauseMillis) {
+            this.content = content;
+            this.maxReadSize = maxReadSize;
+            this.pauseMillis = pauseMillis;
+        }
+
+        @Override
+        public int read() {
+            return position < content.length ? content[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= content.length) {
+                return -1;
+            }
+            if (pauseMillis > 0L) {
+                try {
+                    Thread.sleep(pauseMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            int size = Math.min(Math.min(len, maxReadSize), content.length - position);
+            System.arraycopy(content, position, b, off, size);
+            position += size;
+            return size;
+        }
+
+    }
+
+}
@@ -32,6 +32,14 @@ public abstract class AbstractStorageEngine implements StorageEngine {
         return cacheManager.getCache(CacheConstants.R_PAN_CACHE_NAME);
     }
 
+    /**
+     * 获取存储引擎的名称
+     * 多个存储引擎同时存在时，文件的真实存储路径以该名称作为前缀，用来找到文件所在的存储引擎
+     *
+     * @return
+     */
+    public abstract String getEngineName();
+
     /**
      * 存储物理文件
      *
@@ -213,4 +221,41 @@ public abstract class AbstractStorageEngine implements StorageEngine {
         Assert.notNull(context.getOutputStream(), "文件的输出流不能为空");
     }
 
+    /**
+     * 读取文件指定区间的内容写入到输出流中
+     * <p>
+     * 1、参数校验
+     * 2、执行动作
+     *
+     * @param context
+     * @throws IOException
+     */
+    @Override
+    public void realFileRange(ReadFileRangeContext context) throws IOException {
+        checkReadFileRangeContext(context);
+        doReadFileRange(context);
+    }
+
+    /**
+     * 读取文件指定区间的内容并写入到输出流中
+     * 下沉到子类去实现
+     *
+     * @param context
+     */
+    protected abstract void doReadFileRange(ReadFileRangeContext context) throws IOException;
+
+    /**
+     * 文件区间读取参数校验
+     *
+     * @param context
+     */
+    private void checkReadFileRangeContext(ReadFileRangeContext context) {
+        Assert.notBlank(context.getRealPath(), "文件真实存储路径不能为空");
+        Assert.notNull(context.getOutputStream(), "文件的输出流不能为空");
+        Assert.notNull(context.getOffset(), "文件读取的起始偏移量不能为空");
+        Assert.notNull(context.getLength(), "文件读取的长度不能为空");
+        Assert.isTrue(context.getOffset() >= 0L, "文件读取的起始偏移量不能小于0");
+        Assert.isTrue(context.getLength() > 0L, "文件读取的长度必须大于0");
+    }
+
 }
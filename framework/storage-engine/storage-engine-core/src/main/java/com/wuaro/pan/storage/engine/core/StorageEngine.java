@@ -47,4 +47,12 @@ public interface StorageEngine {
      * @throws IOException
      */
     void realFile(ReadFileContext context) throws IOException;
+
+    /**
+     * 读取文件指定区间的内容写入到输出流中
+     *
+     * @param context
+     * @throws IOException
+     */
+    void realFileRange(ReadFileRangeContext context) throws IOException;
 }
@@ -0,0 +1,67 @@
+package com.wuaro.pan.storage.engine.core.async;
+
+import com.wuaro.pan.storage.engine.core.context.*;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步的文件存储引擎顶级接口
+ * <p>
+ * 与StorageEngine的方法一一对应，调用方线程只负责提交，阻塞的IO在专用的IO线程池中执行，
+ * 执行结果（回填到上下文中的真实存储路径等）在返回的CompletableFuture完成之后才可以读取
+ * <p>
+ * IO线程池满了之后返回的CompletableFuture直接以RejectedExecutionException异常完成
+ * <p>
+ * 返回的CompletableFuture被cancel(true)时取消对应的IO任务：还在排队的不再执行，正在执行的中断IO线程
+ */
+public interface AsyncStorageEngine {
+
+    /**
+     * 异步存储物理文件
+     *
+     * @param context
+     * @return
+     */
+    CompletableFuture<Void> store(StoreFileContext context);
+
+    /**
+     * 异步删除物理文件
+     *
+     * @param context
+     * @return
+     */
+    CompletableFuture<Void> delete(DeleteFileContext context);
+
+    /**
+     * 异步存储物理文件的分片
+     *
+     * @param context
+     * @return
+     */
+    CompletableFuture<Void> storeChunk(StoreFileChunkContext context);
+
+    /**
+     * 异步合并文件分片
+     *
+     * @param context
+     * @return
+     */
+    CompletableFuture<Void> mergeFile(MergeFileContext context);
+
+    /**
+     * 异步读取文件内容写入到输出流中
+     *
+     * @param context
+     * @return
+     */
+    CompletableFuture<Void> realFile(ReadFileContext context);
+
+    /**
+     * 异步读取文件指定区间的内容写入到输出流中
+     *
+     * @param context
+     * @return
+     */
+    CompletableFuture<Void> realFileRange(ReadFileRangeContext context);
+
+}
@@ -0,0 +1,80 @@
+package com.wuaro.pan.storage.engine.core.async;
+
+import com.wuaro.pan.storage.engine.core.StorageEngine;
+import com.wuaro.pan.storage.engine.core.context.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 把阻塞的StorageEngine适配成AsyncStorageEngine
+ * <p>
+ * 容器中注入的是完整的存储引擎调用链（压缩、读缓存、多存储引擎路由），
+ * 所以一个适配器就覆盖了所有引入的具体存储引擎；需要单独异步调用某个存储引擎时直接new一个适配器即可
+ */
+@Component
+public class AsyncStorageEngineAdapter implements AsyncStorageEngine {
+
+    private final StorageEngine delegate;
+
+    private final StorageEngineIoExecutor ioExecutor;
+
+    @Autowired
+    public AsyncStorageEngineAdapter(StorageEngine delegate, StorageEngineIoExecutor ioExecutor) {
+        this.delegate = delegate;
+        this.ioExecutor = ioExecutor;
+    }
+
+    @Override
+    public CompletableFuture<Void> store(StoreFileContext context) {
+        return submit(() -> delegate.store(context));
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(DeleteFileContext context) {
+        return submit(() -> delegate.delete(context));
+    }
+
+    @Override
+    public CompletableFuture<Void> storeChunk(StoreFileChunkContext context) {
+        return submit(() -> delegate.storeChunk(context));
+    }
+
+    @Override
+    public CompletableFuture<Void> mergeFile(MergeFileContext context) {
+        return submit(() -> delegate.mergeFile(context));
+    }
+
+    @Override
+    public CompletableFuture<Void> realFile(ReadFileContext context) {
+        return submit(() -> delegate.realFile(context));
+    }
+
+    @Override
+    public CompletableFuture<Void> realFileRange(ReadFileRangeContext context) {
+        return submit(() -> delegate.realFileRange(context));
+    }
+
+    /*****************************************private*****************************************/
+
+    private IoFuture<Void> submit(IoAction action) {
+        Callable<Void> task = () -> {
+            action.execute();
+            return null;
+        };
+        return ioExecutor.submit(task);
+    }
+
+    /**
+     * 没有返回值的阻塞IO操作
+     */
+    @FunctionalInterface
+    private interface IoAction {
+
+        void execute() throws Exception;
+
+    }
+
+}
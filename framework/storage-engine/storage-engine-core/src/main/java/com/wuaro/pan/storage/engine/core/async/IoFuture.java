@@ -0,0 +1,177 @@
+package com.wuaro.pan.storage.engine.core.async;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 可以取消的阻塞IO任务的异步结果
+ * <p>
+ * 1、cancel时还在排队的任务不再执行；正在执行的任务在mayInterruptIfRunning为true时中断执行线程
+ * 2、与普通的CompletableFuture一样，cancel之后立即以CancellationException完成，
+ * 但是正在执行的任务可能还在读写传入的流，需要确认任务已经退出时调用awaitExit
+ * <p>
+ * 注意：thenApply、thenCompose等派生出来的CompletableFuture被cancel时不会取消这里的任务，
+ * 需要按顺序执行多个IO任务时使用sequence，取消会转发给正在执行的那一个任务
+ *
+ * @param <T>
+ */
+public class IoFuture<T> extends CompletableFuture<T> {
+
+    private static final int NEW = 0;
+
+    private static final int RUNNING = 1;
+
+    private static final int EXITED = 2;
+
+    private final AtomicInteger state = new AtomicInteger(NEW);
+
+    private final CountDownLatch exited = new CountDownLatch(1);
+
+    private Thread runner;
+
+    /**
+     * 按顺序执行多个异步步骤，前一个步骤成功完成之后才开始下一个步骤
+     * 任意一个步骤失败时以该异常完成，后面的步骤不再执行
+     *
+     * @param steps 每一个步骤在开始时才被调用，可以在返回异步结果之前做一些不阻塞的准备工作
+     * @return 所有步骤都完成之后完成的IoFuture，被取消时同时取消正在执行的步骤
+     */
+    public static IoFuture<Void> sequence(List<Supplier<? extends CompletableFuture<?>>> steps) {
+        SequenceFuture future = new SequenceFuture(steps);
+        future.next(0);
+        return future;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (state.compareAndSet(NEW, EXITED)) {
+            exited.countDown();
+            return cancelled;
+        }
+        if (cancelled && mayInterruptIfRunning) {
+            synchronized (this) {
+                if (Objects.nonNull(runner)) {
+                    runner.interrupt();
+                }
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * 等待任务退出，不再读写传入的流
+     *
+     * @param timeout
+     * @param unit
+     * @return 在等待时间内退出或者根本没有开始执行时返回true
+     * @throws InterruptedException
+     */
+    public boolean awaitExit(long timeout, TimeUnit unit) throws InterruptedException {
+        return exited.await(timeout, unit);
+    }
+
+    /**
+     * 执行线程开始执行任务之前调用
+     *
+     * @return 任务已经被取消时返回false，不能再执行
+     */
+    boolean start() {
+        if (!state.compareAndSet(NEW, RUNNING)) {
+            return false;
+        }
+        synchronized (this) {
+            runner = Thread.currentThread();
+        }
+        if (isCancelled()) {
+            exit();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 执行线程执行完任务之后调用，清除取消时留下的中断标记，避免影响线程执行下一个任务
+     */
+    void exit() {
+        synchronized (this) {
+            if (runner == Thread.currentThread()) {
+                runner = null;
+                Thread.interrupted();
+            }
+        }
+        state.set(EXITED);
+        exited.countDown();
+    }
+
+    /*****************************************private*****************************************/
+
+    /**
+     * 按顺序执行多个异步步骤的IoFuture
+     */
+    private static class SequenceFuture extends IoFuture<Void> {
+
+        private final List<Supplier<? extends CompletableFuture<?>>> steps;
+
+        private volatile CompletableFuture<?> current;
+
+        SequenceFuture(List<Supplier<? extends CompletableFuture<?>>> steps) {
+            this.steps = steps;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            CompletableFuture<?> step = current;
+            if (Objects.nonNull(step)) {
+                step.cancel(mayInterruptIfRunning);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public boolean awaitExit(long timeout, TimeUnit unit) throws InterruptedException {
+            CompletableFuture<?> step = current;
+            if (step instanceof IoFuture) {
+                return ((IoFuture<?>) step).awaitExit(timeout, unit);
+            }
+            return true;
+        }
+
+        private void next(int index) {
+            if (isDone()) {
+                return;
+            }
+            if (index >= steps.size()) {
+                complete(null);
+                return;
+            }
+            CompletableFuture<?> step;
+            try {
+                step = steps.get(index).get();
+            } catch (Throwable e) {
+                completeExceptionally(e);
+                return;
+            }
+            current = step;
+            if (isDone()) {
+                step.cancel(true);
+                return;
+            }
+            step.whenComplete((result, throwable) -> {
+                if (Objects.nonNull(throwable)) {
+                    completeExceptionally(throwable);
+                    return;
+                }
+                next(index + 1);
+            });
+        }
+
+    }
+
+}
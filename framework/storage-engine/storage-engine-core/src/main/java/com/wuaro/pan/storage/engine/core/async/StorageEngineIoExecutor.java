@@ -0,0 +1,157 @@
+package com.wuaro.pan.storage.engine.core.async;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 文件存储引擎专用的有界IO线程池
+ * <p>
+ * 1、线程数和队列长度都有上限，队列满了之后直接拒绝，返回以RejectedExecutionException异常完成的IoFuture
+ * 2、统计提交、完成、失败、拒绝的任务数，任务在队列中的等待耗时以及执行耗时
+ * 3、返回的IoFuture可以取消：还在排队的任务不再执行，正在执行的任务中断执行线程
+ * <p>
+ * 阻塞的文件读写都放到这里执行，避免一个慢的远程存储调用长时间占用Web容器的请求线程
+ */
+@Component
+public class StorageEngineIoExecutor {
+
+    private final ThreadPoolTaskExecutor taskExecutor;
+
+    private final LongAdder submittedCount = new LongAdder();
+
+    private final LongAdder completedCount = new LongAdder();
+
+    private final LongAdder failedCount = new LongAdder();
+
+    private final LongAdder rejectedCount = new LongAdder();
+
+    private final LongAdder queueWaitNanos = new LongAdder();
+
+    private final LongAdder executeNanos = new LongAdder();
+
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+
+    @Autowired
+    public StorageEngineIoExecutor(@Qualifier(value = "storageEngineIoTaskExecutor") ThreadPoolTaskExecutor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * 提交一个阻塞的IO任务
+     *
+     * @param task
+     * @param <T>
+     * @return 任务执行完成之后完成的IoFuture，任务抛出的异常原样作为异常结果
+     */
+    public <T> IoFuture<T> submit(Callable<T> task) {
+        IoFuture<T> future = new IoFuture<>();
+        long submitTime = System.nanoTime();
+        submittedCount.increment();
+        try {
+            taskExecutor.execute(() -> {
+                long startTime = System.nanoTime();
+                recordQueueWait(startTime - submitTime);
+                if (!future.start()) {
+                    return;
+                }
+                try {
+                    T result = task.call();
+                    completedCount.increment();
+                    future.complete(result);
+                } catch (Throwable e) {
+                    failedCount.increment();
+                    future.completeExceptionally(e);
+                } finally {
+                    executeNanos.add(System.nanoTime() - startTime);
+                    future.exit();
+                }
+            });
+        } catch (TaskRejectedException e) {
+            submittedCount.decrement();
+            rejectedCount.increment();
+            future.completeExceptionally(e);
+            future.exit();
+        }
+        return future;
+    }
+
+    /**
+     * 正在执行任务的线程数
+     *
+     * @return
+     */
+    public int getActiveCount() {
+        return taskExecutor.getActiveCount();
+    }
+
+    /**
+     * 队列中等待执行的任务数
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return taskExecutor.getThreadPoolExecutor().getQueue().size();
+    }
+
+    public int getMaxPoolSize() {
+        return taskExecutor.getMaxPoolSize();
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.sum();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.sum();
+    }
+
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * 所有任务在队列中等待的总耗时，单位纳秒
+     *
+     * @return
+     */
+    public long getQueueWaitNanos() {
+        return queueWaitNanos.sum();
+    }
+
+    /**
+     * 单个任务在队列中等待的最大耗时，单位纳秒
+     *
+     * @return
+     */
+    public long getMaxQueueWaitNanos() {
+        return maxQueueWaitNanos.get();
+    }
+
+    /**
+     * 所有任务执行的总耗时，单位纳秒
+     *
+     * @return
+     */
+    public long getExecuteNanos() {
+        return executeNanos.sum();
+    }
+
+    /*****************************************private*****************************************/
+
+    private void recordQueueWait(long waitNanos) {
+        queueWaitNanos.add(waitNanos);
+        maxQueueWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+}
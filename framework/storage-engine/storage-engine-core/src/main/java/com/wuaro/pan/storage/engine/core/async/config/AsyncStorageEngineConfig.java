@@ -0,0 +1,47 @@
+package com.wuaro.pan.storage.engine.core.async.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Component
+@ConfigurationProperties(prefix = "com.wuaro.pan.storage.engine.async")
+@Data
+public class AsyncStorageEngineConfig {
+
+    /**
+     * 执行存储引擎读写的IO线程数，同时也是可以并发进行的文件传输数
+     * 文件传输类请求都在这里执行，线程数要大于Web容器的请求线程数（Tomcat默认200），否则异步化之后并发传输数反而下降
+     */
+    private Integer ioThreads = 256;
+
+    /**
+     * IO线程都在忙时最多排队等待的任务数，超过之后直接拒绝
+     */
+    private Integer queueCapacity = 512;
+
+    /**
+     * 存储引擎的IO线程池
+     * 使用有界队列，队列满了之后抛出拒绝异常，让调用方快速失败，而不是在请求线程中执行
+     *
+     * @return
+     */
+    @Bean(name = "storageEngineIoTaskExecutor")
+    public ThreadPoolTaskExecutor storageEngineIoTaskExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+
+        taskExecutor.setCorePoolSize(getIoThreads());
+        taskExecutor.setMaxPoolSize(getIoThreads());
+        taskExecutor.setKeepAliveSeconds(200);
+        taskExecutor.setQueueCapacity(getQueueCapacity());
+        taskExecutor.setThreadNamePrefix("storage-engine-io-thread");
+        taskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+
+        return taskExecutor;
+    }
+
+}
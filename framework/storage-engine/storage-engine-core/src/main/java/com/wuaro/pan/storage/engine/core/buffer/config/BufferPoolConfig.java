@@ -0,0 +1,33 @@
+package com.wuaro.pan.storage.engine.core.buffer.config;
+
+import com.wuaro.pan.core.utils.BufferPool;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+@Component
+@ConfigurationProperties(prefix = "com.wuaro.pan.storage.engine.buffer-pool")
+@Data
+public class BufferPoolConfig {
+
+    /**
+     * 缓冲区池中保留的堆内缓冲区的字节数上限，所有线程共用
+     */
+    private Long maxRetainedHeapBytes = BufferPool.DEFAULT_MAX_RETAINED_HEAP_BYTES;
+
+    /**
+     * 缓冲区池中保留的堆外缓冲区的字节数上限，所有线程共用
+     */
+    private Long maxRetainedDirectBytes = BufferPool.DEFAULT_MAX_RETAINED_DIRECT_BYTES;
+
+    /**
+     * 把配置的保留上限应用到全局的缓冲区池
+     */
+    @PostConstruct
+    public void apply() {
+        BufferPool.setMaxRetainedBytes(maxRetainedHeapBytes, maxRetainedDirectBytes);
+    }
+
+}
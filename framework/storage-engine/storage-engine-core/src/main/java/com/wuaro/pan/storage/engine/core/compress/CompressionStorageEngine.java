@@ -0,0 +1,274 @@
+package com.wuaro.pan.storage.engine.core.compress;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.core.utils.FileUtils;
+import com.wuaro.pan.storage.engine.core.StorageEngine;
+import com.wuaro.pan.storage.engine.core.compress.config.CompressionStorageEngineConfig;
+import com.wuaro.pan.storage.engine.core.context.*;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 压缩存储的文件存储引擎装饰器
+ * <p>
+ * 1、包装具体的文件存储引擎，调用方标记为可压缩的文件在存储时使用gzip压缩之后再交给具体的存储引擎保存
+ * 2、读取时根据文件记录的编码方式解压，调用方要求直接输出压缩内容时原样输出，由调用方设置Content-Encoding
+ * 3、分片存储和删除直接交给具体的存储引擎，分片上传的文件在合并之后整体压缩一次
+ * 4、大于最大压缩大小的文件原样存储，压缩存储的文件读取区间时只能从头解压，限制大小保证区间读取的开销有上限
+ * <p>
+ * 压缩之后的大小事先未知，而部分存储引擎上传时需要准确的文件大小，所以先压缩到本地的临时文件再交给具体的存储引擎
+ */
+@Primary
+@Component
+@Slf4j
+public class CompressionStorageEngine implements StorageEngine {
+
+    /**
+     * gzip编码方式
+     */
+    public static final String GZIP_CODEC = "gzip";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String TEMP_FILE_PREFIX = "rpan-compress-";
+
+    private static final String TEMP_FILE_SUFFIX = ".gz";
+
+    /**
+     * 下一层的存储引擎，本地磁盘读缓存装饰器，未开启缓存时直接透传给具体的存储引擎
+     */
+    @Autowired
+    @Qualifier(value = "localReadCacheStorageEngine")
+    private StorageEngine delegate;
+
+    @Autowired
+    private CompressionStorageEngineConfig config;
+
+    /**
+     * 存储物理文件
+     * 可压缩的文件先压缩到临时文件，再把临时文件交给具体的存储引擎保存
+     *
+     * @param context
+     * @throws IOException
+     */
+    @Override
+    public void store(StoreFileContext context) throws IOException {
+        if (!needCompress(context.getCompressible(), context.getTotalSize())) {
+            delegate.store(context);
+            context.setStoredSize(context.getTotalSize());
+            return;
+        }
+        File tempFile = Files.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX).toFile();
+        try {
+            try (OutputStream outputStream = newGzipOutputStream(tempFile)) {
+                FileUtils.writeStream2StreamWithoutCloseOutput(context.getInputStream(), outputStream);
+            }
+            String realPath = storeTempFile(context.getFilename(), context.getTotalSize(), context.getUserId(), tempFile);
+            context.setRealPath(realPath);
+            context.setCodec(GZIP_CODEC);
+            context.setStoredSize(tempFile.length());
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    @Override
+    public void delete(DeleteFileContext context) throws IOException {
+        delegate.delete(context);
+    }
+
+    @Override
+    public void storeChunk(StoreFileChunkContext context) throws IOException {
+        delegate.storeChunk(context);
+    }
+
+    /**
+     * 合并文件分片
+     * <p>
+     * 分片各自压缩之后大小不再固定，和按偏移量写入分片的存储引擎不兼容，所以先委托具体的存储引擎原样合并，
+     * 需要压缩存储时再把合并后的文件读回来整体压缩一次，保存压缩文件之后删除原样合并的文件；
+     * 压缩失败时保留原样合并的文件，不影响本次合并
+     *
+     * @param context
+     * @throws IOException
+     */
+    @Override
+    public void mergeFile(MergeFileContext context) throws IOException {
+        delegate.mergeFile(context);
+        context.setStoredSize(context.getTotalSize());
+        if (needCompress(context.getCompressible(), context.getTotalSize())) {
+            compressMergedFile(context);
+        }
+    }
+
+    /**
+     * 读取文件内容
+     * 压缩存储的文件在输出流一侧边写边解压，调用方要求直接输出压缩内容时原样输出
+     *
+     * @param context
+     * @throws IOException
+     */
+    @Override
+    public void realFile(ReadFileContext context) throws IOException {
+        if (!isCompressed(context.getCodec()) || Boolean.TRUE.equals(context.getKeepCompressed())) {
+            delegate.realFile(context);
+            return;
+        }
+        ReadFileContext compressedContext = new ReadFileContext();
+        compressedContext.setRealPath(context.getRealPath());
+        compressedContext.setStoredSize(context.getStoredSize());
+        compressedContext.setOutputStream(new GzipDecompressOutputStream(context.getOutputStream()));
+        delegate.realFile(compressedContext);
+    }
+
+    /**
+     * 读取文件指定区间的内容
+     * 压缩存储的文件无法按偏移量定位，只能从头解压，区间之外的内容直接丢弃；
+     * 只有不超过最大压缩大小的文件才会压缩存储，从头解压的开销有上限
+     *
+     * @param context
+     * @throws IOException
+     */
+    @Override
+    public void realFileRange(ReadFileRangeContext context) throws IOException {
+        if (!isCompressed(context.getCodec())) {
+            delegate.realFileRange(context);
+            return;
+        }
+        ReadFileContext compressedContext = new ReadFileContext();
+        compressedContext.setRealPath(context.getRealPath());
+        compressedContext.setStoredSize(context.getStoredSize());
+        compressedContext.setOutputStream(new GzipDecompressOutputStream(
+                new RangeOutputStream(context.getOutputStream(), context.getOffset(), context.getLength())));
+        delegate.realFile(compressedContext);
+    }
+
+    /*****************************************private*****************************************/
+
+    /**
+     * 判断文件是否需要压缩存储
+     *
+     * @param compressible
+     * @param totalSize
+     * @return
+     */
+    private boolean needCompress(Boolean compressible, Long totalSize) {
+        return Boolean.TRUE.equals(config.getEnabled())
+                && Boolean.TRUE.equals(compressible)
+                && Objects.nonNull(totalSize)
+                && totalSize >= config.getMinCompressSize()
+                && totalSize <= config.getMaxCompressSize();
+    }
+
+    /**
+     * 把原样合并的文件读回来压缩到临时文件，保存压缩文件之后删除原样合并的文件
+     *
+     * @param context
+     */
+    private void compressMergedFile(MergeFileContext context) {
+        String mergedRealPath = context.getRealPath();
+        File tempFile = null;
+        try {
+            tempFile = Files.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX).toFile();
+            try (OutputStream outputStream = newGzipOutputStream(tempFile)) {
+                ReadFileContext readFileContext = new ReadFileContext();
+                readFileContext.setRealPath(mergedRealPath);
+                readFileContext.setStoredSize(context.getTotalSize());
+                readFileContext.setOutputStream(outputStream);
+                delegate.realFile(readFileContext);
+            }
+            String realPath = storeTempFile(context.getFilename(), context.getTotalSize(), context.getUserId(), tempFile);
+            context.setRealPath(realPath);
+            context.setCodec(GZIP_CODEC);
+            context.setStoredSize(tempFile.length());
+        } catch (IOException | RuntimeException e) {
+            log.warn("compress merged file {} failed, keep it uncompressed", mergedRealPath, e);
+            return;
+        } finally {
+            if (Objects.nonNull(tempFile)) {
+                org.apache.commons.io.FileUtils.deleteQuietly(tempFile);
+            }
+        }
+        deleteQuietly(mergedRealPath);
+    }
+
+    /**
+     * 删除原样合并的文件，删除失败时只记录日志
+     *
+     * @param realPath
+     */
+    private void deleteQuietly(String realPath) {
+        DeleteFileContext deleteFileContext = new DeleteFileContext();
+        deleteFileContext.setRealFilePathList(Lists.newArrayList(realPath));
+        try {
+            delegate.delete(deleteFileContext);
+            if (CollectionUtils.isNotEmpty(deleteFileContext.getFailedRealFilePathList())) {
+                log.error("delete uncompressed merged file {} failed", realPath);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("delete uncompressed merged file {} failed", realPath, e);
+        }
+    }
+
+    private boolean isCompressed(String codec) {
+        if (StringUtils.isBlank(codec)) {
+            return false;
+        }
+        if (!GZIP_CODEC.equals(codec)) {
+            throw new RPanFrameworkException("不支持的文件压缩编码方式：" + codec);
+        }
+        return true;
+    }
+
+    /**
+     * 创建指定压缩级别的gzip输出流
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    private OutputStream newGzipOutputStream(File file) throws IOException {
+        int compressLevel = config.getCompressLevel();
+        return new GZIPOutputStream(new FileOutputStream(file), BUFFER_SIZE) {
+            {
+                def.setLevel(compressLevel);
+            }
+        };
+    }
+
+    /**
+     * 委托具体的存储引擎保存压缩后的临时文件
+     * 写入的大小是压缩后的大小，选择存储引擎时仍然按照原始大小
+     *
+     * @param filename
+     * @param totalSize 压缩前的原始大小
+     * @param userId
+     * @param tempFile
+     * @return 压缩文件的真实存储路径
+     * @throws IOException
+     */
+    private String storeTempFile(String filename, Long totalSize, Long userId, File tempFile) throws IOException {
+        try (InputStream inputStream = new FileInputStream(tempFile)) {
+            StoreFileContext storeFileContext = new StoreFileContext();
+            storeFileContext.setFilename(filename);
+            storeFileContext.setTotalSize(tempFile.length());
+            storeFileContext.setRoutingSize(totalSize);
+            storeFileContext.setUserId(userId);
+            storeFileContext.setInputStream(inputStream);
+            delegate.store(storeFileContext);
+            return storeFileContext.getRealPath();
+        }
+    }
+
+}
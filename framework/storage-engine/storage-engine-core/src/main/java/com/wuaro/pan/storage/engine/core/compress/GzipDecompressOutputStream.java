@@ -0,0 +1,85 @@
+package com.wuaro.pan.storage.engine.core.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * 边写入边解压gzip内容的输出流
+ * <p>
+ * 存储引擎读取文件时只提供输出流，所以在输出流一侧解压，不需要额外的线程和临时文件
+ * 只支持 GZIPOutputStream 写出的不带扩展头的gzip格式，尾部的校验信息直接忽略
+ */
+class GzipDecompressOutputStream extends OutputStream {
+
+    private static final int GZIP_HEADER_LENGTH = 10;
+
+    private static final int GZIP_MAGIC_FIRST = 0x1f;
+
+    private static final int GZIP_MAGIC_SECOND = 0x8b;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final byte[] header = new byte[GZIP_HEADER_LENGTH];
+
+    private int headerLength;
+
+    private final Inflater inflater = new Inflater(true);
+
+    private final InflaterOutputStream inflaterOutputStream;
+
+    GzipDecompressOutputStream(OutputStream outputStream) {
+        this.inflaterOutputStream = new InflaterOutputStream(outputStream, inflater, BUFFER_SIZE);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0 && headerLength < GZIP_HEADER_LENGTH) {
+            header[headerLength++] = b[off++];
+            len--;
+            if (headerLength == GZIP_HEADER_LENGTH) {
+                checkHeader();
+            }
+        }
+        if (len > 0) {
+            inflaterOutputStream.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        inflaterOutputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            inflaterOutputStream.close();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /*****************************************private*****************************************/
+
+    /**
+     * 校验gzip的文件头
+     *
+     * @throws IOException
+     */
+    private void checkHeader() throws IOException {
+        if ((header[0] & 0xff) != GZIP_MAGIC_FIRST || (header[1] & 0xff) != GZIP_MAGIC_SECOND) {
+            throw new IOException("不是gzip格式的内容");
+        }
+        if (header[3] != 0) {
+            throw new IOException("不支持带扩展头的gzip格式");
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.wuaro.pan.storage.engine.core.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 只输出指定区间内容的输出流
+ * <p>
+ * 区间之外的内容直接丢弃，关闭时不关闭目标输出流，便于多区间读取时连续写入同一个输出流
+ */
+class RangeOutputStream extends OutputStream {
+
+    private final OutputStream outputStream;
+
+    private final long offset;
+
+    private final long end;
+
+    private long position;
+
+    RangeOutputStream(OutputStream outputStream, long offset, long length) {
+        this.outputStream = outputStream;
+        this.offset = offset;
+        this.end = offset + length;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = Math.max(position, offset);
+        long stop = Math.min(position + len, end);
+        if (start < stop) {
+            outputStream.write(b, off + (int) (start - position), (int) (stop - start));
+        }
+        position += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        outputStream.flush();
+    }
+
+}
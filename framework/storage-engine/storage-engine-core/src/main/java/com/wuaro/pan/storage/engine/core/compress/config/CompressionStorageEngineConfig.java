@@ -0,0 +1,34 @@
+package com.wuaro.pan.storage.engine.core.compress.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "com.wuaro.pan.storage.engine.compression")
+@Data
+public class CompressionStorageEngineConfig {
+
+    /**
+     * 是否开启可压缩文件的压缩存储
+     * 关闭之后新上传的文件不再压缩，已经压缩存储的文件仍然可以正常读取
+     */
+    private Boolean enabled = Boolean.FALSE;
+
+    /**
+     * 开启压缩存储的最小文件大小，小于该大小的文件压缩收益太小，直接原样存储
+     */
+    private Long minCompressSize = 4 * 1024L;
+
+    /**
+     * 开启压缩存储的最大文件大小，大于该大小的文件原样存储
+     * 压缩存储的文件读取区间时只能从头解压，限制大小保证区间读取的开销有上限
+     */
+    private Long maxCompressSize = 64 * 1024 * 1024L;
+
+    /**
+     * gzip的压缩级别，1-9，越小速度越快
+     */
+    private Integer compressLevel = 1;
+
+}
@@ -0,0 +1,35 @@
+package com.wuaro.pan.storage.engine.core.context;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 确认客户端直传完成的上下文对象
+ */
+@Data
+public class CompleteDirectUploadContext implements Serializable {
+
+    private static final long serialVersionUID = -2171306594317264587L;
+
+    /**
+     * 初始化直传时生成的真实存储路径
+     */
+    private String realPath;
+
+    /**
+     * 分片直传时存储服务返回的uploadId，整个文件一次直传时为空
+     */
+    private String uploadId;
+
+    /**
+     * 分片直传时每个分片的大小
+     */
+    private Long partSize;
+
+    /**
+     * 文件的总大小，用来校验客户端是否上传完整
+     */
+    private Long totalSize;
+
+}
@@ -1,5 +1,6 @@
 package com.wuaro.pan.storage.engine.core.context;
 
+import com.google.common.collect.Lists;
 import lombok.Data;
 
 import java.io.Serializable;
@@ -18,4 +19,10 @@ public class DeleteFileContext implements Serializable {
      */
     private List<String> realFilePathList;
 
+    /**
+     * 删除失败的物理文件路径的集合
+     * 由存储引擎按照每个路径的删除结果回填，部分失败时不会中断其余路径的删除
+     */
+    private List<String> failedRealFilePathList = Lists.newArrayList();
+
 }
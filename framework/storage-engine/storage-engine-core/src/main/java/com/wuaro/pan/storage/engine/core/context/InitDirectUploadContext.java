@@ -0,0 +1,73 @@
+package com.wuaro.pan.storage.engine.core.context;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 初始化客户端直传的上下文对象
+ */
+@Data
+public class InitDirectUploadContext implements Serializable {
+
+    private static final long serialVersionUID = 5306447612985391021L;
+
+    /**
+     * 文件名称
+     */
+    private String filename;
+
+    /**
+     * 文件唯一标识，即文件内容的md5
+     */
+    private String identifier;
+
+    /**
+     * 文件的总大小
+     */
+    private Long totalSize;
+
+    /**
+     * 当前登录的用户ID
+     */
+    private Long userId;
+
+    /**
+     * 文件的真实存储路径，由存储引擎生成
+     */
+    private String realPath;
+
+    /**
+     * 分片直传时存储服务返回的uploadId，整个文件一次直传时为空
+     */
+    private String uploadId;
+
+    /**
+     * 分片直传时每个分片的大小，除最后一个分片外都必须是这个大小
+     */
+    private Long partSize;
+
+    /**
+     * 预签名的上传地址，分片直传时按分片编号从1开始依次排列
+     */
+    private List<String> uploadUrlList;
+
+    /**
+     * 客户端上传时必须携带的请求头
+     */
+    private Map<String, String> uploadHeaders;
+
+    /**
+     * 上传地址的过期时间
+     */
+    private Date expireTime;
+
+    /**
+     * 存储服务是否会校验上传的内容与文件唯一标识一致
+     */
+    private Boolean contentVerified;
+
+}
@@ -28,14 +28,35 @@ public class MergeFileContext implements Serializable {
      */
     private Long userId;
 
+    /**
+     * 文件的总大小
+     */
+    private Long totalSize;
+
     /**
      * 文件分片的真实存储路径集合
      */
     private List<String> realPathList;
 
+    /**
+     * 是否需要压缩存储
+     * 由调用方根据文件类型决定，只有开启压缩存储时才会生效
+     */
+    private Boolean compressible;
+
     /**
      * 文件合并后的真实物理存储路径
      */
     private String realPath;
 
+    /**
+     * 文件压缩存储使用的编码方式，为空表示未压缩
+     */
+    private String codec;
+
+    /**
+     * 文件实际存储的大小，压缩存储时为压缩后的大小
+     */
+    private Long storedSize;
+
 }
@@ -0,0 +1,46 @@
+package com.wuaro.pan.storage.engine.core.context;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * 生成预签名下载地址的上下文对象
+ */
+@Data
+public class PresignDownloadContext implements Serializable {
+
+    private static final long serialVersionUID = 8817059153384206115L;
+
+    /**
+     * 文件的真实存储路径
+     */
+    private String realPath;
+
+    /**
+     * 下载时保存的文件名称
+     */
+    private String filename;
+
+    /**
+     * 响应的Content-Type，为空时使用存储服务中记录的类型
+     */
+    private String contentType;
+
+    /**
+     * 是否以附件的形式下载，否则在浏览器中直接打开
+     */
+    private Boolean attachment = Boolean.TRUE;
+
+    /**
+     * 预签名的下载地址
+     */
+    private String url;
+
+    /**
+     * 下载地址的过期时间
+     */
+    private Date expireTime;
+
+}
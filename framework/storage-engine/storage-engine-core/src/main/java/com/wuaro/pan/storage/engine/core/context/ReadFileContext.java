@@ -23,4 +23,21 @@ public class ReadFileContext implements Serializable {
      */
     private OutputStream outputStream;
 
+    /**
+     * 文件压缩存储使用的编码方式，为空表示未压缩
+     */
+    private String codec;
+
+    /**
+     * 是否直接输出压缩后的内容
+     * 客户端支持对应的Content-Encoding时开启，存储引擎不再解压
+     */
+    private Boolean keepCompressed;
+
+    /**
+     * 文件在存储引擎中保存的字节数，压缩存储的文件为压缩之后的大小，为空表示未知
+     * 本地磁盘读缓存据此事先判断文件能否缓存
+     */
+    private Long storedSize;
+
 }
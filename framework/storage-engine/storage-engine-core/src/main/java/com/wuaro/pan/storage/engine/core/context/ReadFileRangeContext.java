@@ -0,0 +1,50 @@
+package com.wuaro.pan.storage.engine.core.context;
+
+import lombok.Data;
+
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * 文件区间读取的上下文实体信息
+ * 用于断点续传以及音视频、PDF等文件的拖动预览
+ */
+@Data
+public class ReadFileRangeContext implements Serializable {
+
+    private static final long serialVersionUID = -3356017845437102843L;
+
+    /**
+     * 文件的真实存储路径
+     */
+    private String realPath;
+
+    /**
+     * 文件的输出流
+     * 区间读取可能被多次调用写入同一个输出流，所以存储引擎不负责关闭该输出流
+     */
+    private OutputStream outputStream;
+
+    /**
+     * 读取的起始偏移量（包含）
+     */
+    private Long offset;
+
+    /**
+     * 读取的字节长度
+     */
+    private Long length;
+
+    /**
+     * 文件压缩存储使用的编码方式，为空表示未压缩
+     * 区间的偏移量和长度都是针对解压后的内容
+     */
+    private String codec;
+
+    /**
+     * 文件在存储引擎中保存的字节数，压缩存储的文件为压缩之后的大小，为空表示未知
+     * 本地磁盘读缓存据此事先判断文件能否缓存
+     */
+    private Long storedSize;
+
+}
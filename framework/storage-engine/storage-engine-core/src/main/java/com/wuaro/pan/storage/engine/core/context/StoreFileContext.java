@@ -33,4 +33,31 @@ public class StoreFileContext implements Serializable {
      */
     private String realPath;
 
+    /**
+     * 是否需要压缩存储
+     * 由调用方根据文件类型决定，只有开启压缩存储时才会生效
+     */
+    private Boolean compressible;
+
+    /**
+     * 文件压缩存储使用的编码方式，为空表示未压缩
+     */
+    private String codec;
+
+    /**
+     * 文件实际存储的大小，压缩存储时为压缩后的大小
+     */
+    private Long storedSize;
+
+    /**
+     * 上传文件的用户ID，按照用户选择写入的存储引擎时使用
+     */
+    private Long userId;
+
+    /**
+     * 按照写入规则选择存储引擎时使用的文件大小，为空时使用文件的总大小
+     * 压缩存储时文件的总大小是压缩后的大小，这里记录压缩前的原始大小，保证同一个文件压缩与否都路由到同一个存储引擎
+     */
+    private Long routingSize;
+
 }
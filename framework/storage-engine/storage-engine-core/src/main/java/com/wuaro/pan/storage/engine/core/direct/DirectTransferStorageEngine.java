@@ -0,0 +1,68 @@
+package com.wuaro.pan.storage.engine.core.direct;
+
+import com.wuaro.pan.storage.engine.core.context.CompleteDirectUploadContext;
+import com.wuaro.pan.storage.engine.core.context.InitDirectUploadContext;
+import com.wuaro.pan.storage.engine.core.context.PresignDownloadContext;
+
+import java.io.IOException;
+
+/**
+ * 支持客户端直传直下的存储引擎
+ * <p>
+ * 服务端只生成短时有效的预签名地址，文件内容由客户端直接与对象存储服务传输，不再经过服务端；
+ * 客户端上传完成之后由服务端确认并校验，再保存文件记录
+ * <p>
+ * 这里的路径都是具体存储引擎内部的路径，不带存储引擎名称的前缀
+ */
+public interface DirectTransferStorageEngine {
+
+    /**
+     * 获取存储引擎的名称
+     *
+     * @return
+     */
+    String getEngineName();
+
+    /**
+     * 初始化客户端直传
+     * 生成文件的真实存储路径，大文件初始化分片上传，然后生成所有的预签名上传地址
+     *
+     * @param context
+     * @throws IOException
+     */
+    void initDirectUpload(InitDirectUploadContext context) throws IOException;
+
+    /**
+     * 为已经初始化的直传重新生成预签名上传地址，用于上传地址过期之后继续上传
+     *
+     * @param context
+     * @throws IOException
+     */
+    void presignUploadUrls(InitDirectUploadContext context) throws IOException;
+
+    /**
+     * 确认客户端直传完成
+     * 校验上传的内容完整，分片直传时合并所有分片；客户端还没有上传完成时抛出异常，可以继续上传之后再确认
+     *
+     * @param context
+     * @throws IOException
+     */
+    void completeDirectUpload(CompleteDirectUploadContext context) throws IOException;
+
+    /**
+     * 取消客户端直传，清理已经上传的内容
+     *
+     * @param context
+     * @throws IOException
+     */
+    void abortDirectUpload(CompleteDirectUploadContext context) throws IOException;
+
+    /**
+     * 生成预签名的下载地址
+     *
+     * @param context
+     * @throws IOException
+     */
+    void presignDownload(PresignDownloadContext context) throws IOException;
+
+}
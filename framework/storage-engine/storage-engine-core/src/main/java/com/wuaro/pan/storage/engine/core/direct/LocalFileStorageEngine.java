@@ -0,0 +1,30 @@
+package com.wuaro.pan.storage.engine.core.direct;
+
+import java.io.File;
+
+/**
+ * 把文件存放在本机文件系统上的存储引擎
+ * <p>
+ * 前置代理（nginx的X-Accel-Redirect、Apache/lighttpd的X-Sendfile）可以直接用sendfile把这样的文件发送给客户端，
+ * 应用只需要完成权限校验并返回内部跳转的响应头
+ * <p>
+ * 这里的路径都是具体存储引擎内部的路径，不带存储引擎名称的前缀
+ */
+public interface LocalFileStorageEngine {
+
+    /**
+     * 获取存储引擎的名称
+     *
+     * @return
+     */
+    String getEngineName();
+
+    /**
+     * 获取文件在本机文件系统上对应的完整文件
+     *
+     * @param realPath
+     * @return 文件内容不是独立的一个文件（比如打包存储在段文件中）或者文件不存在时返回null
+     */
+    File getLocalFile(String realPath);
+
+}
@@ -0,0 +1,46 @@
+package com.wuaro.pan.storage.engine.core.metrics;
+
+import com.wuaro.pan.core.utils.BufferPool;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+/**
+ * 把IO缓冲区池的统计数据注册为监控指标
+ * 命中率偏低说明池的保留上限太小，丢弃数持续增长说明归还的缓冲区超过了保留上限
+ */
+@Component
+public class BufferPoolMetrics implements MeterBinder {
+
+    private static final String METER_NAME_PREFIX = "rpan.buffer.pool.";
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder(METER_NAME_PREFIX + "hit", BufferPool.class, pool -> BufferPool.getHitCount())
+                .description("从池中直接获取到缓冲区的次数")
+                .register(registry);
+        FunctionCounter.builder(METER_NAME_PREFIX + "miss", BufferPool.class, pool -> BufferPool.getMissCount())
+                .description("池中没有可用的缓冲区而新分配的次数")
+                .register(registry);
+        FunctionCounter.builder(METER_NAME_PREFIX + "allocated", BufferPool.class, pool -> BufferPool.getAllocatedBytes())
+                .description("新分配的缓冲区的总字节数")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder(METER_NAME_PREFIX + "dropped", BufferPool.class, pool -> BufferPool.getDroppedCount())
+                .description("归还时超过保留上限而被丢弃的缓冲区数量")
+                .register(registry);
+        Gauge.builder(METER_NAME_PREFIX + "retained", BufferPool.class, pool -> BufferPool.getRetainedHeapBytes())
+                .tag("type", "heap")
+                .description("池中保留的缓冲区的字节数")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder(METER_NAME_PREFIX + "retained", BufferPool.class, pool -> BufferPool.getRetainedDirectBytes())
+                .tag("type", "direct")
+                .description("池中保留的缓冲区的字节数")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+}
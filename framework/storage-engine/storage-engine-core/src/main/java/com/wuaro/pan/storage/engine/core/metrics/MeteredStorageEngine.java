@@ -0,0 +1,248 @@
+package com.wuaro.pan.storage.engine.core.metrics;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import com.wuaro.pan.storage.engine.core.AbstractStorageEngine;
+import com.wuaro.pan.storage.engine.core.StorageEngine;
+import com.wuaro.pan.storage.engine.core.context.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 统计具体存储引擎调用指标的装饰器
+ * <p>
+ * 每个操作（store、store_chunk、merge_file、read、read_range、delete）统计：
+ * 1、rpan.storage.engine.operation：调用耗时，按结果（success、error）区分，可发布直方图
+ * 2、rpan.storage.engine.in.flight：正在执行的调用数
+ * 3、rpan.storage.engine.errors：调用失败的次数，按异常类型区分
+ * <p>
+ * 另外按方向（write、read）统计实际经过存储引擎的字节数：rpan.storage.engine.bytes
+ * <p>
+ * 所有指标都带有engine标签，值为存储引擎的名称，用于对比不同存储引擎的耗时和吞吐
+ */
+public class MeteredStorageEngine implements StorageEngine {
+
+    public static final String OPERATION_METER_NAME = "rpan.storage.engine.operation";
+
+    public static final String IN_FLIGHT_METER_NAME = "rpan.storage.engine.in.flight";
+
+    public static final String ERRORS_METER_NAME = "rpan.storage.engine.errors";
+
+    public static final String BYTES_METER_NAME = "rpan.storage.engine.bytes";
+
+    private static final String ENGINE_TAG = "engine";
+
+    private static final String OPERATION_TAG = "operation";
+
+    private static final String OUTCOME_TAG = "outcome";
+
+    private static final String EXCEPTION_TAG = "exception";
+
+    private static final String DIRECTION_TAG = "direction";
+
+    private final AbstractStorageEngine delegate;
+
+    private final MeterRegistry meterRegistry;
+
+    private final String engineName;
+
+    private final OperationMeters storeMeters;
+
+    private final OperationMeters storeChunkMeters;
+
+    private final OperationMeters mergeFileMeters;
+
+    private final OperationMeters readMeters;
+
+    private final OperationMeters readRangeMeters;
+
+    private final OperationMeters deleteMeters;
+
+    private final Counter writeBytes;
+
+    private final Counter readBytes;
+
+    private final Map<String, Counter> errorCounters = Maps.newConcurrentMap();
+
+    public MeteredStorageEngine(AbstractStorageEngine delegate, MeterRegistry meterRegistry, boolean percentileHistogram) {
+        this.delegate = delegate;
+        this.meterRegistry = meterRegistry;
+        this.engineName = delegate.getEngineName();
+        this.storeMeters = new OperationMeters("store", percentileHistogram);
+        this.storeChunkMeters = new OperationMeters("store_chunk", percentileHistogram);
+        this.mergeFileMeters = new OperationMeters("merge_file", percentileHistogram);
+        this.readMeters = new OperationMeters("read", percentileHistogram);
+        this.readRangeMeters = new OperationMeters("read_range", percentileHistogram);
+        this.deleteMeters = new OperationMeters("delete", percentileHistogram);
+        this.writeBytes = bytesCounter("write");
+        this.readBytes = bytesCounter("read");
+    }
+
+    public AbstractStorageEngine getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void store(StoreFileContext context) throws IOException {
+        InputStream inputStream = context.getInputStream();
+        CountingInputStream countingInputStream = new CountingInputStream(inputStream);
+        context.setInputStream(countingInputStream);
+        try {
+            record(storeMeters, () -> delegate.store(context));
+        } finally {
+            context.setInputStream(inputStream);
+            writeBytes.increment(countingInputStream.getCount());
+        }
+    }
+
+    @Override
+    public void delete(DeleteFileContext context) throws IOException {
+        record(deleteMeters, () -> delegate.delete(context));
+    }
+
+    @Override
+    public void storeChunk(StoreFileChunkContext context) throws IOException {
+        InputStream inputStream = context.getInputStream();
+        CountingInputStream countingInputStream = new CountingInputStream(inputStream);
+        context.setInputStream(countingInputStream);
+        try {
+            record(storeChunkMeters, () -> delegate.storeChunk(context));
+        } finally {
+            context.setInputStream(inputStream);
+            writeBytes.increment(countingInputStream.getCount());
+        }
+    }
+
+    @Override
+    public void mergeFile(MergeFileContext context) throws IOException {
+        record(mergeFileMeters, () -> delegate.mergeFile(context));
+    }
+
+    @Override
+    public void realFile(ReadFileContext context) throws IOException {
+        OutputStream outputStream = context.getOutputStream();
+        CountingOutputStream countingOutputStream = new CountingOutputStream(outputStream);
+        context.setOutputStream(countingOutputStream);
+        try {
+            record(readMeters, () -> delegate.realFile(context));
+        } finally {
+            context.setOutputStream(outputStream);
+            readBytes.increment(countingOutputStream.getCount());
+        }
+    }
+
+    @Override
+    public void realFileRange(ReadFileRangeContext context) throws IOException {
+        OutputStream outputStream = context.getOutputStream();
+        CountingOutputStream countingOutputStream = new CountingOutputStream(outputStream);
+        context.setOutputStream(countingOutputStream);
+        try {
+            record(readRangeMeters, () -> delegate.realFileRange(context));
+        } finally {
+            context.setOutputStream(outputStream);
+            readBytes.increment(countingOutputStream.getCount());
+        }
+    }
+
+    /*****************************************private*****************************************/
+
+    /**
+     * 执行一次存储引擎调用并记录耗时、并发数和错误
+     *
+     * @param meters
+     * @param action
+     * @throws IOException
+     */
+    private void record(OperationMeters meters, StorageAction action) throws IOException {
+        meters.inFlight.incrementAndGet();
+        long startTime = meterRegistry.config().clock().monotonicTime();
+        boolean success = false;
+        try {
+            action.execute();
+            success = true;
+        } catch (IOException | RuntimeException | Error e) {
+            errorCounter(meters.operation, e).increment();
+            throw e;
+        } finally {
+            long elapsed = meterRegistry.config().clock().monotonicTime() - startTime;
+            (success ? meters.successTimer : meters.errorTimer).record(elapsed, TimeUnit.NANOSECONDS);
+            meters.inFlight.decrementAndGet();
+        }
+    }
+
+    private Counter bytesCounter(String direction) {
+        return Counter.builder(BYTES_METER_NAME)
+                .description("存储引擎读写的字节数")
+                .baseUnit("bytes")
+                .tag(ENGINE_TAG, engineName)
+                .tag(DIRECTION_TAG, direction)
+                .register(meterRegistry);
+    }
+
+    private Counter errorCounter(String operation, Throwable e) {
+        String exception = e.getClass().getSimpleName();
+        return errorCounters.computeIfAbsent(operation + ":" + exception, key -> Counter.builder(ERRORS_METER_NAME)
+                .description("存储引擎调用失败的次数")
+                .tag(ENGINE_TAG, engineName)
+                .tag(OPERATION_TAG, operation)
+                .tag(EXCEPTION_TAG, exception)
+                .register(meterRegistry));
+    }
+
+    /**
+     * 一个存储引擎操作的所有指标
+     */
+    private class OperationMeters {
+
+        private final String operation;
+
+        private final Timer successTimer;
+
+        private final Timer errorTimer;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        OperationMeters(String operation, boolean percentileHistogram) {
+            this.operation = operation;
+            this.successTimer = timer("success", percentileHistogram);
+            this.errorTimer = timer("error", percentileHistogram);
+            Gauge.builder(IN_FLIGHT_METER_NAME, inFlight, AtomicInteger::get)
+                    .description("存储引擎正在执行的调用数")
+                    .tag(ENGINE_TAG, engineName)
+                    .tag(OPERATION_TAG, operation)
+                    .register(meterRegistry);
+        }
+
+        private Timer timer(String outcome, boolean percentileHistogram) {
+            return Timer.builder(OPERATION_METER_NAME)
+                    .description("存储引擎调用的耗时")
+                    .tag(ENGINE_TAG, engineName)
+                    .tag(OPERATION_TAG, operation)
+                    .tag(OUTCOME_TAG, outcome)
+                    .publishPercentileHistogram(percentileHistogram)
+                    .register(meterRegistry);
+        }
+
+    }
+
+    /**
+     * 一次存储引擎调用
+     */
+    @FunctionalInterface
+    private interface StorageAction {
+
+        void execute() throws IOException;
+
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.wuaro.pan.storage.engine.core.metrics;
+
+import com.wuaro.pan.storage.engine.core.async.StorageEngineIoExecutor;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把存储引擎IO线程池的统计数据注册为监控指标
+ * 线程池的活跃线程数、排队任务数可以直接看出请求是卡在线程池排队还是卡在存储引擎本身
+ */
+@Component
+public class StorageEngineIoExecutorMetrics implements MeterBinder {
+
+    private static final String METER_NAME_PREFIX = "rpan.storage.engine.io.executor.";
+
+    private final StorageEngineIoExecutor ioExecutor;
+
+    @Autowired
+    public StorageEngineIoExecutorMetrics(StorageEngineIoExecutor ioExecutor) {
+        this.ioExecutor = ioExecutor;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder(METER_NAME_PREFIX + "active", ioExecutor, StorageEngineIoExecutor::getActiveCount)
+                .description("正在执行任务的IO线程数")
+                .register(registry);
+        Gauge.builder(METER_NAME_PREFIX + "queued", ioExecutor, StorageEngineIoExecutor::getQueueSize)
+                .description("排队等待执行的任务数")
+                .register(registry);
+        Gauge.builder(METER_NAME_PREFIX + "pool.max", ioExecutor, StorageEngineIoExecutor::getMaxPoolSize)
+                .description("IO线程数上限")
+                .register(registry);
+        Gauge.builder(METER_NAME_PREFIX + "queue.wait.max", ioExecutor, executor -> nanosToSeconds(executor.getMaxQueueWaitNanos()))
+                .description("单个任务排队等待的最大耗时")
+                .baseUnit("seconds")
+                .register(registry);
+        FunctionCounter.builder(METER_NAME_PREFIX + "submitted", ioExecutor, StorageEngineIoExecutor::getSubmittedCount)
+                .description("提交成功的任务数")
+                .register(registry);
+        FunctionCounter.builder(METER_NAME_PREFIX + "completed", ioExecutor, StorageEngineIoExecutor::getCompletedCount)
+                .description("执行成功的任务数")
+                .register(registry);
+        FunctionCounter.builder(METER_NAME_PREFIX + "failed", ioExecutor, StorageEngineIoExecutor::getFailedCount)
+                .description("执行失败的任务数")
+                .register(registry);
+        FunctionCounter.builder(METER_NAME_PREFIX + "rejected", ioExecutor, StorageEngineIoExecutor::getRejectedCount)
+                .description("线程池已满被拒绝的任务数")
+                .register(registry);
+        FunctionCounter.builder(METER_NAME_PREFIX + "queue.wait", ioExecutor, executor -> nanosToSeconds(executor.getQueueWaitNanos()))
+                .description("所有任务排队等待的总耗时")
+                .baseUnit("seconds")
+                .register(registry);
+        FunctionCounter.builder(METER_NAME_PREFIX + "execute", ioExecutor, executor -> nanosToSeconds(executor.getExecuteNanos()))
+                .description("所有任务执行的总耗时")
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    /*****************************************private*****************************************/
+
+    private static double nanosToSeconds(long nanos) {
+        return (double) nanos / TimeUnit.SECONDS.toNanos(1);
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.wuaro.pan.storage.engine.core.metrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "com.wuaro.pan.storage.engine.metrics")
+@Data
+public class MetricsStorageEngineConfig {
+
+    /**
+     * 是否统计每个存储引擎的调用耗时、传输字节数、并发数和错误数
+     */
+    private Boolean enabled = Boolean.TRUE;
+
+    /**
+     * 调用耗时是否发布直方图的分桶数据，用于在监控系统中计算P99等分位数
+     */
+    private Boolean percentileHistogram = Boolean.TRUE;
+
+}
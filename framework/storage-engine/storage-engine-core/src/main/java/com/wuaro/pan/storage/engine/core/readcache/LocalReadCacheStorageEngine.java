@@ -0,0 +1,625 @@
+package com.wuaro.pan.storage.engine.core.readcache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.core.utils.FileUtils;
+import com.wuaro.pan.core.utils.UUIDUtil;
+import com.wuaro.pan.storage.engine.core.StorageEngine;
+import com.wuaro.pan.storage.engine.core.context.*;
+import com.wuaro.pan.storage.engine.core.readcache.config.LocalReadCacheStorageEngineConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections.CollectionUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地磁盘读缓存的文件存储引擎装饰器，缓存具体的（远程）存储引擎中的文件
+ * <p>
+ * 1、读取完整文件时先查本地磁盘缓存，未命中时从具体的存储引擎拉取完整文件，边写入缓存文件边输出给调用方，不需要等整个文件拉取完成
+ * 2、同一个文件同时未命中时只有一个请求去远程拉取，调用方给出了文件大小时，其他请求跟随正在写入的缓存文件边读边输出；
+ * 文件大小未知时其他请求直接读远程
+ * 3、区间读取未命中时直接读远程，同时在后台拉取完整文件，后续的区间读取命中缓存
+ * 4、缓存按照文件的总大小限制容量，超过之后淘汰最久没有访问的文件，超过单文件上限的文件不缓存：
+ * 调用方给出了文件大小时事先判断，不会为了判断大小而拉取文件；大小未知时写入缓存超过上限后放弃缓存，但继续输出给调用方
+ * 5、删除文件时同时删除缓存，存储和合并直接交给具体的存储引擎
+ * <p>
+ * 缓存的是具体的存储引擎中保存的原始字节，压缩存储的文件缓存的是压缩之后的内容
+ * <p>
+ * 缓存文件使用专用的后缀，启动时只删除缓存目录下带有该后缀的文件；缓存目录是存储文件的根目录或者它的上级目录时拒绝启动
+ */
+@Component
+@Slf4j
+public class LocalReadCacheStorageEngine implements StorageEngine {
+
+    /**
+     * 缓存文件的后缀，启动时只清理带有该后缀的文件
+     */
+    public static final String CACHE_FILE_SUFFIX = ".rpan-read-cache";
+
+    private static final long WEIGHT_UNIT = 1024L;
+
+    private final StorageEngine delegate;
+
+    private final LocalReadCacheStorageEngineConfig config;
+
+    private final TaskExecutor fillTaskExecutor;
+
+    private final File cacheFolder;
+
+    /**
+     * 已缓存的文件，key为文件的真实存储路径
+     */
+    private final Cache<String, CachedObject> cachedObjects;
+
+    /**
+     * 超过单文件上限不能缓存的文件，避免每次读取都重复拉取
+     */
+    private final Cache<String, Boolean> uncacheableObjects;
+
+    /**
+     * 正在拉取的文件，key为文件的真实存储路径
+     */
+    private final Map<String, Filling> fillings = new ConcurrentHashMap<>();
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    @Autowired
+    public LocalReadCacheStorageEngine(@Qualifier(value = "routingStorageEngine") StorageEngine delegate,
+                                       LocalReadCacheStorageEngineConfig config,
+                                       @Qualifier(value = "readCacheFillTaskExecutor") TaskExecutor fillTaskExecutor) throws IOException {
+        this.delegate = delegate;
+        this.config = config;
+        this.fillTaskExecutor = fillTaskExecutor;
+        this.cacheFolder = new File(config.getCachePath());
+        this.cachedObjects = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(Math.max(config.getMaxCacheSize() / WEIGHT_UNIT, 1L))
+                .weigher((String realPath, CachedObject cachedObject) -> (int) Math.min(cachedObject.length / WEIGHT_UNIT + 1, Integer.MAX_VALUE))
+                .removalListener((RemovalListener<String, CachedObject>) notification -> deleteCacheFile(notification.getValue().file))
+                .build();
+        this.uncacheableObjects = CacheBuilder.newBuilder()
+                .maximumSize(10000L)
+                .expireAfterWrite(1L, TimeUnit.HOURS)
+                .build();
+        if (isEnabled()) {
+            checkCacheFolder();
+            org.apache.commons.io.FileUtils.forceMkdir(cacheFolder);
+            deleteStaleCacheFiles();
+        }
+    }
+
+    @Override
+    public void store(StoreFileContext context) throws IOException {
+        delegate.store(context);
+    }
+
+    /**
+     * 删除物理文件，同时删除本地缓存
+     * 正在拉取的文件放弃本次拉取，拉取完成后不会写入缓存
+     *
+     * @param context
+     * @throws IOException
+     */
+    @Override
+    public void delete(DeleteFileContext context) throws IOException {
+        try {
+            delegate.delete(context);
+        } finally {
+            if (isEnabled() && CollectionUtils.isNotEmpty(context.getRealFilePathList())) {
+                for (String realPath : context.getRealFilePathList()) {
+                    fillings.remove(realPath);
+                    cachedObjects.invalidate(realPath);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void storeChunk(StoreFileChunkContext context) throws IOException {
+        delegate.storeChunk(context);
+    }
+
+    @Override
+    public void mergeFile(MergeFileContext context) throws IOException {
+        delegate.mergeFile(context);
+    }
+
+    /**
+     * 读取文件内容
+     * 命中缓存时直接从本地文件输出，未命中时边拉取边写入缓存边输出，不能缓存的文件直接读远程
+     *
+     * @param context
+     * @throws IOException
+     */
+    @Override
+    public void realFile(ReadFileContext context) throws IOException {
+        if (!isEnabled()) {
+            delegate.realFile(context);
+            return;
+        }
+        String realPath = context.getRealPath();
+        CachedObject cachedObject = cachedObjects.getIfPresent(realPath);
+        FileInputStream inputStream = openCacheFile(realPath, cachedObject);
+        if (Objects.nonNull(inputStream)) {
+            hitCount.increment();
+            FileUtils.writeFile2OutputStream(inputStream, context.getOutputStream(), cachedObject.length);
+            return;
+        }
+        missCount.increment();
+        if (!isCacheable(realPath, context.getStoredSize())) {
+            delegate.realFile(context);
+            return;
+        }
+        Filling filling = new Filling(newCacheFile(), Objects.nonNull(context.getStoredSize()));
+        Filling existing = fillings.putIfAbsent(realPath, filling);
+        if (Objects.isNull(existing)) {
+            fill(realPath, filling, context.getOutputStream());
+            return;
+        }
+        if (existing.followable) {
+            follow(existing, context.getOutputStream());
+            return;
+        }
+        delegate.realFile(context);
+    }
+
+    /**
+     * 读取文件指定区间的内容
+     * 命中缓存时直接从本地文件按位置读取，未命中时读远程，同时在后台拉取完整文件
+     *
+     * @param context
+     * @throws IOException
+     */
+    @Override
+    public void realFileRange(ReadFileRangeContext context) throws IOException {
+        if (!isEnabled()) {
+            delegate.realFileRange(context);
+            return;
+        }
+        String realPath = context.getRealPath();
+        CachedObject cachedObject = cachedObjects.getIfPresent(realPath);
+        FileInputStream inputStream = openCacheFile(realPath, cachedObject);
+        if (Objects.nonNull(inputStream)) {
+            hitCount.increment();
+            try (FileInputStream in = inputStream) {
+                FileUtils.writeChannelRange2OutputStream(in.getChannel(), context.getOutputStream(), context.getOffset(), context.getLength());
+            }
+            return;
+        }
+        missCount.increment();
+        Long storedSize = context.getStoredSize();
+        if (isCacheable(realPath, storedSize) && !fillings.containsKey(realPath)) {
+            fillTaskExecutor.execute(() -> fillInBackground(realPath, storedSize));
+        }
+        delegate.realFileRange(context);
+    }
+
+    /**
+     * 命中缓存的次数
+     *
+     * @return
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * 未命中缓存的次数
+     *
+     * @return
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /*****************************************private*****************************************/
+
+    private boolean isEnabled() {
+        return Boolean.TRUE.equals(config.getEnabled());
+    }
+
+    /**
+     * 校验缓存目录
+     * 缓存目录是文件系统的根目录、用户目录或者默认的存储文件根目录，以及它们的上级目录时拒绝启动，避免和存储的文件混在一起
+     */
+    private void checkCacheFolder() throws IOException {
+        Path cachePath = cacheFolder.getCanonicalFile().toPath();
+        if (Objects.isNull(cachePath.getParent())) {
+            throw new RPanFrameworkException("本地磁盘读缓存的目录不能是文件系统的根目录：" + cachePath);
+        }
+        for (String protectedPath : Arrays.asList(System.getProperty("user.home"),
+                FileUtils.generateDefaultStoreFileRealPath(),
+                FileUtils.generateDefaultStoreFileChunkRealPath())) {
+            if (new File(protectedPath).getCanonicalFile().toPath().startsWith(cachePath)) {
+                throw new RPanFrameworkException("本地磁盘读缓存的目录不能包含存储文件的根目录：" + cachePath);
+            }
+        }
+    }
+
+    /**
+     * 删除上次运行留下的缓存文件，只删除缓存目录下带有缓存文件后缀的文件，不删除其他文件和子目录
+     */
+    private void deleteStaleCacheFiles() {
+        File[] staleFiles = cacheFolder.listFiles(file -> file.isFile() && file.getName().endsWith(CACHE_FILE_SUFFIX));
+        if (Objects.isNull(staleFiles)) {
+            return;
+        }
+        for (File staleFile : staleFiles) {
+            deleteCacheFile(staleFile);
+        }
+    }
+
+    /**
+     * 判断文件是否可以缓存
+     * 调用方给出的文件大小超过单文件上限时直接记录为不能缓存，不再拉取
+     *
+     * @param realPath
+     * @param storedSize 文件在存储引擎中保存的字节数，为空表示未知
+     * @return
+     */
+    private boolean isCacheable(String realPath, Long storedSize) {
+        if (Objects.nonNull(storedSize) && storedSize > config.getMaxObjectSize()) {
+            uncacheableObjects.put(realPath, Boolean.TRUE);
+            return false;
+        }
+        return Objects.isNull(uncacheableObjects.getIfPresent(realPath));
+    }
+
+    private File newCacheFile() {
+        return new File(cacheFolder, UUIDUtil.getUUID() + CACHE_FILE_SUFFIX);
+    }
+
+    /**
+     * 区间读取未命中时在后台拉取完整文件
+     *
+     * @param realPath
+     * @param storedSize
+     */
+    private void fillInBackground(String realPath, Long storedSize) {
+        if (Objects.nonNull(cachedObjects.getIfPresent(realPath))) {
+            return;
+        }
+        Filling filling = new Filling(newCacheFile(), Objects.nonNull(storedSize));
+        if (Objects.nonNull(fillings.putIfAbsent(realPath, filling))) {
+            return;
+        }
+        try {
+            fill(realPath, filling, null);
+        } catch (IOException | RuntimeException e) {
+            log.warn("fill the cache of {} failed", realPath, e);
+        }
+    }
+
+    /**
+     * 从具体的存储引擎拉取完整文件，写入缓存文件的同时输出给调用方
+     * <p>
+     * 1、文件大小已知时不限制写入缓存的大小，其他请求可以跟随缓存文件读取，调用方的输出流失败时继续拉取，保证跟随的请求可以读完
+     * 2、文件大小未知时写入缓存超过单文件上限后放弃缓存，继续输出给调用方，并记录为不能缓存
+     * 3、拉取完成时文件已经被删除的，不写入缓存
+     *
+     * @param realPath
+     * @param filling
+     * @param outputStream 调用方的输出流，后台拉取时为空
+     * @throws IOException
+     */
+    private void fill(String realPath, Filling filling, OutputStream outputStream) throws IOException {
+        FillOutputStream fillOutputStream = null;
+        try {
+            fillOutputStream = new FillOutputStream(outputStream, filling, filling.followable ? Long.MAX_VALUE : config.getMaxObjectSize());
+            ReadFileContext readFileContext = new ReadFileContext();
+            readFileContext.setRealPath(realPath);
+            readFileContext.setOutputStream(fillOutputStream);
+            delegate.realFile(readFileContext);
+            fillOutputStream.close();
+            if (!fillOutputStream.caching) {
+                filling.finish(new IOException("the cache fill of " + realPath + " is abandoned"));
+                deleteCacheFile(filling.file);
+                if (fillOutputStream.exceeded) {
+                    uncacheableObjects.put(realPath, Boolean.TRUE);
+                }
+            } else if (fillings.get(realPath) != filling) {
+                filling.finish(null);
+                deleteCacheFile(filling.file);
+            } else {
+                cachedObjects.put(realPath, new CachedObject(filling.file, fillOutputStream.written));
+                filling.finish(null);
+            }
+        } catch (IOException | RuntimeException e) {
+            filling.finish(e);
+            if (Objects.nonNull(fillOutputStream)) {
+                fillOutputStream.abort();
+            }
+            deleteCacheFile(filling.file);
+            throw e;
+        } finally {
+            fillings.remove(realPath, filling);
+        }
+        fillOutputStream.rethrowClientFailure();
+    }
+
+    /**
+     * 跟随其他请求正在写入的缓存文件，边等待边输出已经写入的部分
+     * 与读取缓存文件一致，输出完成后关闭调用方的输出流
+     *
+     * @param filling
+     * @param outputStream
+     * @throws IOException
+     */
+    private void follow(Filling filling, OutputStream outputStream) throws IOException {
+        try (OutputStream out = outputStream) {
+            FileInputStream inputStream = null;
+            try {
+                long position = 0L;
+                long available;
+                while ((available = filling.awaitAvailable(position)) > position) {
+                    if (Objects.isNull(inputStream)) {
+                        inputStream = new FileInputStream(filling.file);
+                    }
+                    FileUtils.writeChannelRange2OutputStream(inputStream.getChannel(), out, position, available - position);
+                    position = available;
+                }
+            } finally {
+                if (Objects.nonNull(inputStream)) {
+                    inputStream.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 打开缓存文件
+     * 缓存文件可能刚好被淘汰删除，此时移除缓存记录，由调用方改为读远程
+     *
+     * @param realPath
+     * @param cachedObject
+     * @return 没有缓存或者缓存文件不存在时返回null
+     */
+    private FileInputStream openCacheFile(String realPath, CachedObject cachedObject) {
+        if (Objects.isNull(cachedObject)) {
+            return null;
+        }
+        try {
+            return new FileInputStream(cachedObject.file);
+        } catch (FileNotFoundException e) {
+            cachedObjects.asMap().remove(realPath, cachedObject);
+            return null;
+        }
+    }
+
+    private void deleteCacheFile(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            log.warn("delete the cache file {} failed", file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * 缓存的文件
+     */
+    private static class CachedObject {
+
+        private final File file;
+
+        private final long length;
+
+        CachedObject(File file, long length) {
+            this.file = file;
+            this.length = length;
+        }
+
+    }
+
+    /**
+     * 正在拉取的文件
+     * 记录已经写入缓存文件的字节数，跟随的请求等待新写入的数据
+     */
+    private static class Filling {
+
+        private final File file;
+
+        /**
+         * 是否允许其他请求跟随读取，只有文件大小已知时才允许，大小未知的文件可能中途放弃缓存
+         */
+        private final boolean followable;
+
+        private long written;
+
+        private boolean done;
+
+        private Throwable failure;
+
+        Filling(File file, boolean followable) {
+            this.file = file;
+            this.followable = followable;
+        }
+
+        synchronized void advance(long written) {
+            this.written = written;
+            notifyAll();
+        }
+
+        synchronized void finish(Throwable failure) {
+            this.done = true;
+            this.failure = failure;
+            notifyAll();
+        }
+
+        /**
+         * 等待缓存文件写入超过指定位置的数据，或者拉取结束
+         *
+         * @param position
+         * @return 已经写入的字节数，等于position表示拉取已经完成
+         * @throws IOException 拉取失败或者放弃缓存
+         */
+        synchronized long awaitAvailable(long position) throws IOException {
+            while (written <= position && !done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for the cache fill");
+                }
+            }
+            if (Objects.nonNull(failure)) {
+                throw new IOException("the cache fill failed", failure);
+            }
+            return written;
+        }
+
+    }
+
+    /**
+     * 拉取文件时使用的输出流，同时写入缓存文件和调用方的输出流
+     */
+    private static class FillOutputStream extends OutputStream {
+
+        private final OutputStream clientOutputStream;
+
+        private final OutputStream cacheOutputStream;
+
+        private final Filling filling;
+
+        private final long limit;
+
+        private long written;
+
+        private boolean caching = true;
+
+        private boolean exceeded;
+
+        private IOException clientFailure;
+
+        FillOutputStream(OutputStream clientOutputStream, Filling filling, long limit) throws IOException {
+            this.clientOutputStream = clientOutputStream;
+            this.cacheOutputStream = new FileOutputStream(filling.file);
+            this.filling = filling;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (caching) {
+                if (written + len > limit) {
+                    exceeded = true;
+                    stopCaching();
+                } else {
+                    try {
+                        cacheOutputStream.write(b, off, len);
+                        written += len;
+                        filling.advance(written);
+                    } catch (IOException e) {
+                        log.warn("write the cache file {} failed", filling.file.getAbsolutePath(), e);
+                        stopCaching();
+                    }
+                }
+            }
+            if (Objects.nonNull(clientOutputStream) && Objects.isNull(clientFailure)) {
+                try {
+                    clientOutputStream.write(b, off, len);
+                } catch (IOException e) {
+                    onClientFailure(e);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (Objects.nonNull(clientOutputStream) && Objects.isNull(clientFailure)) {
+                try {
+                    clientOutputStream.flush();
+                } catch (IOException e) {
+                    onClientFailure(e);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (caching) {
+                cacheOutputStream.close();
+            }
+            if (Objects.nonNull(clientOutputStream) && Objects.isNull(clientFailure)) {
+                try {
+                    clientOutputStream.close();
+                } catch (IOException e) {
+                    onClientFailure(e);
+                }
+            }
+        }
+
+        /**
+         * 拉取失败时关闭所有的输出流，忽略关闭时的异常
+         */
+        void abort() {
+            try {
+                cacheOutputStream.close();
+            } catch (IOException e) {
+            }
+            try {
+                if (Objects.nonNull(clientOutputStream)) {
+                    clientOutputStream.close();
+                }
+            } catch (IOException e) {
+            }
+        }
+
+        void rethrowClientFailure() throws IOException {
+            if (Objects.nonNull(clientFailure)) {
+                throw clientFailure;
+            }
+        }
+
+        /**
+         * 放弃缓存，跟随读取的请求立即结束等待；调用方的输出流已经失败时没有必要继续拉取
+         *
+         * @throws IOException
+         */
+        private void stopCaching() throws IOException {
+            caching = false;
+            try {
+                cacheOutputStream.close();
+            } catch (IOException e) {
+            }
+            filling.finish(new IOException("the cache fill is abandoned"));
+            rethrowClientFailure();
+        }
+
+        /**
+         * 调用方的输出流失败
+         * 有其他请求跟随读取时继续拉取，拉取完成后再抛出异常；否则立即抛出异常终止拉取
+         *
+         * @param e
+         * @throws IOException
+         */
+        private void onClientFailure(IOException e) throws IOException {
+            clientFailure = e;
+            if (!caching || !filling.followable) {
+                throw e;
+            }
+        }
+
+    }
+
+}
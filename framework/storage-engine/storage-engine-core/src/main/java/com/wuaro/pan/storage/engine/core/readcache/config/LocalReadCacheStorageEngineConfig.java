@@ -0,0 +1,65 @@
+package com.wuaro.pan.storage.engine.core.readcache.config;
+
+import com.wuaro.pan.core.utils.FileUtils;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Component
+@ConfigurationProperties(prefix = "com.wuaro.pan.storage.engine.read-cache")
+@Data
+public class LocalReadCacheStorageEngineConfig {
+
+    /**
+     * 是否开启本地磁盘读缓存
+     * 只有具体的存储引擎是OSS等远程存储时才需要开启
+     */
+    private Boolean enabled = Boolean.FALSE;
+
+    /**
+     * 本地磁盘缓存的目录，启动时会删除其中上次运行留下的缓存文件
+     * 不能是存储文件的根目录或者它的上级目录
+     */
+    private String cachePath = FileUtils.generateDefaultStoreFileRealPath() + File.separator + "cache";
+
+    /**
+     * 本地磁盘缓存的总大小上限，单位字节，超过之后淘汰最久没有访问的文件
+     */
+    private Long maxCacheSize = 10L * 1024 * 1024 * 1024;
+
+    /**
+     * 单个文件可以缓存的最大大小，单位字节，超过的文件直接从远程读取
+     */
+    private Long maxObjectSize = 1024L * 1024 * 1024;
+
+    /**
+     * 区间读取未命中缓存时，后台拉取完整文件的最大并发数
+     */
+    private Integer fillParallelism = 2;
+
+    /**
+     * 区间读取未命中缓存时后台拉取完整文件的线程池
+     * 队列满了之后直接放弃本次拉取，下次读取时再尝试
+     *
+     * @return
+     */
+    @Bean(name = "readCacheFillTaskExecutor")
+    public ThreadPoolTaskExecutor readCacheFillTaskExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+
+        taskExecutor.setCorePoolSize(getFillParallelism());
+        taskExecutor.setMaxPoolSize(getFillParallelism());
+        taskExecutor.setKeepAliveSeconds(200);
+        taskExecutor.setQueueCapacity(256);
+        taskExecutor.setThreadNamePrefix("read-cache-fill-thread");
+        taskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+
+        return taskExecutor;
+    }
+
+}
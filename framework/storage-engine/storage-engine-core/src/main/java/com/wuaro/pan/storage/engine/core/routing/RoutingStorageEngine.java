@@ -0,0 +1,330 @@
+package com.wuaro.pan.storage.engine.core.routing;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.wuaro.pan.core.constants.RPanConstants;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.core.utils.FileUtils;
+import com.wuaro.pan.storage.engine.core.AbstractStorageEngine;
+import com.wuaro.pan.storage.engine.core.StorageEngine;
+import com.wuaro.pan.storage.engine.core.context.*;
+import com.wuaro.pan.storage.engine.core.metrics.MeteredStorageEngine;
+import com.wuaro.pan.storage.engine.core.metrics.config.MetricsStorageEngineConfig;
+import com.wuaro.pan.storage.engine.core.routing.config.RoutingStorageEngineConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 多个具体存储引擎之间的路由
+ * <p>
+ * 1、文件的真实存储路径以存储引擎的名称作为前缀，格式为：engineName://path，例如 oss://2024/1/1/xxx.txt
+ * 2、新文件和文件分片按照写入规则（文件大小、文件后缀、上传用户）选择存储引擎，都没有命中时写入默认的存储引擎，
+ * 返回的路径加上该存储引擎的前缀；同一个文件的所有分片命中同一条规则，保证分片都在同一个存储引擎中
+ * 3、读取、删除、合并根据路径的前缀找到文件所在的存储引擎，去掉前缀之后交给该存储引擎处理
+ * 4、没有前缀的历史路径交给默认的存储引擎处理
+ * <p>
+ * 文件在存储引擎之间迁移时只需要替换真实存储路径这一个字段，就可以原子地切换文件所在的存储引擎
+ * <p>
+ * 开启调用指标统计时每个具体存储引擎都包装一层MeteredStorageEngine，按存储引擎区分调用耗时和传输字节数
+ */
+@Component
+@Slf4j
+public class RoutingStorageEngine implements StorageEngine {
+
+    public static final String ENGINE_SEPARATOR = "://";
+
+    private static final Pattern ENGINE_PREFIX_PATTERN = Pattern.compile("^([a-z0-9]+)" + Pattern.quote(ENGINE_SEPARATOR));
+
+    /**
+     * 所有的具体存储引擎，key为存储引擎的名称
+     * 开启了调用指标统计时，value是包装了具体存储引擎的MeteredStorageEngine
+     */
+    private final Map<String, StorageEngine> engines = Maps.newLinkedHashMap();
+
+    private final String defaultEngineName;
+
+    private final List<RoutingStorageEngineConfig.WriteRule> writeRules;
+
+    public RoutingStorageEngine(List<AbstractStorageEngine> engineList, RoutingStorageEngineConfig config) {
+        this(engineList, config, null, null);
+    }
+
+    @Autowired
+    public RoutingStorageEngine(List<AbstractStorageEngine> engineList,
+                                RoutingStorageEngineConfig config,
+                                MetricsStorageEngineConfig metricsConfig,
+                                MeterRegistry meterRegistry) {
+        boolean metricsEnabled = Objects.nonNull(metricsConfig) && Objects.nonNull(meterRegistry) && metricsConfig.getEnabled();
+        for (AbstractStorageEngine engine : engineList) {
+            StorageEngine routedEngine = metricsEnabled
+                    ? new MeteredStorageEngine(engine, meterRegistry, metricsConfig.getPercentileHistogram())
+                    : engine;
+            if (Objects.nonNull(engines.putIfAbsent(engine.getEngineName(), routedEngine))) {
+                throw new RPanFrameworkException("存储引擎的名称重复：" + engine.getEngineName());
+            }
+        }
+        if (engines.isEmpty()) {
+            throw new RPanFrameworkException("具体的存储引擎实现需要引用到项目中");
+        }
+        if (StringUtils.isBlank(config.getDefaultEngine())) {
+            if (engines.size() > 1) {
+                throw new RPanFrameworkException("引入了多个存储引擎时需要配置默认的存储引擎");
+            }
+            this.defaultEngineName = engines.keySet().iterator().next();
+        } else {
+            this.defaultEngineName = config.getDefaultEngine();
+            getEngine(defaultEngineName);
+        }
+        this.writeRules = Lists.newArrayList(config.getWriteRules());
+        for (RoutingStorageEngineConfig.WriteRule writeRule : writeRules) {
+            getEngine(writeRule.getEngine());
+        }
+        log.info("storage engines: {}, default engine: {}, write rules: {}", engines.keySet(), defaultEngineName, writeRules.size());
+    }
+
+    /**
+     * 保存物理文件到写入规则选择的存储引擎
+     *
+     * @param context
+     * @throws IOException
+     */
+    @Override
+    public void store(StoreFileContext context) throws IOException {
+        Long routingSize = Objects.nonNull(context.getRoutingSize()) ? context.getRoutingSize() : context.getTotalSize();
+        storeTo(selectEngineName(context.getFilename(), routingSize, context.getUserId()), context);
+    }
+
+    /**
+     * 保存物理文件到指定的存储引擎
+     *
+     * @param engineName
+     * @param context
+     * @throws IOException
+     */
+    public void storeTo(String engineName, StoreFileContext context) throws IOException {
+        getEngine(engineName).store(context);
+        context.setRealPath(wrap(engineName, context.getRealPath()));
+    }
+
+    /**
+     * 按照存储引擎分组删除物理文件
+     * 只涉及一个存储引擎时直接交给该存储引擎，涉及多个存储引擎时，某个存储引擎删除失败只把该组的路径记为删除失败
+     *
+     * @param context
+     * @throws IOException
+     */
+    @Override
+    public void delete(DeleteFileContext context) throws IOException {
+        Map<String, List<String>> engineRealPathsMap = Maps.newLinkedHashMap();
+        for (String realPath : context.getRealFilePathList()) {
+            engineRealPathsMap.computeIfAbsent(resolveEngineName(realPath), key -> Lists.newArrayList()).add(realPath);
+        }
+        boolean singleEngine = engineRealPathsMap.size() == 1;
+        for (Map.Entry<String, List<String>> entry : engineRealPathsMap.entrySet()) {
+            try {
+                doDelete(entry.getKey(), entry.getValue(), context.getFailedRealFilePathList());
+            } catch (IOException e) {
+                if (singleEngine) {
+                    throw e;
+                }
+                log.error("delete files from storage engine {} failed", entry.getKey(), e);
+                context.getFailedRealFilePathList().addAll(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 保存文件分片到写入规则选择的存储引擎
+     * 按照整个文件的大小匹配规则，而不是分片的大小
+     *
+     * @param context
+     * @throws IOException
+     */
+    @Override
+    public void storeChunk(StoreFileChunkContext context) throws IOException {
+        String engineName = selectEngineName(context.getFilename(), context.getTotalSize(), context.getUserId());
+        getEngine(engineName).storeChunk(context);
+        context.setRealPath(wrap(engineName, context.getRealPath()));
+    }
+
+    /**
+     * 在文件分片所在的存储引擎中合并文件分片
+     *
+     * @param context
+     * @throws IOException
+     */
+    @Override
+    public void mergeFile(MergeFileContext context) throws IOException {
+        List<String> realPathList = context.getRealPathList();
+        if (CollectionUtils.isEmpty(realPathList)) {
+            throw new RPanFrameworkException("文件分片列表不能为空");
+        }
+        String engineName = resolveEngineName(realPathList.get(0));
+        List<String> engineRealPathList = Lists.newArrayList();
+        for (String realPath : realPathList) {
+            if (!Objects.equals(engineName, resolveEngineName(realPath))) {
+                throw new RPanFrameworkException("文件分片不在同一个存储引擎中，无法合并");
+            }
+            engineRealPathList.add(unwrap(realPath));
+        }
+        context.setRealPathList(engineRealPathList);
+        try {
+            getEngine(engineName).mergeFile(context);
+        } finally {
+            context.setRealPathList(realPathList);
+        }
+        context.setRealPath(wrap(engineName, context.getRealPath()));
+    }
+
+    @Override
+    public void realFile(ReadFileContext context) throws IOException {
+        String realPath = context.getRealPath();
+        context.setRealPath(unwrap(realPath));
+        try {
+            getEngine(resolveEngineName(realPath)).realFile(context);
+        } finally {
+            context.setRealPath(realPath);
+        }
+    }
+
+    @Override
+    public void realFileRange(ReadFileRangeContext context) throws IOException {
+        String realPath = context.getRealPath();
+        context.setRealPath(unwrap(realPath));
+        try {
+            getEngine(resolveEngineName(realPath)).realFileRange(context);
+        } finally {
+            context.setRealPath(realPath);
+        }
+    }
+
+    /**
+     * 解析文件所在的存储引擎名称，没有前缀的路径属于默认的存储引擎
+     *
+     * @param realPath
+     * @return
+     */
+    public String resolveEngineName(String realPath) {
+        Matcher matcher = ENGINE_PREFIX_PATTERN.matcher(StringUtils.defaultString(realPath));
+        return matcher.find() ? matcher.group(1) : defaultEngineName;
+    }
+
+    /**
+     * 按照写入规则选择新文件写入的存储引擎
+     *
+     * @param filename
+     * @param totalSize
+     * @param userId
+     * @return 第一条命中的规则的存储引擎，都没有命中时返回默认的存储引擎
+     */
+    public String selectEngineName(String filename, Long totalSize, Long userId) {
+        String fileSuffix = StringUtils.removeStart(FileUtils.getFileSuffix(filename), RPanConstants.POINT_STR);
+        for (RoutingStorageEngineConfig.WriteRule writeRule : writeRules) {
+            if (matches(writeRule, fileSuffix, totalSize, userId)) {
+                return writeRule.getEngine();
+            }
+        }
+        return defaultEngineName;
+    }
+
+    /**
+     * 是否引入了指定名称的存储引擎
+     *
+     * @param engineName
+     * @return
+     */
+    public boolean containsEngine(String engineName) {
+        return engines.containsKey(engineName);
+    }
+
+    public String getDefaultEngineName() {
+        return defaultEngineName;
+    }
+
+    /**
+     * 给存储引擎返回的路径加上存储引擎的前缀
+     *
+     * @param engineName
+     * @param path
+     * @return
+     */
+    public static String wrap(String engineName, String path) {
+        return engineName + ENGINE_SEPARATOR + path;
+    }
+
+    /**
+     * 去掉真实存储路径中存储引擎的前缀，没有前缀时原样返回
+     *
+     * @param realPath
+     * @return
+     */
+    public static String unwrap(String realPath) {
+        Matcher matcher = ENGINE_PREFIX_PATTERN.matcher(StringUtils.defaultString(realPath));
+        return matcher.find() ? realPath.substring(matcher.end()) : realPath;
+    }
+
+    /*****************************************private*****************************************/
+
+    private StorageEngine getEngine(String engineName) {
+        StorageEngine engine = engines.get(engineName);
+        if (Objects.isNull(engine)) {
+            throw new RPanFrameworkException("存储引擎不存在：" + engineName);
+        }
+        return engine;
+    }
+
+    /**
+     * 判断文件是否命中写入规则
+     * 规则限制了文件大小而文件大小未知时不命中
+     *
+     * @param writeRule
+     * @param fileSuffix 不带点的小写文件后缀
+     * @param totalSize
+     * @param userId
+     * @return
+     */
+    private boolean matches(RoutingStorageEngineConfig.WriteRule writeRule, String fileSuffix, Long totalSize, Long userId) {
+        if (Objects.nonNull(writeRule.getMinSize()) && (Objects.isNull(totalSize) || totalSize < writeRule.getMinSize())) {
+            return false;
+        }
+        if (Objects.nonNull(writeRule.getMaxSize()) && (Objects.isNull(totalSize) || totalSize >= writeRule.getMaxSize())) {
+            return false;
+        }
+        if (CollectionUtils.isNotEmpty(writeRule.getFileSuffixes())
+                && writeRule.getFileSuffixes().stream().noneMatch(suffix -> StringUtils.removeStart(suffix, RPanConstants.POINT_STR).equalsIgnoreCase(fileSuffix))) {
+            return false;
+        }
+        return CollectionUtils.isEmpty(writeRule.getUserIds()) || writeRule.getUserIds().contains(userId);
+    }
+
+    /**
+     * 删除同一个存储引擎中的文件，删除失败的路径还原成带前缀的路径回填
+     *
+     * @param engineName
+     * @param realPaths
+     * @param failedRealPaths
+     * @throws IOException
+     */
+    private void doDelete(String engineName, List<String> realPaths, List<String> failedRealPaths) throws IOException {
+        Map<String, String> engineRealPathMap = Maps.newLinkedHashMap();
+        for (String realPath : realPaths) {
+            engineRealPathMap.put(unwrap(realPath), realPath);
+        }
+        DeleteFileContext context = new DeleteFileContext();
+        context.setRealFilePathList(Lists.newArrayList(engineRealPathMap.keySet()));
+        getEngine(engineName).delete(context);
+        for (String failedRealPath : context.getFailedRealFilePathList()) {
+            failedRealPaths.add(engineRealPathMap.getOrDefault(failedRealPath, failedRealPath));
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.wuaro.pan.storage.engine.core.routing.config;
+
+import com.google.common.collect.Lists;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+@Component
+@ConfigurationProperties(prefix = "com.wuaro.pan.storage.engine.routing")
+@Data
+public class RoutingStorageEngineConfig {
+
+    /**
+     * 新文件默认写入的存储引擎名称：local、oss、fastdfs
+     * 只引入了一个存储引擎时可以不配置；没有前缀的历史文件路径也交给该存储引擎处理
+     */
+    private String defaultEngine;
+
+    /**
+     * 新文件写入的存储引擎的选择规则，按照配置的顺序匹配，使用第一条命中的规则，都没有命中时写入默认的存储引擎
+     */
+    private List<WriteRule> writeRules = Lists.newArrayList();
+
+    /**
+     * 写入规则
+     * 配置了的条件都满足时才算命中，没有配置的条件不做限制
+     */
+    @Data
+    public static class WriteRule {
+
+        /**
+         * 命中规则时写入的存储引擎名称
+         */
+        private String engine;
+
+        /**
+         * 文件大小的下限（包含），单位字节
+         */
+        private Long minSize;
+
+        /**
+         * 文件大小的上限（不包含），单位字节
+         */
+        private Long maxSize;
+
+        /**
+         * 文件后缀列表，不区分大小写，例如：mp4、mkv
+         */
+        private List<String> fileSuffixes = Lists.newArrayList();
+
+        /**
+         * 上传文件的用户ID列表，用于把指定用户的文件写入单独的存储引擎
+         */
+        private List<Long> userIds = Lists.newArrayList();
+
+    }
+
+}
@@ -1,34 +1,77 @@
 package com.wuaro.pan.storage.engine.fastdfs;
 
 import com.github.tobato.fastdfs.domain.StorePath;
-import com.github.tobato.fastdfs.proto.storage.DownloadByteArray;
+import com.github.tobato.fastdfs.service.AppendFileStorageClient;
 import com.github.tobato.fastdfs.service.FastFileStorageClient;
+import com.google.common.base.Splitter;
 import com.wuaro.pan.core.constants.RPanConstants;
 import com.wuaro.pan.core.exception.RPanFrameworkException;
 import com.wuaro.pan.core.utils.FileUtils;
 import com.wuaro.pan.storage.engine.core.AbstractStorageEngine;
 import com.wuaro.pan.storage.engine.core.context.*;
 import com.wuaro.pan.storage.engine.fastdfs.config.FastDFSStorageEngineConfig;
+import lombok.*;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.Cache;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.List;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 /**
  * FastDFS文件存储引擎的实现方案
  */
 @Component
+@Slf4j
 public class FastDFSStorageEngine extends AbstractStorageEngine {
 
+    private static final String CACHE_KEY_TEMPLATE = "fdfs_cache_appender_file_%s_%s";
+
+    private static final String IDENTIFIER_KEY = "identifier";
+
+    private static final String USER_ID_KEY = "userId";
+
+    private static final String OFFSET_KEY = "offset";
+
+    private static final String LENGTH_KEY = "length";
+
+    private static final String POSITION_KEY = "position";
+
+    private static final String APPEND_CLAIM_KEY_TEMPLATE = "fdfs_cache_appender_claim_%s_%s_%s";
+
     @Autowired
     private FastFileStorageClient client;
 
+    @Autowired
+    private AppendFileStorageClient appendClient;
+
     @Autowired
     private FastDFSStorageEngineConfig config;
 
+    @Autowired
+    @Qualifier(value = "fastDFSDeleteTaskExecutor")
+    private ThreadPoolTaskExecutor deleteTaskExecutor;
+
+    /**
+     * FastDFS存储引擎的名称
+     *
+     * @return
+     */
+    @Override
+    public String getEngineName() {
+        return "fastdfs";
+    }
+
     /**
      * 执行保存物理文件的动作
      * 下沉到具体的子类去实现
@@ -44,6 +87,10 @@ public class FastDFSStorageEngine extends AbstractStorageEngine {
     /**
      * 执行删除物理文件的动作
      * 下沉到子类去实现
+     * <p>
+     * FastDFS没有批量删除的接口，使用有界的删除线程池并发删除，
+     * 每个路径单独记录删除结果，删除失败的路径回填到上下文中，不影响其余路径的删除
+     * 文件分片的路径统一指向同一个追加文件，去重之后只删除一次，并清除分片上传的缓存
      *
      * @param context
      * @throws IOException
@@ -51,37 +98,148 @@ public class FastDFSStorageEngine extends AbstractStorageEngine {
     @Override
     protected void doDelete(DeleteFileContext context) throws IOException {
         List<String> realFilePathList = context.getRealFilePathList();
-        if (CollectionUtils.isNotEmpty(realFilePathList)) {
-            realFilePathList.stream().forEach(client::deleteFile);
+        if (CollectionUtils.isEmpty(realFilePathList)) {
+            return;
         }
+        evictChunkUploadCache(realFilePathList);
+        List<CompletableFuture<String>> futures = realFilePathList.stream()
+                .map(this::getBaseUrl)
+                .distinct()
+                .map(realPath -> CompletableFuture.supplyAsync(() -> deleteFile(realPath), deleteTaskExecutor))
+                .collect(Collectors.toList());
+        Set<String> failedRealFilePathList = futures.stream()
+                .map(CompletableFuture::join)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        realFilePathList.stream()
+                .filter(realPath -> failedRealFilePathList.contains(getBaseUrl(realPath)))
+                .forEach(context.getFailedRealFilePathList()::add);
     }
 
     /**
      * 执行保存文件分片
      * 下沉到底层去实现
+     * <p>
+     * 使用FastDFS的追加文件（appender file）实现分片上传，追加文件只按顺序增长，不写入任何填充内容：
+     * 1、计算分片在文件中的偏移量，非最后一个分片为 (chunkNumber - 1) * currentChunkSize，最后一个分片从文件末尾倒推
+     * 2、第一个分片先通过缓存的putIfAbsent写入占位信息抢占该文件的追加文件，抢占成功之后只用自己的内容创建追加文件，再把追加文件的信息写入缓存
+     * 3、追加文件已经存在时查询它的当前大小：
+     * 分片的区间已经写入过（重传）时通过modifyFile覆盖写入；
+     * 分片正好接在文件末尾时通过缓存的putIfAbsent抢占该偏移量，抢占成功之后通过appendFile追加到文件末尾
+     * 4、其余情况（追加文件还没有创建、分片先于前面的分片到达、抢占失败）把分片单独保存为普通文件，合并时再追加到追加文件的末尾
+     * 5、将文件路径和分片的区间拼装成url，单独保存的分片再加上分片在该文件中的位置，保存在上下文里面，用于业务的落库操作
+     * <p>
+     * 按顺序上传的分片全部直接写入追加文件，合并时不需要再复制
      *
      * @param context
      * @throws IOException
      */
     @Override
     protected void doStoreChunk(StoreFileChunkContext context) throws IOException {
-        throw new RPanFrameworkException("FastDFS不支持分片上传的操作");
+        if (Objects.isNull(context.getTotalSize())) {
+            throw new RPanFrameworkException("文件的总大小不能为空");
+        }
+        long totalSize = context.getTotalSize();
+        long length = context.getCurrentChunkSize();
+        long offset = Objects.equals(context.getChunkNumber(), context.getTotalChunks())
+                ? totalSize - length
+                : (context.getChunkNumber() - 1) * length;
+        if (offset < RPanConstants.ZERO_LONG || offset + length > totalSize) {
+            throw new RPanFrameworkException("文件分片的偏移量不合法");
+        }
+
+        String cacheKey = getCacheKey(context.getIdentifier(), context.getUserId());
+        String fullPath = null;
+        AppenderFileEntity entity = getCache().get(cacheKey, AppenderFileEntity.class);
+        if (Objects.isNull(entity) && offset == RPanConstants.ZERO_LONG) {
+            fullPath = createAppenderFile(cacheKey, context, totalSize, length);
+        } else if (Objects.nonNull(entity) && StringUtils.isNotBlank(entity.getPath())) {
+            fullPath = writeAppenderFile(entity, context, offset, length);
+        }
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put(IDENTIFIER_KEY, context.getIdentifier());
+        params.put(USER_ID_KEY, context.getUserId());
+        params.put(OFFSET_KEY, offset);
+        params.put(LENGTH_KEY, length);
+        if (Objects.isNull(fullPath)) {
+            StorePath storePath = client.uploadFile(config.getGroup(), context.getInputStream(), length, FileUtils.getFileExtName(context.getFilename()));
+            fullPath = storePath.getFullPath();
+            params.put(POSITION_KEY, RPanConstants.ZERO_LONG);
+        }
+        context.setRealPath(assembleUrl(fullPath, params));
     }
 
     /**
      * 执行文件分片的动作
      * 下沉到子类实现
+     * <p>
+     * 追加文件中已经按顺序写入了文件开头的若干分片，这里只做收尾：
+     * 1、校验所有分片按偏移量无空洞地覆盖了整个文件
+     * 2、选择包含文件开头的追加文件作为最终文件，查询它的当前大小
+     * 3、按偏移量依次把超出当前大小的分片内容从分片所在的文件追加到最终文件的末尾，然后删除其余的文件
+     * 4、清除分片上传的缓存
+     * 5、追加文件的路径就是最终的文件路径
      *
      * @param context
      */
     @Override
     protected void doMergeFile(MergeFileContext context) throws IOException {
-        throw new RPanFrameworkException("FastDFS不支持分片上传的操作");
+        List<String> chunkPaths = context.getRealPathList();
+        List<String> sortedChunkPaths = chunkPaths.stream()
+                .sorted(Comparator.comparingLong(chunkPath -> Long.parseLong(analysisUrlParams(chunkPath).get(OFFSET_KEY))))
+                .collect(Collectors.toList());
+        long covered = RPanConstants.ZERO_LONG;
+        for (String chunkPath : sortedChunkPaths) {
+            Map<String, String> range = analysisUrlParams(chunkPath);
+            long offset = Long.parseLong(range.get(OFFSET_KEY));
+            if (offset > covered) {
+                throw new RPanFrameworkException("文件分片不完整，文件的唯一标识为：" + context.getIdentifier());
+            }
+            covered = Math.max(covered, offset + Long.parseLong(range.get(LENGTH_KEY)));
+        }
+        if (Objects.nonNull(context.getTotalSize()) && covered < context.getTotalSize()) {
+            throw new RPanFrameworkException("文件分片不完整，文件的唯一标识为：" + context.getIdentifier());
+        }
+
+        String cacheKey = getCacheKey(context.getIdentifier(), context.getUserId());
+        String fullPath = chooseAppenderFile(cacheKey, sortedChunkPaths, context.getIdentifier());
+        String group = fullPath.substring(RPanConstants.ZERO_INT, fullPath.indexOf(RPanConstants.SLASH_STR));
+        String path = fullPath.substring(fullPath.indexOf(RPanConstants.SLASH_STR) + RPanConstants.ONE_INT);
+        long size = client.queryFileInfo(group, path).getFileSize();
+        for (String chunkPath : sortedChunkPaths) {
+            Map<String, String> range = analysisUrlParams(chunkPath);
+            long offset = Long.parseLong(range.get(OFFSET_KEY));
+            long end = offset + Long.parseLong(range.get(LENGTH_KEY));
+            if (end <= size) {
+                continue;
+            }
+            String sourceFullPath = getBaseUrl(chunkPath);
+            if (offset > size || Objects.equals(sourceFullPath, fullPath)) {
+                throw new RPanFrameworkException("文件分片不完整，文件的唯一标识为：" + context.getIdentifier());
+            }
+            appendRange(sourceFullPath, getPosition(range) + size - offset, group, path, end - size);
+            size = end;
+        }
+
+        sortedChunkPaths.stream()
+                .map(this::getBaseUrl)
+                .distinct()
+                .filter(sourceFullPath -> !Objects.equals(sourceFullPath, fullPath))
+                .forEach(this::deleteFile);
+        getCache().evict(cacheKey);
+        sortedChunkPaths.stream()
+                .map(this::analysisUrlParams)
+                .forEach(range -> getCache().evict(getAppendClaimKey(context.getIdentifier(), context.getUserId(), range.get(OFFSET_KEY))));
+
+        context.setRealPath(fullPath);
     }
 
     /**
      * 读取文件内容并写入到输出流中
      * 下沉到子类去实现
+     * <p>
+     * 使用流式的下载回调，通过固定大小的缓冲区直接把storage连接上读到的数据写入输出流，
+     * 不再把整个文件读入内存，每次下载占用的内存与文件大小无关
      *
      * @param context
      */
@@ -91,13 +249,273 @@ public class FastDFSStorageEngine extends AbstractStorageEngine {
         String group = realPath.substring(RPanConstants.ZERO_INT, realPath.indexOf(RPanConstants.SLASH_STR));
         String path = realPath.substring(realPath.indexOf(RPanConstants.SLASH_STR) + RPanConstants.ONE_INT);
 
-        DownloadByteArray downloadByteArray = new DownloadByteArray();
-        byte[] bytes = client.downloadFile(group, path, downloadByteArray);
+        OutputStream outputStream = context.getOutputStream();
+        client.downloadFile(group, path, inputStream -> {
+            FileUtils.writeStream2StreamNormal(inputStream, outputStream);
+            return null;
+        });
+    }
+
+    /**
+     * 读取文件指定区间的内容并写入到输出流中
+     * 使用FastDFS的区间下载，只拉取需要的字节区间
+     *
+     * @param context
+     */
+    @Override
+    protected void doReadFileRange(ReadFileRangeContext context) throws IOException {
+        String realPath = context.getRealPath();
+        String group = realPath.substring(RPanConstants.ZERO_INT, realPath.indexOf(RPanConstants.SLASH_STR));
+        String path = realPath.substring(realPath.indexOf(RPanConstants.SLASH_STR) + RPanConstants.ONE_INT);
 
         OutputStream outputStream = context.getOutputStream();
-        outputStream.write(bytes);
-        outputStream.flush();
-        outputStream.close();
+        client.downloadFile(group, path, context.getOffset(), context.getLength(), inputStream -> {
+            FileUtils.writeStream2StreamWithoutCloseOutput(inputStream, outputStream);
+            return null;
+        });
+    }
+
+    /*****************************************private*****************************************/
+
+    /**
+     * 清除文件分片路径对应的分片上传缓存
+     *
+     * @param realFilePathList
+     */
+    private void evictChunkUploadCache(List<String> realFilePathList) {
+        realFilePathList.stream()
+                .filter(this::checkHaveParams)
+                .map(this::analysisUrlParams)
+                .map(params -> getCacheKey(params.get(IDENTIFIER_KEY), params.get(USER_ID_KEY)))
+                .distinct()
+                .forEach(getCache()::evict);
+    }
+
+    /**
+     * 获取分片上传的缓存Key
+     *
+     * @param identifier
+     * @param userId
+     * @return
+     */
+    private String getCacheKey(String identifier, Object userId) {
+        return String.format(CACHE_KEY_TEMPLATE, identifier, userId);
+    }
+
+    /**
+     * 获取追加文件末尾偏移量的抢占Key，保证同一个偏移量只追加一次
+     *
+     * @param identifier
+     * @param userId
+     * @param offset
+     * @return
+     */
+    private String getAppendClaimKey(String identifier, Object userId, Object offset) {
+        return String.format(APPEND_CLAIM_KEY_TEMPLATE, identifier, userId, offset);
+    }
+
+    /**
+     * 拼装URL
+     *
+     * @param baseUrl
+     * @param params
+     * @return baseUrl?paramKey1=paramValue1&paramKey2=paramValue2
+     */
+    private String assembleUrl(String baseUrl, Map<String, Object> params) {
+        return baseUrl + RPanConstants.QUESTION_MARK_STR + params.entrySet().stream()
+                .map(entry -> entry.getKey() + RPanConstants.EQUALS_MARK_STR + entry.getValue())
+                .collect(Collectors.joining(RPanConstants.AND_MARK_STR));
+    }
+
+    /**
+     * 获取基础URL
+     *
+     * @param url
+     * @return
+     */
+    private String getBaseUrl(String url) {
+        if (checkHaveParams(url)) {
+            return url.substring(RPanConstants.ZERO_INT, url.indexOf(RPanConstants.QUESTION_MARK_STR));
+        }
+        return url;
+    }
+
+    /**
+     * 分析URL参数
+     *
+     * @param url
+     * @return
+     */
+    private Map<String, String> analysisUrlParams(String url) {
+        if (!checkHaveParams(url)) {
+            return new HashMap<>();
+        }
+        String paramsPart = url.substring(url.indexOf(RPanConstants.QUESTION_MARK_STR) + RPanConstants.ONE_INT);
+        return new HashMap<>(Splitter.on(RPanConstants.AND_MARK_STR).omitEmptyStrings().withKeyValueSeparator(RPanConstants.EQUALS_MARK_STR).split(paramsPart));
+    }
+
+    /**
+     * 检查是否是含有参数的URL
+     *
+     * @param url
+     * @return
+     */
+    private boolean checkHaveParams(String url) {
+        return StringUtils.isNotBlank(url) && url.indexOf(RPanConstants.QUESTION_MARK_STR) != RPanConstants.MINUS_ONE_INT;
+    }
+
+    /**
+     * 抢占该文件的追加文件，抢占成功之后用第一个分片的内容创建追加文件
+     *
+     * @param cacheKey
+     * @param context
+     * @param totalSize
+     * @param length
+     * @return 追加文件的路径，抢占失败时返回null
+     */
+    private String createAppenderFile(String cacheKey, StoreFileChunkContext context, long totalSize, long length) {
+        Cache.ValueWrapper existing = getCache().putIfAbsent(cacheKey, new AppenderFileEntity(null, null, totalSize));
+        if (Objects.nonNull(existing)) {
+            return null;
+        }
+        try {
+            StorePath storePath = appendClient.uploadAppenderFile(config.getGroup(), context.getInputStream(), length, FileUtils.getFileExtName(context.getFilename()));
+            getCache().put(cacheKey, new AppenderFileEntity(storePath.getGroup(), storePath.getPath(), totalSize));
+            return storePath.getFullPath();
+        } catch (RuntimeException e) {
+            getCache().evict(cacheKey);
+            throw e;
+        }
+    }
+
+    /**
+     * 把分片写入已经存在的追加文件
+     *
+     * @param entity
+     * @param context
+     * @param offset
+     * @param length
+     * @return 追加文件的路径，分片无法直接写入时返回null
+     */
+    private String writeAppenderFile(AppenderFileEntity entity, StoreFileChunkContext context, long offset, long length) {
+        long size = client.queryFileInfo(entity.getGroup(), entity.getPath()).getFileSize();
+        if (offset + length <= size) {
+            appendClient.modifyFile(entity.getGroup(), entity.getPath(), context.getInputStream(), length, offset);
+        } else if (offset == size && Objects.isNull(getCache().putIfAbsent(getAppendClaimKey(context.getIdentifier(), context.getUserId(), offset), context.getChunkNumber()))) {
+            appendClient.appendFile(entity.getGroup(), entity.getPath(), context.getInputStream(), length);
+        } else {
+            return null;
+        }
+        return entity.getGroup() + RPanConstants.SLASH_STR + entity.getPath();
+    }
+
+    /**
+     * 选择合并的最终文件
+     * 优先使用缓存中记录的追加文件，缓存被淘汰时在包含文件开头的追加文件中选择当前最大的一个
+     *
+     * @param cacheKey
+     * @param sortedChunkPaths
+     * @param identifier
+     * @return
+     */
+    private String chooseAppenderFile(String cacheKey, List<String> sortedChunkPaths, String identifier) {
+        Set<String> candidates = sortedChunkPaths.stream()
+                .filter(chunkPath -> {
+                    Map<String, String> range = analysisUrlParams(chunkPath);
+                    return !range.containsKey(POSITION_KEY) && Long.parseLong(range.get(OFFSET_KEY)) == RPanConstants.ZERO_LONG;
+                })
+                .map(this::getBaseUrl)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        AppenderFileEntity entity = getCache().get(cacheKey, AppenderFileEntity.class);
+        if (Objects.nonNull(entity) && StringUtils.isNotBlank(entity.getPath())) {
+            String fullPath = entity.getGroup() + RPanConstants.SLASH_STR + entity.getPath();
+            if (candidates.contains(fullPath)) {
+                return fullPath;
+            }
+        }
+        return candidates.stream()
+                .max(Comparator.comparingLong(fullPath -> client.queryFileInfo(
+                        fullPath.substring(RPanConstants.ZERO_INT, fullPath.indexOf(RPanConstants.SLASH_STR)),
+                        fullPath.substring(fullPath.indexOf(RPanConstants.SLASH_STR) + RPanConstants.ONE_INT)).getFileSize()))
+                .orElseThrow(() -> new RPanFrameworkException("文件分片合并失败，文件的唯一标识为：" + identifier));
+    }
+
+    /**
+     * 把一个文件中指定区间的内容追加到追加文件的末尾
+     * 通过区间下载的回调直接把下载的输入流写入目标追加文件，不在内存中缓存分片内容
+     *
+     * @param sourceFullPath
+     * @param position
+     * @param group
+     * @param path
+     * @param length
+     */
+    private void appendRange(String sourceFullPath, long position, String group, String path, long length) {
+        String sourceGroup = sourceFullPath.substring(RPanConstants.ZERO_INT, sourceFullPath.indexOf(RPanConstants.SLASH_STR));
+        String sourcePath = sourceFullPath.substring(sourceFullPath.indexOf(RPanConstants.SLASH_STR) + RPanConstants.ONE_INT);
+        client.downloadFile(sourceGroup, sourcePath, position, length, inputStream -> {
+            appendClient.appendFile(group, path, inputStream, length);
+            return null;
+        });
+    }
+
+    /**
+     * 获取分片在它所在的文件中的位置
+     * 单独保存的分片记录了位置，没有记录位置的分片写在追加文件中，位置就是它在整个文件中的偏移量
+     *
+     * @param range
+     * @return
+     */
+    private long getPosition(Map<String, String> range) {
+        String position = range.get(POSITION_KEY);
+        return StringUtils.isNumeric(position) ? Long.parseLong(position) : Long.parseLong(range.get(OFFSET_KEY));
+    }
+
+    /**
+     * 删除单个文件
+     *
+     * @param realPath
+     * @return 删除失败时返回该文件路径，成功时返回null
+     */
+    private String deleteFile(String realPath) {
+        try {
+            client.deleteFile(realPath);
+            return null;
+        } catch (Exception e) {
+            log.error("delete fastdfs file {} failed", realPath, e);
+            return realPath;
+        }
+    }
+
+    /**
+     * 分片上传过程中追加文件的全局信息载体
+     * 第一个分片抢占追加文件时先写入路径为空的占位信息，追加文件创建之后再补全路径
+     */
+    @AllArgsConstructor
+    @NoArgsConstructor
+    @Getter
+    @Setter
+    @EqualsAndHashCode
+    @ToString
+    public static class AppenderFileEntity implements Serializable {
+
+        private static final long serialVersionUID = 4416573260815417329L;
+
+        /**
+         * 追加文件所在的组
+         */
+        private String group;
+
+        /**
+         * 追加文件在组内的路径
+         */
+        private String path;
+
+        /**
+         * 整个文件的大小，追加文件按顺序增长到这个大小
+         */
+        private Long fileSize;
+
     }
 
 }
@@ -14,8 +14,10 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.EnableMBeanExport;
 import org.springframework.jmx.support.RegistrationPolicy;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * FastDFS文件存储引擎配置类
@@ -42,6 +44,16 @@ public class FastDFSStorageEngineConfig {
      */
     private String group = "group1";
 
+    /**
+     * 批量删除文件时的最大并发数
+     */
+    private Integer deleteParallelism = 8;
+
+    /**
+     * 批量删除文件时等待执行的最大任务数
+     */
+    private Integer deleteQueueCapacity = 2048;
+
     @Bean
     public PooledConnectionFactory pooledConnectionFactory() {
         PooledConnectionFactory factory = new PooledConnectionFactory();
@@ -60,6 +72,26 @@ public class FastDFSStorageEngineConfig {
         return fdfsConnectionPool;
     }
 
+    /**
+     * 批量删除文件的线程池
+     * 队列满了之后由调用线程执行删除，从而限制同时发往FastDFS的删除请求数量
+     *
+     * @return
+     */
+    @Bean(name = "fastDFSDeleteTaskExecutor")
+    public ThreadPoolTaskExecutor fastDFSDeleteTaskExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+
+        taskExecutor.setCorePoolSize(getDeleteParallelism());
+        taskExecutor.setMaxPoolSize(getDeleteParallelism());
+        taskExecutor.setKeepAliveSeconds(200);
+        taskExecutor.setQueueCapacity(getDeleteQueueCapacity());
+        taskExecutor.setThreadNamePrefix("fastdfs-delete-thread");
+        taskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+
+        return taskExecutor;
+    }
+
     @Bean
     public TrackerConnectionManager trackerConnectionManager(FdfsConnectionPool fdfsConnectionPool) {
         TrackerConnectionManager manager = new TrackerConnectionManager(fdfsConnectionPool);
@@ -0,0 +1,307 @@
+package com.wuaro.pan.storage.engine.fastdfs.test;
+
+import com.github.tobato.fastdfs.domain.FileInfo;
+import com.github.tobato.fastdfs.domain.StorePath;
+import com.github.tobato.fastdfs.proto.storage.DownloadCallback;
+import com.github.tobato.fastdfs.service.AppendFileStorageClient;
+import com.github.tobato.fastdfs.service.FastFileStorageClient;
+import com.google.common.collect.Lists;
+import com.wuaro.pan.cache.core.constants.CacheConstants;
+import com.wuaro.pan.storage.engine.core.context.MergeFileContext;
+import com.wuaro.pan.storage.engine.core.context.ReadFileContext;
+import com.wuaro.pan.storage.engine.core.context.StoreFileChunkContext;
+import com.wuaro.pan.storage.engine.fastdfs.FastDFSStorageEngine;
+import com.wuaro.pan.storage.engine.fastdfs.config.FastDFSStorageEngineConfig;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FastDFS文件存储引擎分片上传的测试
+ * <p>
+ * 使用Mockito模拟的FastDFS客户端，文件内容保存在内存中，和FastDFS一样只允许在文件范围内修改、在文件末尾追加；
+ * 两个存储引擎实例共用同一个缓存，模拟多个节点同时上传同一个文件的分片
+ */
+public class FastDFSChunkUploadTest {
+
+    private static final String IDENTIFIER = "fastdfs-identifier";
+
+    private static final Long USER_ID = 1L;
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private static final int TOTAL_CHUNKS = 8;
+
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+
+    private final AtomicInteger fileCount = new AtomicInteger();
+
+    private final AtomicInteger appenderCount = new AtomicInteger();
+
+    private FastFileStorageClient client;
+
+    private AppendFileStorageClient appendClient;
+
+    private CacheManager cacheManager;
+
+    private FastDFSStorageEngine firstNode;
+
+    private FastDFSStorageEngine secondNode;
+
+    private byte[] content;
+
+    @Before
+    public void before() throws IOException {
+        client = Mockito.mock(FastFileStorageClient.class);
+        appendClient = Mockito.mock(AppendFileStorageClient.class);
+        stubClients(client, appendClient);
+        cacheManager = new ConcurrentMapCacheManager();
+        firstNode = createEngine(client, appendClient);
+        secondNode = createEngine(client, appendClient);
+
+        content = new byte[CHUNK_SIZE * (TOTAL_CHUNKS - 1) + 300];
+        new Random(1L).nextBytes(content);
+    }
+
+    /**
+     * 测试两个节点并发乱序上传同一个文件的分片，只保留一个追加文件，合并之后内容完整
+     */
+    @Test
+    public void testConcurrentChunksOnTwoNodes() throws Exception {
+        CountDownLatch startLatch = new CountDownLatch(1);
+        CountDownLatch finishLatch = new CountDownLatch(TOTAL_CHUNKS);
+        List<String> chunkPaths = new CopyOnWriteArrayList<>();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        for (int i = TOTAL_CHUNKS; i >= 1; i--) {
+            int chunkNumber = i;
+            FastDFSStorageEngine engine = chunkNumber % 2 == 0 ? firstNode : secondNode;
+            new Thread(() -> {
+                try {
+                    startLatch.await();
+                    chunkPaths.add(storeChunk(engine, chunkNumber));
+                } catch (Throwable e) {
+                    errors.add(e);
+                } finally {
+                    finishLatch.countDown();
+                }
+            }).start();
+        }
+        startLatch.countDown();
+        Assert.assertTrue(finishLatch.await(30, TimeUnit.SECONDS));
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+
+        String realPath = merge(firstNode, chunkPaths);
+
+        Assert.assertEquals(1, files.size());
+        Assert.assertArrayEquals(content, read(realPath));
+    }
+
+    /**
+     * 测试按顺序上传的分片直接追加到只包含第一个分片内容的追加文件中，不写入填充内容，合并时不需要复制
+     */
+    @Test
+    public void testSequentialChunksAppendInPlace() throws IOException {
+        List<String> chunkPaths = Lists.newArrayList();
+        for (int chunkNumber = 1; chunkNumber <= TOTAL_CHUNKS; chunkNumber++) {
+            chunkPaths.add(storeChunk(firstNode, chunkNumber));
+            Assert.assertEquals(1, files.size());
+        }
+        Mockito.verify(appendClient).uploadAppenderFile(Mockito.anyString(), Mockito.any(InputStream.class), Mockito.eq((long) CHUNK_SIZE), Mockito.any());
+        Mockito.verify(client, Mockito.never()).uploadFile(Mockito.anyString(), Mockito.any(InputStream.class), Mockito.anyLong(), Mockito.any());
+
+        String realPath = merge(firstNode, chunkPaths);
+
+        Assert.assertEquals(1, files.size());
+        Assert.assertArrayEquals(content, read(realPath));
+        Mockito.verify(client, Mockito.never()).downloadFile(Mockito.anyString(), Mockito.anyString(), Mockito.anyLong(), Mockito.anyLong(), Mockito.any(DownloadCallback.class));
+    }
+
+    /**
+     * 测试重传已经写入追加文件的分片时覆盖写入原来的区间，不会重复追加
+     */
+    @Test
+    public void testRetryChunk() throws IOException {
+        List<String> chunkPaths = Lists.newArrayList();
+        for (int chunkNumber = 1; chunkNumber <= TOTAL_CHUNKS; chunkNumber++) {
+            chunkPaths.add(storeChunk(firstNode, chunkNumber));
+        }
+        chunkPaths.add(storeChunk(secondNode, 1));
+        chunkPaths.add(storeChunk(secondNode, 3));
+
+        String realPath = merge(secondNode, chunkPaths);
+
+        Assert.assertEquals(1, files.size());
+        Assert.assertArrayEquals(content, read(realPath));
+    }
+
+    /**
+     * 测试上传过程中缓存被淘汰，后续分片单独保存，合并时追加到最初的追加文件并删除单独保存的分片
+     */
+    @Test
+    public void testCacheEvictedDuringUpload() throws IOException {
+        List<String> chunkPaths = Lists.newArrayList();
+        for (int chunkNumber = 1; chunkNumber <= 3; chunkNumber++) {
+            chunkPaths.add(storeChunk(firstNode, chunkNumber));
+        }
+        cacheManager.getCache(CacheConstants.R_PAN_CACHE_NAME).clear();
+        for (int chunkNumber = 4; chunkNumber <= TOTAL_CHUNKS; chunkNumber++) {
+            chunkPaths.add(storeChunk(secondNode, chunkNumber));
+        }
+        Assert.assertEquals(TOTAL_CHUNKS - 2, files.size());
+        Assert.assertEquals(1, appenderCount.get());
+
+        String realPath = merge(secondNode, chunkPaths);
+
+        Assert.assertEquals(1, files.size());
+        Assert.assertTrue(files.containsKey(realPath));
+        Assert.assertArrayEquals(content, read(realPath));
+    }
+
+    /*****************************************private*****************************************/
+
+    private FastDFSStorageEngine createEngine(FastFileStorageClient client, AppendFileStorageClient appendClient) {
+        FastDFSStorageEngine engine = new FastDFSStorageEngine();
+        ReflectionTestUtils.setField(engine, "config", new FastDFSStorageEngineConfig());
+        ReflectionTestUtils.setField(engine, "client", client);
+        ReflectionTestUtils.setField(engine, "appendClient", appendClient);
+        ReflectionTestUtils.setField(engine, "cacheManager", cacheManager);
+        return engine;
+    }
+
+    /**
+     * 模拟的客户端在内存中按偏移量读写文件内容
+     * 修改的区间超出文件大小、追加到普通文件时抛出异常
+     *
+     * @param client
+     * @param appendClient
+     */
+    @SuppressWarnings("unchecked")
+    private void stubClients(FastFileStorageClient client, AppendFileStorageClient appendClient) throws IOException {
+        Mockito.doAnswer(invocation -> {
+            String group = invocation.getArgument(0);
+            InputStream inputStream = invocation.getArgument(1);
+            long fileSize = invocation.getArgument(2);
+            StorePath storePath = new StorePath(group, "M00/00/00/appender-" + appenderCount.incrementAndGet() + ".bin");
+            files.put(storePath.getFullPath(), readFully(inputStream, fileSize));
+            return storePath;
+        }).when(appendClient).uploadAppenderFile(Mockito.anyString(), Mockito.any(InputStream.class), Mockito.anyLong(), Mockito.any());
+        Mockito.doAnswer(invocation -> {
+            String group = invocation.getArgument(0);
+            InputStream inputStream = invocation.getArgument(1);
+            long fileSize = invocation.getArgument(2);
+            StorePath storePath = new StorePath(group, "M00/00/00/file-" + fileCount.incrementAndGet() + ".bin");
+            files.put(storePath.getFullPath(), readFully(inputStream, fileSize));
+            return storePath;
+        }).when(client).uploadFile(Mockito.anyString(), Mockito.any(InputStream.class), Mockito.anyLong(), Mockito.any());
+        Mockito.doAnswer(invocation -> {
+            String fullPath = invocation.getArgument(0) + "/" + invocation.getArgument(1);
+            byte[] chunk = readFully(invocation.getArgument(2), invocation.getArgument(3));
+            long fileOffset = invocation.getArgument(4);
+            files.computeIfPresent(fullPath, (key, file) -> {
+                if (fileOffset + chunk.length > file.length) {
+                    throw new IllegalStateException("modify out of the file size");
+                }
+                byte[] modified = file.clone();
+                System.arraycopy(chunk, 0, modified, (int) fileOffset, chunk.length);
+                return modified;
+            });
+            return null;
+        }).when(appendClient).modifyFile(Mockito.anyString(), Mockito.anyString(), Mockito.any(InputStream.class), Mockito.anyLong(), Mockito.anyLong());
+        Mockito.doAnswer(invocation -> {
+            String fullPath = invocation.getArgument(0) + "/" + invocation.getArgument(1);
+            if (!fullPath.contains("appender-")) {
+                throw new IllegalStateException("append to a normal file");
+            }
+            byte[] chunk = readFully(invocation.getArgument(2), invocation.getArgument(3));
+            files.computeIfPresent(fullPath, (key, file) -> {
+                byte[] appended = Arrays.copyOf(file, file.length + chunk.length);
+                System.arraycopy(chunk, 0, appended, file.length, chunk.length);
+                return appended;
+            });
+            return null;
+        }).when(appendClient).appendFile(Mockito.anyString(), Mockito.anyString(), Mockito.any(InputStream.class), Mockito.anyLong());
+        Mockito.doAnswer(invocation -> new FileInfo("127.0.0.1", files.get(invocation.getArgument(0) + "/" + invocation.getArgument(1)).length, 0, 0))
+                .when(client).queryFileInfo(Mockito.anyString(), Mockito.anyString());
+        Mockito.doAnswer(invocation -> {
+            byte[] file = files.get(invocation.getArgument(0) + "/" + invocation.getArgument(1));
+            long fileOffset = invocation.getArgument(2);
+            long fileSize = invocation.getArgument(3);
+            DownloadCallback<Object> callback = invocation.getArgument(4);
+            return callback.recv(new ByteArrayInputStream(Arrays.copyOfRange(file, (int) fileOffset, (int) (fileOffset + fileSize))));
+        }).when(client).downloadFile(Mockito.anyString(), Mockito.anyString(), Mockito.anyLong(), Mockito.anyLong(), Mockito.any(DownloadCallback.class));
+        Mockito.doAnswer(invocation -> {
+            DownloadCallback<Object> callback = invocation.getArgument(2);
+            return callback.recv(new ByteArrayInputStream(files.get(invocation.getArgument(0) + "/" + invocation.getArgument(1))));
+        }).when(client).downloadFile(Mockito.anyString(), Mockito.anyString(), Mockito.any(DownloadCallback.class));
+        Mockito.doAnswer(invocation -> files.remove(invocation.<String>getArgument(0)))
+                .when(client).deleteFile(Mockito.anyString());
+    }
+
+    private byte[] readFully(InputStream inputStream, long size) throws IOException {
+        byte[] buffer = new byte[(int) size];
+        int filled = 0;
+        while (filled < size) {
+            int len = inputStream.read(buffer, filled, buffer.length - filled);
+            if (len == -1) {
+                throw new IOException("the input stream is shorter than " + size);
+            }
+            filled += len;
+        }
+        return buffer;
+    }
+
+    private String storeChunk(FastDFSStorageEngine engine, int chunkNumber) throws IOException {
+        int offset = (chunkNumber - 1) * CHUNK_SIZE;
+        int length = chunkNumber == TOTAL_CHUNKS ? content.length - offset : CHUNK_SIZE;
+        StoreFileChunkContext context = new StoreFileChunkContext();
+        context.setFilename("fastdfs.bin");
+        context.setIdentifier(IDENTIFIER);
+        context.setUserId(USER_ID);
+        context.setTotalSize((long) content.length);
+        context.setTotalChunks(TOTAL_CHUNKS);
+        context.setChunkNumber(chunkNumber);
+        context.setCurrentChunkSize((long) length);
+        context.setInputStream(new ByteArrayInputStream(Arrays.copyOfRange(content, offset, offset + length)));
+        engine.storeChunk(context);
+        return context.getRealPath();
+    }
+
+    private String merge(FastDFSStorageEngine engine, List<String> chunkPaths) throws IOException {
+        MergeFileContext context = new MergeFileContext();
+        context.setFilename("fastdfs.bin");
+        context.setIdentifier(IDENTIFIER);
+        context.setUserId(USER_ID);
+        context.setTotalSize((long) content.length);
+        context.setRealPathList(chunkPaths);
+        engine.mergeFile(context);
+        return context.getRealPath();
+    }
+
+    private byte[] read(String realPath) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReadFileContext context = new ReadFileContext();
+        context.setRealPath(realPath);
+        context.setOutputStream(outputStream);
+        firstNode.realFile(context);
+        return outputStream.toByteArray();
+    }
+
+}
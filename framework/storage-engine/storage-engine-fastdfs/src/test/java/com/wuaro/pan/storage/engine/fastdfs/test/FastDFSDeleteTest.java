@@ -0,0 +1,121 @@
+package com.wuaro.pan.storage.engine.fastdfs.test;
+
+import com.github.tobato.fastdfs.service.FastFileStorageClient;
+import com.google.common.collect.Lists;
+import com.wuaro.pan.storage.engine.core.context.DeleteFileContext;
+import com.wuaro.pan.storage.engine.fastdfs.FastDFSStorageEngine;
+import com.wuaro.pan.storage.engine.fastdfs.config.FastDFSStorageEngineConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * FastDFS文件存储引擎批量删除的测试
+ * <p>
+ * 使用Mockito模拟的FastDFS客户端注入部分失败，验证每个路径单独记录删除结果，并且删除的并发数有上限
+ */
+public class FastDFSDeleteTest {
+
+    private static final int DELETE_PARALLELISM = 2;
+
+    private FastFileStorageClient client;
+
+    private ThreadPoolTaskExecutor deleteTaskExecutor;
+
+    private FastDFSStorageEngine engine;
+
+    @Before
+    public void before() {
+        client = Mockito.mock(FastFileStorageClient.class);
+        FastDFSStorageEngineConfig config = new FastDFSStorageEngineConfig();
+        config.setDeleteParallelism(DELETE_PARALLELISM);
+        config.setDeleteQueueCapacity(1);
+        deleteTaskExecutor = config.fastDFSDeleteTaskExecutor();
+        deleteTaskExecutor.initialize();
+
+        engine = new FastDFSStorageEngine();
+        ReflectionTestUtils.setField(engine, "config", config);
+        ReflectionTestUtils.setField(engine, "client", client);
+        ReflectionTestUtils.setField(engine, "deleteTaskExecutor", deleteTaskExecutor);
+        ReflectionTestUtils.setField(engine, "cacheManager", new ConcurrentMapCacheManager());
+    }
+
+    @After
+    public void after() {
+        deleteTaskExecutor.shutdown();
+    }
+
+    /**
+     * 测试部分路径删除失败时，只有失败的路径回填到删除失败的集合中，
+     * 指向同一个追加文件的分片路径只删除一次，删除失败时所有分片路径都回填
+     */
+    @Test
+    public void testDeletePartialFailure() throws IOException {
+        Mockito.doThrow(new RuntimeException("mock delete failure")).when(client).deleteFile("group1/M00/00/00/fail.jpg");
+        Mockito.doThrow(new RuntimeException("mock delete failure")).when(client).deleteFile("group1/M00/00/00/appender-fail.bin");
+        List<String> realPaths = Lists.newArrayList(
+                "group1/M00/00/00/ok-1.jpg",
+                chunkPath("appender-fail.bin", 0L),
+                "group1/M00/00/00/fail.jpg",
+                chunkPath("appender-ok.bin", 0L),
+                chunkPath("appender-fail.bin", 1024L),
+                chunkPath("appender-ok.bin", 1024L),
+                "group1/M00/00/00/ok-2.jpg"
+        );
+
+        DeleteFileContext context = delete(realPaths);
+
+        Assert.assertEquals(Lists.newArrayList(chunkPath("appender-fail.bin", 0L), "group1/M00/00/00/fail.jpg", chunkPath("appender-fail.bin", 1024L)),
+                context.getFailedRealFilePathList());
+        Mockito.verify(client, Mockito.times(1)).deleteFile("group1/M00/00/00/appender-fail.bin");
+        Mockito.verify(client, Mockito.times(1)).deleteFile("group1/M00/00/00/appender-ok.bin");
+        Mockito.verify(client, Mockito.times(5)).deleteFile(Mockito.anyString());
+    }
+
+    /**
+     * 测试大量路径同时删除时，同时执行的删除请求不超过线程池的并发数加上执行拒绝任务的调用线程
+     */
+    @Test
+    public void testDeleteConcurrencyIsBounded() throws IOException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Mockito.doAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(20L);
+            running.decrementAndGet();
+            return null;
+        }).when(client).deleteFile(Mockito.anyString());
+        List<String> realPaths = IntStream.range(0, 30).mapToObj(i -> "group1/M00/00/00/file-" + i + ".jpg").collect(Collectors.toList());
+
+        DeleteFileContext context = delete(realPaths);
+
+        Assert.assertTrue(context.getFailedRealFilePathList().isEmpty());
+        Mockito.verify(client, Mockito.times(30)).deleteFile(Mockito.anyString());
+        Assert.assertTrue("max running " + maxRunning.get(), maxRunning.get() <= DELETE_PARALLELISM + 1);
+    }
+
+    /*****************************************private*****************************************/
+
+    private DeleteFileContext delete(List<String> realPaths) throws IOException {
+        DeleteFileContext context = new DeleteFileContext();
+        context.setRealFilePathList(realPaths);
+        engine.delete(context);
+        return context;
+    }
+
+    private String chunkPath(String filename, long offset) {
+        return "group1/M00/00/00/" + filename + "?identifier=identifier-" + filename + "&userId=1&offset=" + offset + "&length=1024";
+    }
+
+}
@@ -1,26 +1,104 @@
 package com.wuaro.pan.storage.engine.local;
 
+import com.google.common.util.concurrent.Striped;
+import com.wuaro.pan.core.constants.RPanConstants;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
 import com.wuaro.pan.core.utils.FileUtils;
+import com.wuaro.pan.core.utils.UUIDUtil;
 import com.wuaro.pan.storage.engine.core.AbstractStorageEngine;
 import com.wuaro.pan.storage.engine.core.context.*;
+import com.wuaro.pan.storage.engine.core.direct.LocalFileStorageEngine;
 import com.wuaro.pan.storage.engine.local.config.LocalStorageEngineConfig;
+import com.wuaro.pan.storage.engine.local.disk.LocalDisk;
+import com.wuaro.pan.storage.engine.local.disk.LocalDiskSelector;
+import com.wuaro.pan.storage.engine.local.replica.ReplicaStore;
+import com.wuaro.pan.storage.engine.local.segment.SegmentStore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Paths;
-import java.util.List;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
 
 /**
  * 本地文件存储引擎实现类
  */
 @Component
-public class LocalStorageEngine extends AbstractStorageEngine {
+public class LocalStorageEngine extends AbstractStorageEngine implements LocalFileStorageEngine {
+
+    /**
+     * 按偏移量写入的分片所在的目录名称
+     */
+    private static final String POSITIONAL_CHUNK_FOLDER_NAME = "positional";
+
+    /**
+     * 按偏移量写入的分片物理路径中偏移量参数的前缀
+     */
+    private static final String OFFSET_PARAM_PREFIX = "?offset=";
+
+    /**
+     * 按偏移量写入的分片物理路径中长度参数的前缀
+     */
+    private static final String LENGTH_PARAM_PREFIX = "&length=";
+
+    /**
+     * 按偏移量写入的分片物理路径中分片唯一标识参数的前缀
+     */
+    private static final String CHUNK_PARAM_PREFIX = "&chunk=";
+
+    /**
+     * 按偏移量写入的目标文件对应的分片标记目录的后缀
+     */
+    private static final String CHUNK_MARKER_FOLDER_SUFFIX = ".chunks";
+
+    /**
+     * 按偏移量写入的目标文件锁的分段数量
+     */
+    private static final int POSITIONAL_TARGET_LOCK_STRIPES = 64;
 
     @Autowired
     private LocalStorageEngineConfig config;
+
+    @Autowired
+    private LocalDiskSelector diskSelector;
+
+    @Autowired
+    private SegmentStore segmentStore;
+
+    @Autowired
+    private ReplicaStore replicaStore;
+
+    @Autowired
+    @Qualifier(value = "localPipelinedWriteTaskExecutor")
+    private ThreadPoolTaskExecutor pipelinedWriteTaskExecutor;
+
+    /**
+     * 按偏移量写入的目标文件锁，保证分片标记的创建、删除与目标文件的删除、移动互斥
+     * 目标文件只存在于本机磁盘上，所以只需要进程内的锁
+     */
+    private final Striped<Lock> positionalTargetLocks = Striped.lazyWeakLock(POSITIONAL_TARGET_LOCK_STRIPES);
+
+    /**
+     * 本地磁盘存储引擎的名称
+     *
+     * @return
+     */
+    @Override
+    public String getEngineName() {
+        return "local";
+    }
+
     /**
      * 执行保存物理文件的动作
      *
@@ -28,16 +106,31 @@ public class LocalStorageEngine extends AbstractStorageEngine {
      */
     /*
     执行逻辑：
-        1. 获取基础路径
-        2. 生成文件的存储路径
-        3. 存储文件（零拷贝）
-        4. 将文件的存储路径存入StoreFileContext对象中
+        1. 开启了小文件打包存储并且文件小于等于阈值时，追加写入到段文件中
+        2. 否则选择存放文件的磁盘
+        3. 生成文件的存储路径
+        4. 开启了多副本存储时，读取输入流的同时写入所有副本所在的磁盘
+        5. 否则直接存储文件（使用缓冲区池中的缓冲区按块写入，开启流水线写入时读取和写入在两个线程中同时进行）
+        6. 将文件的存储路径存入StoreFileContext对象中
      */
     @Override
     protected void doStore(StoreFileContext context) throws IOException {
-        String basePath = config.getRootFilePath();
-        String realFilePath = FileUtils.generateStoreFileRealPath(basePath, context.getFilename());
-        FileUtils.writeStream2File(context.getInputStream(), new File(realFilePath), context.getTotalSize());
+        if (segmentStore.accept(context.getTotalSize())) {
+            context.setRealPath(segmentStore.store(context.getInputStream(), context.getTotalSize()));
+            return;
+        }
+        LocalDisk disk = diskSelector.select();
+        String realFilePath = generateRealFilePath(disk, context.getFilename());
+        disk.beginWrite();
+        try {
+            if (replicaStore.isEnabled()) {
+                context.setRealPath(replicaStore.store(context.getInputStream(), realFilePath, context.getTotalSize()));
+                return;
+            }
+            writeStream2File(context.getInputStream(), new File(realFilePath), context.getTotalSize());
+        } finally {
+            disk.endWrite();
+        }
         context.setRealPath(realFilePath);
     }
 
@@ -49,7 +142,17 @@ public class LocalStorageEngine extends AbstractStorageEngine {
      */
     @Override
     protected void doDelete(DeleteFileContext context) throws IOException {
-        FileUtils.deleteFiles(context.getRealFilePathList());
+        List<String> realFilePathList = context.getRealFilePathList();
+        if (Objects.isNull(realFilePathList)) {
+            return;
+        }
+        List<String> normalFilePathList = realFilePathList.stream()
+                .filter(realFilePath -> !isPositionalChunkPath(realFilePath) && !SegmentStore.isSegmentPath(realFilePath) && !ReplicaStore.isReplicaPath(realFilePath))
+                .collect(Collectors.toList());
+        FileUtils.deleteFiles(normalFilePathList);
+        deletePositionalChunks(realFilePathList);
+        deleteSegmentObjects(realFilePathList);
+        deleteReplicas(realFilePathList);
     }
 
     /**
@@ -59,11 +162,30 @@ public class LocalStorageEngine extends AbstractStorageEngine {
      * @param context
      * @throws IOException
      */
+    /*
+    执行逻辑：
+        1. 开启了按偏移量写入的模式，直接将分片写入预先分配好的目标文件的对应区间
+        2. 开启了小文件打包存储并且分片小于等于阈值时，追加写入到段文件中
+        3. 否则将分片单独存储为一个文件，合并时再拷贝到目标文件中
+     */
     @Override
     protected void doStoreChunk(StoreFileChunkContext context) throws IOException {
-        String basePath = config.getRootFileChunkPath();
-        String realFilePath = FileUtils.generateStoreFileChunkRealPath(basePath, context.getIdentifier(), context.getChunkNumber());
-        FileUtils.writeStream2File(context.getInputStream(), new File(realFilePath), context.getTotalSize());
+        if (Boolean.TRUE.equals(config.getPositionalChunkEnabled())) {
+            doStorePositionalChunk(context);
+            return;
+        }
+        if (segmentStore.accept(context.getCurrentChunkSize())) {
+            context.setRealPath(segmentStore.store(context.getInputStream(), context.getCurrentChunkSize()));
+            return;
+        }
+        LocalDisk disk = diskSelector.select();
+        String realFilePath = FileUtils.generateStoreFileChunkRealPath(disk.getRootFileChunkPath(), context.getIdentifier(), context.getChunkNumber());
+        disk.beginWrite();
+        try {
+            writeStream2File(context.getInputStream(), new File(realFilePath), context.getTotalSize());
+        } finally {
+            disk.endWrite();
+        }
         context.setRealPath(realFilePath);
     }
 
@@ -75,22 +197,43 @@ public class LocalStorageEngine extends AbstractStorageEngine {
      */
     /*
     执行原理：
-        1. 创建一个空文件
-        2. 将每个分片按照顺序逐个“追加写”进空文件
+        1. 创建目标文件，并按照文件总大小预先分配空间
+        2. 只打开一次目标文件的FileChannel，将每个分片按照顺序通过零拷贝写入目标文件
         3. 写完之后删除所有分片文件
         4. 将合并后的完整文件的物理地址设置到MergeFileContext中
+        按偏移量写入的分片合并后的文件放在目标文件所在的磁盘上，保证移动文件只是一次重命名
+        包含打包存储的分片时，逐个分片按顺序拷贝到目标文件中
+        开启了多副本存储时，合并后的文件再复制到其他磁盘上
      */
     @Override
     protected void doMergeFile(MergeFileContext context) throws IOException {
-        String basePath = config.getRootFilePath();
-        String realFilePath = FileUtils.generateStoreFileRealPath(basePath, context.getFilename());
-        FileUtils.createFile(new File(realFilePath));
         List<String> chunkPaths = context.getRealPathList();
-        for (String chunkPath : chunkPaths) {
-            FileUtils.appendWrite(Paths.get(realFilePath), new File(chunkPath).toPath());
+        if (chunkPaths.stream().allMatch(this::isPositionalChunkPath)) {
+            LocalDisk disk = diskSelector.resolveByChunkPath(parsePositionalTargetFilePath(chunkPaths.get(RPanConstants.ZERO_INT)));
+            if (Objects.isNull(disk)) {
+                disk = diskSelector.select();
+            }
+            String realFilePath = generateRealFilePath(disk, context.getFilename());
+            doMergePositionalChunk(chunkPaths, context.getTotalSize(), realFilePath);
+            context.setRealPath(replicate(realFilePath));
+            return;
         }
-        FileUtils.deleteFiles(chunkPaths);
-        context.setRealPath(realFilePath);
+        LocalDisk disk = diskSelector.select();
+        String realFilePath = generateRealFilePath(disk, context.getFilename());
+        disk.beginWrite();
+        try {
+            if (chunkPaths.stream().anyMatch(SegmentStore::isSegmentPath)) {
+                mergeSegmentChunks(new File(realFilePath), chunkPaths);
+            } else {
+                List<File> chunkFiles = chunkPaths.stream().map(File::new).collect(Collectors.toList());
+                FileUtils.mergeFiles(new File(realFilePath), chunkFiles, context.getTotalSize());
+            }
+        } finally {
+            disk.endWrite();
+        }
+        FileUtils.deleteFiles(chunkPaths.stream().filter(chunkPath -> !SegmentStore.isSegmentPath(chunkPath)).collect(Collectors.toList()));
+        deleteSegmentObjects(chunkPaths);
+        context.setRealPath(replicate(realFilePath));
     }
 
     /**
@@ -101,7 +244,409 @@ public class LocalStorageEngine extends AbstractStorageEngine {
      */
     @Override
     protected void doReadFile(ReadFileContext context) throws IOException {
+        if (SegmentStore.isSegmentPath(context.getRealPath())) {
+            try (OutputStream outputStream = context.getOutputStream()) {
+                segmentStore.read(context.getRealPath(), outputStream);
+            }
+            return;
+        }
+        if (ReplicaStore.isReplicaPath(context.getRealPath())) {
+            try (OutputStream outputStream = context.getOutputStream()) {
+                replicaStore.read(context.getRealPath(), outputStream);
+            }
+            return;
+        }
         File file = new File(context.getRealPath());
         FileUtils.writeFile2OutputStream(new FileInputStream(file), context.getOutputStream(), file.length());
     }
+
+    /**
+     * 读取文件指定区间的内容并写入到输出流中
+     * 使用FileChannel的位置读取，直接从指定偏移量开始传输
+     *
+     * @param context
+     */
+    @Override
+    protected void doReadFileRange(ReadFileRangeContext context) throws IOException {
+        if (SegmentStore.isSegmentPath(context.getRealPath())) {
+            segmentStore.readRange(context.getRealPath(), context.getOutputStream(), context.getOffset(), context.getLength());
+            return;
+        }
+        if (ReplicaStore.isReplicaPath(context.getRealPath())) {
+            replicaStore.readRange(context.getRealPath(), context.getOutputStream(), context.getOffset(), context.getLength());
+            return;
+        }
+        File file = new File(context.getRealPath());
+        FileUtils.writeFileRange2OutputStream(file, context.getOutputStream(), context.getOffset(), context.getLength());
+    }
+
+    /**
+     * 获取文件在本机文件系统上对应的完整文件
+     * 打包存储在段文件中的文件只占段文件的一部分，不能交给前置代理直接发送
+     * 多副本存储的文件选择一个完整的、所在磁盘最空闲的副本
+     *
+     * @param realPath
+     * @return
+     */
+    @Override
+    public File getLocalFile(String realPath) {
+        if (SegmentStore.isSegmentPath(realPath)) {
+            return null;
+        }
+        if (ReplicaStore.isReplicaPath(realPath)) {
+            return replicaStore.getLocalFile(realPath);
+        }
+        File file = new File(realPath);
+        return file.isFile() ? file : null;
+    }
+
+    /*****************************************************private*****************************************************/
+
+    /**
+     * 按偏移量将分片直接写入目标文件
+     * <p>
+     * 同一个用户上传的同一个文件的所有分片共用一个目标文件，第一个到达的分片负责创建目标文件并扩展为稀疏文件，
+     * 非最后一个分片的大小都是标准分片大小，所以偏移量为 (chunkNumber - 1) * currentChunkSize，
+     * 最后一个分片可能大于或者小于标准分片大小，所以从文件末尾倒推偏移量
+     * 写入之前先在目标文件的分片标记目录下为该分片创建一个标记文件，只要还有分片标记，目标文件就不会被删除
+     * 分片的物理路径为目标文件路径拼接偏移量、实际写入长度和分片唯一标识，合并时据此校验目标文件是否被完整覆盖
+     *
+     * @param context
+     * @throws IOException
+     */
+    private void doStorePositionalChunk(StoreFileChunkContext context) throws IOException {
+        LocalDisk disk = diskSelector.selectByKey(context.getIdentifier() + RPanConstants.COMMON_SEPARATOR + context.getUserId());
+        String targetFilePath = generatePositionalTargetFilePath(disk, context.getIdentifier(), context.getUserId());
+        long currentChunkSize = context.getCurrentChunkSize();
+        long offset;
+        if (Objects.equals(context.getChunkNumber(), context.getTotalChunks())) {
+            offset = context.getTotalSize() - currentChunkSize;
+        } else {
+            offset = (context.getChunkNumber() - 1) * currentChunkSize;
+        }
+        if (offset < RPanConstants.ZERO_LONG) {
+            throw new RPanFrameworkException("the chunk offset is illegal");
+        }
+        String chunkKey = UUIDUtil.getUUID();
+        Lock lock = positionalTargetLocks.get(targetFilePath);
+        lock.lock();
+        try {
+            FileUtils.createFile(getPositionalChunkMarker(targetFilePath, chunkKey));
+        } finally {
+            lock.unlock();
+        }
+        long written;
+        disk.beginWrite();
+        try {
+            written = FileUtils.writeStream2FileAtPosition(context.getInputStream(), new File(targetFilePath), offset, currentChunkSize, context.getTotalSize());
+        } catch (IOException | RuntimeException e) {
+            releasePositionalChunk(targetFilePath, chunkKey);
+            throw e;
+        } finally {
+            disk.endWrite();
+        }
+        context.setRealPath(assemblePositionalChunkPath(targetFilePath, offset, written, chunkKey));
+    }
+
+    /**
+     * 合并按偏移量写入的分片
+     * <p>
+     * 数据已经全部在目标文件里了，这里只需要校验所有分片是否属于同一个目标文件，每个分片的标记都还在，
+     * 并且按偏移量无空洞地覆盖了整个文件，校验通过之后把目标文件移动到正式的存储路径下，同一块磁盘上的移动只是一次重命名
+     * 分片标记不在说明目标文件在该分片写入之后被删除并重新创建过，该分片的数据已经丢失，不能合并出带空洞的文件
+     *
+     * @param chunkPaths
+     * @param totalSize
+     * @param realFilePath
+     * @throws IOException
+     */
+    private void doMergePositionalChunk(List<String> chunkPaths, Long totalSize, String realFilePath) throws IOException {
+        Set<String> targetFilePaths = chunkPaths.stream().map(this::parsePositionalTargetFilePath).collect(Collectors.toSet());
+        if (targetFilePaths.size() != RPanConstants.ONE_INT) {
+            throw new RPanFrameworkException("the chunks belong to different files");
+        }
+        long[][] ranges = chunkPaths.stream()
+                .map(this::parsePositionalRange)
+                .sorted(Comparator.comparingLong(range -> range[0]))
+                .toArray(long[][]::new);
+        long covered = RPanConstants.ZERO_LONG;
+        for (long[] range : ranges) {
+            if (range[0] > covered) {
+                throw new RPanFrameworkException("the chunks are incomplete, missing bytes from " + covered + " to " + range[0]);
+            }
+            covered = Math.max(covered, range[0] + range[1]);
+        }
+        if (Objects.nonNull(totalSize) && covered < totalSize) {
+            throw new RPanFrameworkException("the chunks are incomplete, missing bytes from " + covered + " to " + totalSize);
+        }
+        String targetFilePath = targetFilePaths.iterator().next();
+        File targetFile = new File(targetFilePath);
+        File realFile = new File(realFilePath);
+        if (!realFile.getParentFile().exists()) {
+            realFile.getParentFile().mkdirs();
+        }
+        Lock lock = positionalTargetLocks.get(targetFilePath);
+        lock.lock();
+        try {
+            for (String chunkPath : chunkPaths) {
+                String chunkKey = parsePositionalChunkKey(chunkPath);
+                if (Objects.isNull(chunkKey) || !getPositionalChunkMarker(targetFilePath, chunkKey).exists()) {
+                    throw new RPanFrameworkException("the chunk " + chunkPath + " has expired, please upload it again");
+                }
+            }
+            try {
+                Files.move(targetFile.toPath(), realFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(targetFile.toPath(), realFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            org.apache.commons.io.FileUtils.deleteQuietly(getPositionalChunkMarkerFolder(targetFilePath));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除按偏移量写入的分片
+     * 多个分片共用一个目标文件，这里只删除分片自己的标记，
+     * 目标文件的最后一个分片标记被删除之后才删除目标文件，过期的分片不会连带删除同一个文件中还有效的分片
+     *
+     * @param realFilePathList
+     * @throws IOException
+     */
+    private void deletePositionalChunks(List<String> realFilePathList) throws IOException {
+        for (String realFilePath : realFilePathList) {
+            if (isPositionalChunkPath(realFilePath)) {
+                releasePositionalChunk(parsePositionalTargetFilePath(realFilePath), parsePositionalChunkKey(realFilePath));
+            }
+        }
+    }
+
+    /**
+     * 删除一个分片的标记，目标文件没有剩余的分片标记时删除目标文件
+     * 目标文件合并后已经被移走，不存在时直接忽略
+     *
+     * @param targetFilePath
+     * @param chunkKey
+     * @throws IOException
+     */
+    private void releasePositionalChunk(String targetFilePath, String chunkKey) throws IOException {
+        Lock lock = positionalTargetLocks.get(targetFilePath);
+        lock.lock();
+        try {
+            if (Objects.nonNull(chunkKey)) {
+                Files.deleteIfExists(getPositionalChunkMarker(targetFilePath, chunkKey).toPath());
+            }
+            File markerFolder = getPositionalChunkMarkerFolder(targetFilePath);
+            String[] markers = markerFolder.list();
+            if (Objects.nonNull(markers) && markers.length > RPanConstants.ZERO_INT) {
+                return;
+            }
+            Files.deleteIfExists(new File(targetFilePath).toPath());
+            Files.deleteIfExists(markerFolder.toPath());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 合并包含打包存储的分片
+     * 打包存储的分片从段文件中读取，普通分片直接拷贝文件内容
+     *
+     * @param target
+     * @param chunkPaths
+     * @throws IOException
+     */
+    private void mergeSegmentChunks(File target, List<String> chunkPaths) throws IOException {
+        FileUtils.createFile(target);
+        try (OutputStream outputStream = new FileOutputStream(target)) {
+            for (String chunkPath : chunkPaths) {
+                if (SegmentStore.isSegmentPath(chunkPath)) {
+                    segmentStore.read(chunkPath, outputStream);
+                } else {
+                    Files.copy(new File(chunkPath).toPath(), outputStream);
+                }
+            }
+        }
+    }
+
+    /**
+     * 删除打包存储的对象
+     *
+     * @param realFilePathList
+     * @throws IOException
+     */
+    private void deleteSegmentObjects(List<String> realFilePathList) throws IOException {
+        for (String realFilePath : realFilePathList) {
+            if (SegmentStore.isSegmentPath(realFilePath)) {
+                segmentStore.delete(realFilePath);
+            }
+        }
+    }
+
+    /**
+     * 把输入流写入文件
+     * 开启了流水线写入时，请求线程只读取网络数据，由写入线程写入磁盘
+     *
+     * @param inputStream
+     * @param targetFile
+     * @param totalSize
+     * @throws IOException
+     */
+    private void writeStream2File(InputStream inputStream, File targetFile, Long totalSize) throws IOException {
+        if (Boolean.TRUE.equals(config.getPipelinedWriteEnabled())) {
+            FileUtils.writeStream2FilePipelined(inputStream, targetFile, totalSize, pipelinedWriteTaskExecutor, config.getPipelinedWriteBufferCount());
+            return;
+        }
+        FileUtils.writeStream2File(inputStream, targetFile, totalSize);
+    }
+
+    /**
+     * 删除多副本存储的文件的所有副本
+     *
+     * @param realFilePathList
+     * @throws IOException
+     */
+    private void deleteReplicas(List<String> realFilePathList) throws IOException {
+        for (String realFilePath : realFilePathList) {
+            if (ReplicaStore.isReplicaPath(realFilePath)) {
+                replicaStore.delete(realFilePath);
+            }
+        }
+    }
+
+    /**
+     * 开启了多副本存储时，把已经合并完成的文件复制到其他磁盘上
+     *
+     * @param realFilePath
+     * @return 文件的真实存储路径
+     * @throws IOException
+     */
+    private String replicate(String realFilePath) throws IOException {
+        if (!replicaStore.isEnabled()) {
+            return realFilePath;
+        }
+        return replicaStore.replicate(realFilePath);
+    }
+
+    /**
+     * 生成文件在指定磁盘上的存储路径
+     * 开启哈希打散时使用两级哈希子目录，否则使用 年/月/日 的目录
+     *
+     * @param disk
+     * @param filename
+     * @return
+     */
+    private String generateRealFilePath(LocalDisk disk, String filename) {
+        if (Boolean.TRUE.equals(config.getHashFanOutEnabled())) {
+            return FileUtils.generateHashFanOutStoreFileRealPath(disk.getRootFilePath(), filename);
+        }
+        return FileUtils.generateStoreFileRealPath(disk.getRootFilePath(), filename);
+    }
+
+    /**
+     * 生成按偏移量写入的目标文件路径
+     * 生成规则：分片存储路径 + positional + 文件唯一标识__,__用户ID
+     * 同一个文件的所有分片必须写入同一个目标文件，所以调用方按照 文件唯一标识__,__用户ID 一致性地选择磁盘
+     *
+     * @param disk
+     * @param identifier
+     * @param userId
+     * @return
+     */
+    private String generatePositionalTargetFilePath(LocalDisk disk, String identifier, Long userId) {
+        return new StringBuffer(disk.getRootFileChunkPath())
+                .append(File.separator)
+                .append(POSITIONAL_CHUNK_FOLDER_NAME)
+                .append(File.separator)
+                .append(identifier)
+                .append(RPanConstants.COMMON_SEPARATOR)
+                .append(userId)
+                .toString();
+    }
+
+    /**
+     * 拼装按偏移量写入的分片物理路径
+     *
+     * @param targetFilePath
+     * @param offset
+     * @param length
+     * @param chunkKey
+     * @return
+     */
+    private String assemblePositionalChunkPath(String targetFilePath, long offset, long length, String chunkKey) {
+        return targetFilePath + OFFSET_PARAM_PREFIX + offset + LENGTH_PARAM_PREFIX + length + CHUNK_PARAM_PREFIX + chunkKey;
+    }
+
+    /**
+     * 获取目标文件对应的分片标记目录
+     *
+     * @param targetFilePath
+     * @return
+     */
+    private File getPositionalChunkMarkerFolder(String targetFilePath) {
+        return new File(targetFilePath + CHUNK_MARKER_FOLDER_SUFFIX);
+    }
+
+    /**
+     * 获取分片标记文件
+     *
+     * @param targetFilePath
+     * @param chunkKey
+     * @return
+     */
+    private File getPositionalChunkMarker(String targetFilePath, String chunkKey) {
+        return new File(getPositionalChunkMarkerFolder(targetFilePath), chunkKey);
+    }
+
+    /**
+     * 判断是否是按偏移量写入的分片物理路径
+     *
+     * @param realPath
+     * @return
+     */
+    private boolean isPositionalChunkPath(String realPath) {
+        return Objects.nonNull(realPath) && realPath.lastIndexOf(OFFSET_PARAM_PREFIX) > 0 && realPath.lastIndexOf(LENGTH_PARAM_PREFIX) > realPath.lastIndexOf(OFFSET_PARAM_PREFIX);
+    }
+
+    /**
+     * 解析按偏移量写入的分片对应的目标文件路径
+     *
+     * @param realPath
+     * @return
+     */
+    private String parsePositionalTargetFilePath(String realPath) {
+        return realPath.substring(0, realPath.lastIndexOf(OFFSET_PARAM_PREFIX));
+    }
+
+    /**
+     * 解析按偏移量写入的分片的区间
+     *
+     * @param realPath
+     * @return 偏移量和长度
+     */
+    private long[] parsePositionalRange(String realPath) {
+        int offsetIndex = realPath.lastIndexOf(OFFSET_PARAM_PREFIX);
+        int lengthIndex = realPath.lastIndexOf(LENGTH_PARAM_PREFIX);
+        int chunkIndex = realPath.lastIndexOf(CHUNK_PARAM_PREFIX);
+        int lengthEndIndex = chunkIndex > lengthIndex ? chunkIndex : realPath.length();
+        long offset = Long.parseLong(realPath.substring(offsetIndex + OFFSET_PARAM_PREFIX.length(), lengthIndex));
+        long length = Long.parseLong(realPath.substring(lengthIndex + LENGTH_PARAM_PREFIX.length(), lengthEndIndex));
+        return new long[]{offset, length};
+    }
+
+    /**
+     * 解析按偏移量写入的分片的唯一标识
+     *
+     * @param realPath
+     * @return 没有分片唯一标识时返回null
+     */
+    private String parsePositionalChunkKey(String realPath) {
+        int lengthIndex = realPath.lastIndexOf(LENGTH_PARAM_PREFIX);
+        int chunkIndex = realPath.lastIndexOf(CHUNK_PARAM_PREFIX);
+        if (chunkIndex < lengthIndex) {
+            return null;
+        }
+        return realPath.substring(chunkIndex + CHUNK_PARAM_PREFIX.length());
+    }
+
 }
@@ -1,10 +1,16 @@
 package com.wuaro.pan.storage.engine.local.config;
 
+import com.google.common.collect.Lists;
 import com.wuaro.pan.core.utils.FileUtils;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+
 @Component
 @ConfigurationProperties(prefix = "com.wuaro.pan.storage.engine.local")
 @Data
@@ -20,4 +26,168 @@ public class LocalStorageEngineConfig {
      */
     private String rootFileChunkPath = FileUtils.generateDefaultStoreFileChunkRealPath();
 
+    /**
+     * 是否开启分片按偏移量直接写入目标文件的模式
+     * 开启后每个分片直接写入预先分配好的目标文件，合并时只做完整性校验和文件移动，不再拷贝数据
+     * 分片存储路径和文件存储路径需要在同一块磁盘上，合并时的文件移动才是O(1)的重命名操作
+     */
+    private Boolean positionalChunkEnabled = Boolean.FALSE;
+
+    /**
+     * 多块磁盘的存储根目录
+     * 配置之后文件和分片分散存储到多块磁盘上，rootFilePath 和 rootFileChunkPath 不再生效
+     */
+    private List<Disk> disks = Lists.newArrayList();
+
+    /**
+     * 多块磁盘时选择磁盘的策略
+     * WEIGHTED：按照权重随机选择
+     * LEAST_USED：选择按权重折算后正在写入的任务最少的磁盘，相同时选择可用空间最大的磁盘
+     */
+    private String diskSelectStrategy = "WEIGHTED";
+
+    /**
+     * 多块磁盘时为新文件选择磁盘的可用空间下限，单位字节
+     * 可用空间低于该值的磁盘不再分配新文件，所有磁盘都低于该值时不做过滤
+     */
+    private Long diskMinFreeBytes = 1024L * 1024L * 1024L;
+
+    /**
+     * 磁盘可用空间的缓存时间，单位毫秒
+     */
+    private Long diskUsableSpaceCacheMillis = 5000L;
+
+    /**
+     * 是否按照哈希值把文件打散到两级子目录下
+     * 开启后文件存储路径为 根目录/xx/xx/随机文件名，避免同一天的文件都堆在一个目录下
+     */
+    private Boolean hashFanOutEnabled = Boolean.FALSE;
+
+    /**
+     * 是否开启小文件打包存储
+     * 开启后小于等于阈值的文件和分片追加写入到大的段文件中，不再单独占用一个文件
+     */
+    private Boolean segmentEnabled = Boolean.FALSE;
+
+    /**
+     * 打包存储的文件大小阈值，单位字节
+     */
+    private Long segmentThreshold = 64 * 1024L;
+
+    /**
+     * 单个段文件的最大大小，单位字节，超过之后新建段文件继续写入
+     */
+    private Long segmentMaxSize = 256 * 1024 * 1024L;
+
+    /**
+     * 段文件中已删除的数据占比达到该值时，由后台任务整理该段文件回收空间
+     */
+    private Double segmentCompactRatio = 0.5D;
+
+    /**
+     * 段文件整理任务的cron表达式
+     */
+    private String segmentCompactCron = "0 0 3 * * ?";
+
+    /**
+     * 每个文件保存的副本数，大于1时每个文件写到多块磁盘上，读取时分摊到各个副本
+     * 需要配置不少于副本数的磁盘；打包存储的小文件和文件分片不做副本
+     */
+    private Integer replicaCount = 1;
+
+    /**
+     * 写入副本时的确认方式
+     * ALL：所有副本都写入成功之后才返回，任意一个失败则整体失败
+     * FIRST：第一个副本写入成功之后就返回，其余副本在后台复制，复制失败的副本在读取时修复
+     */
+    private String replicaAckMode = "ALL";
+
+    /**
+     * 副本读取失败之后，所在磁盘在多少秒内不再优先被选择
+     */
+    private Integer replicaFailureCooldownSeconds = 30;
+
+    /**
+     * 复制和修复副本的线程数
+     */
+    private Integer replicaParallelism = 4;
+
+    /**
+     * 是否开启读写分离的流水线写入
+     * 开启后上传的文件由请求线程读取网络数据、写入线程写入磁盘，两者同时进行
+     */
+    private Boolean pipelinedWriteEnabled = Boolean.FALSE;
+
+    /**
+     * 流水线写入时每个文件在读取线程和写入线程之间轮转的缓冲区数量，至少为2
+     */
+    private Integer pipelinedWriteBufferCount = 4;
+
+    /**
+     * 同时进行流水线写入的文件数上限，写入线程都在忙时新的文件退化为请求线程边读边写
+     */
+    private Integer pipelinedWriteParallelism = 32;
+
+    /**
+     * 复制和修复副本的线程池
+     *
+     * @return
+     */
+    @Bean(name = "localReplicaTaskExecutor")
+    public ThreadPoolTaskExecutor localReplicaTaskExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+
+        taskExecutor.setCorePoolSize(getReplicaParallelism());
+        taskExecutor.setMaxPoolSize(getReplicaParallelism());
+        taskExecutor.setKeepAliveSeconds(200);
+        taskExecutor.setQueueCapacity(2048);
+        taskExecutor.setThreadNamePrefix("local-replica-thread");
+        taskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+
+        return taskExecutor;
+    }
+
+    /**
+     * 流水线写入的写入线程池
+     * 不排队，没有空闲线程时直接拒绝，由请求线程自己边读边写；不能使用调用线程执行的拒绝策略，否则读取和写入落在同一个线程上互相等待
+     *
+     * @return
+     */
+    @Bean(name = "localPipelinedWriteTaskExecutor")
+    public ThreadPoolTaskExecutor localPipelinedWriteTaskExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+
+        taskExecutor.setCorePoolSize(getPipelinedWriteParallelism());
+        taskExecutor.setMaxPoolSize(getPipelinedWriteParallelism());
+        taskExecutor.setKeepAliveSeconds(200);
+        taskExecutor.setQueueCapacity(0);
+        taskExecutor.setThreadNamePrefix("local-pipelined-write-thread");
+        taskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+
+        return taskExecutor;
+    }
+
+    /**
+     * 单块磁盘的配置
+     */
+    @Data
+    public static class Disk {
+
+        /**
+         * 该磁盘上存放文件的路径
+         */
+        private String path;
+
+        /**
+         * 该磁盘上存放文件分片的路径，为空时使用 path/chunks
+         */
+        private String chunkPath;
+
+        /**
+         * 权重，按权重随机选择磁盘时使用
+         */
+        private Integer weight = 1;
+
+    }
+
 }
@@ -0,0 +1,178 @@
+package com.wuaro.pan.storage.engine.local.disk;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本地存储引擎使用的单块磁盘
+ * 记录该磁盘正在写入和读取的任务数，用于选择最空闲的磁盘；读取失败之后在一段时间内标记为不健康
+ * 可用空间需要一次statfs系统调用，按照配置的时间缓存，选择磁盘时不会每次都查询
+ */
+public class LocalDisk {
+
+    /**
+     * 该磁盘上存放文件的路径
+     */
+    private final String rootFilePath;
+
+    /**
+     * 该磁盘上存放文件分片的路径
+     */
+    private final String rootFileChunkPath;
+
+    /**
+     * 权重
+     */
+    private final int weight;
+
+    /**
+     * 正在写入的任务数
+     */
+    private final AtomicInteger writingCount = new AtomicInteger();
+
+    /**
+     * 正在读取的任务数
+     */
+    private final AtomicInteger readingCount = new AtomicInteger();
+
+    /**
+     * 在该时间点之前磁盘被认为是不健康的，单位毫秒
+     */
+    private volatile long unhealthyUntil = 0L;
+
+    /**
+     * 可用空间的缓存时间，单位毫秒
+     */
+    private final long usableSpaceCacheMillis;
+
+    /**
+     * 缓存的可用空间
+     */
+    private volatile long usableSpace;
+
+    /**
+     * 缓存的可用空间过期的时间点，单位毫秒
+     */
+    private volatile long usableSpaceExpireAt = 0L;
+
+    public LocalDisk(String rootFilePath, String rootFileChunkPath, int weight, long usableSpaceCacheMillis) {
+        this.rootFilePath = rootFilePath;
+        this.rootFileChunkPath = rootFileChunkPath;
+        this.weight = weight;
+        this.usableSpaceCacheMillis = usableSpaceCacheMillis;
+    }
+
+    public String getRootFilePath() {
+        return rootFilePath;
+    }
+
+    public String getRootFileChunkPath() {
+        return rootFileChunkPath;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getWritingCount() {
+        return writingCount.get();
+    }
+
+    /**
+     * 开始写入，必须和 endWrite 成对调用
+     */
+    public void beginWrite() {
+        writingCount.incrementAndGet();
+    }
+
+    /**
+     * 结束写入
+     */
+    public void endWrite() {
+        writingCount.decrementAndGet();
+    }
+
+    /**
+     * 开始读取，必须和 endRead 成对调用
+     */
+    public void beginRead() {
+        readingCount.incrementAndGet();
+    }
+
+    /**
+     * 结束读取
+     */
+    public void endRead() {
+        readingCount.decrementAndGet();
+    }
+
+    /**
+     * 该磁盘上排队的读写任务数
+     *
+     * @return
+     */
+    public int getPendingCount() {
+        return writingCount.get() + readingCount.get();
+    }
+
+    /**
+     * 读取失败之后标记磁盘在一段时间内不健康，这段时间内优先从其他磁盘读取
+     *
+     * @param cooldownMillis
+     */
+    public void markFailed(long cooldownMillis) {
+        unhealthyUntil = System.currentTimeMillis() + cooldownMillis;
+    }
+
+    public boolean isHealthy() {
+        return System.currentTimeMillis() >= unhealthyUntil;
+    }
+
+    /**
+     * 该磁盘的可用空间
+     * 缓存过期之后才重新查询，并发查询时可能重复查询几次，不影响结果
+     * 存放文件的路径在第一次写入时才创建，不存在时查询最近的已经存在的上级目录所在的磁盘，
+     * 否则不存在的路径查询结果为0，所有磁盘都会被当作空间不足
+     *
+     * @return
+     */
+    public long getUsableSpace() {
+        long now = System.currentTimeMillis();
+        if (now >= usableSpaceExpireAt) {
+            usableSpace = getNearestExistingFile(new File(rootFilePath).getAbsoluteFile()).getUsableSpace();
+            usableSpaceExpireAt = now + usableSpaceCacheMillis;
+        }
+        return usableSpace;
+    }
+
+    /**
+     * 判断文件分片的路径是否在该磁盘上
+     *
+     * @param chunkPath
+     * @return
+     */
+    public boolean containsChunkPath(String chunkPath) {
+        return chunkPath.startsWith(rootFileChunkPath + File.separator);
+    }
+
+    /**
+     * 判断文件的路径是否在该磁盘上
+     *
+     * @param filePath
+     * @return
+     */
+    public boolean containsFilePath(String filePath) {
+        return filePath.startsWith(rootFilePath + File.separator);
+    }
+
+    /*****************************************private*****************************************/
+
+    private static File getNearestExistingFile(File file) {
+        File current = file;
+        while (!current.exists() && current.getParentFile() != null) {
+            current = current.getParentFile();
+        }
+        return current;
+    }
+
+}
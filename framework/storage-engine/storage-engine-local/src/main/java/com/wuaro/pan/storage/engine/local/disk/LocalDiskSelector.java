@@ -0,0 +1,184 @@
+package com.wuaro.pan.storage.engine.local.disk;
+
+import com.google.common.hash.Hashing;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.storage.engine.local.config.LocalStorageEngineConfig;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * 本地存储引擎的磁盘选择器
+ * <p>
+ * 1、没有配置多块磁盘时，只有 rootFilePath 和 rootFileChunkPath 组成的一块磁盘
+ * 2、新文件按照配置的策略选择磁盘，按权重随机或者选择最空闲的磁盘，可用空间低于下限的磁盘不参与选择
+ * 3、同一个文件的按偏移量写入的分片需要写入同一个目标文件，按照文件的唯一标识一致性哈希选择磁盘
+ * <p>
+ * 文件的真实存储路径是包含磁盘根目录的绝对路径，读取和删除时不需要再选择磁盘
+ */
+@Component
+public class LocalDiskSelector {
+
+    public static final String WEIGHTED_STRATEGY = "WEIGHTED";
+
+    public static final String LEAST_USED_STRATEGY = "LEAST_USED";
+
+    private static final String DEFAULT_CHUNK_FOLDER_NAME = "chunks";
+
+    private final List<LocalDisk> disks;
+
+    private final int totalWeight;
+
+    private final String strategy;
+
+    private final long minFreeBytes;
+
+    public LocalDiskSelector(LocalStorageEngineConfig config) {
+        this.disks = Collections.unmodifiableList(createDisks(config));
+        this.totalWeight = disks.stream().mapToInt(LocalDisk::getWeight).sum();
+        this.strategy = config.getDiskSelectStrategy();
+        this.minFreeBytes = Objects.nonNull(config.getDiskMinFreeBytes()) ? config.getDiskMinFreeBytes() : 0L;
+        if (!WEIGHTED_STRATEGY.equals(strategy) && !LEAST_USED_STRATEGY.equals(strategy)) {
+            throw new RPanFrameworkException("不支持的磁盘选择策略：" + strategy);
+        }
+    }
+
+    /**
+     * 获取所有的磁盘
+     *
+     * @return
+     */
+    public List<LocalDisk> getDisks() {
+        return disks;
+    }
+
+    /**
+     * 为新文件选择磁盘
+     * 只在可用空间不低于下限的磁盘中选择，所有磁盘都低于下限时在所有磁盘中选择
+     *
+     * @return
+     */
+    public LocalDisk select() {
+        if (disks.size() == 1) {
+            return disks.get(0);
+        }
+        List<LocalDisk> candidates = disks.stream()
+                .filter(disk -> disk.getUsableSpace() >= minFreeBytes)
+                .collect(Collectors.toList());
+        if (candidates.isEmpty()) {
+            candidates = disks;
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        if (LEAST_USED_STRATEGY.equals(strategy)) {
+            return selectLeastUsed(candidates);
+        }
+        int candidateWeight = candidates.size() == disks.size() ? totalWeight : candidates.stream().mapToInt(LocalDisk::getWeight).sum();
+        return selectByWeight(candidates, ThreadLocalRandom.current().nextInt(candidateWeight));
+    }
+
+    /**
+     * 根据指定的key一致性地选择磁盘，相同的key总是选择同一块磁盘
+     * 按偏移量写入的分片必须写入同一个目标文件，这里不按可用空间过滤，否则同一个文件的分片可能落到不同的磁盘上
+     *
+     * @param key
+     * @return
+     */
+    public LocalDisk selectByKey(String key) {
+        if (disks.size() == 1) {
+            return disks.get(0);
+        }
+        int bucket = Hashing.consistentHash(Hashing.murmur3_128().hashString(key, StandardCharsets.UTF_8), totalWeight);
+        return selectByWeight(disks, bucket);
+    }
+
+    /**
+     * 根据文件分片的路径找到所在的磁盘
+     *
+     * @param chunkPath
+     * @return 找不到时返回null
+     */
+    public LocalDisk resolveByChunkPath(String chunkPath) {
+        return disks.stream()
+                .filter(disk -> disk.containsChunkPath(chunkPath))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * 根据文件的路径找到所在的磁盘
+     *
+     * @param filePath
+     * @return 找不到时返回null
+     */
+    public LocalDisk resolveByFilePath(String filePath) {
+        return disks.stream()
+                .filter(disk -> disk.containsFilePath(filePath))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /*****************************************private*****************************************/
+
+    /**
+     * 根据配置创建磁盘列表
+     *
+     * @param config
+     * @return
+     */
+    private List<LocalDisk> createDisks(LocalStorageEngineConfig config) {
+        if (CollectionUtils.isEmpty(config.getDisks())) {
+            return Collections.singletonList(new LocalDisk(config.getRootFilePath(), config.getRootFileChunkPath(), 1, config.getDiskUsableSpaceCacheMillis()));
+        }
+        return config.getDisks().stream().map(disk -> {
+            if (StringUtils.isBlank(disk.getPath())) {
+                throw new RPanFrameworkException("磁盘的存储路径不能为空");
+            }
+            String chunkPath = StringUtils.isNotBlank(disk.getChunkPath()) ? disk.getChunkPath() : disk.getPath() + File.separator + DEFAULT_CHUNK_FOLDER_NAME;
+            int weight = Objects.nonNull(disk.getWeight()) && disk.getWeight() > 0 ? disk.getWeight() : 1;
+            return new LocalDisk(disk.getPath(), chunkPath, weight, config.getDiskUsableSpaceCacheMillis());
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * 按照累计权重找到权重区间包含指定值的磁盘
+     *
+     * @param candidates
+     * @param value      0 到 候选磁盘的总权重-1 之间的值
+     * @return
+     */
+    private LocalDisk selectByWeight(List<LocalDisk> candidates, int value) {
+        int cumulative = 0;
+        for (LocalDisk disk : candidates) {
+            cumulative += disk.getWeight();
+            if (value < cumulative) {
+                return disk;
+            }
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+
+    /**
+     * 选择按权重折算后正在写入的任务最少的磁盘，相同时选择可用空间最大的磁盘
+     *
+     * @param candidates
+     * @return
+     */
+    private LocalDisk selectLeastUsed(List<LocalDisk> candidates) {
+        return candidates.stream()
+                .min(Comparator.<LocalDisk>comparingDouble(disk -> (double) disk.getWritingCount() / disk.getWeight())
+                        .thenComparing(Comparator.comparingLong(LocalDisk::getUsableSpace).reversed()))
+                .orElseThrow(() -> new RPanFrameworkException("没有可用的磁盘"));
+    }
+
+}
@@ -1,6 +1,7 @@
 package com.wuaro.pan.storage.engine.local.initializer;
 
-import com.wuaro.pan.storage.engine.local.config.LocalStorageEngineConfig;
+import com.wuaro.pan.storage.engine.local.disk.LocalDisk;
+import com.wuaro.pan.storage.engine.local.disk.LocalDiskSelector;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,20 +12,23 @@ import java.io.File;
 
 /**
  * 初始化上传文件根目录和文件分片存储根目录的初始化器
+ * 配置了多块磁盘时，初始化每一块磁盘上的根目录
  */
 @Component
 @Slf4j
 public class UploadFolderAndChunksFolderInitializer implements CommandLineRunner {
 
     @Autowired
-    private LocalStorageEngineConfig config;
+    private LocalDiskSelector diskSelector;
 
     @Override
     public void run(String... args) throws Exception {
-        FileUtils.forceMkdir(new File(config.getRootFilePath()));
-        log.info("the root file path has been created!");
-        FileUtils.forceMkdir(new File(config.getRootFileChunkPath()));
-        log.info("the root file chunk path has been created!");
+        for (LocalDisk disk : diskSelector.getDisks()) {
+            FileUtils.forceMkdir(new File(disk.getRootFilePath()));
+            log.info("the root file path {} has been created!", disk.getRootFilePath());
+            FileUtils.forceMkdir(new File(disk.getRootFileChunkPath()));
+            log.info("the root file chunk path {} has been created!", disk.getRootFileChunkPath());
+        }
     }
 
 }
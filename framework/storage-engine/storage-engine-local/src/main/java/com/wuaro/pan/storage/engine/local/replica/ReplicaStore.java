@@ -0,0 +1,659 @@
+package com.wuaro.pan.storage.engine.local.replica;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.core.constants.RPanConstants;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.core.utils.BufferPool;
+import com.wuaro.pan.core.utils.FileUtils;
+import com.wuaro.pan.core.utils.UUIDUtil;
+import com.wuaro.pan.storage.engine.local.config.LocalStorageEngineConfig;
+import com.wuaro.pan.storage.engine.local.disk.LocalDisk;
+import com.wuaro.pan.storage.engine.local.disk.LocalDiskSelector;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 本地多副本存储
+ * <p>
+ * 1、上传的文件按照磁盘选择策略选择一块磁盘作为第一个副本，在写入的同时把读到的数据写到其他磁盘上相同的相对路径下；
+ * 分片合并出来的文件没有输入流，合并完成之后再并行复制到其他磁盘上
+ * 2、文件的真实存储路径为 第一个副本的路径?replicas=其他副本的路径&size=文件大小，多个路径之间用系统的路径列表分隔符隔开
+ * 3、读取时优先选择健康的、排队的读写任务最少的副本，热点文件的读取分摊到各个副本所在的磁盘上
+ * 4、副本缺失、大小与写入时记录的文件大小不一致或者读取失败时换一个副本读取，并且在后台用正常的副本修复损坏的副本
+ * <p>
+ * 副本都先写到临时文件再原子地移动到正式路径，读取时不会读到复制了一半的副本
+ */
+@Component
+@Slf4j
+public class ReplicaStore {
+
+    public static final String ACK_ALL = "ALL";
+
+    public static final String ACK_FIRST = "FIRST";
+
+    private static final String REPLICAS_PARAM_PREFIX = "?replicas=";
+
+    private static final String SIZE_PARAM_PREFIX = "&size=";
+
+    private static final String TEMP_FILE_SUFFIX = ".replicating";
+
+    private final LocalStorageEngineConfig config;
+
+    private final LocalDiskSelector diskSelector;
+
+    private final ThreadPoolTaskExecutor taskExecutor;
+
+    /**
+     * 正在复制或者修复的副本路径，避免同一个副本被重复复制
+     */
+    private final Set<String> copyingPaths = ConcurrentHashMap.newKeySet();
+
+    public ReplicaStore(LocalStorageEngineConfig config,
+                        LocalDiskSelector diskSelector,
+                        @Qualifier(value = "localReplicaTaskExecutor") ThreadPoolTaskExecutor taskExecutor) {
+        this.config = config;
+        this.diskSelector = diskSelector;
+        this.taskExecutor = taskExecutor;
+        if (isEnabled()) {
+            if (config.getReplicaCount() > diskSelector.getDisks().size()) {
+                throw new RPanFrameworkException("副本数不能大于磁盘数：" + config.getReplicaCount());
+            }
+            if (!ACK_ALL.equals(config.getReplicaAckMode()) && !ACK_FIRST.equals(config.getReplicaAckMode())) {
+                throw new RPanFrameworkException("不支持的副本确认方式：" + config.getReplicaAckMode());
+            }
+        }
+    }
+
+    /**
+     * 是否开启了多副本存储
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return Objects.nonNull(config.getReplicaCount()) && config.getReplicaCount() > RPanConstants.ONE_INT;
+    }
+
+    /**
+     * 判断真实存储路径是否是多副本存储的文件
+     *
+     * @param realPath
+     * @return
+     */
+    public static boolean isReplicaPath(String realPath) {
+        return Objects.nonNull(realPath) && realPath.lastIndexOf(REPLICAS_PARAM_PREFIX) > 0;
+    }
+
+    /**
+     * 解析所有副本的路径，第一个是最先写入的副本
+     *
+     * @param realPath
+     * @return
+     */
+    public static List<String> parseReplicaPaths(String realPath) {
+        int index = realPath.lastIndexOf(REPLICAS_PARAM_PREFIX);
+        List<String> replicaPaths = Lists.newArrayList(realPath.substring(0, index));
+        String others = realPath.substring(index + REPLICAS_PARAM_PREFIX.length());
+        int sizeIndex = others.lastIndexOf(SIZE_PARAM_PREFIX);
+        if (sizeIndex >= 0) {
+            others = others.substring(0, sizeIndex);
+        }
+        if (StringUtils.isNotEmpty(others)) {
+            replicaPaths.addAll(Arrays.asList(others.split(File.pathSeparator)));
+        }
+        return replicaPaths;
+    }
+
+    /**
+     * 把输入流同时写入第一个副本和其他磁盘上的副本，输入流只读取一次
+     * <p>
+     * 1、第一个副本直接写入正式路径，其他副本写入临时文件，全部写完之后再原子地移动到副本路径
+     * 2、ALL 模式下任意一个副本写入失败时删除包括第一个副本在内的所有副本，然后抛出异常
+     * 3、FIRST 模式下只有第一个副本写入失败才抛出异常，写入失败的副本不再写入，第一个副本写完之后在后台重新复制
+     * <p>
+     * 第一个副本所在磁盘的读写计数由调用方维护，这里只维护其他副本所在的磁盘
+     *
+     * @param inputStream 文件的输入流，写入完成之后关闭
+     * @param primaryPath 第一个副本的路径
+     * @param totalSize   文件的总大小，为空时一直写到输入流结束
+     * @return 文件的真实存储路径
+     * @throws IOException
+     */
+    public String store(InputStream inputStream, String primaryPath, Long totalSize) throws IOException {
+        LocalDisk primaryDisk = diskSelector.resolveByFilePath(primaryPath);
+        if (Objects.isNull(primaryDisk)) {
+            throw new RPanFrameworkException("the file is not on any configured disk: " + primaryPath);
+        }
+        String relativePath = primaryPath.substring(primaryDisk.getRootFilePath().length());
+        List<ReplicaWriter> writers = selectReplicaDisks(primaryDisk).stream()
+                .map(disk -> new ReplicaWriter(disk, disk.getRootFilePath() + relativePath))
+                .collect(Collectors.toList());
+        List<String> replicaPaths = writers.stream().map(writer -> writer.path).collect(Collectors.toList());
+        boolean ackAll = ACK_ALL.equals(config.getReplicaAckMode());
+
+        File primaryFile = new File(primaryPath);
+        writers.forEach(writer -> writer.disk.beginWrite());
+        try {
+            try {
+                writers.forEach(writer -> writer.open(ackAll));
+                FileUtils.createFile(primaryFile);
+                try (InputStream in = inputStream;
+                     OutputStream primaryOutputStream = new FileOutputStream(primaryFile)) {
+                    tee(in, primaryOutputStream, writers, Objects.isNull(totalSize) ? Long.MAX_VALUE : totalSize, ackAll);
+                }
+                for (ReplicaWriter writer : writers) {
+                    writer.commit(ackAll);
+                }
+            } catch (IOException | UncheckedIOException e) {
+                writers.forEach(ReplicaWriter::abort);
+                List<String> allPaths = Lists.newArrayList(primaryPath);
+                if (ackAll) {
+                    allPaths.addAll(replicaPaths);
+                }
+                deleteQuietly(allPaths);
+                IOException cause = e instanceof UncheckedIOException ? ((UncheckedIOException) e).getCause() : (IOException) e;
+                throw new IOException("write replicas of " + primaryPath + " failed", cause);
+            }
+        } finally {
+            writers.forEach(writer -> writer.disk.endWrite());
+        }
+
+        writers.stream()
+                .filter(writer -> writer.failed)
+                .forEach(writer -> submitCopy(primaryPath, writer.path));
+        return assembleRealPath(primaryPath, replicaPaths, primaryFile.length());
+    }
+
+    /**
+     * 把已经写入一块磁盘的文件复制到其他磁盘上，用于分片合并出来的文件
+     * ALL 模式下任意一个副本失败时删除包括第一个副本在内的所有副本，然后抛出异常
+     *
+     * @param primaryPath 已经写入的第一个副本的路径
+     * @return 文件的真实存储路径
+     * @throws IOException
+     */
+    public String replicate(String primaryPath) throws IOException {
+        LocalDisk primaryDisk = diskSelector.resolveByFilePath(primaryPath);
+        if (Objects.isNull(primaryDisk)) {
+            throw new RPanFrameworkException("the file is not on any configured disk: " + primaryPath);
+        }
+        long size = new File(primaryPath).length();
+        String relativePath = primaryPath.substring(primaryDisk.getRootFilePath().length());
+        List<String> replicaPaths = selectReplicaDisks(primaryDisk).stream()
+                .map(disk -> disk.getRootFilePath() + relativePath)
+                .collect(Collectors.toList());
+
+        if (ACK_FIRST.equals(config.getReplicaAckMode())) {
+            replicaPaths.forEach(replicaPath -> submitCopy(primaryPath, replicaPath));
+            return assembleRealPath(primaryPath, replicaPaths, size);
+        }
+
+        List<CompletableFuture<Void>> futures = replicaPaths.stream()
+                .map(replicaPath -> CompletableFuture.runAsync(() -> {
+                    try {
+                        copyReplica(primaryPath, replicaPath);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, taskExecutor))
+                .collect(Collectors.toList());
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            List<String> allPaths = Lists.newArrayList(primaryPath);
+            allPaths.addAll(replicaPaths);
+            deleteQuietly(allPaths);
+            throw new IOException("write replicas of " + primaryPath + " failed", e.getCause());
+        }
+        return assembleRealPath(primaryPath, replicaPaths, size);
+    }
+
+    /**
+     * 读取文件的全部内容写入输出流，不关闭输出流
+     *
+     * @param realPath
+     * @param outputStream
+     * @throws IOException
+     */
+    public void read(String realPath, OutputStream outputStream) throws IOException {
+        doRead(realPath, outputStream, RPanConstants.ZERO_LONG, null);
+    }
+
+    /**
+     * 读取文件指定区间的内容写入输出流，不关闭输出流
+     *
+     * @param realPath
+     * @param outputStream
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    public void readRange(String realPath, OutputStream outputStream, long offset, long length) throws IOException {
+        doRead(realPath, outputStream, offset, length);
+    }
+
+    /**
+     * 选择一个完整的副本对应的本地文件
+     *
+     * @param realPath
+     * @return 没有完整的副本时返回null
+     */
+    public File getLocalFile(String realPath) {
+        List<String> replicaPaths = orderReplicaPaths(realPath);
+        long expectedLength = getExpectedLength(realPath, replicaPaths);
+        return replicaPaths.stream()
+                .map(File::new)
+                .filter(file -> file.isFile() && file.length() == expectedLength)
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * 删除文件的所有副本，不存在的副本直接忽略
+     *
+     * @param realPath
+     * @throws IOException
+     */
+    public void delete(String realPath) throws IOException {
+        for (String replicaPath : parseReplicaPaths(realPath)) {
+            Files.deleteIfExists(new File(replicaPath).toPath());
+        }
+    }
+
+    /*****************************************private*****************************************/
+
+    /**
+     * 选择第一个副本之外的副本所在的磁盘
+     * 优先选择健康的、排队的读写任务少的磁盘
+     *
+     * @param primaryDisk
+     * @return
+     */
+    private List<LocalDisk> selectReplicaDisks(LocalDisk primaryDisk) {
+        return diskSelector.getDisks().stream()
+                .filter(disk -> disk != primaryDisk)
+                .sorted(replicaDiskComparator())
+                .limit(config.getReplicaCount() - RPanConstants.ONE_INT)
+                .collect(Collectors.toList());
+    }
+
+    private Comparator<LocalDisk> replicaDiskComparator() {
+        return Comparator.<LocalDisk, Boolean>comparing(disk -> !disk.isHealthy())
+                .thenComparingInt(LocalDisk::getPendingCount);
+    }
+
+    /**
+     * 按照读取的优先级对副本排序
+     * 先打乱再稳定排序，排队任务数相同的副本被均匀地选中
+     *
+     * @param realPath
+     * @return
+     */
+    private List<String> orderReplicaPaths(String realPath) {
+        List<String> replicaPaths = parseReplicaPaths(realPath);
+        Collections.shuffle(replicaPaths);
+        Comparator<LocalDisk> comparator = replicaDiskComparator();
+        replicaPaths.sort((path1, path2) -> {
+            LocalDisk disk1 = diskSelector.resolveByFilePath(path1);
+            LocalDisk disk2 = diskSelector.resolveByFilePath(path2);
+            if (Objects.isNull(disk1) || Objects.isNull(disk2)) {
+                return Boolean.compare(Objects.isNull(disk1), Objects.isNull(disk2));
+            }
+            return comparator.compare(disk1, disk2);
+        });
+        return replicaPaths;
+    }
+
+    /**
+     * 获取副本应有的大小，以写入时记录在真实存储路径中的文件大小为准，大小不一致的副本是损坏的
+     * 没有记录文件大小的旧路径以最大的副本为准，小于它的副本是不完整的
+     *
+     * @param realPath
+     * @param replicaPaths
+     * @return
+     */
+    private long getExpectedLength(String realPath, List<String> replicaPaths) {
+        int index = realPath.lastIndexOf(SIZE_PARAM_PREFIX);
+        if (index > realPath.lastIndexOf(REPLICAS_PARAM_PREFIX)) {
+            String size = realPath.substring(index + SIZE_PARAM_PREFIX.length());
+            if (StringUtils.isNumeric(size)) {
+                return Long.parseLong(size);
+            }
+        }
+        return replicaPaths.stream().mapToLong(replicaPath -> new File(replicaPath).length()).max().orElse(RPanConstants.ZERO_LONG);
+    }
+
+    /**
+     * 依次尝试各个副本，直到读取成功
+     * <p>
+     * 1、副本缺失或者不完整时跳过，读取成功之后用成功的副本修复
+     * 2、读取副本抛出异常时把磁盘标记为不健康，还没有写出数据时换下一个副本，已经写出部分数据时无法重试，直接抛出
+     * 3、写输出流失败是调用方的问题（比如客户端断开），直接抛出，不影响副本的状态
+     *
+     * @param realPath
+     * @param outputStream
+     * @param offset
+     * @param length       为null时读取整个文件
+     * @throws IOException
+     */
+    private void doRead(String realPath, OutputStream outputStream, long offset, Long length) throws IOException {
+        List<String> replicaPaths = orderReplicaPaths(realPath);
+        long expectedLength = getExpectedLength(realPath, replicaPaths);
+        List<String> brokenPaths = Lists.newArrayList();
+        IOException lastException = null;
+        for (String replicaPath : replicaPaths) {
+            File file = new File(replicaPath);
+            if (!file.isFile() || file.length() != expectedLength) {
+                brokenPaths.add(replicaPath);
+                continue;
+            }
+            LocalDisk disk = diskSelector.resolveByFilePath(replicaPath);
+            TrackedOutputStream trackedOutputStream = new TrackedOutputStream(outputStream);
+            if (Objects.nonNull(disk)) {
+                disk.beginRead();
+            }
+            try {
+                FileUtils.writeFileRange2OutputStream(file, trackedOutputStream, offset, Objects.isNull(length) ? expectedLength : length);
+            } catch (IOException e) {
+                if (trackedOutputStream.isOutputFailed()) {
+                    throw e;
+                }
+                log.warn("read replica {} failed", replicaPath, e);
+                if (Objects.nonNull(disk)) {
+                    disk.markFailed(TimeUnit.SECONDS.toMillis(config.getReplicaFailureCooldownSeconds()));
+                }
+                brokenPaths.add(replicaPath);
+                if (trackedOutputStream.getWrittenCount() > RPanConstants.ZERO_LONG) {
+                    throw e;
+                }
+                lastException = e;
+                continue;
+            } finally {
+                if (Objects.nonNull(disk)) {
+                    disk.endRead();
+                }
+            }
+            brokenPaths.forEach(brokenPath -> submitCopy(replicaPath, brokenPath));
+            return;
+        }
+        if (Objects.nonNull(lastException)) {
+            throw lastException;
+        }
+        throw new RPanFrameworkException("no available replica: " + realPath);
+    }
+
+    /**
+     * 在后台复制副本，同一个副本同时只有一个复制任务
+     *
+     * @param sourcePath
+     * @param targetPath
+     */
+    private void submitCopy(String sourcePath, String targetPath) {
+        if (!copyingPaths.add(targetPath)) {
+            return;
+        }
+        try {
+            taskExecutor.execute(() -> {
+                try {
+                    copyReplica(sourcePath, targetPath);
+                    log.info("replica {} has been copied from {}", targetPath, sourcePath);
+                } catch (IOException e) {
+                    log.error("copy replica {} from {} failed", targetPath, sourcePath, e);
+                } finally {
+                    copyingPaths.remove(targetPath);
+                }
+            });
+        } catch (RuntimeException e) {
+            copyingPaths.remove(targetPath);
+            log.error("submit the copy task of replica {} failed", targetPath, e);
+        }
+    }
+
+    /**
+     * 复制副本
+     * 先复制到同一目录下的临时文件，再原子地移动到副本路径；复制期间文件被删除时，删除刚复制出来的副本
+     *
+     * @param sourcePath
+     * @param targetPath
+     * @throws IOException
+     */
+    private void copyReplica(String sourcePath, String targetPath) throws IOException {
+        File source = new File(sourcePath);
+        File target = new File(targetPath);
+        File tempFile = new File(targetPath + RPanConstants.POINT_STR + UUIDUtil.getUUID() + TEMP_FILE_SUFFIX);
+        LocalDisk disk = diskSelector.resolveByFilePath(targetPath);
+        if (Objects.nonNull(disk)) {
+            disk.beginWrite();
+        }
+        try {
+            if (!target.getParentFile().exists()) {
+                target.getParentFile().mkdirs();
+            }
+            Files.copy(source.toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+            if (Objects.nonNull(disk)) {
+                disk.endWrite();
+            }
+        }
+        if (!source.exists()) {
+            Files.deleteIfExists(target.toPath());
+        }
+    }
+
+    /**
+     * 读取输入流，每读到一块数据都依次写入第一个副本和所有还没有失败的副本，最多写入 length 个字节
+     *
+     * @param inputStream
+     * @param primaryOutputStream
+     * @param writers
+     * @param length
+     * @param ackAll
+     * @throws IOException 读取输入流或者写入第一个副本失败，ALL 模式下写入其他副本失败
+     */
+    private void tee(InputStream inputStream, OutputStream primaryOutputStream, List<ReplicaWriter> writers, long length, boolean ackAll) throws IOException {
+        byte[] buffer = BufferPool.acquireHeap(length);
+        try {
+            long written = RPanConstants.ZERO_LONG;
+            while (written < length) {
+                int len = inputStream.read(buffer, RPanConstants.ZERO_INT, (int) Math.min(buffer.length, length - written));
+                if (len == RPanConstants.MINUS_ONE_INT) {
+                    break;
+                }
+                primaryOutputStream.write(buffer, RPanConstants.ZERO_INT, len);
+                for (ReplicaWriter writer : writers) {
+                    writer.write(buffer, len, ackAll);
+                }
+                written += len;
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    private void deleteQuietly(List<String> paths) {
+        for (String path : paths) {
+            try {
+                Files.deleteIfExists(new File(path).toPath());
+            } catch (IOException e) {
+                log.error("delete replica {} failed", path, e);
+            }
+        }
+    }
+
+    private String assembleRealPath(String primaryPath, List<String> replicaPaths, long size) {
+        return primaryPath + REPLICAS_PARAM_PREFIX + String.join(File.pathSeparator, replicaPaths) + SIZE_PARAM_PREFIX + size;
+    }
+
+    /**
+     * 写入期间同步写入的一个副本
+     * 数据先写入同一目录下的临时文件，提交时再原子地移动到副本路径
+     * FIRST 模式下失败的副本被标记为失败并删除临时文件，之后不再写入
+     */
+    private static class ReplicaWriter {
+
+        private final LocalDisk disk;
+
+        private final String path;
+
+        private final File tempFile;
+
+        private OutputStream outputStream;
+
+        private boolean failed = false;
+
+        ReplicaWriter(LocalDisk disk, String path) {
+            this.disk = disk;
+            this.path = path;
+            this.tempFile = new File(path + RPanConstants.POINT_STR + UUIDUtil.getUUID() + TEMP_FILE_SUFFIX);
+        }
+
+        void open(boolean ackAll) {
+            try {
+                FileUtils.createFile(tempFile);
+                outputStream = new FileOutputStream(tempFile);
+            } catch (IOException e) {
+                fail(e, ackAll);
+            }
+        }
+
+        void write(byte[] buffer, int len, boolean ackAll) throws IOException {
+            if (failed) {
+                return;
+            }
+            try {
+                outputStream.write(buffer, RPanConstants.ZERO_INT, len);
+            } catch (IOException e) {
+                fail(e, ackAll);
+            }
+        }
+
+        void commit(boolean ackAll) throws IOException {
+            if (failed) {
+                return;
+            }
+            try {
+                outputStream.close();
+                try {
+                    Files.move(tempFile.toPath(), new File(path).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                fail(e, ackAll);
+            }
+        }
+
+        /**
+         * 关闭输出流并删除临时文件，已经移动到副本路径的副本由调用方删除
+         */
+        void abort() {
+            closeQuietly();
+            try {
+                Files.deleteIfExists(tempFile.toPath());
+            } catch (IOException e) {
+                log.error("delete temp file {} failed", tempFile, e);
+            }
+        }
+
+        private void fail(IOException e, boolean ackAll) {
+            if (ackAll) {
+                throw new UncheckedIOException(e);
+            }
+            log.warn("write replica {} failed, it will be copied after the file is stored", path, e);
+            failed = true;
+            abort();
+        }
+
+        private void closeQuietly() {
+            if (Objects.isNull(outputStream)) {
+                return;
+            }
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                log.warn("close replica {} failed", path, e);
+            }
+        }
+
+    }
+
+    /**
+     * 记录写出的字节数，并且区分异常是不是写输出流时抛出的
+     * 不关闭被包装的输出流
+     */
+    private static class TrackedOutputStream extends FilterOutputStream {
+
+        private long writtenCount = 0L;
+
+        private boolean outputFailed = false;
+
+        TrackedOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (IOException e) {
+                outputFailed = true;
+                throw e;
+            }
+            writtenCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                outputFailed = true;
+                throw e;
+            }
+            writtenCount += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                outputFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        long getWrittenCount() {
+            return writtenCount;
+        }
+
+        boolean isOutputFailed() {
+            return outputFailed;
+        }
+
+    }
+
+}
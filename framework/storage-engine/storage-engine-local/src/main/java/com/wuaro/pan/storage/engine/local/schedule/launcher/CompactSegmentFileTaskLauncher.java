@@ -0,0 +1,35 @@
+package com.wuaro.pan.storage.engine.local.schedule.launcher;
+
+import com.wuaro.pan.schedule.ScheduleManager;
+import com.wuaro.pan.storage.engine.local.config.LocalStorageEngineConfig;
+import com.wuaro.pan.storage.engine.local.schedule.task.CompactSegmentFileTask;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * 段文件整理任务触发器
+ * 只有开启了小文件打包存储时才启动
+ */
+@Slf4j
+@Component
+public class CompactSegmentFileTaskLauncher implements CommandLineRunner {
+
+    @Autowired
+    private CompactSegmentFileTask task;
+
+    @Autowired
+    private ScheduleManager scheduleManager;
+
+    @Autowired
+    private LocalStorageEngineConfig config;
+
+    @Override
+    public void run(String... args) throws Exception {
+        if (Boolean.TRUE.equals(config.getSegmentEnabled())) {
+            scheduleManager.startTask(task, config.getSegmentCompactCron());
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.wuaro.pan.storage.engine.local.schedule.task;
+
+import com.wuaro.pan.schedule.ScheduleTask;
+import com.wuaro.pan.storage.engine.local.segment.SegmentStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * 段文件整理任务
+ * 回收打包存储的段文件中已删除的对象占用的空间
+ */
+@Component
+@Slf4j
+public class CompactSegmentFileTask implements ScheduleTask {
+
+    @Autowired
+    private SegmentStore segmentStore;
+
+    /**
+     * 获取定时任务的名称
+     *
+     * @return
+     */
+    @Override
+    public String getName() {
+        return "CompactSegmentFileTask";
+    }
+
+    /**
+     * 执行整理任务
+     */
+    @Override
+    public void run() {
+        log.info("{} start compact segment file...", getName());
+        try {
+            long reclaimed = segmentStore.compact();
+            log.info("{} compact segment file finish, {} bytes reclaimed", getName(), reclaimed);
+        } catch (IOException e) {
+            log.error("{} compact segment file failed", getName(), e);
+        }
+    }
+
+}
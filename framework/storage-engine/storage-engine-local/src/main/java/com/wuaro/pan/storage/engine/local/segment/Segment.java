@@ -0,0 +1,334 @@
+package com.wuaro.pan.storage.engine.local.segment;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.core.constants.RPanConstants;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.core.utils.BufferPool;
+import com.wuaro.pan.core.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 段文件
+ * <p>
+ * 只追加写入的大文件，每条记录的格式为：
+ * 魔数(4字节) + 状态(1字节) + 保留(3字节) + 数据长度(8字节) + 对象唯一标识(32字节) + 数据
+ * 写入时先写入待定状态的记录头，数据写完之后再把状态改成有效，删除时只把状态改成已删除，
+ * 启动时顺序扫描记录头即可重建索引，末尾不完整的记录会被截断
+ * <p>
+ * 追加写入由所在的段卷串行执行，写入的数据已经事先读入内存，持有段卷的锁期间不会等待客户端的输入流；
+ * 读取使用位置读取可以并发执行，先在读锁内把数据读入内存，释放读锁之后再写入输出流，不会在持有锁时等待网络；
+ * 整理完成后段文件被删除，读取和删除时需要先持有读锁并确认段文件未被删除
+ */
+class Segment {
+
+    static final int HEADER_SIZE = 48;
+
+    static final int KEY_LENGTH = 32;
+
+    static final byte FLAG_PENDING = 0;
+
+    static final byte FLAG_LIVE = 1;
+
+    static final byte FLAG_DELETED = 2;
+
+    private static final int MAGIC = 0x52504E53;
+
+    private static final int FLAG_POSITION = 4;
+
+    private final long id;
+
+    private final File file;
+
+    private final FileChannel channel;
+
+    /**
+     * 已写入的有效数据的末尾位置，只由段卷在持有锁时修改
+     */
+    private volatile long size;
+
+    /**
+     * 已删除的记录占用的字节数
+     */
+    private final AtomicLong deadBytes = new AtomicLong();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile boolean removed;
+
+    Segment(long id, File file) throws IOException {
+        this.id = id;
+        this.file = file;
+        FileUtils.createFile(file);
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.size = channel.size();
+    }
+
+    long getId() {
+        return id;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    long getDeadBytes() {
+        return deadBytes.get();
+    }
+
+    void addDeadBytes(long bytes) {
+        deadBytes.addAndGet(bytes);
+    }
+
+    /**
+     * 顺序扫描段文件中所有完整的记录
+     * 遇到不完整或者待定状态的记录时停止扫描，并把段文件截断到该位置
+     *
+     * @return
+     * @throws IOException
+     */
+    List<SegmentRecord> scan() throws IOException {
+        List<SegmentRecord> records = Lists.newArrayList();
+        long fileSize = channel.size();
+        long offset = RPanConstants.ZERO_LONG;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (offset + HEADER_SIZE <= fileSize) {
+            header.clear();
+            while (header.hasRemaining()) {
+                if (channel.read(header, offset + header.position()) == RPanConstants.MINUS_ONE_INT) {
+                    break;
+                }
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                break;
+            }
+            byte flag = header.get();
+            header.position(header.position() + 3);
+            long length = header.getLong();
+            byte[] key = new byte[KEY_LENGTH];
+            header.get(key);
+            if (flag == FLAG_PENDING || length < RPanConstants.ZERO_LONG || offset + HEADER_SIZE + length > fileSize) {
+                break;
+            }
+            records.add(new SegmentRecord(new String(key, StandardCharsets.US_ASCII), this, offset, length, flag));
+            offset += HEADER_SIZE + length;
+        }
+        if (offset < fileSize) {
+            channel.truncate(offset);
+        }
+        size = offset;
+        return records;
+    }
+
+    /**
+     * 为对象的数据分配内存缓冲区，不超过1MB时使用缓冲区池，使用完之后通过BufferPool归还
+     *
+     * @param length
+     * @return
+     */
+    static byte[] acquireBuffer(long length) {
+        if (length > BufferPool.SIZE_1M) {
+            return new byte[(int) length];
+        }
+        return BufferPool.acquireHeap(length);
+    }
+
+    /**
+     * 从输入流中读取对象的全部数据
+     *
+     * @param inputStream
+     * @param buffer
+     * @param length
+     * @throws IOException
+     */
+    static void readFully(InputStream inputStream, byte[] buffer, int length) throws IOException {
+        int read = RPanConstants.ZERO_INT;
+        int len;
+        while (read < length && (len = inputStream.read(buffer, read, length - read)) != RPanConstants.MINUS_ONE_INT) {
+            read += len;
+        }
+        if (read != length) {
+            throw new RPanFrameworkException("the segment object is incomplete, expect " + length + " bytes but got " + read);
+        }
+    }
+
+    /**
+     * 追加一条记录，调用方需要保证同一个段文件的追加是串行的
+     *
+     * @param key
+     * @param data   已经读入内存的对象数据
+     * @param length
+     * @return 新记录
+     * @throws IOException
+     */
+    SegmentRecord append(String key, byte[] data, int length) throws IOException {
+        long offset = size;
+        try {
+            writeHeader(offset, key, length);
+            ByteBuffer buffer = ByteBuffer.wrap(data, RPanConstants.ZERO_INT, length);
+            long position = offset + HEADER_SIZE;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            return complete(key, offset, length);
+        } catch (IOException | RuntimeException e) {
+            channel.truncate(offset);
+            throw e;
+        }
+    }
+
+    /**
+     * 从另一个段文件中拷贝一条记录追加到当前段文件，调用方需要保证同一个段文件的追加是串行的
+     * 数据通过transferTo在内核态拷贝
+     *
+     * @param source
+     * @return 新记录
+     * @throws IOException
+     */
+    SegmentRecord appendFrom(SegmentRecord source) throws IOException {
+        long offset = size;
+        try {
+            writeHeader(offset, source.getKey(), source.getLength());
+            FileChannel sourceChannel = source.getSegment().channel;
+            channel.position(offset + HEADER_SIZE);
+            long transferred = RPanConstants.ZERO_LONG;
+            while (transferred < source.getLength()) {
+                long len = sourceChannel.transferTo(source.getDataOffset() + transferred, source.getLength() - transferred, channel);
+                if (len <= RPanConstants.ZERO_LONG) {
+                    throw new RPanFrameworkException("the segment object is incomplete: " + source.getKey());
+                }
+                transferred += len;
+            }
+            return complete(source.getKey(), offset, source.getLength());
+        } catch (IOException | RuntimeException e) {
+            channel.truncate(offset);
+            throw e;
+        }
+    }
+
+    /**
+     * 读取记录的指定区间写入输出流
+     * 在读锁内把区间的数据读入内存，释放读锁之后再写入输出流，整理任务删除段文件时不需要等待慢速的客户端
+     *
+     * @param record
+     * @param offset
+     * @param length
+     * @param outputStream
+     * @return 段文件已经被整理删除时返回false，调用方需要重新查找记录的位置
+     * @throws IOException
+     */
+    boolean read(SegmentRecord record, long offset, long length, OutputStream outputStream) throws IOException {
+        byte[] data = acquireBuffer(length);
+        try {
+            lock.readLock().lock();
+            try {
+                if (removed) {
+                    return false;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(data, RPanConstants.ZERO_INT, (int) length);
+                long position = record.getDataOffset() + offset;
+                while (buffer.hasRemaining()) {
+                    int len = channel.read(buffer, position);
+                    if (len == RPanConstants.MINUS_ONE_INT) {
+                        throw new RPanFrameworkException("the segment object is incomplete: " + record.getKey());
+                    }
+                    position += len;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            outputStream.write(data, RPanConstants.ZERO_INT, (int) length);
+            return true;
+        } finally {
+            BufferPool.release(data);
+        }
+    }
+
+    /**
+     * 把记录标记为已删除
+     *
+     * @param record
+     * @throws IOException
+     */
+    void markDeleted(SegmentRecord record) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (removed) {
+                return;
+            }
+            writeFlag(record.getOffset(), FLAG_DELETED);
+            deadBytes.addAndGet(record.getRecordSize());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 关闭并删除段文件，等待正在进行的读取完成
+     *
+     * @throws IOException
+     */
+    void remove() throws IOException {
+        lock.writeLock().lock();
+        try {
+            removed = true;
+            channel.close();
+            Files.deleteIfExists(file.toPath());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    /*****************************************private*****************************************/
+
+    private SegmentRecord complete(String key, long offset, long length) throws IOException {
+        writeFlag(offset, FLAG_LIVE);
+        size = offset + HEADER_SIZE + length;
+        return new SegmentRecord(key, this, offset, length, FLAG_LIVE);
+    }
+
+    private void writeHeader(long offset, String key, long length) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.US_ASCII);
+        if (keyBytes.length != KEY_LENGTH) {
+            throw new RPanFrameworkException("the segment object key is illegal: " + key);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.put(FLAG_PENDING);
+        header.put(new byte[3]);
+        header.putLong(length);
+        header.put(keyBytes);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, offset + header.position());
+        }
+    }
+
+    private void writeFlag(long offset, byte flag) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{flag});
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + FLAG_POSITION);
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.wuaro.pan.storage.engine.local.segment;
+
+/**
+ * 段文件中的一条记录的位置信息
+ * <p>
+ * 记录由固定长度的记录头和紧跟其后的数据组成，offset指向记录头的起始位置
+ */
+class SegmentRecord {
+
+    /**
+     * 对象的唯一标识
+     */
+    private final String key;
+
+    /**
+     * 所在的段文件
+     */
+    private final Segment segment;
+
+    /**
+     * 记录头在段文件中的偏移量
+     */
+    private final long offset;
+
+    /**
+     * 数据的长度
+     */
+    private final long length;
+
+    /**
+     * 记录的状态
+     */
+    private final byte flag;
+
+    SegmentRecord(String key, Segment segment, long offset, long length, byte flag) {
+        this.key = key;
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+        this.flag = flag;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    Segment getSegment() {
+        return segment;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * 数据在段文件中的起始偏移量
+     *
+     * @return
+     */
+    long getDataOffset() {
+        return offset + Segment.HEADER_SIZE;
+    }
+
+    /**
+     * 记录占用的总字节数，包括记录头
+     *
+     * @return
+     */
+    long getRecordSize() {
+        return Segment.HEADER_SIZE + length;
+    }
+
+    boolean isLive() {
+        return flag == Segment.FLAG_LIVE;
+    }
+
+}
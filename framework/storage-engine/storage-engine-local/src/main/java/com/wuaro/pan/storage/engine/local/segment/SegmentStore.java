@@ -0,0 +1,282 @@
+package com.wuaro.pan.storage.engine.local.segment;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.wuaro.pan.core.constants.RPanConstants;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.core.utils.UUIDUtil;
+import com.wuaro.pan.storage.engine.local.config.LocalStorageEngineConfig;
+import com.wuaro.pan.storage.engine.local.disk.LocalDisk;
+import com.wuaro.pan.storage.engine.local.disk.LocalDiskSelector;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 小文件打包存储
+ * <p>
+ * 1、小于等于阈值的对象追加写入到每块磁盘上的段文件中，不再单独创建文件，大幅减少inode和目录项的数量
+ * 2、对象的真实存储路径为 段文件路径?key=对象唯一标识&offset=写入时的偏移量&length=长度
+ * 3、内存中维护对象唯一标识到段文件记录的索引，启动时顺序扫描段文件的记录头重建，
+ * 段文件整理之后对象的位置会变化，所以读取和删除时以索引为准，路径中的偏移量只表示写入时的位置
+ * 4、删除只标记记录的状态，由后台任务把已删除数据占比较高的段文件中的有效记录搬到新的段文件中，然后删除旧段文件
+ */
+@Component
+@Slf4j
+public class SegmentStore {
+
+    private static final String SEGMENT_FOLDER_NAME = "segments";
+
+    private static final String SEGMENT_FILE_SUFFIX = ".seg";
+
+    private static final String KEY_PARAM_PREFIX = "?key=";
+
+    private static final String OFFSET_PARAM_PREFIX = "&offset=";
+
+    private static final String LENGTH_PARAM_PREFIX = "&length=";
+
+    private final LocalStorageEngineConfig config;
+
+    private final LocalDiskSelector diskSelector;
+
+    private final Map<LocalDisk, SegmentVolume> volumes = Maps.newLinkedHashMap();
+
+    private final Map<String, SegmentRecord> index = new ConcurrentHashMap<>();
+
+    private final AtomicLong segmentIdGenerator = new AtomicLong(RPanConstants.ONE_INT);
+
+    public SegmentStore(LocalStorageEngineConfig config, LocalDiskSelector diskSelector) throws IOException {
+        this.config = config;
+        this.diskSelector = diskSelector;
+        if (isEnabled()) {
+            load();
+        }
+    }
+
+    /**
+     * 是否开启了小文件打包存储
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(config.getSegmentEnabled());
+    }
+
+    /**
+     * 判断指定大小的对象是否需要打包存储
+     *
+     * @param size
+     * @return
+     */
+    public boolean accept(Long size) {
+        return isEnabled() && Objects.nonNull(size) && size <= config.getSegmentThreshold();
+    }
+
+    /**
+     * 判断真实存储路径是否是打包存储的对象
+     *
+     * @param realPath
+     * @return
+     */
+    public static boolean isSegmentPath(String realPath) {
+        return Objects.nonNull(realPath) && realPath.lastIndexOf(KEY_PARAM_PREFIX) > 0;
+    }
+
+    /**
+     * 保存对象
+     *
+     * @param inputStream
+     * @param length
+     * @return 对象的真实存储路径
+     * @throws IOException
+     */
+    public String store(InputStream inputStream, long length) throws IOException {
+        SegmentVolume volume = volumes.get(diskSelector.select());
+        String key = UUIDUtil.getUUID();
+        volume.getDisk().beginWrite();
+        SegmentRecord record;
+        try {
+            record = volume.append(key, inputStream, length);
+        } finally {
+            volume.getDisk().endWrite();
+        }
+        index.put(key, record);
+        return assembleRealPath(record);
+    }
+
+    /**
+     * 读取对象的全部内容写入输出流，不关闭输出流
+     *
+     * @param realPath
+     * @param outputStream
+     * @throws IOException
+     */
+    public void read(String realPath, OutputStream outputStream) throws IOException {
+        readRange(realPath, outputStream, RPanConstants.ZERO_LONG, Long.MAX_VALUE);
+    }
+
+    /**
+     * 读取对象指定区间的内容写入输出流，不关闭输出流
+     *
+     * @param realPath
+     * @param outputStream
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    public void readRange(String realPath, OutputStream outputStream, long offset, long length) throws IOException {
+        String key = parseKey(realPath);
+        while (true) {
+            SegmentRecord record = index.get(key);
+            if (Objects.isNull(record)) {
+                throw new RPanFrameworkException("the segment object does not exist: " + realPath);
+            }
+            long readLength = Math.min(length, record.getLength() - offset);
+            if (offset < RPanConstants.ZERO_LONG || readLength < RPanConstants.ZERO_LONG) {
+                throw new RPanFrameworkException("the range is out of the segment object: " + realPath);
+            }
+            if (record.getSegment().read(record, offset, readLength, outputStream)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 删除对象
+     *
+     * @param realPath
+     * @throws IOException
+     */
+    public void delete(String realPath) throws IOException {
+        SegmentRecord record = index.remove(parseKey(realPath));
+        if (Objects.nonNull(record)) {
+            record.getSegment().markDeleted(record);
+        }
+    }
+
+    /**
+     * 整理段文件
+     * <p>
+     * 已删除数据占比达到阈值的封存段文件，把其中仍然有效的记录搬到当前接受写入的段文件中，
+     * 搬完之后更新索引并删除旧段文件，搬运过程中被删除的记录在新位置上同样标记为已删除
+     *
+     * @return 回收的字节数
+     * @throws IOException
+     */
+    public synchronized long compact() throws IOException {
+        long reclaimed = RPanConstants.ZERO_LONG;
+        for (SegmentVolume volume : volumes.values()) {
+            for (Segment segment : volume.getSealedSegments()) {
+                long size = segment.getSize();
+                if (size > RPanConstants.ZERO_LONG && (double) segment.getDeadBytes() / size < config.getSegmentCompactRatio()) {
+                    continue;
+                }
+                long moved = RPanConstants.ZERO_LONG;
+                for (SegmentRecord record : segment.scan()) {
+                    SegmentRecord current = index.get(record.getKey());
+                    if (!record.isLive() || Objects.isNull(current) || current.getSegment() != segment || current.getOffset() != record.getOffset()) {
+                        continue;
+                    }
+                    SegmentRecord target = volume.appendFrom(current);
+                    if (!index.replace(record.getKey(), current, target)) {
+                        target.getSegment().markDeleted(target);
+                    }
+                    moved += record.getRecordSize();
+                }
+                volume.remove(segment);
+                reclaimed += size - moved;
+                log.info("the segment {} has been compacted, {} bytes reclaimed", segment.getFile().getAbsolutePath(), size - moved);
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * 关闭所有的段文件
+     *
+     * @throws IOException
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        for (SegmentVolume volume : volumes.values()) {
+            volume.close();
+        }
+    }
+
+    /*****************************************private*****************************************/
+
+    /**
+     * 加载所有磁盘上的段文件并重建索引
+     * <p>
+     * 整理过程中宕机时，同一个对象可能同时存在于旧段文件和新段文件中，按照段文件编号从小到大扫描，
+     * 编号大的段文件中的记录是最新的状态，覆盖之前的记录，被覆盖的有效记录计入已删除的数据
+     *
+     * @throws IOException
+     */
+    private void load() throws IOException {
+        List<Segment> segments = Lists.newArrayList();
+        Map<Segment, SegmentVolume> segmentVolumes = Maps.newHashMap();
+        for (LocalDisk disk : diskSelector.getDisks()) {
+            File folder = new File(disk.getRootFilePath(), SEGMENT_FOLDER_NAME);
+            org.apache.commons.io.FileUtils.forceMkdir(folder);
+            SegmentVolume volume = new SegmentVolume(disk, folder, config.getSegmentMaxSize(), segmentIdGenerator);
+            volumes.put(disk, volume);
+            File[] files = folder.listFiles((dir, name) -> name.endsWith(SEGMENT_FILE_SUFFIX));
+            if (Objects.isNull(files)) {
+                continue;
+            }
+            for (File file : files) {
+                Segment segment = new Segment(Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_FILE_SUFFIX.length())), file);
+                segments.add(segment);
+                segmentVolumes.put(segment, volume);
+            }
+        }
+        segments.sort(Comparator.comparingLong(Segment::getId));
+
+        Map<String, SegmentRecord> latestRecords = Maps.newHashMap();
+        for (Segment segment : segments) {
+            for (SegmentRecord record : segment.scan()) {
+                SegmentRecord previous = latestRecords.put(record.getKey(), record);
+                if (Objects.nonNull(previous) && previous.isLive()) {
+                    previous.getSegment().addDeadBytes(previous.getRecordSize());
+                }
+                if (!record.isLive()) {
+                    segment.addDeadBytes(record.getRecordSize());
+                }
+            }
+            segmentVolumes.get(segment).load(segment);
+            segmentIdGenerator.set(Math.max(segmentIdGenerator.get(), segment.getId() + RPanConstants.ONE_INT));
+        }
+        latestRecords.values().stream().filter(SegmentRecord::isLive).forEach(record -> index.put(record.getKey(), record));
+        log.info("{} segment files loaded, {} objects indexed", segments.size(), index.size());
+    }
+
+    private String assembleRealPath(SegmentRecord record) {
+        return new StringBuffer(record.getSegment().getFile().getAbsolutePath())
+                .append(KEY_PARAM_PREFIX)
+                .append(record.getKey())
+                .append(OFFSET_PARAM_PREFIX)
+                .append(record.getDataOffset())
+                .append(LENGTH_PARAM_PREFIX)
+                .append(record.getLength())
+                .toString();
+    }
+
+    private String parseKey(String realPath) {
+        int keyIndex = realPath.lastIndexOf(KEY_PARAM_PREFIX);
+        int offsetIndex = realPath.lastIndexOf(OFFSET_PARAM_PREFIX);
+        if (keyIndex < 0 || offsetIndex < keyIndex) {
+            throw new RPanFrameworkException("the segment path is illegal: " + realPath);
+        }
+        return realPath.substring(keyIndex + KEY_PARAM_PREFIX.length(), offsetIndex);
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.wuaro.pan.storage.engine.local.segment;
+
+import com.wuaro.pan.core.utils.BufferPool;
+import com.wuaro.pan.storage.engine.local.disk.LocalDisk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 段卷，一块磁盘上的所有段文件
+ * <p>
+ * 同一时刻只有一个段文件接受追加写入，写满之后封存并新建段文件，只有封存的段文件才会被整理
+ */
+class SegmentVolume {
+
+    private static final String SEGMENT_FILE_NAME_FORMAT = "%020d.seg";
+
+    private final LocalDisk disk;
+
+    private final File folder;
+
+    private final long maxSegmentSize;
+
+    private final AtomicLong segmentIdGenerator;
+
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    private Segment activeSegment;
+
+    SegmentVolume(LocalDisk disk, File folder, long maxSegmentSize, AtomicLong segmentIdGenerator) {
+        this.disk = disk;
+        this.folder = folder;
+        this.maxSegmentSize = maxSegmentSize;
+        this.segmentIdGenerator = segmentIdGenerator;
+    }
+
+    LocalDisk getDisk() {
+        return disk;
+    }
+
+    /**
+     * 加载启动时已经存在的段文件，需要按照段文件的编号从小到大加载
+     * 最后加载的段文件没有写满时继续作为接受写入的段文件
+     *
+     * @param segment
+     */
+    synchronized void load(Segment segment) {
+        segments.add(segment);
+        activeSegment = segment.getSize() < maxSegmentSize ? segment : null;
+    }
+
+    /**
+     * 追加一个对象
+     * 先在锁外把对象的数据从输入流读入内存，只在写入段文件时持有锁，慢速的客户端不会阻塞同一块磁盘上的其他写入
+     *
+     * @param key
+     * @param inputStream
+     * @param length
+     * @return
+     * @throws IOException
+     */
+    SegmentRecord append(String key, InputStream inputStream, long length) throws IOException {
+        byte[] data = Segment.acquireBuffer(length);
+        try {
+            Segment.readFully(inputStream, data, (int) length);
+            synchronized (this) {
+                return prepareActiveSegment(length).append(key, data, (int) length);
+            }
+        } finally {
+            BufferPool.release(data);
+        }
+    }
+
+    /**
+     * 把其他段文件中的记录拷贝到当前接受写入的段文件中
+     *
+     * @param source
+     * @return
+     * @throws IOException
+     */
+    synchronized SegmentRecord appendFrom(SegmentRecord source) throws IOException {
+        return prepareActiveSegment(source.getLength()).appendFrom(source);
+    }
+
+    /**
+     * 获取所有已经封存的段文件
+     *
+     * @return
+     */
+    synchronized List<Segment> getSealedSegments() {
+        return segments.stream().filter(segment -> segment != activeSegment).collect(Collectors.toList());
+    }
+
+    /**
+     * 删除整理完成的段文件
+     *
+     * @param segment
+     * @throws IOException
+     */
+    void remove(Segment segment) throws IOException {
+        segments.remove(segment);
+        segment.remove();
+    }
+
+    void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    /*****************************************private*****************************************/
+
+    /**
+     * 当前段文件放不下新记录时封存当前段文件并新建一个
+     * 空的段文件总是可以写入，保证超过段文件大小的对象也能写入
+     *
+     * @param length
+     * @return
+     * @throws IOException
+     */
+    private Segment prepareActiveSegment(long length) throws IOException {
+        if (Objects.nonNull(activeSegment)
+                && (activeSegment.getSize() == 0 || activeSegment.getSize() + Segment.HEADER_SIZE + length <= maxSegmentSize)) {
+            return activeSegment;
+        }
+        long id = segmentIdGenerator.getAndIncrement();
+        Segment segment = new Segment(id, new File(folder, String.format(SEGMENT_FILE_NAME_FORMAT, id)));
+        segments.add(segment);
+        activeSegment = segment;
+        return segment;
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.wuaro.pan.storage.engine.local.test;
+
+import com.wuaro.pan.storage.engine.core.async.AsyncStorageEngineAdapter;
+import com.wuaro.pan.storage.engine.core.async.StorageEngineIoExecutor;
+import com.wuaro.pan.storage.engine.core.context.ReadFileContext;
+import com.wuaro.pan.storage.engine.core.context.StoreFileContext;
+import com.wuaro.pan.storage.engine.local.LocalStorageEngine;
+import com.wuaro.pan.storage.engine.local.config.LocalStorageEngineConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步存储引擎适配器的测试
+ */
+public class AsyncStorageEngineTest {
+
+    private File workDir;
+
+    private ThreadPoolTaskExecutor taskExecutor;
+
+    private StorageEngineIoExecutor ioExecutor;
+
+    private AsyncStorageEngineAdapter asyncStorageEngine;
+
+    @Before
+    public void before() throws IOException {
+        workDir = Files.createTempDirectory("rpan-async").toFile();
+        LocalStorageEngineConfig config = new LocalStorageEngineConfig();
+        config.setRootFilePath(new File(workDir, "file").getAbsolutePath());
+        config.setRootFileChunkPath(new File(workDir, "chunk").getAbsolutePath());
+        LocalStorageEngine localStorageEngine = LocalStorageEngineTestSupport.createEngine(config);
+
+        taskExecutor = new ThreadPoolTaskExecutor();
+        taskExecutor.setCorePoolSize(1);
+        taskExecutor.setMaxPoolSize(1);
+        taskExecutor.setQueueCapacity(1);
+        taskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        taskExecutor.initialize();
+        ioExecutor = new StorageEngineIoExecutor(taskExecutor);
+        asyncStorageEngine = new AsyncStorageEngineAdapter(localStorageEngine, ioExecutor);
+    }
+
+    @After
+    public void after() throws IOException {
+        taskExecutor.shutdown();
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+    }
+
+    /**
+     * 测试异步写入和读取文件，写入完成之后上下文中回填了真实存储路径
+     */
+    @Test
+    public void testStoreAndRead() throws Exception {
+        byte[] content = new byte[10000];
+        new Random(1).nextBytes(content);
+
+        StoreFileContext storeFileContext = new StoreFileContext();
+        storeFileContext.setFilename("test.txt");
+        storeFileContext.setTotalSize((long) content.length);
+        storeFileContext.setInputStream(new ByteArrayInputStream(content));
+        asyncStorageEngine.store(storeFileContext).get(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(storeFileContext.getRealPath());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReadFileContext readFileContext = new ReadFileContext();
+        readFileContext.setRealPath(storeFileContext.getRealPath());
+        readFileContext.setOutputStream(outputStream);
+        asyncStorageEngine.realFile(readFileContext).get(10, TimeUnit.SECONDS);
+        Assert.assertArrayEquals(content, outputStream.toByteArray());
+
+        Assert.assertEquals(2L, ioExecutor.getCompletedCount());
+        Assert.assertEquals(0L, ioExecutor.getFailedCount());
+    }
+
+    /**
+     * 测试底层存储引擎抛出的异常原样作为异步结果的异常
+     */
+    @Test
+    public void testFailurePropagated() throws Exception {
+        ReadFileContext readFileContext = new ReadFileContext();
+        readFileContext.setRealPath(new File(workDir, "not-exist.txt").getAbsolutePath());
+        readFileContext.setOutputStream(new ByteArrayOutputStream());
+        try {
+            asyncStorageEngine.realFile(readFileContext).get(10, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertEquals(1L, ioExecutor.getFailedCount());
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.wuaro.pan.storage.engine.local.test;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.core.utils.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 本地存储引擎文件分片合并的基准测试
+ * <p>
+ * 对比原有的Files.readAllBytes追加写合并方式与零拷贝合并方式的耗时以及堆内存分配量
+ * 基准测试默认跳过，需要添加启动参数 -Drpan.benchmark=true 才会执行
+ */
+public class ChunkMergeBenchmarkTest {
+
+    private static final String BENCHMARK_SWITCH = "rpan.benchmark";
+
+    private static final int CHUNK_COUNT = 100;
+
+    private static final int CHUNK_SIZE = 20 * 1024 * 1024;
+
+    private File workDir;
+
+    @Before
+    public void before() throws IOException {
+        workDir = Files.createTempDirectory("rpan-merge-benchmark").toFile();
+    }
+
+    @After
+    public void after() throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+    }
+
+    /**
+     * 测试零拷贝合并后的文件内容与分片顺序一致
+     */
+    @Test
+    public void testMergeFilesKeepChunkOrder() throws IOException {
+        List<File> chunks = generateChunks(5, 1024);
+        File target = new File(workDir, "target");
+
+        FileUtils.mergeFiles(target, chunks, 5L * 1024);
+
+        byte[] merged = Files.readAllBytes(target.toPath());
+        Assert.assertEquals(5 * 1024, merged.length);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals((byte) i, merged[i * 1024]);
+            Assert.assertEquals((byte) i, merged[i * 1024 + 1023]);
+        }
+    }
+
+    /**
+     * 测试总大小传入错误时，合并后的文件按照实际写入的字节数截断
+     */
+    @Test
+    public void testMergeFilesTruncateToWrittenSize() throws IOException {
+        List<File> chunks = generateChunks(3, 100);
+        File target = new File(workDir, "target");
+
+        FileUtils.mergeFiles(target, chunks, 1000L);
+
+        Assert.assertEquals(300L, target.length());
+    }
+
+    /**
+     * 测试乱序按偏移量写入分片后，目标文件的大小和内容都正确
+     */
+    @Test
+    public void testWriteStreamAtPositionOutOfOrder() throws IOException {
+        File target = new File(workDir, "positional-target");
+        int[] order = {2, 0, 3, 1};
+        for (int i : order) {
+            byte[] chunk = new byte[i == 3 ? 500 : 1024];
+            Arrays.fill(chunk, (byte) i);
+            long written = FileUtils.writeStream2FileAtPosition(new ByteArrayInputStream(chunk), target, i * 1024L, chunk.length, 3L * 1024 + 500);
+            Assert.assertEquals(chunk.length, written);
+            Assert.assertEquals(3L * 1024 + 500, target.length());
+        }
+
+        byte[] merged = Files.readAllBytes(target.toPath());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals((byte) i, merged[i * 1024]);
+        }
+        Assert.assertEquals((byte) 3, merged[merged.length - 1]);
+    }
+
+    /**
+     * 100 * 20MB 分片的合并基准测试
+     */
+    @Test
+    public void benchmarkMerge() throws IOException {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_SWITCH));
+
+        List<File> chunks = generateChunks(CHUNK_COUNT, CHUNK_SIZE);
+        long totalSize = (long) CHUNK_COUNT * CHUNK_SIZE;
+
+        File appendTarget = new File(workDir, "append-target");
+        long appendAllocated = currentThreadAllocatedBytes();
+        long appendStart = System.nanoTime();
+        FileUtils.createFile(appendTarget);
+        for (File chunk : chunks) {
+            FileUtils.appendWrite(appendTarget.toPath(), chunk.toPath());
+        }
+        long appendCost = System.nanoTime() - appendStart;
+        appendAllocated = currentThreadAllocatedBytes() - appendAllocated;
+        Assert.assertEquals(totalSize, appendTarget.length());
+        appendTarget.delete();
+
+        File zeroCopyTarget = new File(workDir, "zero-copy-target");
+        long zeroCopyAllocated = currentThreadAllocatedBytes();
+        long zeroCopyStart = System.nanoTime();
+        FileUtils.mergeFiles(zeroCopyTarget, chunks, totalSize);
+        long zeroCopyCost = System.nanoTime() - zeroCopyStart;
+        zeroCopyAllocated = currentThreadAllocatedBytes() - zeroCopyAllocated;
+        Assert.assertEquals(totalSize, zeroCopyTarget.length());
+
+        System.out.println(String.format("append write merge: %d ms, heap allocated: %d MB", appendCost / 1000000, appendAllocated / 1024 / 1024));
+        System.out.println(String.format("zero copy merge: %d ms, heap allocated: %d MB", zeroCopyCost / 1000000, zeroCopyAllocated / 1024 / 1024));
+    }
+
+    /*****************************************private*****************************************/
+
+    /**
+     * 生成指定数量和大小的分片文件，每个分片的内容都是它的下标
+     *
+     * @param count
+     * @param size
+     * @return
+     * @throws IOException
+     */
+    private List<File> generateChunks(int count, int size) throws IOException {
+        List<File> chunks = Lists.newArrayList();
+        byte[] buffer = new byte[Math.min(size, 1024 * 1024)];
+        for (int i = 0; i < count; i++) {
+            Arrays.fill(buffer, (byte) i);
+            File chunk = new File(workDir, "chunk-" + i);
+            try (FileOutputStream outputStream = new FileOutputStream(chunk)) {
+                int written = 0;
+                while (written < size) {
+                    int len = Math.min(buffer.length, size - written);
+                    outputStream.write(buffer, 0, len);
+                    written += len;
+                }
+            }
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * 获取当前线程累计分配的堆内存字节数
+     *
+     * @return
+     */
+    private long currentThreadAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+}
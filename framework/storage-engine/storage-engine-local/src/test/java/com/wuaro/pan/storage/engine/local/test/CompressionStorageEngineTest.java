@@ -0,0 +1,231 @@
+package com.wuaro.pan.storage.engine.local.test;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.storage.engine.core.StorageEngine;
+import com.wuaro.pan.storage.engine.core.compress.CompressionStorageEngine;
+import com.wuaro.pan.storage.engine.core.compress.config.CompressionStorageEngineConfig;
+import com.wuaro.pan.storage.engine.core.context.*;
+import com.wuaro.pan.storage.engine.local.LocalStorageEngine;
+import com.wuaro.pan.storage.engine.local.config.LocalStorageEngineConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 压缩存储的文件存储引擎装饰器的测试
+ */
+public class CompressionStorageEngineTest {
+
+    private File workDir;
+
+    private CompressionStorageEngine engine;
+
+    private byte[] content;
+
+    @Before
+    public void before() throws IOException {
+        workDir = Files.createTempDirectory("rpan-compress").toFile();
+
+        LocalStorageEngineConfig localConfig = new LocalStorageEngineConfig();
+        localConfig.setRootFilePath(new File(workDir, "file").getAbsolutePath());
+        localConfig.setRootFileChunkPath(new File(workDir, "chunk").getAbsolutePath());
+        LocalStorageEngine localStorageEngine = LocalStorageEngineTestSupport.createEngine(localConfig);
+
+        CompressionStorageEngineConfig config = new CompressionStorageEngineConfig();
+        config.setEnabled(Boolean.TRUE);
+        engine = new CompressionStorageEngine();
+        ReflectionTestUtils.setField(engine, "delegate", localStorageEngine);
+        ReflectionTestUtils.setField(engine, "config", config);
+
+        StringBuilder stringBuilder = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            stringBuilder.append("2024-01-01 00:00:00,").append(i).append(",INFO,request finished\n");
+        }
+        content = stringBuilder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @After
+    public void after() throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+    }
+
+    /**
+     * 测试可压缩的文件压缩存储，读取时解压出原始内容
+     */
+    @Test
+    public void testStoreCompressibleFileAndReadBack() throws IOException {
+        StoreFileContext storeFileContext = store(Boolean.TRUE);
+
+        Assert.assertEquals(CompressionStorageEngine.GZIP_CODEC, storeFileContext.getCodec());
+        Assert.assertTrue(storeFileContext.getStoredSize() < content.length / 5);
+        Assert.assertEquals(storeFileContext.getStoredSize().longValue(), new File(storeFileContext.getRealPath()).length());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReadFileContext readFileContext = new ReadFileContext();
+        readFileContext.setRealPath(storeFileContext.getRealPath());
+        readFileContext.setCodec(storeFileContext.getCodec());
+        readFileContext.setOutputStream(outputStream);
+        engine.realFile(readFileContext);
+        Assert.assertArrayEquals(content, outputStream.toByteArray());
+    }
+
+    /**
+     * 测试直接输出压缩内容时输出的是合法的gzip内容
+     */
+    @Test
+    public void testReadKeepCompressed() throws IOException {
+        StoreFileContext storeFileContext = store(Boolean.TRUE);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReadFileContext readFileContext = new ReadFileContext();
+        readFileContext.setRealPath(storeFileContext.getRealPath());
+        readFileContext.setCodec(storeFileContext.getCodec());
+        readFileContext.setKeepCompressed(Boolean.TRUE);
+        readFileContext.setOutputStream(outputStream);
+        engine.realFile(readFileContext);
+
+        Assert.assertEquals(storeFileContext.getStoredSize().longValue(), outputStream.size());
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        org.apache.commons.io.IOUtils.copy(new GZIPInputStream(new ByteArrayInputStream(outputStream.toByteArray())), decompressed);
+        Assert.assertArrayEquals(content, decompressed.toByteArray());
+    }
+
+    /**
+     * 测试压缩存储的文件按照解压后的偏移量读取区间
+     */
+    @Test
+    public void testReadRangeOfCompressedFile() throws IOException {
+        StoreFileContext storeFileContext = store(Boolean.TRUE);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReadFileRangeContext readFileRangeContext = new ReadFileRangeContext();
+        readFileRangeContext.setRealPath(storeFileContext.getRealPath());
+        readFileRangeContext.setCodec(storeFileContext.getCodec());
+        readFileRangeContext.setOffset(100000L);
+        readFileRangeContext.setLength(12345L);
+        readFileRangeContext.setOutputStream(outputStream);
+        engine.realFileRange(readFileRangeContext);
+
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 100000, 100000 + 12345), outputStream.toByteArray());
+    }
+
+    /**
+     * 测试压缩存储时按照压缩后的大小写入，按照原始大小选择存储引擎
+     */
+    @Test
+    public void testCompressedFileRoutedByOriginalSize() throws IOException {
+        StorageEngine delegate = Mockito.mock(StorageEngine.class);
+        ReflectionTestUtils.setField(engine, "delegate", delegate);
+
+        StoreFileContext storeFileContext = store(Boolean.TRUE);
+
+        ArgumentCaptor<StoreFileContext> captor = ArgumentCaptor.forClass(StoreFileContext.class);
+        Mockito.verify(delegate).store(captor.capture());
+        Assert.assertEquals(storeFileContext.getStoredSize(), captor.getValue().getTotalSize());
+        Assert.assertEquals(Long.valueOf(content.length), captor.getValue().getRoutingSize());
+    }
+
+    /**
+     * 测试不可压缩的文件原样存储
+     */
+    @Test
+    public void testStoreIncompressibleFileAsIs() throws IOException {
+        StoreFileContext storeFileContext = store(Boolean.FALSE);
+
+        Assert.assertNull(storeFileContext.getCodec());
+        Assert.assertEquals(content.length, storeFileContext.getStoredSize().longValue());
+        Assert.assertArrayEquals(content, Files.readAllBytes(new File(storeFileContext.getRealPath()).toPath()));
+    }
+
+    /**
+     * 测试分片上传的文件合并之后整体压缩一次，只保留压缩后的文件，读取时解压出原始内容
+     */
+    @Test
+    public void testMergeCompressesMergedFile() throws IOException {
+        MergeFileContext mergeFileContext = merge(Boolean.TRUE);
+
+        Assert.assertEquals(CompressionStorageEngine.GZIP_CODEC, mergeFileContext.getCodec());
+        Assert.assertTrue(mergeFileContext.getStoredSize() < content.length / 5);
+        Assert.assertEquals(mergeFileContext.getStoredSize().longValue(), new File(mergeFileContext.getRealPath()).length());
+        long fileCount = org.apache.commons.io.FileUtils.listFiles(new File(workDir, "file"), null, true).size();
+        Assert.assertEquals(1L, fileCount);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReadFileContext readFileContext = new ReadFileContext();
+        readFileContext.setRealPath(mergeFileContext.getRealPath());
+        readFileContext.setCodec(mergeFileContext.getCodec());
+        readFileContext.setOutputStream(outputStream);
+        engine.realFile(readFileContext);
+        Assert.assertArrayEquals(content, outputStream.toByteArray());
+    }
+
+    /**
+     * 测试不可压缩的分片上传文件合并之后原样存储
+     */
+    @Test
+    public void testMergeIncompressibleFileAsIs() throws IOException {
+        MergeFileContext mergeFileContext = merge(Boolean.FALSE);
+
+        Assert.assertNull(mergeFileContext.getCodec());
+        Assert.assertEquals(content.length, mergeFileContext.getStoredSize().longValue());
+        Assert.assertArrayEquals(content, Files.readAllBytes(new File(mergeFileContext.getRealPath()).toPath()));
+    }
+
+    /**
+     * 测试大于最大压缩大小的文件原样存储，区间读取不需要从头解压
+     */
+    @Test
+    public void testFileAboveMaxCompressSizeStoredAsIs() throws IOException {
+        CompressionStorageEngineConfig config = (CompressionStorageEngineConfig) ReflectionTestUtils.getField(engine, "config");
+        config.setMaxCompressSize(content.length - 1L);
+
+        StoreFileContext storeFileContext = store(Boolean.TRUE);
+        Assert.assertNull(storeFileContext.getCodec());
+        Assert.assertEquals(content.length, storeFileContext.getStoredSize().longValue());
+
+        MergeFileContext mergeFileContext = merge(Boolean.TRUE);
+        Assert.assertNull(mergeFileContext.getCodec());
+        Assert.assertEquals(content.length, mergeFileContext.getStoredSize().longValue());
+    }
+
+    /*****************************************private*****************************************/
+
+    private StoreFileContext store(Boolean compressible) throws IOException {
+        StoreFileContext storeFileContext = new StoreFileContext();
+        storeFileContext.setFilename("test.csv");
+        storeFileContext.setTotalSize((long) content.length);
+        storeFileContext.setInputStream(new ByteArrayInputStream(content));
+        storeFileContext.setCompressible(compressible);
+        engine.store(storeFileContext);
+        return storeFileContext;
+    }
+
+    private MergeFileContext merge(Boolean compressible) throws IOException {
+        int half = content.length / 2;
+        File firstChunk = new File(workDir, "chunk-1");
+        File secondChunk = new File(workDir, "chunk-2");
+        Files.write(firstChunk.toPath(), Arrays.copyOfRange(content, 0, half));
+        Files.write(secondChunk.toPath(), Arrays.copyOfRange(content, half, content.length));
+
+        MergeFileContext mergeFileContext = new MergeFileContext();
+        mergeFileContext.setFilename("test.csv");
+        mergeFileContext.setIdentifier("identifier");
+        mergeFileContext.setUserId(1L);
+        mergeFileContext.setTotalSize((long) content.length);
+        mergeFileContext.setRealPathList(Lists.newArrayList(firstChunk.getAbsolutePath(), secondChunk.getAbsolutePath()));
+        mergeFileContext.setCompressible(compressible);
+        engine.mergeFile(mergeFileContext);
+        return mergeFileContext;
+    }
+
+}
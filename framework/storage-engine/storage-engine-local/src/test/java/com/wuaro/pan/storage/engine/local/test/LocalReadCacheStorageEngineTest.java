@@ -0,0 +1,477 @@
+package com.wuaro.pan.storage.engine.local.test;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.core.utils.FileUtils;
+import com.wuaro.pan.storage.engine.core.StorageEngine;
+import com.wuaro.pan.storage.engine.core.context.*;
+import com.wuaro.pan.storage.engine.core.readcache.LocalReadCacheStorageEngine;
+import com.wuaro.pan.storage.engine.core.readcache.config.LocalReadCacheStorageEngineConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本地磁盘读缓存的存储引擎装饰器的测试
+ * 被缓存的远程存储引擎使用内存中的替身，按照请求耗时和单连接带宽休眠
+ * <p>
+ * 吞吐量基准测试默认跳过，需要添加启动参数 -Drpan.benchmark=true 才会执行
+ */
+public class LocalReadCacheStorageEngineTest {
+
+    private static final String BENCHMARK_SWITCH = "rpan.benchmark";
+
+    private static final long MB = 1024 * 1024;
+
+    private File workDir;
+
+    private LocalReadCacheStorageEngineConfig config;
+
+    private List<ThreadPoolTaskExecutor> executors = Lists.newArrayList();
+
+    @Before
+    public void before() throws IOException {
+        workDir = Files.createTempDirectory("rpan-read-cache").toFile();
+        config = new LocalReadCacheStorageEngineConfig();
+        config.setEnabled(Boolean.TRUE);
+        config.setCachePath(new File(workDir, "cache").getAbsolutePath());
+    }
+
+    @After
+    public void after() throws IOException {
+        executors.forEach(ThreadPoolTaskExecutor::shutdown);
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+    }
+
+    /**
+     * 测试重复读取同一个文件只从远程拉取一次
+     */
+    @Test
+    public void testRepeatedReadHitCache() throws IOException {
+        StubRemoteStorageEngine client = new StubRemoteStorageEngine(0L, 0L);
+        byte[] content = createContent((int) MB, 1);
+        client.objects.put("a", content);
+        LocalReadCacheStorageEngine engine = createEngine(client);
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertArrayEquals(content, read(engine, "a"));
+        }
+        Assert.assertEquals(1, client.remoteGetCount());
+        Assert.assertEquals(4, engine.getHitCount());
+    }
+
+    /**
+     * 测试同一个文件同时未命中时只有一个请求去远程拉取，调用方给出了文件大小时其他请求跟随缓存文件读取
+     */
+    @Test
+    public void testConcurrentMissCoalesced() throws Exception {
+        StubRemoteStorageEngine client = new StubRemoteStorageEngine(200L, 0L);
+        byte[] content = createContent((int) MB, 1);
+        client.objects.put("a", content);
+        LocalReadCacheStorageEngine engine = createEngine(client);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch latch = new CountDownLatch(1);
+            List<Future<byte[]>> futures = Lists.newArrayList();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executorService.submit(() -> {
+                    latch.await();
+                    return read(engine, "a", (long) content.length);
+                }));
+            }
+            latch.countDown();
+            for (Future<byte[]> future : futures) {
+                Assert.assertArrayEquals(content, future.get());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        Assert.assertEquals(1, client.remoteGetCount());
+    }
+
+    /**
+     * 测试缓存总大小超过上限时淘汰最久没有访问的文件
+     */
+    @Test
+    public void testEvictLeastRecentlyUsed() throws IOException {
+        StubRemoteStorageEngine client = new StubRemoteStorageEngine(0L, 0L);
+        for (String key : Arrays.asList("a", "b", "c", "d")) {
+            client.objects.put(key, createContent((int) MB, key.hashCode()));
+        }
+        config.setMaxCacheSize(3 * MB + 3 * 1024);
+        LocalReadCacheStorageEngine engine = createEngine(client);
+
+        read(engine, "a");
+        read(engine, "b");
+        read(engine, "c");
+        read(engine, "a");
+        read(engine, "d");
+        Assert.assertEquals(4, client.remoteGetCount());
+        Assert.assertEquals(3, cacheFileCount());
+
+        read(engine, "a");
+        Assert.assertEquals(4, client.remoteGetCount());
+        read(engine, "b");
+        Assert.assertEquals(5, client.remoteGetCount());
+    }
+
+    /**
+     * 测试文件大小未知时，超过单文件上限的文件在第一次读取时放弃缓存但完整输出，之后直接从远程读取，不会重复拉取
+     */
+    @Test
+    public void testLargeObjectNotCached() throws IOException {
+        StubRemoteStorageEngine client = new StubRemoteStorageEngine(0L, 0L);
+        byte[] content = createContent((int) (2 * MB), 1);
+        client.objects.put("a", content);
+        config.setMaxObjectSize(MB);
+        LocalReadCacheStorageEngine engine = createEngine(client);
+
+        Assert.assertArrayEquals(content, read(engine, "a"));
+        Assert.assertArrayEquals(content, read(engine, "a"));
+        Assert.assertEquals(2, client.remoteGetCount());
+        Assert.assertEquals(0, cacheFileCount());
+    }
+
+    /**
+     * 测试调用方给出的文件大小超过单文件上限时事先判断不缓存，完整读取和区间读取都不会为了缓存而拉取文件
+     */
+    @Test
+    public void testLargeObjectWithKnownSizeNeverFilled() throws Exception {
+        StubRemoteStorageEngine client = new StubRemoteStorageEngine(0L, 0L);
+        byte[] content = createContent((int) (2 * MB), 1);
+        client.objects.put("a", content);
+        client.objects.put("b", content);
+        config.setMaxObjectSize(MB);
+        LocalReadCacheStorageEngine engine = createEngine(client);
+
+        Assert.assertArrayEquals(content, read(engine, "a", (long) content.length));
+        Assert.assertEquals(1, client.remoteGetCount());
+
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 10, 20), readRange(engine, "b", 10L, 10L, (long) content.length));
+        Thread.sleep(200L);
+        Assert.assertEquals(2, client.remoteGetCount());
+        Assert.assertEquals(0, cacheFileCount());
+    }
+
+    /**
+     * 测试未命中时边拉取边输出：远程还没有返回完整文件时，拉取的请求和跟随的请求都已经收到前半部分的内容
+     */
+    @Test
+    public void testMissStreamsWhileFilling() throws Exception {
+        byte[] content = createContent((int) MB, 1);
+        int half = content.length / 2;
+        CountDownLatch remoteResume = new CountDownLatch(1);
+        StorageEngine delegate = Mockito.mock(StorageEngine.class);
+        Mockito.doAnswer(invocation -> {
+            ReadFileContext context = invocation.getArgument(0);
+            try (OutputStream outputStream = context.getOutputStream()) {
+                outputStream.write(content, 0, half);
+                outputStream.flush();
+                remoteResume.await();
+                outputStream.write(content, half, content.length - half);
+            }
+            return null;
+        }).when(delegate).realFile(Mockito.any(ReadFileContext.class));
+        LocalReadCacheStorageEngine engine = createEngine(delegate);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            FirstWriteOutputStream fillerOutput = new FirstWriteOutputStream();
+            Future<?> filler = executorService.submit(() -> read(engine, "a", (long) content.length, fillerOutput));
+            Assert.assertTrue(fillerOutput.firstWrite.await(10, TimeUnit.SECONDS));
+
+            FirstWriteOutputStream followerOutput = new FirstWriteOutputStream();
+            Future<?> follower = executorService.submit(() -> read(engine, "a", (long) content.length, followerOutput));
+            Assert.assertTrue(followerOutput.firstWrite.await(10, TimeUnit.SECONDS));
+
+            remoteResume.countDown();
+            filler.get(10, TimeUnit.SECONDS);
+            follower.get(10, TimeUnit.SECONDS);
+            Assert.assertArrayEquals(content, fillerOutput.toByteArray());
+            Assert.assertArrayEquals(content, followerOutput.toByteArray());
+        } finally {
+            remoteResume.countDown();
+            executorService.shutdownNow();
+        }
+
+        Assert.assertArrayEquals(content, read(engine, "a", (long) content.length));
+        Mockito.verify(delegate, Mockito.times(1)).realFile(Mockito.any(ReadFileContext.class));
+        Assert.assertEquals(1, cacheFileCount());
+    }
+
+    /**
+     * 测试删除文件时同时删除缓存
+     */
+    @Test
+    public void testDeleteInvalidateCache() throws IOException {
+        StubRemoteStorageEngine client = new StubRemoteStorageEngine(0L, 0L);
+        client.objects.put("a", createContent((int) MB, 1));
+        LocalReadCacheStorageEngine engine = createEngine(client);
+
+        read(engine, "a");
+        Assert.assertEquals(1, cacheFileCount());
+
+        DeleteFileContext deleteFileContext = new DeleteFileContext();
+        deleteFileContext.setRealFilePathList(Lists.newArrayList("a"));
+        engine.delete(deleteFileContext);
+        Assert.assertEquals(0, cacheFileCount());
+        Assert.assertFalse(client.objects.containsKey("a"));
+    }
+
+    /**
+     * 测试区间读取未命中时直接读远程，后台拉取完整文件之后区间读取命中缓存
+     */
+    @Test
+    public void testRangeMissFillInBackground() throws Exception {
+        StubRemoteStorageEngine client = new StubRemoteStorageEngine(0L, 0L);
+        byte[] content = createContent((int) MB, 1);
+        client.objects.put("a", content);
+        LocalReadCacheStorageEngine engine = createEngine(client);
+        ThreadPoolTaskExecutor fillTaskExecutor = executors.get(executors.size() - 1);
+
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 1000, 3000), readRange(engine, "a", 1000L, 2000L));
+        // 缓存文件在拉取开始时就已经创建，要等后台拉取的任务执行完成之后缓存才可以命中
+        for (int i = 0; i < 200 && fillTaskExecutor.getThreadPoolExecutor().getCompletedTaskCount() == 0; i++) {
+            Thread.sleep(50L);
+        }
+        Assert.assertEquals(1, fillTaskExecutor.getThreadPoolExecutor().getCompletedTaskCount());
+        Assert.assertEquals(2, client.remoteGetCount());
+        Assert.assertEquals(1, cacheFileCount());
+
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 5000, 9000), readRange(engine, "a", 5000L, 4000L));
+        Assert.assertEquals(2, client.remoteGetCount());
+    }
+
+    /**
+     * 测试启动时只删除缓存目录下上次运行留下的缓存文件，其他文件和子目录保持不变
+     */
+    @Test
+    public void testStartupDeletesOnlyCacheFiles() throws IOException {
+        File cacheFolder = new File(config.getCachePath());
+        File staleCacheFile = new File(cacheFolder, "stale" + LocalReadCacheStorageEngine.CACHE_FILE_SUFFIX);
+        File otherFile = new File(cacheFolder, "other.txt");
+        File nestedFile = new File(new File(cacheFolder, "nested"), "nested" + LocalReadCacheStorageEngine.CACHE_FILE_SUFFIX);
+        org.apache.commons.io.FileUtils.writeStringToFile(staleCacheFile, "stale", "UTF-8");
+        org.apache.commons.io.FileUtils.writeStringToFile(otherFile, "other", "UTF-8");
+        org.apache.commons.io.FileUtils.writeStringToFile(nestedFile, "nested", "UTF-8");
+
+        createEngine(new StubRemoteStorageEngine(0L, 0L));
+
+        Assert.assertFalse(staleCacheFile.exists());
+        Assert.assertTrue(otherFile.exists());
+        Assert.assertTrue(nestedFile.exists());
+    }
+
+    /**
+     * 测试缓存目录是存储文件的根目录或者它的上级目录时拒绝启动
+     */
+    @Test
+    public void testRejectCacheFolderContainingStoreRoot() throws IOException {
+        String storeRoot = FileUtils.generateDefaultStoreFileRealPath();
+        for (String cachePath : Arrays.asList(storeRoot, new File(storeRoot).getParent(), File.listRoots()[0].getAbsolutePath())) {
+            config.setCachePath(cachePath);
+            try {
+                createEngine(new StubRemoteStorageEngine(0L, 0L));
+                Assert.fail("cache path " + cachePath + " should be rejected");
+            } catch (RPanFrameworkException e) {
+                Assert.assertTrue(e.getMessage().startsWith("本地磁盘读缓存的目录不能"));
+            }
+        }
+    }
+
+    /**
+     * 单连接带宽 8MB/s、每个请求 20ms 的替身上，同一个 8MB 热门文件读取 20 次，直接读远程与经过本地磁盘读缓存的耗时对比
+     */
+    @Test
+    public void benchmarkHotObjectRead() throws IOException {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_SWITCH));
+
+        byte[] content = createContent((int) (8 * MB), 1);
+        StubRemoteStorageEngine directEngine = new StubRemoteStorageEngine(20L, 8 * MB);
+        directEngine.objects.put("a", content);
+        long directStart = System.currentTimeMillis();
+        for (int i = 0; i < 20; i++) {
+            ReadFileContext readFileContext = new ReadFileContext();
+            readFileContext.setRealPath("a");
+            readFileContext.setOutputStream(new ByteArrayOutputStream());
+            directEngine.realFile(readFileContext);
+        }
+        long directCost = System.currentTimeMillis() - directStart;
+
+        StubRemoteStorageEngine cachedClient = new StubRemoteStorageEngine(20L, 8 * MB);
+        cachedClient.objects.put("a", content);
+        LocalReadCacheStorageEngine cachedEngine = createEngine(cachedClient);
+        long cachedStart = System.currentTimeMillis();
+        for (int i = 0; i < 20; i++) {
+            read(cachedEngine, "a");
+        }
+        long cachedCost = System.currentTimeMillis() - cachedStart;
+
+        System.out.println(String.format("direct remote read: %d ms, %d remote gets", directCost, directEngine.remoteGetCount()));
+        System.out.println(String.format("read cache read: %d ms, %d remote gets", cachedCost, cachedClient.remoteGetCount()));
+        Assert.assertTrue(cachedCost * 2 < directCost);
+    }
+
+    /*****************************************private*****************************************/
+
+    private LocalReadCacheStorageEngine createEngine(StorageEngine delegate) throws IOException {
+        ThreadPoolTaskExecutor fillTaskExecutor = config.readCacheFillTaskExecutor();
+        fillTaskExecutor.initialize();
+        executors.add(fillTaskExecutor);
+        return new LocalReadCacheStorageEngine(delegate, config, fillTaskExecutor);
+    }
+
+    private byte[] read(LocalReadCacheStorageEngine engine, String realPath) throws IOException {
+        return read(engine, realPath, null);
+    }
+
+    private byte[] read(LocalReadCacheStorageEngine engine, String realPath, Long storedSize) throws IOException {
+        return read(engine, realPath, storedSize, new ByteArrayOutputStream());
+    }
+
+    private byte[] read(LocalReadCacheStorageEngine engine, String realPath, Long storedSize, ByteArrayOutputStream outputStream) throws IOException {
+        ReadFileContext readFileContext = new ReadFileContext();
+        readFileContext.setRealPath(realPath);
+        readFileContext.setStoredSize(storedSize);
+        readFileContext.setOutputStream(outputStream);
+        engine.realFile(readFileContext);
+        return outputStream.toByteArray();
+    }
+
+    private byte[] readRange(LocalReadCacheStorageEngine engine, String realPath, Long offset, Long length) throws IOException {
+        return readRange(engine, realPath, offset, length, null);
+    }
+
+    private byte[] readRange(LocalReadCacheStorageEngine engine, String realPath, Long offset, Long length, Long storedSize) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReadFileRangeContext readFileRangeContext = new ReadFileRangeContext();
+        readFileRangeContext.setRealPath(realPath);
+        readFileRangeContext.setStoredSize(storedSize);
+        readFileRangeContext.setOutputStream(outputStream);
+        readFileRangeContext.setOffset(offset);
+        readFileRangeContext.setLength(length);
+        engine.realFileRange(readFileRangeContext);
+        return outputStream.toByteArray();
+    }
+
+    private int cacheFileCount() {
+        File[] files = new File(config.getCachePath()).listFiles((dir, name) -> name.endsWith(LocalReadCacheStorageEngine.CACHE_FILE_SUFFIX));
+        return files == null ? 0 : files.length;
+    }
+
+    private byte[] createContent(int size, int seed) {
+        byte[] content = new byte[size];
+        new java.util.Random(seed).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * 记录第一次写入的输出流
+     */
+    private static class FirstWriteOutputStream extends ByteArrayOutputStream {
+
+        private final CountDownLatch firstWrite = new CountDownLatch(1);
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            super.write(b, off, len);
+            firstWrite.countDown();
+        }
+
+    }
+
+    /**
+     * 内存中的远程存储引擎替身
+     * 每次读取固定耗时 requestCostMillis，并且按照单连接带宽 bytesPerSecond 计算传输耗时
+     */
+    private static class StubRemoteStorageEngine implements StorageEngine {
+
+        private final long requestCostMillis;
+
+        private final long bytesPerSecond;
+
+        private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+
+        private final AtomicInteger getCount = new AtomicInteger();
+
+        StubRemoteStorageEngine(long requestCostMillis, long bytesPerSecond) {
+            this.requestCostMillis = requestCostMillis;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public void store(StoreFileContext context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void delete(DeleteFileContext context) {
+            context.getRealFilePathList().forEach(objects::remove);
+        }
+
+        @Override
+        public void storeChunk(StoreFileChunkContext context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void mergeFile(MergeFileContext context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void realFile(ReadFileContext context) throws IOException {
+            byte[] content = objects.get(context.getRealPath());
+            transfer(content.length);
+            context.getOutputStream().write(content);
+        }
+
+        @Override
+        public void realFileRange(ReadFileRangeContext context) throws IOException {
+            byte[] content = objects.get(context.getRealPath());
+            int offset = context.getOffset().intValue();
+            int length = (int) Math.min(context.getLength(), content.length - offset);
+            transfer(length);
+            context.getOutputStream().write(content, offset, length);
+        }
+
+        /**
+         * 读取的请求总数，包括完整读取和区间读取
+         *
+         * @return
+         */
+        int remoteGetCount() {
+            return getCount.get();
+        }
+
+        private void transfer(long size) throws InterruptedIOException {
+            getCount.incrementAndGet();
+            long costMillis = requestCostMillis + (bytesPerSecond > 0 ? size * 1000 / bytesPerSecond : 0);
+            try {
+                Thread.sleep(costMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.wuaro.pan.storage.engine.local.test;
+
+import com.wuaro.pan.storage.engine.local.LocalStorageEngine;
+import com.wuaro.pan.storage.engine.local.config.LocalStorageEngineConfig;
+import com.wuaro.pan.storage.engine.local.disk.LocalDiskSelector;
+import com.wuaro.pan.storage.engine.local.replica.ReplicaStore;
+import com.wuaro.pan.storage.engine.local.segment.SegmentStore;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+
+/**
+ * 本地存储引擎测试共用的工厂方法
+ * 在没有Spring容器的情况下创建本地存储引擎，并注入它依赖的磁盘选择器、段文件存储和多副本存储
+ */
+public final class LocalStorageEngineTestSupport {
+
+    private LocalStorageEngineTestSupport() {
+    }
+
+    /**
+     * 按照配置创建本地存储引擎，多副本存储不使用复制线程池
+     *
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    public static LocalStorageEngine createEngine(LocalStorageEngineConfig config) throws IOException {
+        LocalDiskSelector diskSelector = new LocalDiskSelector(config);
+        return createEngine(new LocalStorageEngine(), config, diskSelector, new SegmentStore(config, diskSelector), null);
+    }
+
+    /**
+     * 给已经创建的本地存储引擎注入依赖，测试需要持有磁盘选择器或者段文件存储时使用
+     *
+     * @param engine
+     * @param config
+     * @param diskSelector
+     * @param segmentStore
+     * @param replicaTaskExecutor 多副本存储的复制线程池，为null时不开启后台复制
+     * @return
+     */
+    public static <T extends LocalStorageEngine> T createEngine(T engine,
+                                                                LocalStorageEngineConfig config,
+                                                                LocalDiskSelector diskSelector,
+                                                                SegmentStore segmentStore,
+                                                                ThreadPoolTaskExecutor replicaTaskExecutor) {
+        ReflectionTestUtils.setField(engine, "config", config);
+        ReflectionTestUtils.setField(engine, "diskSelector", diskSelector);
+        ReflectionTestUtils.setField(engine, "segmentStore", segmentStore);
+        ReflectionTestUtils.setField(engine, "replicaStore", new ReplicaStore(config, diskSelector, replicaTaskExecutor));
+        return engine;
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.wuaro.pan.storage.engine.local.test;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.storage.engine.core.context.ReadFileContext;
+import com.wuaro.pan.storage.engine.core.context.StoreFileContext;
+import com.wuaro.pan.storage.engine.core.metrics.MeteredStorageEngine;
+import com.wuaro.pan.storage.engine.core.metrics.config.MetricsStorageEngineConfig;
+import com.wuaro.pan.storage.engine.core.routing.RoutingStorageEngine;
+import com.wuaro.pan.storage.engine.core.routing.config.RoutingStorageEngineConfig;
+import com.wuaro.pan.storage.engine.local.LocalStorageEngine;
+import com.wuaro.pan.storage.engine.local.config.LocalStorageEngineConfig;
+import com.wuaro.pan.storage.engine.local.disk.LocalDiskSelector;
+import com.wuaro.pan.storage.engine.local.segment.SegmentStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * 存储引擎调用指标统计的测试
+ */
+public class MeteredStorageEngineTest {
+
+    private File workDir;
+
+    private SegmentStore segmentStore;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private RoutingStorageEngine engine;
+
+    @Before
+    public void before() throws IOException {
+        workDir = Files.createTempDirectory("rpan-metrics").toFile();
+        LocalStorageEngineConfig config = new LocalStorageEngineConfig();
+        config.setRootFilePath(new File(workDir, "file").getAbsolutePath());
+        config.setRootFileChunkPath(new File(workDir, "chunk").getAbsolutePath());
+        LocalDiskSelector diskSelector = new LocalDiskSelector(config);
+        segmentStore = new SegmentStore(config, diskSelector);
+        LocalStorageEngine localStorageEngine = LocalStorageEngineTestSupport.createEngine(new LocalStorageEngine(), config, diskSelector, segmentStore, null);
+
+        meterRegistry = new SimpleMeterRegistry();
+        engine = new RoutingStorageEngine(Lists.newArrayList(localStorageEngine), new RoutingStorageEngineConfig(), new MetricsStorageEngineConfig(), meterRegistry);
+    }
+
+    @After
+    public void after() throws IOException {
+        segmentStore.close();
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+    }
+
+    /**
+     * 测试写入、读取之后按存储引擎和操作统计了调用次数和字节数
+     */
+    @Test
+    public void testRecordLatencyAndBytes() throws IOException {
+        byte[] content = new byte[20000];
+        new Random(1).nextBytes(content);
+
+        StoreFileContext storeFileContext = new StoreFileContext();
+        storeFileContext.setFilename("test.txt");
+        storeFileContext.setTotalSize((long) content.length);
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(content);
+        storeFileContext.setInputStream(inputStream);
+        engine.store(storeFileContext);
+        Assert.assertSame(inputStream, storeFileContext.getInputStream());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReadFileContext readFileContext = new ReadFileContext();
+        readFileContext.setRealPath(storeFileContext.getRealPath());
+        readFileContext.setOutputStream(outputStream);
+        engine.realFile(readFileContext);
+        Assert.assertArrayEquals(content, outputStream.toByteArray());
+        Assert.assertSame(outputStream, readFileContext.getOutputStream());
+
+        Assert.assertEquals(1L, meterRegistry.get(MeteredStorageEngine.OPERATION_METER_NAME)
+                .tags("engine", "local", "operation", "store", "outcome", "success").timer().count());
+        Assert.assertEquals(1L, meterRegistry.get(MeteredStorageEngine.OPERATION_METER_NAME)
+                .tags("engine", "local", "operation", "read", "outcome", "success").timer().count());
+        Assert.assertEquals(content.length, meterRegistry.get(MeteredStorageEngine.BYTES_METER_NAME)
+                .tags("engine", "local", "direction", "write").counter().count(), 0D);
+        Assert.assertEquals(content.length, meterRegistry.get(MeteredStorageEngine.BYTES_METER_NAME)
+                .tags("engine", "local", "direction", "read").counter().count(), 0D);
+        Assert.assertEquals(0D, meterRegistry.get(MeteredStorageEngine.IN_FLIGHT_METER_NAME)
+                .tags("engine", "local", "operation", "store").gauge().value(), 0D);
+    }
+
+    /**
+     * 测试调用失败时记录错误次数和失败的耗时
+     */
+    @Test
+    public void testRecordError() {
+        ReadFileContext readFileContext = new ReadFileContext();
+        readFileContext.setRealPath(new File(workDir, "not-exist.txt").getAbsolutePath());
+        readFileContext.setOutputStream(new ByteArrayOutputStream());
+        try {
+            engine.realFile(readFileContext);
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        Assert.assertEquals(1D, meterRegistry.get(MeteredStorageEngine.ERRORS_METER_NAME)
+                .tags("engine", "local", "operation", "read", "exception", "FileNotFoundException").counter().count(), 0D);
+        Assert.assertEquals(1L, meterRegistry.get(MeteredStorageEngine.OPERATION_METER_NAME)
+                .tags("engine", "local", "operation", "read", "outcome", "error").timer().count());
+    }
+
+}
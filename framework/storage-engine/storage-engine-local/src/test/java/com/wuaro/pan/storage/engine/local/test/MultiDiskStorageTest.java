@@ -0,0 +1,309 @@
+package com.wuaro.pan.storage.engine.local.test;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.storage.engine.core.context.*;
+import com.wuaro.pan.storage.engine.local.LocalStorageEngine;
+import com.wuaro.pan.storage.engine.local.config.LocalStorageEngineConfig;
+import com.wuaro.pan.storage.engine.local.disk.LocalDisk;
+import com.wuaro.pan.storage.engine.local.disk.LocalDiskSelector;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * 本地存储引擎多磁盘存储的测试
+ * <p>
+ * 吞吐量基准测试默认跳过，需要添加启动参数 -Drpan.benchmark=true 才会执行，
+ * 通过 -Drpan.benchmark.disks=/data1/rpan,/data2/rpan 指定不同物理磁盘上的目录，不指定时使用临时目录
+ */
+public class MultiDiskStorageTest {
+
+    private static final String BENCHMARK_SWITCH = "rpan.benchmark";
+
+    private static final String BENCHMARK_DISKS = "rpan.benchmark.disks";
+
+    private static final Pattern FAN_OUT_PATTERN = Pattern.compile(".*[/\\\\][0-9a-f]{2}[/\\\\][0-9a-f]{2}[/\\\\][0-9A-F]{32}\\.txt$");
+
+    private File workDir;
+
+    @Before
+    public void before() throws IOException {
+        workDir = Files.createTempDirectory("rpan-multi-disk").toFile();
+    }
+
+    @After
+    public void after() throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+    }
+
+    /**
+     * 测试按权重随机选择磁盘时，各磁盘被选中的次数与权重成正比
+     */
+    @Test
+    public void testWeightedSelect() {
+        LocalStorageEngineConfig config = createConfig(Lists.newArrayList(
+                new File(workDir, "disk0").getAbsolutePath(),
+                new File(workDir, "disk1").getAbsolutePath()), LocalDiskSelector.WEIGHTED_STRATEGY);
+        config.getDisks().get(1).setWeight(3);
+        LocalDiskSelector selector = new LocalDiskSelector(config);
+
+        Map<LocalDisk, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 40000; i++) {
+            counts.merge(selector.select(), 1, Integer::sum);
+        }
+        double ratio = (double) counts.get(selector.getDisks().get(1)) / counts.get(selector.getDisks().get(0));
+        Assert.assertTrue("ratio: " + ratio, ratio > 2.7 && ratio < 3.3);
+    }
+
+    /**
+     * 测试选择最空闲的磁盘时，跳过正在写入的磁盘
+     */
+    @Test
+    public void testLeastUsedSelect() {
+        LocalStorageEngineConfig config = createConfig(Lists.newArrayList(
+                new File(workDir, "disk0").getAbsolutePath(),
+                new File(workDir, "disk1").getAbsolutePath()), LocalDiskSelector.LEAST_USED_STRATEGY);
+        LocalDiskSelector selector = new LocalDiskSelector(config);
+        LocalDisk busyDisk = selector.getDisks().get(0);
+
+        busyDisk.beginWrite();
+        try {
+            for (int i = 0; i < 10; i++) {
+                Assert.assertSame(selector.getDisks().get(1), selector.select());
+            }
+        } finally {
+            busyDisk.endWrite();
+        }
+    }
+
+    /**
+     * 测试可用空间低于下限的磁盘不再分配新文件，所有磁盘都低于下限时不做过滤
+     */
+    @Test
+    public void testSelectSkipsDiskBelowMinFree() {
+        for (String strategy : Lists.newArrayList(LocalDiskSelector.WEIGHTED_STRATEGY, LocalDiskSelector.LEAST_USED_STRATEGY)) {
+            LocalStorageEngineConfig config = createConfig(Lists.newArrayList(
+                    new File(workDir, "disk0").getAbsolutePath(),
+                    new File(workDir, "disk1").getAbsolutePath()), strategy);
+            config.setDiskMinFreeBytes(1024L);
+            config.setDiskUsableSpaceCacheMillis(3600000L);
+            LocalDiskSelector selector = new LocalDiskSelector(config);
+            LocalDisk fullDisk = selector.getDisks().get(0);
+            markUsableSpace(fullDisk, 0L);
+            Assert.assertEquals(0L, fullDisk.getUsableSpace());
+
+            for (int i = 0; i < 100; i++) {
+                Assert.assertNotSame(fullDisk, selector.select());
+            }
+
+            markUsableSpace(selector.getDisks().get(1), 0L);
+            Set<LocalDisk> selected = new HashSet<>();
+            for (int i = 0; i < 100; i++) {
+                selected.add(selector.select());
+            }
+            Assert.assertTrue(selected.contains(fullDisk));
+        }
+    }
+
+    /**
+     * 测试同一个key总是选择同一块磁盘
+     */
+    @Test
+    public void testSelectByKeyIsStable() {
+        LocalStorageEngineConfig config = createConfig(Lists.newArrayList(
+                new File(workDir, "disk0").getAbsolutePath(),
+                new File(workDir, "disk1").getAbsolutePath(),
+                new File(workDir, "disk2").getAbsolutePath()), LocalDiskSelector.WEIGHTED_STRATEGY);
+        LocalDiskSelector selector = new LocalDiskSelector(config);
+
+        Set<LocalDisk> selected = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            String key = "identifier-" + i;
+            LocalDisk disk = selector.selectByKey(key);
+            Assert.assertSame(disk, selector.selectByKey(key));
+            selected.add(disk);
+        }
+        Assert.assertEquals(3, selected.size());
+    }
+
+    /**
+     * 测试文件分散存储到多块磁盘的哈希子目录下，并且根据真实存储路径可以正常读取和删除
+     */
+    @Test
+    public void testStoreReadDeleteAcrossDisks() throws IOException {
+        List<String> diskPaths = Lists.newArrayList(
+                new File(workDir, "disk0").getAbsolutePath(),
+                new File(workDir, "disk1").getAbsolutePath(),
+                new File(workDir, "disk2").getAbsolutePath());
+        LocalStorageEngineConfig config = createConfig(diskPaths, LocalDiskSelector.WEIGHTED_STRATEGY);
+        config.setHashFanOutEnabled(Boolean.TRUE);
+        LocalStorageEngine engine = LocalStorageEngineTestSupport.createEngine(config);
+
+        Set<String> usedDisks = new HashSet<>();
+        List<String> realPaths = Lists.newArrayList();
+        for (int i = 0; i < 60; i++) {
+            byte[] content = ("content-" + i).getBytes();
+            StoreFileContext storeFileContext = new StoreFileContext();
+            storeFileContext.setFilename("test.txt");
+            storeFileContext.setTotalSize((long) content.length);
+            storeFileContext.setInputStream(new ByteArrayInputStream(content));
+            engine.store(storeFileContext);
+            String realPath = storeFileContext.getRealPath();
+            Assert.assertTrue(realPath, FAN_OUT_PATTERN.matcher(realPath).matches());
+            diskPaths.stream().filter(realPath::startsWith).forEach(usedDisks::add);
+            realPaths.add(realPath);
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            ReadFileContext readFileContext = new ReadFileContext();
+            readFileContext.setRealPath(realPath);
+            readFileContext.setOutputStream(outputStream);
+            engine.realFile(readFileContext);
+            Assert.assertArrayEquals(content, outputStream.toByteArray());
+        }
+        Assert.assertEquals(3, usedDisks.size());
+
+        DeleteFileContext deleteFileContext = new DeleteFileContext();
+        deleteFileContext.setRealFilePathList(realPaths);
+        engine.delete(deleteFileContext);
+        realPaths.forEach(realPath -> Assert.assertFalse(new File(realPath).exists()));
+    }
+
+    /**
+     * 测试按偏移量写入的分片合并后的文件与目标文件在同一块磁盘上
+     */
+    @Test
+    public void testPositionalMergeStaysOnSameDisk() throws IOException {
+        LocalStorageEngineConfig config = createConfig(Lists.newArrayList(
+                new File(workDir, "disk0").getAbsolutePath(),
+                new File(workDir, "disk1").getAbsolutePath(),
+                new File(workDir, "disk2").getAbsolutePath()), LocalDiskSelector.WEIGHTED_STRATEGY);
+        config.setPositionalChunkEnabled(Boolean.TRUE);
+        LocalStorageEngine engine = LocalStorageEngineTestSupport.createEngine(config);
+        LocalDiskSelector selector = (LocalDiskSelector) ReflectionTestUtils.getField(engine, "diskSelector");
+
+        byte[] content = new byte[3000];
+        new Random(1).nextBytes(content);
+        List<String> chunkPaths = Lists.newArrayList();
+        for (int chunkNumber = 3; chunkNumber >= 1; chunkNumber--) {
+            StoreFileChunkContext storeFileChunkContext = new StoreFileChunkContext();
+            storeFileChunkContext.setFilename("test.txt");
+            storeFileChunkContext.setIdentifier("identifier");
+            storeFileChunkContext.setUserId(1L);
+            storeFileChunkContext.setTotalChunks(3);
+            storeFileChunkContext.setChunkNumber(chunkNumber);
+            storeFileChunkContext.setCurrentChunkSize(1000L);
+            storeFileChunkContext.setTotalSize((long) content.length);
+            storeFileChunkContext.setInputStream(new ByteArrayInputStream(content, (chunkNumber - 1) * 1000, 1000));
+            engine.storeChunk(storeFileChunkContext);
+            chunkPaths.add(storeFileChunkContext.getRealPath());
+        }
+        LocalDisk disk = selector.resolveByChunkPath(chunkPaths.get(0));
+        Assert.assertSame(selector.selectByKey("identifier__,__1"), disk);
+
+        MergeFileContext mergeFileContext = new MergeFileContext();
+        mergeFileContext.setFilename("test.txt");
+        mergeFileContext.setIdentifier("identifier");
+        mergeFileContext.setUserId(1L);
+        mergeFileContext.setTotalSize((long) content.length);
+        mergeFileContext.setRealPathList(chunkPaths);
+        engine.mergeFile(mergeFileContext);
+
+        Assert.assertTrue(mergeFileContext.getRealPath().startsWith(disk.getRootFilePath()));
+        Assert.assertArrayEquals(content, Files.readAllBytes(new File(mergeFileContext.getRealPath()).toPath()));
+    }
+
+    /**
+     * 8 个线程并发写入 64 个 16MB 的文件，对比单块磁盘与多块磁盘的总吞吐量
+     * 每个文件写完之后强制刷盘，避免只测到页缓存的速度
+     */
+    @Test
+    public void benchmarkAggregateThroughput() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_SWITCH));
+
+        List<String> diskPaths = Lists.newArrayList();
+        String configuredDisks = System.getProperty(BENCHMARK_DISKS);
+        if (Objects.nonNull(configuredDisks)) {
+            diskPaths.addAll(Arrays.asList(configuredDisks.split(",")));
+        } else {
+            for (int i = 0; i < 4; i++) {
+                diskPaths.add(new File(workDir, "disk" + i).getAbsolutePath());
+            }
+        }
+
+        byte[] content = new byte[16 * 1024 * 1024];
+        new Random(1).nextBytes(content);
+        for (int diskCount = 1; diskCount <= diskPaths.size(); diskCount *= 2) {
+            LocalStorageEngineConfig config = createConfig(diskPaths.subList(0, diskCount), LocalDiskSelector.LEAST_USED_STRATEGY);
+            config.setHashFanOutEnabled(Boolean.TRUE);
+            LocalStorageEngine engine = LocalStorageEngineTestSupport.createEngine(config);
+            long cost = writeConcurrently(engine, content, 64, 8);
+            System.out.println(String.format("%d disk(s): %d ms, %.1f MB/s", diskCount, cost, 64 * 16 * 1000.0 / cost));
+        }
+    }
+
+    /*****************************************private*****************************************/
+
+    private LocalStorageEngineConfig createConfig(List<String> diskPaths, String strategy) {
+        LocalStorageEngineConfig config = new LocalStorageEngineConfig();
+        for (String diskPath : diskPaths) {
+            LocalStorageEngineConfig.Disk disk = new LocalStorageEngineConfig.Disk();
+            disk.setPath(diskPath);
+            config.getDisks().add(disk);
+        }
+        config.setDiskSelectStrategy(strategy);
+        return config;
+    }
+
+    /**
+     * 直接设置磁盘缓存的可用空间，缓存在测试期间不会过期
+     *
+     * @param disk
+     * @param usableSpace
+     */
+    private void markUsableSpace(LocalDisk disk, long usableSpace) {
+        ReflectionTestUtils.setField(disk, "usableSpace", usableSpace);
+        ReflectionTestUtils.setField(disk, "usableSpaceExpireAt", Long.MAX_VALUE);
+    }
+
+    private long writeConcurrently(LocalStorageEngine engine, byte[] content, int fileCount, int threadCount) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            long start = System.currentTimeMillis();
+            List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < fileCount; i++) {
+                futures.add(executorService.submit(() -> {
+                    StoreFileContext storeFileContext = new StoreFileContext();
+                    storeFileContext.setFilename("benchmark.txt");
+                    storeFileContext.setTotalSize((long) content.length);
+                    storeFileContext.setInputStream(new ByteArrayInputStream(content));
+                    engine.store(storeFileContext);
+                    try (FileChannel fileChannel = FileChannel.open(new File(storeFileContext.getRealPath()).toPath(), StandardOpenOption.WRITE)) {
+                        fileChannel.force(true);
+                    }
+                    Files.delete(new File(storeFileContext.getRealPath()).toPath());
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return System.currentTimeMillis() - start;
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.wuaro.pan.storage.engine.local.test;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.storage.engine.core.context.*;
+import com.wuaro.pan.storage.engine.local.LocalStorageEngine;
+import com.wuaro.pan.storage.engine.local.config.LocalStorageEngineConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 本地存储引擎按偏移量写入分片的测试
+ */
+public class PositionalChunkStorageTest {
+
+    private static final String IDENTIFIER = "positional-identifier";
+
+    private static final Long USER_ID = 1L;
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private static final int TOTAL_CHUNKS = 3;
+
+    private File workDir;
+
+    private LocalStorageEngine engine;
+
+    private byte[] content;
+
+    @Before
+    public void before() throws IOException {
+        workDir = Files.createTempDirectory("rpan-positional-chunk").toFile();
+        LocalStorageEngineConfig config = new LocalStorageEngineConfig();
+        config.setRootFilePath(new File(workDir, "file").getAbsolutePath());
+        config.setRootFileChunkPath(new File(workDir, "chunk").getAbsolutePath());
+        config.setPositionalChunkEnabled(Boolean.TRUE);
+        engine = LocalStorageEngineTestSupport.createEngine(config);
+
+        content = new byte[CHUNK_SIZE * (TOTAL_CHUNKS - 1) + 500];
+        new Random(1L).nextBytes(content);
+    }
+
+    @After
+    public void after() throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+    }
+
+    /**
+     * 测试乱序写入的分片合并之后内容完整，并且目标文件和分片标记都被清理
+     */
+    @Test
+    public void testStoreAndMergeOutOfOrder() throws IOException {
+        String thirdChunk = storeChunk(3);
+        String firstChunk = storeChunk(1);
+        String secondChunk = storeChunk(2);
+        File target = targetOf(firstChunk);
+        Assert.assertEquals(content.length, target.length());
+
+        String realPath = merge(Lists.newArrayList(firstChunk, secondChunk, thirdChunk));
+
+        Assert.assertArrayEquals(content, read(realPath));
+        Assert.assertFalse(target.exists());
+        Assert.assertFalse(markerFolderOf(firstChunk).exists());
+    }
+
+    /**
+     * 测试删除一个过期的分片不会删除同一个文件中还有效的分片，重新上传过期的分片之后可以正常合并
+     */
+    @Test
+    public void testDeleteExpiredChunkKeepsOtherChunks() throws IOException {
+        String firstChunk = storeChunk(1);
+        String secondChunk = storeChunk(2);
+
+        delete(firstChunk);
+        File target = targetOf(secondChunk);
+        Assert.assertTrue(target.exists());
+
+        String reuploadedFirstChunk = storeChunk(1);
+        String thirdChunk = storeChunk(3);
+        String realPath = merge(Lists.newArrayList(reuploadedFirstChunk, secondChunk, thirdChunk));
+
+        Assert.assertArrayEquals(content, read(realPath));
+    }
+
+    /**
+     * 测试删除最后一个分片时删除目标文件以及分片标记目录
+     */
+    @Test
+    public void testDeleteAllChunksDeletesTarget() throws IOException {
+        String firstChunk = storeChunk(1);
+        String secondChunk = storeChunk(2);
+        File target = targetOf(firstChunk);
+
+        delete(firstChunk);
+        Assert.assertTrue(target.exists());
+        delete(secondChunk);
+        Assert.assertFalse(target.exists());
+        Assert.assertFalse(markerFolderOf(firstChunk).exists());
+    }
+
+    /**
+     * 测试目标文件被删除并重新创建之后，旧的分片不能参与合并，避免合并出带空洞的文件
+     */
+    @Test
+    public void testMergeRejectsChunksOfDeletedTarget() throws IOException {
+        String firstChunk = storeChunk(1);
+        String secondChunk = storeChunk(2);
+        delete(firstChunk);
+        delete(secondChunk);
+
+        String thirdChunk = storeChunk(3);
+        try {
+            merge(Lists.newArrayList(firstChunk, secondChunk, thirdChunk));
+            Assert.fail("the merge should fail");
+        } catch (RPanFrameworkException e) {
+            Assert.assertTrue(targetOf(thirdChunk).exists());
+        }
+    }
+
+    /*****************************************private*****************************************/
+
+    private String storeChunk(int chunkNumber) throws IOException {
+        int offset = (chunkNumber - 1) * CHUNK_SIZE;
+        int length = chunkNumber == TOTAL_CHUNKS ? content.length - offset : CHUNK_SIZE;
+        StoreFileChunkContext context = new StoreFileChunkContext();
+        context.setFilename("positional.bin");
+        context.setIdentifier(IDENTIFIER);
+        context.setUserId(USER_ID);
+        context.setTotalSize((long) content.length);
+        context.setTotalChunks(TOTAL_CHUNKS);
+        context.setChunkNumber(chunkNumber);
+        context.setCurrentChunkSize((long) length);
+        context.setInputStream(new ByteArrayInputStream(Arrays.copyOfRange(content, offset, offset + length)));
+        engine.storeChunk(context);
+        return context.getRealPath();
+    }
+
+    private String merge(List<String> chunkPaths) throws IOException {
+        MergeFileContext context = new MergeFileContext();
+        context.setFilename("positional.bin");
+        context.setIdentifier(IDENTIFIER);
+        context.setUserId(USER_ID);
+        context.setTotalSize((long) content.length);
+        context.setRealPathList(chunkPaths);
+        engine.mergeFile(context);
+        return context.getRealPath();
+    }
+
+    private void delete(String realPath) throws IOException {
+        DeleteFileContext context = new DeleteFileContext();
+        context.setRealFilePathList(Lists.newArrayList(realPath));
+        engine.delete(context);
+    }
+
+    private byte[] read(String realPath) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReadFileContext context = new ReadFileContext();
+        context.setRealPath(realPath);
+        context.setOutputStream(outputStream);
+        engine.realFile(context);
+        return outputStream.toByteArray();
+    }
+
+    private File targetOf(String chunkPath) {
+        return new File(chunkPath.substring(0, chunkPath.lastIndexOf("?offset=")));
+    }
+
+    private File markerFolderOf(String chunkPath) {
+        return new File(targetOf(chunkPath).getAbsolutePath() + ".chunks");
+    }
+
+}
@@ -0,0 +1,446 @@
+package com.wuaro.pan.storage.engine.local.test;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.storage.engine.core.context.*;
+import com.wuaro.pan.storage.engine.local.LocalStorageEngine;
+import com.wuaro.pan.storage.engine.local.config.LocalStorageEngineConfig;
+import com.wuaro.pan.storage.engine.local.disk.LocalDisk;
+import com.wuaro.pan.storage.engine.local.disk.LocalDiskSelector;
+import com.wuaro.pan.storage.engine.local.replica.ReplicaStore;
+import com.wuaro.pan.storage.engine.local.segment.SegmentStore;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 本地多副本存储的测试
+ * <p>
+ * 读取吞吐量基准测试默认跳过，需要添加启动参数 -Drpan.benchmark=true 才会执行，
+ * 通过 -Drpan.benchmark.disks=/data1/rpan,/data2/rpan 指定不同物理磁盘上的目录，不指定时使用临时目录
+ */
+public class ReplicaStoreTest {
+
+    private static final String BENCHMARK_SWITCH = "rpan.benchmark";
+
+    private static final String BENCHMARK_DISKS = "rpan.benchmark.disks";
+
+    private File workDir;
+
+    private ThreadPoolTaskExecutor taskExecutor;
+
+    private LocalDiskSelector diskSelector;
+
+    @Before
+    public void before() throws IOException {
+        workDir = Files.createTempDirectory("rpan-replica").toFile();
+    }
+
+    @After
+    public void after() throws IOException {
+        if (taskExecutor != null) {
+            taskExecutor.shutdown();
+        }
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+    }
+
+    /**
+     * 测试文件写到指定数量的磁盘上，各个副本内容一致，可以完整读取、按区间读取，删除时删除所有副本
+     */
+    @Test
+    public void testStoreReadDeleteWithAckAll() throws IOException {
+        LocalStorageEngine engine = createEngine(createConfig(3, 2, ReplicaStore.ACK_ALL));
+        byte[] content = createContent(5000, 1);
+
+        String realPath = store(engine, content);
+        Assert.assertTrue(ReplicaStore.isReplicaPath(realPath));
+        List<String> replicaPaths = ReplicaStore.parseReplicaPaths(realPath);
+        Assert.assertEquals(2, replicaPaths.size());
+        Assert.assertNotSame(diskSelector.resolveByFilePath(replicaPaths.get(0)), diskSelector.resolveByFilePath(replicaPaths.get(1)));
+        for (String replicaPath : replicaPaths) {
+            Assert.assertArrayEquals(content, Files.readAllBytes(new File(replicaPath).toPath()));
+        }
+        Assert.assertArrayEquals(content, read(engine, realPath));
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 100, 300), readRange(engine, realPath, 100L, 200L));
+        Assert.assertTrue(replicaPaths.contains(engine.getLocalFile(realPath).getAbsolutePath()));
+
+        DeleteFileContext deleteFileContext = new DeleteFileContext();
+        deleteFileContext.setRealFilePathList(Lists.newArrayList(realPath));
+        engine.delete(deleteFileContext);
+        replicaPaths.forEach(replicaPath -> Assert.assertFalse(new File(replicaPath).exists()));
+    }
+
+    /**
+     * 测试第一个副本写入成功后返回，其余副本在后台复制完成
+     */
+    @Test
+    public void testAckFirstCopiesInBackground() throws Exception {
+        LocalStorageEngine engine = createEngine(createConfig(3, 3, ReplicaStore.ACK_FIRST));
+        byte[] content = createContent(5000, 2);
+
+        String realPath = store(engine, content);
+        Assert.assertArrayEquals(content, read(engine, realPath));
+        for (String replicaPath : ReplicaStore.parseReplicaPaths(realPath)) {
+            waitUntilContentEquals(new File(replicaPath), content);
+        }
+    }
+
+    /**
+     * 测试 ALL 模式下输入流只读取一次，读取的同时写入所有副本的临时文件，写完之后不留下临时文件
+     */
+    @Test
+    public void testAckAllTeesStreamWhileWriting() throws IOException {
+        LocalStorageEngine engine = createEngine(createConfig(3, 3, ReplicaStore.ACK_ALL));
+        byte[] content = createContent(5000, 8);
+        List<Integer> tempFileCounts = Lists.newArrayList();
+        InputStream inputStream = createChunkedStream(content, () -> tempFileCounts.add(listTempFiles().size()));
+
+        String realPath = store(engine, inputStream, content.length);
+        Assert.assertEquals(-1, inputStream.read());
+        Assert.assertTrue(tempFileCounts.size() > 1);
+        tempFileCounts.forEach(count -> Assert.assertEquals(2, count.intValue()));
+        Assert.assertTrue(listTempFiles().isEmpty());
+        List<String> replicaPaths = ReplicaStore.parseReplicaPaths(realPath);
+        Assert.assertEquals(3, replicaPaths.size());
+        for (String replicaPath : replicaPaths) {
+            Assert.assertArrayEquals(content, Files.readAllBytes(new File(replicaPath).toPath()));
+        }
+    }
+
+    /**
+     * 测试 ALL 模式下一个副本写入失败时存储失败，删除第一个副本和所有临时文件
+     */
+    @Test
+    public void testAckAllFailsWhenReplicaFails() throws IOException {
+        LocalStorageEngine engine = createEngine(createConfig(2, 2, ReplicaStore.ACK_ALL));
+        byte[] content = createContent(5000, 9);
+        List<File> blockers = Lists.newArrayList();
+        InputStream inputStream = createChunkedStream(content, () -> blockReplicaTargets(blockers));
+
+        try {
+            store(engine, inputStream, content.length);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals(1, blockers.size());
+        }
+        Assert.assertEquals(blockers, listRegularFiles());
+    }
+
+    /**
+     * 测试 FIRST 模式下一个副本写入失败时存储仍然成功，失败的副本之后被修复
+     */
+    @Test
+    public void testAckFirstToleratesReplicaFailure() throws Exception {
+        LocalStorageEngine engine = createEngine(createConfig(2, 2, ReplicaStore.ACK_FIRST));
+        byte[] content = createContent(5000, 10);
+        List<File> blockers = Lists.newArrayList();
+        InputStream inputStream = createChunkedStream(content, () -> blockReplicaTargets(blockers));
+
+        String realPath = store(engine, inputStream, content.length);
+        Assert.assertEquals(1, blockers.size());
+        Assert.assertTrue(listTempFiles().isEmpty());
+        Assert.assertArrayEquals(content, read(engine, realPath));
+        waitUntilIdle();
+
+        org.apache.commons.io.FileUtils.deleteDirectory(blockers.get(0).getParentFile());
+        List<String> replicaPaths = ReplicaStore.parseReplicaPaths(realPath);
+        LocalDisk primaryDisk = diskSelector.resolveByFilePath(replicaPaths.get(0));
+        primaryDisk.beginRead();
+        try {
+            Assert.assertArrayEquals(content, read(engine, realPath));
+        } finally {
+            primaryDisk.endRead();
+        }
+        waitUntilContentEquals(new File(replicaPaths.get(1)), content);
+    }
+
+    /**
+     * 测试读取时跳过缺失的副本，并且在后台修复缺失的副本
+     */
+    @Test
+    public void testReadFallbackAndRepair() throws Exception {
+        LocalStorageEngine engine = createEngine(createConfig(2, 2, ReplicaStore.ACK_ALL));
+        byte[] content = createContent(5000, 3);
+        String realPath = store(engine, content);
+        List<String> replicaPaths = ReplicaStore.parseReplicaPaths(realPath);
+        File brokenReplica = new File(replicaPaths.get(0));
+        Assert.assertTrue(brokenReplica.delete());
+
+        LocalDisk healthyDisk = diskSelector.resolveByFilePath(replicaPaths.get(1));
+        healthyDisk.beginRead();
+        try {
+            Assert.assertArrayEquals(content, read(engine, realPath));
+        } finally {
+            healthyDisk.endRead();
+        }
+        waitUntilContentEquals(brokenReplica, content);
+    }
+
+    /**
+     * 测试副本被写入多余的数据时，以写入时记录的文件大小为准跳过这个副本，读取其他副本的完整内容并修复它
+     */
+    @Test
+    public void testReadSkipsReplicaLargerThanRecordedSize() throws Exception {
+        LocalStorageEngine engine = createEngine(createConfig(2, 2, ReplicaStore.ACK_ALL));
+        byte[] content = createContent(5000, 6);
+        String realPath = store(engine, content);
+        List<String> replicaPaths = ReplicaStore.parseReplicaPaths(realPath);
+        File brokenReplica = new File(replicaPaths.get(0));
+        try (FileOutputStream outputStream = new FileOutputStream(brokenReplica, true)) {
+            outputStream.write(createContent(100, 7));
+        }
+
+        Assert.assertEquals(new File(replicaPaths.get(1)), engine.getLocalFile(realPath));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertArrayEquals(content, read(engine, realPath));
+        }
+        waitUntilContentEquals(brokenReplica, content);
+    }
+
+    /**
+     * 测试读取时优先选择健康的、排队任务最少的副本
+     */
+    @Test
+    public void testPreferLeastPendingHealthyReplica() throws IOException {
+        LocalStorageEngine engine = createEngine(createConfig(2, 2, ReplicaStore.ACK_ALL));
+        String realPath = store(engine, createContent(1000, 4));
+        List<String> replicaPaths = ReplicaStore.parseReplicaPaths(realPath);
+        LocalDisk firstDisk = diskSelector.resolveByFilePath(replicaPaths.get(0));
+        LocalDisk secondDisk = diskSelector.resolveByFilePath(replicaPaths.get(1));
+
+        firstDisk.beginWrite();
+        try {
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals(new File(replicaPaths.get(1)), engine.getLocalFile(realPath));
+            }
+            secondDisk.markFailed(60000L);
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals(new File(replicaPaths.get(0)), engine.getLocalFile(realPath));
+            }
+        } finally {
+            firstDisk.endWrite();
+        }
+    }
+
+    @Test(expected = RPanFrameworkException.class)
+    public void testReplicaCountExceedsDisks() throws IOException {
+        createEngine(createConfig(2, 3, ReplicaStore.ACK_ALL));
+    }
+
+    /**
+     * 16 个线程并发读取同一个 64MB 的热点文件，对比单副本与多副本的总读取吞吐量
+     * 读取之前不清理页缓存，需要指定不同物理磁盘上的目录并且文件大于内存才能体现磁盘的差异
+     */
+    @Test
+    public void benchmarkHotFileReadThroughput() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_SWITCH));
+
+        List<String> diskPaths = Lists.newArrayList();
+        String configuredDisks = System.getProperty(BENCHMARK_DISKS);
+        if (configuredDisks != null) {
+            diskPaths.addAll(Arrays.asList(configuredDisks.split(",")));
+        } else {
+            for (int i = 0; i < 4; i++) {
+                diskPaths.add(new File(workDir, "disk" + i).getAbsolutePath());
+            }
+        }
+
+        byte[] content = createContent(64 * 1024 * 1024, 5);
+        for (int replicaCount = 1; replicaCount <= diskPaths.size(); replicaCount *= 2) {
+            LocalStorageEngineConfig config = createConfig(diskPaths, replicaCount, ReplicaStore.ACK_ALL);
+            LocalStorageEngine engine = createEngine(config);
+            String realPath = store(engine, content);
+            long cost = readConcurrently(engine, realPath, 64, 16);
+            System.out.println(String.format("%d replica(s): %d ms, %.1f MB/s", replicaCount, cost, 64 * 64 * 1000.0 / cost));
+            DeleteFileContext deleteFileContext = new DeleteFileContext();
+            deleteFileContext.setRealFilePathList(Lists.newArrayList(realPath));
+            engine.delete(deleteFileContext);
+            taskExecutor.shutdown();
+        }
+    }
+
+    /*****************************************private*****************************************/
+
+    private LocalStorageEngineConfig createConfig(int diskCount, int replicaCount, String ackMode) {
+        List<String> diskPaths = Lists.newArrayList();
+        for (int i = 0; i < diskCount; i++) {
+            diskPaths.add(new File(workDir, "disk" + i).getAbsolutePath());
+        }
+        return createConfig(diskPaths, replicaCount, ackMode);
+    }
+
+    private LocalStorageEngineConfig createConfig(List<String> diskPaths, int replicaCount, String ackMode) {
+        LocalStorageEngineConfig config = new LocalStorageEngineConfig();
+        for (String diskPath : diskPaths) {
+            LocalStorageEngineConfig.Disk disk = new LocalStorageEngineConfig.Disk();
+            disk.setPath(diskPath);
+            config.getDisks().add(disk);
+        }
+        config.setDiskSelectStrategy(LocalDiskSelector.LEAST_USED_STRATEGY);
+        config.setReplicaCount(replicaCount);
+        config.setReplicaAckMode(ackMode);
+        return config;
+    }
+
+    private LocalStorageEngine createEngine(LocalStorageEngineConfig config) throws IOException {
+        diskSelector = new LocalDiskSelector(config);
+        taskExecutor = config.localReplicaTaskExecutor();
+        taskExecutor.initialize();
+        return LocalStorageEngineTestSupport.createEngine(new LocalStorageEngine(), config, diskSelector, new SegmentStore(config, diskSelector), taskExecutor);
+    }
+
+    private byte[] createContent(int size, long seed) {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    private String store(LocalStorageEngine engine, byte[] content) throws IOException {
+        return store(engine, new ByteArrayInputStream(content), content.length);
+    }
+
+    private String store(LocalStorageEngine engine, InputStream inputStream, long totalSize) throws IOException {
+        StoreFileContext storeFileContext = new StoreFileContext();
+        storeFileContext.setFilename("test.txt");
+        storeFileContext.setTotalSize(totalSize);
+        storeFileContext.setInputStream(inputStream);
+        engine.store(storeFileContext);
+        return storeFileContext.getRealPath();
+    }
+
+    /**
+     * 每次最多读取 1000 个字节的输入流，从第二次读取开始，每次读取之前执行指定的动作
+     */
+    private InputStream createChunkedStream(byte[] content, Runnable beforeRead) {
+        return new FilterInputStream(new ByteArrayInputStream(content)) {
+
+            private int readCount = 0;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (readCount++ > 0) {
+                    beforeRead.run();
+                }
+                return super.read(b, off, Math.min(len, 1000));
+            }
+
+            @Override
+            public void close() {
+            }
+
+        };
+    }
+
+    /**
+     * 在正在写入的副本的正式路径上创建非空的目录，副本写完之后无法移动到正式路径
+     */
+    private void blockReplicaTargets(List<File> blockers) {
+        if (!blockers.isEmpty()) {
+            return;
+        }
+        try {
+            for (File tempFile : listTempFiles()) {
+                String tempName = tempFile.getName();
+                String targetName = tempName.substring(0, tempName.lastIndexOf('.', tempName.lastIndexOf('.') - 1));
+                File blocker = new File(new File(tempFile.getParentFile(), targetName), "blocker");
+                Assert.assertTrue(blocker.getParentFile().mkdirs());
+                Assert.assertTrue(blocker.createNewFile());
+                blockers.add(blocker.getAbsoluteFile());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<File> listTempFiles() {
+        return listRegularFiles().stream()
+                .filter(file -> file.getName().endsWith(".replicating"))
+                .collect(Collectors.toList());
+    }
+
+    private List<File> listRegularFiles() {
+        try (Stream<Path> paths = Files.walk(workDir.toPath())) {
+            return paths.filter(Files::isRegularFile)
+                    .map(path -> path.toFile().getAbsoluteFile())
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void waitUntilIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (taskExecutor.getActiveCount() > 0 || !taskExecutor.getThreadPoolExecutor().getQueue().isEmpty()) {
+            Assert.assertTrue("replica tasks are still running", System.currentTimeMillis() < deadline);
+            Thread.sleep(20L);
+        }
+    }
+
+    private byte[] read(LocalStorageEngine engine, String realPath) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReadFileContext readFileContext = new ReadFileContext();
+        readFileContext.setRealPath(realPath);
+        readFileContext.setOutputStream(outputStream);
+        engine.realFile(readFileContext);
+        return outputStream.toByteArray();
+    }
+
+    private byte[] readRange(LocalStorageEngine engine, String realPath, long offset, long length) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReadFileRangeContext readFileRangeContext = new ReadFileRangeContext();
+        readFileRangeContext.setRealPath(realPath);
+        readFileRangeContext.setOutputStream(outputStream);
+        readFileRangeContext.setOffset(offset);
+        readFileRangeContext.setLength(length);
+        engine.realFileRange(readFileRangeContext);
+        return outputStream.toByteArray();
+    }
+
+    private void waitUntilContentEquals(File file, byte[] content) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!(file.isFile() && Arrays.equals(content, Files.readAllBytes(file.toPath())))) {
+            Assert.assertTrue("replica is not copied: " + file, System.currentTimeMillis() < deadline);
+            Thread.sleep(20L);
+        }
+    }
+
+    private long readConcurrently(LocalStorageEngine engine, String realPath, int readCount, int threadCount) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            long start = System.currentTimeMillis();
+            List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < readCount; i++) {
+                futures.add(executorService.submit(() -> {
+                    ReadFileContext readFileContext = new ReadFileContext();
+                    readFileContext.setRealPath(realPath);
+                    readFileContext.setOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+                    engine.realFile(readFileContext);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return System.currentTimeMillis() - start;
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+}
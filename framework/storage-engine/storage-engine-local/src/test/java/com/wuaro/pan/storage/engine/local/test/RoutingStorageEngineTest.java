@@ -0,0 +1,277 @@
+package com.wuaro.pan.storage.engine.local.test;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.storage.engine.core.context.*;
+import com.wuaro.pan.storage.engine.core.routing.RoutingStorageEngine;
+import com.wuaro.pan.storage.engine.core.routing.config.RoutingStorageEngineConfig;
+import com.wuaro.pan.storage.engine.local.LocalStorageEngine;
+import com.wuaro.pan.storage.engine.local.config.LocalStorageEngineConfig;
+import com.wuaro.pan.storage.engine.local.disk.LocalDiskSelector;
+import com.wuaro.pan.storage.engine.local.segment.SegmentStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 多个存储引擎之间路由的测试
+ * 使用两个不同名称、不同根目录的本地存储引擎模拟热存储和冷存储
+ */
+public class RoutingStorageEngineTest {
+
+    private static final String ARCHIVE_ENGINE_NAME = "archive";
+
+    private File workDir;
+
+    private LocalStorageEngine localEngine;
+
+    private LocalStorageEngine archiveEngine;
+
+    private List<SegmentStore> segmentStores = Lists.newArrayList();
+
+    @Before
+    public void before() throws IOException {
+        workDir = Files.createTempDirectory("rpan-routing").toFile();
+        localEngine = createEngine(new LocalStorageEngine(), "local");
+        archiveEngine = createEngine(new LocalStorageEngine() {
+            @Override
+            public String getEngineName() {
+                return ARCHIVE_ENGINE_NAME;
+            }
+        }, ARCHIVE_ENGINE_NAME);
+    }
+
+    @After
+    public void after() throws IOException {
+        for (SegmentStore segmentStore : segmentStores) {
+            segmentStore.close();
+        }
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+    }
+
+    /**
+     * 测试新文件写入默认的存储引擎并带上前缀，没有前缀的历史路径由默认的存储引擎读取
+     */
+    @Test
+    public void testStoreToDefaultEngineAndReadLegacyPath() throws IOException {
+        RoutingStorageEngine engine = createRoutingEngine("local");
+        byte[] content = createContent(5000, 1);
+
+        String realPath = store(engine, "local", content);
+        Assert.assertTrue(realPath.startsWith("local://"));
+        Assert.assertEquals("local", engine.resolveEngineName(realPath));
+        Assert.assertArrayEquals(content, read(engine, realPath));
+
+        String legacyRealPath = RoutingStorageEngine.unwrap(realPath);
+        Assert.assertTrue(new File(legacyRealPath).exists());
+        Assert.assertEquals("local", engine.resolveEngineName(legacyRealPath));
+        Assert.assertArrayEquals(content, read(engine, legacyRealPath));
+
+        ByteArrayOutputStream rangeOutput = new ByteArrayOutputStream();
+        ReadFileRangeContext readFileRangeContext = new ReadFileRangeContext();
+        readFileRangeContext.setRealPath(realPath);
+        readFileRangeContext.setOutputStream(rangeOutput);
+        readFileRangeContext.setOffset(100L);
+        readFileRangeContext.setLength(300L);
+        engine.realFileRange(readFileRangeContext);
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 100, 400), rangeOutput.toByteArray());
+        Assert.assertEquals(realPath, readFileRangeContext.getRealPath());
+    }
+
+    /**
+     * 测试写入指定的存储引擎，并且一次删除不同存储引擎中的文件
+     */
+    @Test
+    public void testStoreToAndDeleteAcrossEngines() throws IOException {
+        RoutingStorageEngine engine = createRoutingEngine("local");
+        byte[] hotContent = createContent(3000, 2);
+        byte[] coldContent = createContent(4000, 3);
+
+        String hotRealPath = store(engine, "local", hotContent);
+        String coldRealPath = store(engine, ARCHIVE_ENGINE_NAME, coldContent);
+        Assert.assertTrue(coldRealPath.startsWith(ARCHIVE_ENGINE_NAME + "://"));
+        Assert.assertTrue(RoutingStorageEngine.unwrap(coldRealPath).startsWith(new File(workDir, ARCHIVE_ENGINE_NAME).getAbsolutePath()));
+        Assert.assertArrayEquals(coldContent, read(engine, coldRealPath));
+
+        DeleteFileContext deleteFileContext = new DeleteFileContext();
+        deleteFileContext.setRealFilePathList(Lists.newArrayList(hotRealPath, coldRealPath));
+        engine.delete(deleteFileContext);
+
+        Assert.assertTrue(deleteFileContext.getFailedRealFilePathList().isEmpty());
+        Assert.assertFalse(new File(RoutingStorageEngine.unwrap(hotRealPath)).exists());
+        Assert.assertFalse(new File(RoutingStorageEngine.unwrap(coldRealPath)).exists());
+    }
+
+    /**
+     * 测试文件分片写入默认的存储引擎，并在分片所在的存储引擎中合并
+     */
+    @Test
+    public void testStoreChunkAndMerge() throws IOException {
+        RoutingStorageEngine engine = createRoutingEngine(ARCHIVE_ENGINE_NAME);
+        byte[] content = createContent(3000, 4);
+
+        List<String> chunkPaths = Lists.newArrayList();
+        for (int i = 0; i < 3; i++) {
+            StoreFileChunkContext storeFileChunkContext = new StoreFileChunkContext();
+            storeFileChunkContext.setFilename("test.txt");
+            storeFileChunkContext.setIdentifier("identifier");
+            storeFileChunkContext.setTotalSize((long) content.length);
+            storeFileChunkContext.setInputStream(new ByteArrayInputStream(content, i * 1000, 1000));
+            storeFileChunkContext.setTotalChunks(3);
+            storeFileChunkContext.setChunkNumber(i + 1);
+            storeFileChunkContext.setCurrentChunkSize(1000L);
+            storeFileChunkContext.setUserId(1L);
+            engine.storeChunk(storeFileChunkContext);
+            Assert.assertTrue(storeFileChunkContext.getRealPath().startsWith(ARCHIVE_ENGINE_NAME + "://"));
+            chunkPaths.add(storeFileChunkContext.getRealPath());
+        }
+
+        MergeFileContext mergeFileContext = new MergeFileContext();
+        mergeFileContext.setFilename("test.txt");
+        mergeFileContext.setIdentifier("identifier");
+        mergeFileContext.setUserId(1L);
+        mergeFileContext.setTotalSize((long) content.length);
+        mergeFileContext.setRealPathList(chunkPaths);
+        engine.mergeFile(mergeFileContext);
+
+        Assert.assertEquals(chunkPaths, mergeFileContext.getRealPathList());
+        Assert.assertTrue(mergeFileContext.getRealPath().startsWith(ARCHIVE_ENGINE_NAME + "://"));
+        Assert.assertArrayEquals(content, read(engine, mergeFileContext.getRealPath()));
+    }
+
+    /**
+     * 测试按照文件大小、文件后缀和上传用户选择写入的存储引擎，文件分片按照整个文件的大小选择，
+     * 指定了路由大小的文件（压缩存储的文件）按照路由大小选择
+     */
+    @Test
+    public void testWriteRules() throws IOException {
+        RoutingStorageEngineConfig.WriteRule mediaRule = new RoutingStorageEngineConfig.WriteRule();
+        mediaRule.setEngine(ARCHIVE_ENGINE_NAME);
+        mediaRule.setMinSize(2000L);
+        mediaRule.setFileSuffixes(Lists.newArrayList(".MP4", "mkv"));
+        RoutingStorageEngineConfig.WriteRule userRule = new RoutingStorageEngineConfig.WriteRule();
+        userRule.setEngine(ARCHIVE_ENGINE_NAME);
+        userRule.setUserIds(Lists.newArrayList(9L));
+        RoutingStorageEngine engine = createRoutingEngine("local", mediaRule, userRule);
+
+        Assert.assertEquals("local", engine.selectEngineName("small.mp4", 1000L, 1L));
+        Assert.assertEquals(ARCHIVE_ENGINE_NAME, engine.selectEngineName("large.mp4", 2000L, 1L));
+        Assert.assertEquals(ARCHIVE_ENGINE_NAME, engine.selectEngineName("large.MKV", 5000L, 1L));
+        Assert.assertEquals("local", engine.selectEngineName("large.txt", 5000L, 1L));
+        Assert.assertEquals("local", engine.selectEngineName("unknown.mp4", null, 1L));
+        Assert.assertEquals(ARCHIVE_ENGINE_NAME, engine.selectEngineName("small.txt", 10L, 9L));
+
+        byte[] content = createContent(3000, 5);
+        StoreFileContext storeFileContext = new StoreFileContext();
+        storeFileContext.setFilename("movie.mp4");
+        storeFileContext.setTotalSize((long) content.length);
+        storeFileContext.setUserId(1L);
+        storeFileContext.setInputStream(new ByteArrayInputStream(content));
+        engine.store(storeFileContext);
+        Assert.assertTrue(storeFileContext.getRealPath().startsWith(ARCHIVE_ENGINE_NAME + "://"));
+        Assert.assertArrayEquals(content, read(engine, storeFileContext.getRealPath()));
+
+        byte[] compressedContent = createContent(500, 6);
+        StoreFileContext compressedContext = new StoreFileContext();
+        compressedContext.setFilename("movie.mp4");
+        compressedContext.setTotalSize((long) compressedContent.length);
+        compressedContext.setRoutingSize((long) content.length);
+        compressedContext.setUserId(1L);
+        compressedContext.setInputStream(new ByteArrayInputStream(compressedContent));
+        engine.store(compressedContext);
+        Assert.assertTrue(compressedContext.getRealPath().startsWith(ARCHIVE_ENGINE_NAME + "://"));
+
+        StoreFileChunkContext storeFileChunkContext = new StoreFileChunkContext();
+        storeFileChunkContext.setFilename("movie.mp4");
+        storeFileChunkContext.setIdentifier("identifier");
+        storeFileChunkContext.setTotalSize((long) content.length);
+        storeFileChunkContext.setInputStream(new ByteArrayInputStream(content, 0, 1000));
+        storeFileChunkContext.setTotalChunks(3);
+        storeFileChunkContext.setChunkNumber(1);
+        storeFileChunkContext.setCurrentChunkSize(1000L);
+        storeFileChunkContext.setUserId(1L);
+        engine.storeChunk(storeFileChunkContext);
+        Assert.assertTrue(storeFileChunkContext.getRealPath().startsWith(ARCHIVE_ENGINE_NAME + "://"));
+
+        RoutingStorageEngineConfig.WriteRule invalidRule = new RoutingStorageEngineConfig.WriteRule();
+        invalidRule.setEngine("oss");
+        try {
+            createRoutingEngine("local", invalidRule);
+            Assert.fail();
+        } catch (RPanFrameworkException e) {
+            // expected
+        }
+    }
+
+    /**
+     * 测试多个存储引擎没有配置默认存储引擎、以及路径前缀对应的存储引擎不存在时报错
+     */
+    @Test
+    public void testInvalidEngine() throws IOException {
+        try {
+            createRoutingEngine(null);
+            Assert.fail();
+        } catch (RPanFrameworkException e) {
+            // expected
+        }
+
+        RoutingStorageEngine engine = createRoutingEngine("local");
+        try {
+            read(engine, "oss://2024/1/1/test.txt");
+            Assert.fail();
+        } catch (RPanFrameworkException e) {
+            // expected
+        }
+    }
+
+    /*****************************************private*****************************************/
+
+    private LocalStorageEngine createEngine(LocalStorageEngine engine, String folderName) throws IOException {
+        LocalStorageEngineConfig config = new LocalStorageEngineConfig();
+        config.setRootFilePath(new File(workDir, folderName).getAbsolutePath());
+        config.setRootFileChunkPath(new File(workDir, folderName + "-chunk").getAbsolutePath());
+        LocalDiskSelector diskSelector = new LocalDiskSelector(config);
+        SegmentStore segmentStore = new SegmentStore(config, diskSelector);
+        segmentStores.add(segmentStore);
+        return LocalStorageEngineTestSupport.createEngine(engine, config, diskSelector, segmentStore, null);
+    }
+
+    private RoutingStorageEngine createRoutingEngine(String defaultEngine, RoutingStorageEngineConfig.WriteRule... writeRules) {
+        RoutingStorageEngineConfig config = new RoutingStorageEngineConfig();
+        config.setDefaultEngine(defaultEngine);
+        config.setWriteRules(Lists.newArrayList(writeRules));
+        return new RoutingStorageEngine(Lists.newArrayList(localEngine, archiveEngine), config);
+    }
+
+    private String store(RoutingStorageEngine engine, String engineName, byte[] content) throws IOException {
+        StoreFileContext storeFileContext = new StoreFileContext();
+        storeFileContext.setFilename("test.txt");
+        storeFileContext.setTotalSize((long) content.length);
+        storeFileContext.setInputStream(new ByteArrayInputStream(content));
+        engine.storeTo(engineName, storeFileContext);
+        return storeFileContext.getRealPath();
+    }
+
+    private byte[] read(RoutingStorageEngine engine, String realPath) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReadFileContext readFileContext = new ReadFileContext();
+        readFileContext.setRealPath(realPath);
+        readFileContext.setOutputStream(outputStream);
+        engine.realFile(readFileContext);
+        return outputStream.toByteArray();
+    }
+
+    private byte[] createContent(int size, int seed) {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+}
@@ -0,0 +1,355 @@
+package com.wuaro.pan.storage.engine.local.test;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.storage.engine.core.context.*;
+import com.wuaro.pan.storage.engine.local.LocalStorageEngine;
+import com.wuaro.pan.storage.engine.local.config.LocalStorageEngineConfig;
+import com.wuaro.pan.storage.engine.local.disk.LocalDiskSelector;
+import com.wuaro.pan.storage.engine.local.segment.SegmentStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 小文件打包存储的测试
+ * <p>
+ * 基准测试默认跳过，需要添加启动参数 -Drpan.benchmark=true 才会执行
+ */
+public class SegmentStoreTest {
+
+    private static final String BENCHMARK_SWITCH = "rpan.benchmark";
+
+    private File workDir;
+
+    private LocalStorageEngineConfig config;
+
+    private SegmentStore segmentStore;
+
+    @Before
+    public void before() throws IOException {
+        workDir = Files.createTempDirectory("rpan-segment").toFile();
+        config = new LocalStorageEngineConfig();
+        config.setRootFilePath(new File(workDir, "file").getAbsolutePath());
+        config.setRootFileChunkPath(new File(workDir, "chunk").getAbsolutePath());
+        config.setSegmentEnabled(Boolean.TRUE);
+        config.setSegmentThreshold(2048L);
+        config.setSegmentMaxSize(16 * 1024L);
+    }
+
+    @After
+    public void after() throws IOException {
+        if (segmentStore != null) {
+            segmentStore.close();
+        }
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+    }
+
+    /**
+     * 测试小文件打包存储后可以完整读取和按区间读取，大文件仍然单独存储并且可以交给前置代理直接发送
+     */
+    @Test
+    public void testStoreSmallFileIntoSegment() throws IOException {
+        LocalStorageEngine engine = createEngine();
+        byte[] small = createContent(1000, 1);
+        byte[] large = createContent(5000, 2);
+
+        String smallPath = store(engine, small);
+        String largePath = store(engine, large);
+
+        Assert.assertTrue(SegmentStore.isSegmentPath(smallPath));
+        Assert.assertFalse(SegmentStore.isSegmentPath(largePath));
+        Assert.assertArrayEquals(small, read(engine, smallPath));
+        Assert.assertArrayEquals(large, read(engine, largePath));
+        Assert.assertNull(engine.getLocalFile(smallPath));
+        Assert.assertEquals(new File(largePath), engine.getLocalFile(largePath));
+        Assert.assertNull(engine.getLocalFile(largePath + ".missing"));
+
+        ByteArrayOutputStream rangeOutput = new ByteArrayOutputStream();
+        ReadFileRangeContext readFileRangeContext = new ReadFileRangeContext();
+        readFileRangeContext.setRealPath(smallPath);
+        readFileRangeContext.setOutputStream(rangeOutput);
+        readFileRangeContext.setOffset(100L);
+        readFileRangeContext.setLength(200L);
+        engine.realFileRange(readFileRangeContext);
+        Assert.assertArrayEquals(Arrays.copyOfRange(small, 100, 300), rangeOutput.toByteArray());
+    }
+
+    /**
+     * 测试删除之后整理段文件，回收空间并且剩余的对象仍然可以读取
+     */
+    @Test
+    public void testCompactReclaimDeletedSpace() throws IOException {
+        segmentStore = new SegmentStore(config, new LocalDiskSelector(config));
+        List<String> realPaths = Lists.newArrayList();
+        List<byte[]> contents = Lists.newArrayList();
+        for (int i = 0; i < 60; i++) {
+            byte[] content = createContent(1000, i);
+            realPaths.add(segmentStore.store(new ByteArrayInputStream(content), content.length));
+            contents.add(content);
+        }
+        File segmentFolder = new File(config.getRootFilePath(), "segments");
+        int segmentCount = segmentFolder.list().length;
+        Assert.assertTrue(segmentCount > 3);
+
+        for (int i = 0; i < 60; i++) {
+            if (i % 3 != 0) {
+                segmentStore.delete(realPaths.get(i));
+            }
+        }
+        Assert.assertTrue(segmentStore.compact() > 0);
+        Assert.assertTrue(segmentFolder.list().length < segmentCount);
+
+        for (int i = 0; i < 60; i++) {
+            if (i % 3 == 0) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                segmentStore.read(realPaths.get(i), outputStream);
+                Assert.assertArrayEquals(contents.get(i), outputStream.toByteArray());
+            } else {
+                assertNotExist(segmentStore, realPaths.get(i));
+            }
+        }
+    }
+
+    /**
+     * 测试重启之后扫描段文件重建索引，已删除的对象不会恢复，末尾不完整的记录被截断
+     */
+    @Test
+    public void testReloadRebuildIndex() throws IOException {
+        segmentStore = new SegmentStore(config, new LocalDiskSelector(config));
+        byte[] kept = createContent(1500, 1);
+        byte[] deleted = createContent(1500, 2);
+        String keptPath = segmentStore.store(new ByteArrayInputStream(kept), kept.length);
+        String deletedPath = segmentStore.store(new ByteArrayInputStream(deleted), deleted.length);
+        segmentStore.delete(deletedPath);
+        segmentStore.close();
+
+        File segmentFile = new File(keptPath.substring(0, keptPath.lastIndexOf("?key=")));
+        long validSize = segmentFile.length();
+        Files.write(segmentFile.toPath(), new byte[]{0x52, 0x50, 0x4E}, StandardOpenOption.APPEND);
+
+        segmentStore = new SegmentStore(config, new LocalDiskSelector(config));
+        Assert.assertEquals(validSize, segmentFile.length());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        segmentStore.read(keptPath, outputStream);
+        Assert.assertArrayEquals(kept, outputStream.toByteArray());
+        assertNotExist(segmentStore, deletedPath);
+
+        byte[] appended = createContent(100, 3);
+        String appendedPath = segmentStore.store(new ByteArrayInputStream(appended), appended.length);
+        outputStream = new ByteArrayOutputStream();
+        segmentStore.read(appendedPath, outputStream);
+        Assert.assertArrayEquals(appended, outputStream.toByteArray());
+    }
+
+    /**
+     * 测试输入流的长度不足时写入失败，并且不影响后续的写入
+     */
+    @Test
+    public void testIncompleteStreamRollback() throws IOException {
+        segmentStore = new SegmentStore(config, new LocalDiskSelector(config));
+        try {
+            segmentStore.store(new ByteArrayInputStream(new byte[10]), 100);
+            Assert.fail();
+        } catch (RPanFrameworkException e) {
+            // expected
+        }
+        byte[] content = createContent(100, 1);
+        String realPath = segmentStore.store(new ByteArrayInputStream(content), content.length);
+        Assert.assertTrue(realPath.endsWith("&offset=48&length=100"));
+    }
+
+    /**
+     * 测试慢速客户端的输入流还没有读完时，同一块磁盘上的其他对象可以正常写入
+     */
+    @Test
+    public void testSlowClientDoesNotBlockOtherAppends() throws Exception {
+        segmentStore = new SegmentStore(config, new LocalDiskSelector(config));
+        byte[] slowContent = createContent(1000, 1);
+        CountDownLatch firstHalfRead = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        InputStream slowInputStream = new SequenceInputStream(new ByteArrayInputStream(slowContent, 0, 500), new InputStream() {
+
+            private final InputStream delegate = new ByteArrayInputStream(slowContent, 500, 500);
+
+            @Override
+            public int read() throws IOException {
+                await();
+                return delegate.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                await();
+                return delegate.read(b, off, len);
+            }
+
+            private void await() throws IOException {
+                firstHalfRead.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+
+        });
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> slowFuture = executorService.submit(() -> segmentStore.store(slowInputStream, slowContent.length));
+            Assert.assertTrue(firstHalfRead.await(10, TimeUnit.SECONDS));
+
+            byte[] content = createContent(800, 2);
+            String realPath = segmentStore.store(new ByteArrayInputStream(content), content.length);
+            resume.countDown();
+            String slowRealPath = slowFuture.get(10, TimeUnit.SECONDS);
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            segmentStore.read(realPath, outputStream);
+            Assert.assertArrayEquals(content, outputStream.toByteArray());
+            outputStream = new ByteArrayOutputStream();
+            segmentStore.read(slowRealPath, outputStream);
+            Assert.assertArrayEquals(slowContent, outputStream.toByteArray());
+        } finally {
+            resume.countDown();
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * 测试最后一个分片打包存储时，合并后的文件内容完整并且分片被删除
+     */
+    @Test
+    public void testMergeWithSegmentChunk() throws IOException {
+        LocalStorageEngine engine = createEngine();
+        byte[] content = createContent(10000, 1);
+        List<String> chunkPaths = Lists.newArrayList();
+        for (int chunkNumber = 1; chunkNumber <= 3; chunkNumber++) {
+            int from = (chunkNumber - 1) * 4096;
+            int to = Math.min(content.length, chunkNumber * 4096);
+            StoreFileChunkContext storeFileChunkContext = new StoreFileChunkContext();
+            storeFileChunkContext.setFilename("test.txt");
+            storeFileChunkContext.setIdentifier("identifier");
+            storeFileChunkContext.setUserId(1L);
+            storeFileChunkContext.setTotalChunks(3);
+            storeFileChunkContext.setChunkNumber(chunkNumber);
+            storeFileChunkContext.setCurrentChunkSize((long) (to - from));
+            storeFileChunkContext.setTotalSize((long) content.length);
+            storeFileChunkContext.setInputStream(new ByteArrayInputStream(content, from, to - from));
+            engine.storeChunk(storeFileChunkContext);
+            chunkPaths.add(storeFileChunkContext.getRealPath());
+        }
+        Assert.assertTrue(SegmentStore.isSegmentPath(chunkPaths.get(2)));
+
+        MergeFileContext mergeFileContext = new MergeFileContext();
+        mergeFileContext.setFilename("test.txt");
+        mergeFileContext.setIdentifier("identifier");
+        mergeFileContext.setUserId(1L);
+        mergeFileContext.setTotalSize((long) content.length);
+        mergeFileContext.setRealPathList(chunkPaths);
+        engine.mergeFile(mergeFileContext);
+
+        Assert.assertArrayEquals(content, Files.readAllBytes(new File(mergeFileContext.getRealPath()).toPath()));
+        Assert.assertFalse(new File(chunkPaths.get(0)).exists());
+        assertNotExist((SegmentStore) ReflectionTestUtils.getField(engine, "segmentStore"), chunkPaths.get(2));
+    }
+
+    /**
+     * 20000 个 4KB 小文件单独存储与打包存储的耗时以及创建的文件数对比
+     */
+    @Test
+    public void benchmarkSmallFileStore() throws IOException {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_SWITCH));
+
+        int count = 20000;
+        byte[] content = createContent(4096, 1);
+        config.setSegmentThreshold(64 * 1024L);
+        config.setSegmentMaxSize(256 * 1024 * 1024L);
+
+        config.setSegmentEnabled(Boolean.FALSE);
+        LocalStorageEngine fileEngine = createEngine();
+        long fileStart = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            store(fileEngine, content);
+        }
+        long fileCost = System.currentTimeMillis() - fileStart;
+        long fileCount = countFiles(new File(config.getRootFilePath()));
+        org.apache.commons.io.FileUtils.deleteDirectory(new File(config.getRootFilePath()));
+
+        config.setSegmentEnabled(Boolean.TRUE);
+        LocalStorageEngine segmentEngine = createEngine();
+        long segmentStart = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            store(segmentEngine, content);
+        }
+        long segmentCost = System.currentTimeMillis() - segmentStart;
+        long segmentFileCount = countFiles(new File(config.getRootFilePath()));
+
+        System.out.println(String.format("one file per object: %d ms, %d files", fileCost, fileCount));
+        System.out.println(String.format("packed segment store: %d ms, %d files", segmentCost, segmentFileCount));
+    }
+
+    /*****************************************private*****************************************/
+
+    private LocalStorageEngine createEngine() throws IOException {
+        LocalDiskSelector diskSelector = new LocalDiskSelector(config);
+        if (segmentStore != null) {
+            segmentStore.close();
+        }
+        segmentStore = new SegmentStore(config, diskSelector);
+        return LocalStorageEngineTestSupport.createEngine(new LocalStorageEngine(), config, diskSelector, segmentStore, null);
+    }
+
+    private String store(LocalStorageEngine engine, byte[] content) throws IOException {
+        StoreFileContext storeFileContext = new StoreFileContext();
+        storeFileContext.setFilename("test.txt");
+        storeFileContext.setTotalSize((long) content.length);
+        storeFileContext.setInputStream(new ByteArrayInputStream(content));
+        engine.store(storeFileContext);
+        return storeFileContext.getRealPath();
+    }
+
+    private byte[] read(LocalStorageEngine engine, String realPath) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReadFileContext readFileContext = new ReadFileContext();
+        readFileContext.setRealPath(realPath);
+        readFileContext.setOutputStream(outputStream);
+        engine.realFile(readFileContext);
+        return outputStream.toByteArray();
+    }
+
+    private void assertNotExist(SegmentStore store, String realPath) throws IOException {
+        try {
+            store.read(realPath, new ByteArrayOutputStream());
+            Assert.fail();
+        } catch (RPanFrameworkException e) {
+            // expected
+        }
+    }
+
+    private long countFiles(File folder) throws IOException {
+        return Files.walk(folder.toPath()).filter(Files::isRegularFile).count();
+    }
+
+    private byte[] createContent(int size, int seed) {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+}
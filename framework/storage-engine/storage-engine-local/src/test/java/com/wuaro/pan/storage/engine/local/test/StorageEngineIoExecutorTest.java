@@ -0,0 +1,141 @@
+package com.wuaro.pan.storage.engine.local.test;
+
+import com.wuaro.pan.storage.engine.core.async.IoFuture;
+import com.wuaro.pan.storage.engine.core.async.StorageEngineIoExecutor;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 存储引擎有界IO线程池的测试
+ */
+public class StorageEngineIoExecutorTest {
+
+    private ThreadPoolTaskExecutor taskExecutor;
+
+    private StorageEngineIoExecutor ioExecutor;
+
+    @Before
+    public void before() {
+        taskExecutor = new ThreadPoolTaskExecutor();
+        taskExecutor.setCorePoolSize(1);
+        taskExecutor.setMaxPoolSize(1);
+        taskExecutor.setQueueCapacity(1);
+        taskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        taskExecutor.initialize();
+        ioExecutor = new StorageEngineIoExecutor(taskExecutor);
+    }
+
+    @After
+    public void after() {
+        taskExecutor.shutdown();
+    }
+
+    /**
+     * 测试任务的返回值作为异步结果
+     */
+    @Test
+    public void testResult() throws Exception {
+        Assert.assertEquals("done", ioExecutor.submit(() -> "done").get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1L, ioExecutor.getCompletedCount());
+        Assert.assertEquals(0L, ioExecutor.getFailedCount());
+    }
+
+    /**
+     * 测试任务抛出的异常原样作为异步结果的异常
+     */
+    @Test
+    public void testFailurePropagated() throws Exception {
+        try {
+            ioExecutor.submit(() -> {
+                throw new IOException("mock io failure");
+            }).get(10, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertEquals(1L, ioExecutor.getFailedCount());
+    }
+
+    /**
+     * 测试IO线程和队列都满了之后新的任务直接被拒绝，不会阻塞调用方
+     */
+    @Test
+    public void testRejectWhenFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> running = ioExecutor.submit(() -> {
+            started.countDown();
+            return release.await(10, TimeUnit.SECONDS);
+        });
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Object> queued = ioExecutor.submit(() -> Boolean.TRUE);
+
+        CompletableFuture<Object> rejected = ioExecutor.submit(() -> Boolean.TRUE);
+        Assert.assertTrue(rejected.isCompletedExceptionally());
+        try {
+            rejected.join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        Assert.assertEquals(1L, ioExecutor.getRejectedCount());
+
+        release.countDown();
+        Assert.assertEquals(Boolean.TRUE, running.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Boolean.TRUE, queued.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2L, ioExecutor.getSubmittedCount());
+    }
+
+    /**
+     * 测试取消还在排队的任务之后该任务不再执行
+     */
+    @Test
+    public void testCancelQueuedTask() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> running = ioExecutor.submit(() -> release.await(10, TimeUnit.SECONDS));
+        AtomicBoolean executed = new AtomicBoolean(false);
+        IoFuture<Boolean> queued = ioExecutor.submit(() -> executed.getAndSet(true));
+
+        Assert.assertTrue(queued.cancel(true));
+        Assert.assertTrue(queued.awaitExit(0, TimeUnit.SECONDS));
+        release.countDown();
+
+        Assert.assertTrue(running.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Boolean.TRUE, ioExecutor.submit(() -> Boolean.TRUE).get(10, TimeUnit.SECONDS));
+        Assert.assertFalse(executed.get());
+    }
+
+    /**
+     * 测试取消正在执行的任务时中断执行线程，任务退出之后执行线程的中断标记被清除
+     */
+    @Test
+    public void testCancelRunningTask() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+        IoFuture<Object> running = ioExecutor.submit(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+            return null;
+        });
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        Assert.assertTrue(running.cancel(true));
+        Assert.assertTrue(running.isCancelled());
+        Assert.assertTrue(running.awaitExit(10, TimeUnit.SECONDS));
+
+        Assert.assertTrue(interrupted.get());
+        Assert.assertEquals("done", ioExecutor.submit(() -> Thread.currentThread().isInterrupted() ? "interrupted" : "done").get(10, TimeUnit.SECONDS));
+    }
+
+}
@@ -2,36 +2,70 @@ package com.wuaro.pan.storage.engine.oss;
 
 import cn.hutool.core.date.DateUtil;
 import com.alibaba.fastjson.JSONObject;
+import com.aliyun.oss.HttpMethod;
 import com.aliyun.oss.OSSClient;
+import com.aliyun.oss.OSSException;
 import com.aliyun.oss.model.*;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.Striped;
 import com.wuaro.pan.core.constants.RPanConstants;
 import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.core.utils.BufferPool;
 import com.wuaro.pan.core.utils.FileUtils;
 import com.wuaro.pan.core.utils.UUIDUtil;
 //import com.wuaro.pan.lock.core.annotation.Lock;
 import com.wuaro.pan.storage.engine.core.AbstractStorageEngine;
 import com.wuaro.pan.storage.engine.core.context.*;
+import com.wuaro.pan.storage.engine.core.direct.DirectTransferStorageEngine;
 import com.wuaro.pan.storage.engine.oss.config.OssStorageEngineConfig;
 import lombok.*;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.io.Serializable;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
  * 对接阿里云OSS的文件存储引擎实现方案
  */
 @Component
-public class OSSStorageEngine extends AbstractStorageEngine {
+@Slf4j
+public class OSSStorageEngine extends AbstractStorageEngine implements DirectTransferStorageEngine {
 
     private static final Integer TEN_THOUSAND_INT = 10000;
 
@@ -51,22 +85,98 @@ public class OSSStorageEngine extends AbstractStorageEngine {
 
     private static final String PART_CRC_KEY = "partCRC";
 
+    private static final String NO_SUCH_UPLOAD_ERROR_CODE = "NoSuchUpload";
+
+    private static final String CONTENT_MD5_HEADER = "Content-MD5";
+
+    private static final String CONTENT_TYPE_HEADER = "Content-Type";
+
+    /**
+     * 直传时签入上传地址的Content-Type
+     * Content-Type参与签名，浏览器上传时通常会自动带上Content-Type，不固定下来签名就对不上
+     */
+    private static final String DIRECT_UPLOAD_CONTENT_TYPE = "application/octet-stream";
+
+    private static final String CONTENT_RANGE_HEADER = "Content-Range";
+
+    /**
+     * 分片上传重试的等待时间最多翻倍的次数，避免左移溢出
+     */
+    private static final int MAX_BACKOFF_SHIFT = 20;
+
+    /**
+     * 并行区间下载时每次从连接上读取的字节数，每读一次检查一次下载是否已经终止
+     */
+    private static final int READ_STEP_SIZE = 64 * 1024;
+
+    private static final String ATTACHMENT_DISPOSITION_TYPE = "attachment";
+
+    private static final String INLINE_DISPOSITION_TYPE = "inline";
+
+    private static final Pattern MD5_HEX_PATTERN = Pattern.compile("^[0-9a-fA-F]{32}$");
+
+    private static final Integer INIT_CHUNK_UPLOAD_LOCK_STRIPES = 256;
+
+    /**
+     * OSS单次批量删除请求最多支持的Object数量
+     */
+    private static final Integer DELETE_OBJECTS_BATCH_SIZE = 1000;
+
+    /**
+     * 并行分片上传内存预算中每个许可代表的字节数
+     */
+    private static final long BUFFER_PERMIT_BYTES = 1024L;
+
+    /**
+     * 初始化文件分片上传的分段锁，同一个缓存key总是映射到同一把锁上
+     */
+    private final Striped<Lock> initChunkUploadLocks = Striped.lazyWeakLock(INIT_CHUNK_UPLOAD_LOCK_STRIPES);
+
+    /**
+     * 并行分片上传的全局内存预算，每个许可代表1KB，所有文件同时缓存在内存中的分片总大小不超过配置的上限
+     */
+    private volatile Semaphore multipartUploadBufferPermits;
+
     @Autowired
     private OssStorageEngineConfig config;
 
     @Autowired
     private OSSClient client;
 
+    @Autowired
+    @Qualifier(value = "ossMultipartUploadTaskExecutor")
+    private ThreadPoolTaskExecutor multipartUploadTaskExecutor;
+
+    @Autowired
+    @Qualifier(value = "ossParallelReadTaskExecutor")
+    private ThreadPoolTaskExecutor parallelReadTaskExecutor;
+
+    /**
+     * OSS存储引擎的名称
+     *
+     * @return
+     */
+    @Override
+    public String getEngineName() {
+        return "oss";
+    }
+
     /**
      * 执行保存物理文件的动作
      * 下沉到具体的子类去实现
+     * <p>
+     * 文件大小超过配置的阈值时，拆分成多个分片并行上传，否则直接上传整个文件
      *
      * @param context
      */
     @Override
     protected void doStore(StoreFileContext context) throws IOException {
         String realPath = getFilePath(FileUtils.getFileSuffix(context.getFilename()));
-        client.putObject(config.getBucketName(), realPath, context.getInputStream());
+        if (Objects.nonNull(context.getTotalSize()) && context.getTotalSize() > config.getMultipartUploadThreshold()) {
+            doMultipartStore(realPath, context.getInputStream(), context.getTotalSize());
+        } else {
+            client.putObject(config.getBucketName(), realPath, context.getInputStream());
+        }
         context.setRealPath(realPath);
     }
 
@@ -75,8 +185,9 @@ public class OSSStorageEngine extends AbstractStorageEngine {
      * 下沉到子类去实现
      * <p>
      * 1、获取所有需要删除的文件存储路径
-     * 2、如果该存储路径是一个文件分片的路径，截取出对应的Object的name，然后取消文件分片的操作
-     * 3、如果是一个正常的文件存储路径，直接执行物理删除即可
+     * 2、如果该存储路径是一个文件分片的路径，截取出对应的Object的name，然后取消文件分片的操作，同一个uploadId只取消一次
+     * 3、如果是一个正常的文件存储路径，每1000个路径合并成一次批量删除请求
+     * 4、每个路径单独记录删除结果，删除失败的路径回填到上下文中，不影响其余路径的删除
      *
      * @param context
      * @throws IOException
@@ -84,33 +195,26 @@ public class OSSStorageEngine extends AbstractStorageEngine {
     @Override
     protected void doDelete(DeleteFileContext context) throws IOException {
         List<String> realFilePathList = context.getRealFilePathList();
-        realFilePathList.stream().forEach(realPath -> {
-
-            // 文件分片的存储路径
-            if (checkHaveParams(realPath)) {
-                JSONObject params = analysisUrlParams(realPath);
-                if (Objects.nonNull(params) && !params.isEmpty()) {
-                    String uploadId = params.getString(UPLOAD_ID_KEY);
-                    String identifier = params.getString(IDENTIFIER_KEY);
-                    Long userId = params.getLong(USER_ID_KEY);
-                    String cacheKey = getCacheKey(identifier, userId);
-
-                    getCache().evict(cacheKey);
-
-                    try {
-                        AbortMultipartUploadRequest request = new AbortMultipartUploadRequest(config.getBucketName(), getBaseUrl(realPath), uploadId);
-                        client.abortMultipartUpload(request);
-                    } catch (Exception e) {
+        if (CollectionUtils.isEmpty(realFilePathList)) {
+            return;
+        }
+        List<String> failedRealFilePathList = context.getFailedRealFilePathList();
 
-                    }
-                }
-            }
-            // 普通文件的物理删除
-            else {
-                client.deleteObject(config.getBucketName(), realPath);
+        // 文件分片的存储路径
+        Map<String, List<String>> chunkPathGroups = realFilePathList.stream()
+                .filter(this::checkHaveParams)
+                .collect(Collectors.groupingBy(realPath -> StringUtils.defaultString(analysisUrlParams(realPath).getString(UPLOAD_ID_KEY)), LinkedHashMap::new, Collectors.toList()));
+        chunkPathGroups.forEach((uploadId, chunkPaths) -> {
+            if (!abortChunkUpload(chunkPaths.get(0))) {
+                failedRealFilePathList.addAll(chunkPaths);
             }
-
         });
+
+        // 普通文件的物理删除
+        List<String> objectKeys = realFilePathList.stream()
+                .filter(realPath -> !checkHaveParams(realPath))
+                .collect(Collectors.toList());
+        Lists.partition(objectKeys, DELETE_OBJECTS_BATCH_SIZE).forEach(batch -> failedRealFilePathList.addAll(deleteObjects(batch)));
     }
 
     /**
@@ -129,6 +233,7 @@ public class OSSStorageEngine extends AbstractStorageEngine {
      * <p>
      * 解决方案：
      * 1、加锁，我们目前首先按照单体架构去考虑，使用JVM的锁去保证一个线程初始化文件分片上传，如果后续扩展成分布式的架构，需更换分布式锁
+     * 锁只按照缓存key加在初始化的动作上，分片本身的上传不加锁，不同文件以及同一文件的不同分片都可以并行上传
      * 2、使用缓存，缓存分为本地缓存以及分布式缓存（比如Redis），我们由于当前是一个单体架构，可以考虑使用本地缓存，但是，后期的项目额度分布式架构
      * 升级之后，同样要升级我们的缓存为分布式缓存，与其后期升级，我们还是第一版本就支持分布式缓存比较好
      * 3、我们要想把每一个文件的Key都能够通过文件的url来获取，就需要定义一种数据格式，支持我们添加附件数据，并且可以很方便的解析出来，我们的实现方案，可以参考
@@ -138,7 +243,7 @@ public class OSSStorageEngine extends AbstractStorageEngine {
      * 1、校验文件分片数不得大于10000
      * 2、获取缓存key
      * 3、通过缓存key获取初始化后的实体对象，获取全局的uploadId和ObjectName
-     * 4、如果获取为空，直接初始化
+     * 4、如果获取为空，加上该缓存key对应的锁之后再检查一次，仍然为空才初始化
      * 5、执行文件分片上传的操作
      * 6、上传完成后，将全局的参数封装成一个可识别的url，保存在上下文里面，用于业务的落库操作
      *
@@ -147,7 +252,7 @@ public class OSSStorageEngine extends AbstractStorageEngine {
      */
     //@Lock(name = "ossDoStoreChunkLock", keys = {"#context.userId", "#context.identifier"}, expireSecond = 10L)
     @Override
-    protected synchronized void doStoreChunk(StoreFileChunkContext context) throws IOException {
+    protected void doStoreChunk(StoreFileChunkContext context) throws IOException {
 
         if (context.getTotalChunks() > TEN_THOUSAND_INT) {
             throw new RPanFrameworkException("分片数超过了限制，分片数不得大于： " + TEN_THOUSAND_INT);
@@ -155,11 +260,7 @@ public class OSSStorageEngine extends AbstractStorageEngine {
 
         String cacheKey = getCacheKey(context.getIdentifier(), context.getUserId());
 
-        ChunkUploadEntity entity = getCache().get(cacheKey, ChunkUploadEntity.class);
-
-        if (Objects.isNull(entity)) {
-            entity = initChunkUpload(context.getFilename(), cacheKey);
-        }
+        ChunkUploadEntity entity = getOrInitChunkUpload(context.getFilename(), cacheKey);
 
         UploadPartRequest request = new UploadPartRequest();
         request.setBucketName(config.getBucketName());
@@ -244,20 +345,653 @@ public class OSSStorageEngine extends AbstractStorageEngine {
     /**
      * 读取文件内容并写入到输出流中
      * 下沉到子类去实现
+     * <p>
+     * 不再单独请求对象的元数据，直接用Range GetObject拉取第一个区间，从响应的Content-Range中得到文件的总大小：
+     * 1、文件不超过一个区间时，第一个区间就是整个文件
+     * 2、文件不超过配置的阈值时，写完第一个区间之后再用单个流顺序读取剩余的内容
+     * 3、文件超过配置的阈值时，第一个区间作为预读窗口的第一个区间，并发拉取其余的区间再按顺序写入输出流
      *
      * @param context
      */
     @Override
     protected void doReadFile(ReadFileContext context) throws IOException {
-        OSSObject ossObject = client.getObject(config.getBucketName(), context.getRealPath());
+        String objectKey = context.getRealPath();
+        OutputStream outputStream = context.getOutputStream();
+        long partSize = config.getParallelReadPartSize();
+        OSSObject firstPart = getObjectRange(objectKey, RPanConstants.ZERO_LONG, partSize - RPanConstants.ONE_INT);
+        long contentLength = getTotalLength(firstPart);
+        if (contentLength <= partSize) {
+            FileUtils.writeStream2StreamNormal(firstPart.getObjectContent(), outputStream);
+            return;
+        }
+        if (contentLength <= config.getParallelReadThreshold()) {
+            FileUtils.writeStream2StreamWithoutCloseOutput(firstPart.getObjectContent(), outputStream);
+            OSSObject remaining = getObjectRange(objectKey, partSize, contentLength - RPanConstants.ONE_INT);
+            FileUtils.writeStream2StreamNormal(remaining.getObjectContent(), outputStream);
+            return;
+        }
+        doParallelReadFile(objectKey, firstPart, contentLength, outputStream);
+    }
+
+    /**
+     * 读取文件指定区间的内容并写入到输出流中
+     * 使用OSS的Range GetObject，只拉取需要的字节区间
+     *
+     * @param context
+     */
+    @Override
+    protected void doReadFileRange(ReadFileRangeContext context) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(config.getBucketName(), context.getRealPath());
+        request.setRange(context.getOffset(), context.getOffset() + context.getLength() - RPanConstants.ONE_INT);
+        OSSObject ossObject = client.getObject(request);
         if (Objects.isNull(ossObject)) {
             throw new RPanFrameworkException("文件读取失败，文件的名称为：" + context.getRealPath());
         }
-        FileUtils.writeStream2StreamNormal(ossObject.getObjectContent(), context.getOutputStream());
+        FileUtils.writeStream2StreamWithoutCloseOutput(ossObject.getObjectContent(), context.getOutputStream());
+    }
+
+    /**
+     * 初始化客户端直传
+     * <p>
+     * 1、生成对象的名称
+     * 2、文件大小超过分片上传的阈值时初始化分片上传，分片大小与服务端分片上传的规则一致
+     * 3、生成所有的预签名上传地址
+     *
+     * @param context
+     */
+    @Override
+    public void initDirectUpload(InitDirectUploadContext context) {
+        String realPath = getFilePath(FileUtils.getFileSuffix(context.getFilename()));
+        context.setRealPath(realPath);
+        if (context.getTotalSize() > config.getMultipartUploadThreshold()) {
+            InitiateMultipartUploadResult result = client.initiateMultipartUpload(new InitiateMultipartUploadRequest(config.getBucketName(), realPath));
+            if (Objects.isNull(result)) {
+                throw new RPanFrameworkException("文件分片上传初始化失败");
+            }
+            context.setUploadId(result.getUploadId());
+            context.setPartSize(getPartSize(context.getTotalSize()));
+        } else {
+            context.setUploadId(null);
+            context.setPartSize(context.getTotalSize());
+        }
+        presignUploadUrls(context);
+    }
+
+    /**
+     * 生成预签名的上传地址
+     * <p>
+     * 整个文件一次直传时生成一个PUT地址，文件唯一标识是合法的md5时把它作为Content-MD5签入地址，
+     * 由OSS校验上传的内容；分片直传时为每一个分片生成带有uploadId和分片编号的PUT地址
+     * <p>
+     * 所有地址都签入固定的Content-Type，客户端上传时必须按照返回的请求头携带同样的Content-Type
+     *
+     * @param context
+     */
+    @Override
+    public void presignUploadUrls(InitDirectUploadContext context) {
+        Date expiration = getPresignExpiration();
+        List<String> uploadUrlList = Lists.newArrayList();
+        Map<String, String> uploadHeaders = new LinkedHashMap<>();
+        if (StringUtils.isBlank(context.getUploadId())) {
+            GeneratePresignedUrlRequest request = new GeneratePresignedUrlRequest(config.getBucketName(), context.getRealPath(), HttpMethod.PUT);
+            request.setExpiration(expiration);
+            request.setContentType(DIRECT_UPLOAD_CONTENT_TYPE);
+            String contentMD5 = toContentMD5(context.getIdentifier());
+            if (Objects.nonNull(contentMD5)) {
+                request.setContentMD5(contentMD5);
+                uploadHeaders.put(CONTENT_MD5_HEADER, contentMD5);
+            }
+            uploadUrlList.add(client.generatePresignedUrl(request).toString());
+            context.setContentVerified(Objects.nonNull(contentMD5));
+        } else {
+            long partCount = getPartCount(context.getTotalSize(), context.getPartSize());
+            for (int partNumber = RPanConstants.ONE_INT; partNumber <= partCount; partNumber++) {
+                GeneratePresignedUrlRequest request = new GeneratePresignedUrlRequest(config.getBucketName(), context.getRealPath(), HttpMethod.PUT);
+                request.setExpiration(expiration);
+                request.setContentType(DIRECT_UPLOAD_CONTENT_TYPE);
+                request.addQueryParameter(PART_NUMBER_KEY, String.valueOf(partNumber));
+                request.addQueryParameter(UPLOAD_ID_KEY, context.getUploadId());
+                uploadUrlList.add(client.generatePresignedUrl(request).toString());
+            }
+            context.setContentVerified(Boolean.FALSE);
+        }
+        uploadHeaders.put(CONTENT_TYPE_HEADER, DIRECT_UPLOAD_CONTENT_TYPE);
+        context.setUploadUrlList(uploadUrlList);
+        context.setUploadHeaders(uploadHeaders);
+        context.setExpireTime(expiration);
+    }
+
+    /**
+     * 确认客户端直传完成
+     * <p>
+     * 1、整个文件一次直传时，对象的大小必须与文件大小一致，不一致时删除对象
+     * 2、分片直传时，列出OSS中已经上传的分片，分片编号必须连续、除最后一个分片外大小都等于分片大小，并且总大小与文件大小一致，
+     * 满足条件之后使用OSS返回的ETag合并分片，不依赖客户端上报的分片信息
+     *
+     * @param context
+     */
+    @Override
+    public void completeDirectUpload(CompleteDirectUploadContext context) {
+        if (StringUtils.isBlank(context.getUploadId())) {
+            long contentLength = getUploadedObjectLength(context.getRealPath());
+            if (contentLength != context.getTotalSize()) {
+                deleteObjects(Collections.singletonList(context.getRealPath()));
+                throw new RPanFrameworkException("文件大小校验失败，期望：" + context.getTotalSize() + "，实际：" + contentLength);
+            }
+            return;
+        }
+        List<PartSummary> parts = listUploadedParts(context.getRealPath(), context.getUploadId());
+        long partCount = getPartCount(context.getTotalSize(), context.getPartSize());
+        if (parts.size() != partCount) {
+            throw new RPanFrameworkException("文件还没有上传完成，已上传的分片数：" + parts.size() + "，总分片数：" + partCount);
+        }
+        List<PartETag> partETags = Lists.newArrayList();
+        long uploadedSize = RPanConstants.ZERO_LONG;
+        for (int i = RPanConstants.ZERO_INT; i < parts.size(); i++) {
+            PartSummary part = parts.get(i);
+            boolean lastPart = i == parts.size() - RPanConstants.ONE_INT;
+            if (part.getPartNumber() != i + RPanConstants.ONE_INT || (!lastPart && part.getSize() != context.getPartSize())) {
+                throw new RPanFrameworkException("文件分片校验失败，分片编号为：" + part.getPartNumber());
+            }
+            uploadedSize += part.getSize();
+            partETags.add(new PartETag(part.getPartNumber(), part.getETag()));
+        }
+        if (uploadedSize != context.getTotalSize()) {
+            throw new RPanFrameworkException("文件大小校验失败，期望：" + context.getTotalSize() + "，实际：" + uploadedSize);
+        }
+        CompleteMultipartUploadResult result = client.completeMultipartUpload(
+                new CompleteMultipartUploadRequest(config.getBucketName(), context.getRealPath(), context.getUploadId(), partETags));
+        if (Objects.isNull(result)) {
+            throw new RPanFrameworkException("文件分片合并失败");
+        }
+    }
+
+    /**
+     * 取消客户端直传
+     * 分片直传时取消分片上传，否则删除可能已经上传的对象
+     *
+     * @param context
+     */
+    @Override
+    public void abortDirectUpload(CompleteDirectUploadContext context) {
+        if (StringUtils.isBlank(context.getUploadId())) {
+            deleteObjects(Collections.singletonList(context.getRealPath()));
+            return;
+        }
+        try {
+            client.abortMultipartUpload(new AbortMultipartUploadRequest(config.getBucketName(), context.getRealPath(), context.getUploadId()));
+        } catch (OSSException e) {
+            if (!NO_SUCH_UPLOAD_ERROR_CODE.equals(e.getErrorCode())) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 生成预签名的下载地址
+     * 通过响应头覆盖参数指定下载的文件名称和Content-Type，文件名称按照RFC 5987编码
+     *
+     * @param context
+     */
+    @Override
+    public void presignDownload(PresignDownloadContext context) throws IOException {
+        Date expiration = getPresignExpiration();
+        GeneratePresignedUrlRequest request = new GeneratePresignedUrlRequest(config.getBucketName(), context.getRealPath(), HttpMethod.GET);
+        request.setExpiration(expiration);
+        ResponseHeaderOverrides responseHeaders = new ResponseHeaderOverrides();
+        String dispositionType = Boolean.FALSE.equals(context.getAttachment()) ? INLINE_DISPOSITION_TYPE : ATTACHMENT_DISPOSITION_TYPE;
+        if (StringUtils.isNotBlank(context.getFilename())) {
+            String encodedFilename = URLEncoder.encode(context.getFilename(), StandardCharsets.UTF_8.name()).replace("+", "%20");
+            responseHeaders.setContentDisposition(dispositionType + ";filename*=UTF-8''" + encodedFilename);
+        } else {
+            responseHeaders.setContentDisposition(dispositionType);
+        }
+        if (StringUtils.isNotBlank(context.getContentType())) {
+            responseHeaders.setContentType(context.getContentType());
+        }
+        request.setResponseHeaders(responseHeaders);
+        context.setUrl(client.generatePresignedUrl(request).toString());
+        context.setExpireTime(expiration);
     }
 
     /*****************************************private*****************************************/
 
+    /**
+     * 计算分片上传的分片大小
+     * 分片大小取配置值，文件过大时放大分片保证分片数不超过10000
+     *
+     * @param totalSize
+     * @return
+     */
+    private long getPartSize(long totalSize) {
+        long minPartSize = (totalSize + TEN_THOUSAND_INT - 1) / TEN_THOUSAND_INT;
+        return Math.max(config.getMultipartUploadPartSize(), minPartSize);
+    }
+
+    private long getPartCount(long totalSize, long partSize) {
+        return Math.max((totalSize + partSize - 1) / partSize, RPanConstants.ONE_INT);
+    }
+
+    private Date getPresignExpiration() {
+        return new Date(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(config.getPresignExpireSeconds()));
+    }
+
+    /**
+     * 把十六进制的md5转换成Content-MD5请求头需要的Base64格式
+     *
+     * @param identifier
+     * @return 不是合法的md5时返回null
+     */
+    private String toContentMD5(String identifier) {
+        if (StringUtils.isBlank(identifier) || !MD5_HEX_PATTERN.matcher(identifier).matches()) {
+            return null;
+        }
+        byte[] digest = BaseEncoding.base16().decode(identifier.toUpperCase());
+        return Base64.getEncoder().encodeToString(digest);
+    }
+
+    /**
+     * 获取客户端已经上传的对象大小
+     *
+     * @param objectKey
+     * @return
+     */
+    private long getUploadedObjectLength(String objectKey) {
+        try {
+            return client.getObjectMetadata(config.getBucketName(), objectKey).getContentLength();
+        } catch (OSSException e) {
+            throw new RPanFrameworkException("文件还没有上传完成");
+        }
+    }
+
+    /**
+     * 列出分片上传中已经上传的所有分片，按分片编号排序
+     *
+     * @param objectKey
+     * @param uploadId
+     * @return
+     */
+    private List<PartSummary> listUploadedParts(String objectKey, String uploadId) {
+        List<PartSummary> parts = Lists.newArrayList();
+        ListPartsRequest request = new ListPartsRequest(config.getBucketName(), objectKey, uploadId);
+        PartListing partListing;
+        do {
+            partListing = client.listParts(request);
+            parts.addAll(partListing.getParts());
+            request.setPartNumberMarker(partListing.getNextPartNumberMarker());
+        } while (partListing.isTruncated());
+        parts.sort(Comparator.comparingInt(PartSummary::getPartNumber));
+        return parts;
+    }
+
+    /**
+     * 并行分片上传整个文件
+     * <p>
+     * 1、初始化分片上传，分片大小取配置值，文件过大时放大分片保证分片数不超过10000
+     * 2、顺序读取输入流，每读满一个分片就提交到线程池上传，单个文件最多同时持有并发数个分片，分片内容使用缓冲区池中的缓冲区，上传完成后归还
+     * 3、读取分片之前先从全局内存预算中申请分片大小的许可，上传完成后归还，所有文件的分片缓存总量不超过配置的上限
+     * 4、单个分片上传失败时只重试该分片
+     * 5、所有分片上传完成后合并，任何一个分片最终失败都会取消整个分片上传
+     *
+     * @param objectKey
+     * @param inputStream
+     * @param totalSize
+     * @throws IOException
+     */
+    private void doMultipartStore(String objectKey, InputStream inputStream, long totalSize) throws IOException {
+        InitiateMultipartUploadResult initResult = client.initiateMultipartUpload(new InitiateMultipartUploadRequest(config.getBucketName(), objectKey));
+        if (Objects.isNull(initResult)) {
+            throw new RPanFrameworkException("文件分片上传初始化失败");
+        }
+        String uploadId = initResult.getUploadId();
+        int partSize = (int) getPartSize(totalSize);
+        Semaphore permits = new Semaphore(config.getMultipartUploadParallelism());
+        Semaphore bufferPermits = getMultipartUploadBufferPermits();
+        int partBufferPermits = toBufferPermits(partSize);
+        List<CompletableFuture<PartETag>> futures = Lists.newArrayList();
+
+        try (InputStream in = inputStream) {
+            int partNumber = RPanConstants.ONE_INT;
+            while (futures.stream().noneMatch(CompletableFuture::isCompletedExceptionally)) {
+                permits.acquire();
+                try {
+                    bufferPermits.acquire(partBufferPermits);
+                } catch (InterruptedException e) {
+                    permits.release();
+                    throw e;
+                }
+                PooledPart part = new PooledPart();
+                try {
+                    part.readFrom(in, partSize, () -> false);
+                } catch (IOException | RuntimeException e) {
+                    part.release();
+                    bufferPermits.release(partBufferPermits);
+                    permits.release();
+                    throw e;
+                }
+                if (part.getLength() == RPanConstants.ZERO_INT) {
+                    part.release();
+                    bufferPermits.release(partBufferPermits);
+                    permits.release();
+                    break;
+                }
+                int currentPartNumber = partNumber++;
+                futures.add(CompletableFuture
+                        .supplyAsync(() -> uploadPartWithRetry(objectKey, uploadId, currentPartNumber, part), multipartUploadTaskExecutor)
+                        .whenComplete((partETag, throwable) -> {
+                            part.release();
+                            bufferPermits.release(partBufferPermits);
+                            permits.release();
+                        }));
+            }
+            List<PartETag> partETags = futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+            CompleteMultipartUploadResult result = client.completeMultipartUpload(new CompleteMultipartUploadRequest(config.getBucketName(), objectKey, uploadId, partETags));
+            if (Objects.isNull(result)) {
+                throw new RPanFrameworkException("文件分片合并失败");
+            }
+        } catch (IOException e) {
+            abortMultipartUploadQuietly(objectKey, uploadId);
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortMultipartUploadQuietly(objectKey, uploadId);
+            throw new RPanFrameworkException("文件上传被中断", e);
+        } catch (CompletionException e) {
+            abortMultipartUploadQuietly(objectKey, uploadId);
+            throw new RPanFrameworkException("文件上传失败", Objects.isNull(e.getCause()) ? e : e.getCause());
+        } catch (RuntimeException e) {
+            abortMultipartUploadQuietly(objectKey, uploadId);
+            throw new RPanFrameworkException("文件上传失败", e);
+        }
+    }
+
+    /**
+     * 获取并行分片上传的全局内存预算，第一次使用时按照配置创建
+     *
+     * @return
+     */
+    private Semaphore getMultipartUploadBufferPermits() {
+        if (Objects.isNull(multipartUploadBufferPermits)) {
+            synchronized (this) {
+                if (Objects.isNull(multipartUploadBufferPermits)) {
+                    multipartUploadBufferPermits = new Semaphore(getMaxBufferPermits(), true);
+                }
+            }
+        }
+        return multipartUploadBufferPermits;
+    }
+
+    /**
+     * 计算一个分片需要申请的内存预算许可数
+     * 单个分片超过全局上限时只申请全部的许可，保证大分片也能上传，只是不能和其他分片同时占用内存
+     *
+     * @param partSize
+     * @return
+     */
+    private int toBufferPermits(int partSize) {
+        long partPermits = (partSize + BUFFER_PERMIT_BYTES - RPanConstants.ONE_INT) / BUFFER_PERMIT_BYTES;
+        return (int) Math.min(partPermits, getMaxBufferPermits());
+    }
+
+    private int getMaxBufferPermits() {
+        long maxPermits = Math.max(config.getMultipartUploadMaxBufferBytes() / BUFFER_PERMIT_BYTES, RPanConstants.ONE_INT);
+        return (int) Math.min(maxPermits, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 并行区间下载
+     * <p>
+     * 1、按照配置的区间大小把文件切分成多个区间，第一个区间使用已经发出的请求
+     * 2、先提交并发数个区间的下载任务作为预读窗口
+     * 3、按顺序等待窗口中最早的区间下载完成，写入输出流，然后补充提交下一个区间
+     * 4、同时在内存中的区间不超过并发数个，内存占用为 并发数 * 区间大小，区间内容使用缓冲区池中的缓冲区，写入输出流之后归还
+     * 5、任何一个区间失败或者写入输出流失败时终止本次下载：还没有开始的区间不再发起请求，
+     * 正在读取的区间停止读取并关闭连接，CompletableFuture的cancel不会中断已经在执行的任务
+     *
+     * @param objectKey
+     * @param firstPart
+     * @param contentLength
+     * @param outputStream
+     * @throws IOException
+     */
+    private void doParallelReadFile(String objectKey, OSSObject firstPart, long contentLength, OutputStream outputStream) throws IOException {
+        long partSize = config.getParallelReadPartSize();
+        long partCount = (contentLength + partSize - 1) / partSize;
+        ParallelReadState state = new ParallelReadState();
+        Deque<CompletableFuture<PooledPart>> window = new ArrayDeque<>();
+        window.addLast(CompletableFuture.supplyAsync(() -> readPartFromOSS(state, objectKey, firstPart, RPanConstants.ZERO_LONG, partSize - RPanConstants.ONE_INT), parallelReadTaskExecutor));
+        long nextPart = RPanConstants.ONE_INT;
+        try {
+            while (nextPart < partCount && window.size() < config.getParallelReadParallelism()) {
+                window.addLast(submitReadPart(state, objectKey, nextPart++, partSize, contentLength));
+            }
+            while (!window.isEmpty()) {
+                PooledPart part = window.pollFirst().join();
+                try {
+                    part.writeTo(outputStream);
+                } finally {
+                    part.release();
+                }
+                if (nextPart < partCount) {
+                    window.addLast(submitReadPart(state, objectKey, nextPart++, partSize, contentLength));
+                }
+            }
+            outputStream.flush();
+        } catch (CompletionException e) {
+            state.abort();
+            window.forEach(future -> future.thenAccept(PooledPart::release));
+            throw new RPanFrameworkException("文件读取失败，文件的名称为：" + objectKey, Objects.isNull(e.getCause()) ? e : e.getCause());
+        } catch (IOException | RuntimeException e) {
+            state.abort();
+            window.forEach(future -> future.thenAccept(PooledPart::release));
+            throw e;
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * 提交单个区间的下载任务
+     *
+     * @param state
+     * @param objectKey
+     * @param partIndex
+     * @param partSize
+     * @param contentLength
+     * @return
+     */
+    private CompletableFuture<PooledPart> submitReadPart(ParallelReadState state, String objectKey, long partIndex, long partSize, long contentLength) {
+        long start = partIndex * partSize;
+        long end = Math.min(start + partSize, contentLength) - RPanConstants.ONE_INT;
+        return CompletableFuture.supplyAsync(() -> readPartFromOSS(state, objectKey, null, start, end), parallelReadTaskExecutor);
+    }
+
+    /**
+     * 下载单个区间的全部内容
+     * 下载已经终止时不再发起请求；读取过程中每读一段检查一次，终止之后停止读取
+     *
+     * @param state
+     * @param objectKey
+     * @param ossObject 已经发出的区间请求，为空时发起新的Range GetObject请求
+     * @param start
+     * @param end
+     * @return
+     */
+    private PooledPart readPartFromOSS(ParallelReadState state, String objectKey, OSSObject ossObject, long start, long end) {
+        if (state.isAborted()) {
+            state.close(ossObject);
+            throw new RPanFrameworkException("文件读取已终止，文件的名称为：" + objectKey);
+        }
+        OSSObject partObject = Objects.isNull(ossObject) ? getObjectRange(objectKey, start, end) : ossObject;
+        state.register(partObject);
+        PooledPart part = new PooledPart();
+        try {
+            int length = (int) (end - start + RPanConstants.ONE_INT);
+            if (part.readFrom(partObject.getObjectContent(), length, state::isAborted) != length) {
+                throw new RPanFrameworkException("文件读取失败，文件的名称为：" + objectKey);
+            }
+            return part;
+        } catch (IOException e) {
+            part.release();
+            throw new RPanFrameworkException("文件读取失败，文件的名称为：" + objectKey, e);
+        } catch (RuntimeException e) {
+            part.release();
+            throw e;
+        } finally {
+            state.close(partObject);
+        }
+    }
+
+    /**
+     * 发起Range GetObject请求
+     *
+     * @param objectKey
+     * @param start
+     * @param end
+     * @return
+     */
+    private OSSObject getObjectRange(String objectKey, long start, long end) {
+        GetObjectRequest request = new GetObjectRequest(config.getBucketName(), objectKey);
+        request.setRange(start, end);
+        OSSObject ossObject = client.getObject(request);
+        if (Objects.isNull(ossObject)) {
+            throw new RPanFrameworkException("文件读取失败，文件的名称为：" + objectKey);
+        }
+        return ossObject;
+    }
+
+    /**
+     * 从Range GetObject响应的Content-Range中解析文件的总大小
+     * 响应中没有Content-Range时（空文件等Range不合法的情况OSS会返回整个文件），返回-1
+     *
+     * @param ossObject
+     * @return
+     */
+    private long getTotalLength(OSSObject ossObject) {
+        ObjectMetadata objectMetadata = ossObject.getObjectMetadata();
+        if (Objects.isNull(objectMetadata) || Objects.isNull(objectMetadata.getRawMetadata())) {
+            return RPanConstants.MINUS_ONE_INT;
+        }
+        Object contentRange = objectMetadata.getRawMetadata().get(CONTENT_RANGE_HEADER);
+        if (Objects.isNull(contentRange) || contentRange.toString().indexOf(RPanConstants.SLASH_STR) == RPanConstants.MINUS_ONE_INT) {
+            return RPanConstants.MINUS_ONE_INT;
+        }
+        String totalLength = contentRange.toString().substring(contentRange.toString().lastIndexOf(RPanConstants.SLASH_STR) + RPanConstants.ONE_INT).trim();
+        return StringUtils.isNumeric(totalLength) ? Long.parseLong(totalLength) : RPanConstants.MINUS_ONE_INT;
+    }
+
+    /**
+     * 上传单个分片，失败后按照配置的次数重试
+     * 重试之前按指数退避等待，等待时间从配置的初始值开始每次翻倍，不超过配置的上限
+     *
+     * @param objectKey
+     * @param uploadId
+     * @param partNumber
+     * @param part
+     * @return
+     */
+    private PartETag uploadPartWithRetry(String objectKey, String uploadId, int partNumber, PooledPart part) {
+        RuntimeException lastException = null;
+        for (int i = RPanConstants.ZERO_INT; i <= config.getMultipartUploadRetryTimes(); i++) {
+            try {
+                UploadPartRequest request = new UploadPartRequest();
+                request.setBucketName(config.getBucketName());
+                request.setKey(objectKey);
+                request.setUploadId(uploadId);
+                request.setInputStream(part.newInputStream());
+                request.setPartSize(part.getLength());
+                request.setPartNumber(partNumber);
+                UploadPartResult result = client.uploadPart(request);
+                if (Objects.nonNull(result)) {
+                    return result.getPartETag();
+                }
+                lastException = new RPanFrameworkException("文件分片上传失败，分片编号为：" + partNumber);
+            } catch (RuntimeException e) {
+                lastException = e;
+            }
+            if (i < config.getMultipartUploadRetryTimes()) {
+                long backoffMillis = Math.min(config.getMultipartUploadRetryMaxBackoffMillis(),
+                        config.getMultipartUploadRetryBackoffMillis() << Math.min(i, MAX_BACKOFF_SHIFT));
+                log.warn("upload part {} of multipart upload {} failed, retry after {} ms", partNumber, uploadId, backoffMillis, lastException);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(backoffMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RPanFrameworkException("文件分片上传被中断，分片编号为：" + partNumber);
+                }
+            }
+        }
+        throw lastException;
+    }
+
+    /**
+     * 取消分片上传，取消失败时只记录日志，不影响调用方抛出原来的异常
+     * 取消失败的分片上传会在OSS中留下未完成的分片，需要通过日志中的uploadId手动清理或者依赖存储桶的生命周期规则
+     *
+     * @param objectKey
+     * @param uploadId
+     */
+    private void abortMultipartUploadQuietly(String objectKey, String uploadId) {
+        try {
+            client.abortMultipartUpload(new AbortMultipartUploadRequest(config.getBucketName(), objectKey, uploadId));
+        } catch (Exception e) {
+            log.warn("abort multipart upload {} of object {} failed", uploadId, objectKey, e);
+        }
+    }
+
+    /**
+     * 取消文件分片上传
+     * 同时清除该文件分片上传的缓存信息
+     *
+     * @param realPath 任意一个属于该次分片上传的分片路径
+     * @return 是否取消成功
+     */
+    private boolean abortChunkUpload(String realPath) {
+        JSONObject params = analysisUrlParams(realPath);
+        if (Objects.isNull(params) || params.isEmpty()) {
+            return true;
+        }
+        String uploadId = params.getString(UPLOAD_ID_KEY);
+        String identifier = params.getString(IDENTIFIER_KEY);
+        Long userId = params.getLong(USER_ID_KEY);
+        getCache().evict(getCacheKey(identifier, userId));
+        if (StringUtils.isBlank(uploadId)) {
+            return true;
+        }
+        try {
+            AbortMultipartUploadRequest request = new AbortMultipartUploadRequest(config.getBucketName(), getBaseUrl(realPath), uploadId);
+            client.abortMultipartUpload(request);
+            return true;
+        } catch (OSSException e) {
+            // 分片上传已经完成合并或者已经被取消，视为取消成功
+            return NO_SUCH_UPLOAD_ERROR_CODE.equals(e.getErrorCode());
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 批量删除Object
+     * 使用非简单模式，OSS会返回删除成功的Object列表，不在列表中的视为删除失败
+     *
+     * @param objectKeys 不超过1000个
+     * @return 删除失败的Object名称
+     */
+    private List<String> deleteObjects(List<String> objectKeys) {
+        try {
+            DeleteObjectsRequest request = new DeleteObjectsRequest(config.getBucketName());
+            request.setKeys(objectKeys);
+            request.setQuiet(false);
+            DeleteObjectsResult result = client.deleteObjects(request);
+            Set<String> deletedObjectKeys = Objects.isNull(result) || Objects.isNull(result.getDeletedObjects())
+                    ? Collections.emptySet()
+                    : new HashSet<>(result.getDeletedObjects());
+            return objectKeys.stream().filter(objectKey -> !deletedObjectKeys.contains(objectKey)).collect(Collectors.toList());
+        } catch (Exception e) {
+            return objectKeys;
+        }
+    }
+
     /**
      * 获取对象的完整名称
      * 年/月/日/UUID.fileSuffix
@@ -368,6 +1102,33 @@ public class OSSStorageEngine extends AbstractStorageEngine {
         return StringUtils.isNotBlank(url) && url.indexOf(RPanConstants.QUESTION_MARK_STR) != RPanConstants.MINUS_ONE_INT;
     }
 
+    /**
+     * 获取文件分片上传的全局信息，不存在时初始化
+     * <p>
+     * 双重检查：缓存命中时不加锁，未命中时加上该缓存key对应的锁之后再检查一次，保证同一个文件只初始化一次
+     *
+     * @param filename
+     * @param cacheKey
+     * @return
+     */
+    private ChunkUploadEntity getOrInitChunkUpload(String filename, String cacheKey) {
+        ChunkUploadEntity entity = getCache().get(cacheKey, ChunkUploadEntity.class);
+        if (Objects.nonNull(entity)) {
+            return entity;
+        }
+        Lock lock = initChunkUploadLocks.get(cacheKey);
+        lock.lock();
+        try {
+            entity = getCache().get(cacheKey, ChunkUploadEntity.class);
+            if (Objects.isNull(entity)) {
+                entity = initChunkUpload(filename, cacheKey);
+            }
+            return entity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * 初始化文件分片上传
      * <p>
@@ -422,6 +1183,110 @@ public class OSSStorageEngine extends AbstractStorageEngine {
 
     }
 
+    /**
+     * 一次并行区间下载的状态
+     * 终止之后还没有开始的区间不再发起请求，已经打开的区间连接全部关闭
+     */
+    private static class ParallelReadState {
+
+        private final Set<OSSObject> openObjects = ConcurrentHashMap.newKeySet();
+
+        private volatile boolean aborted = false;
+
+        boolean isAborted() {
+            return aborted;
+        }
+
+        void register(OSSObject ossObject) {
+            openObjects.add(ossObject);
+            if (aborted) {
+                close(ossObject);
+            }
+        }
+
+        void close(OSSObject ossObject) {
+            if (Objects.isNull(ossObject)) {
+                return;
+            }
+            openObjects.remove(ossObject);
+            try {
+                ossObject.getObjectContent().close();
+            } catch (Exception e) {
+            }
+        }
+
+        void abort() {
+            aborted = true;
+            openObjects.forEach(this::close);
+        }
+
+    }
+
+    /**
+     * 由缓冲区池中1MB的缓冲区拼接而成的分片内容
+     * 分片上传、并行下载的分片不再按分片大小单独分配数组，使用完之后必须调用release归还缓冲区
+     */
+    private static class PooledPart {
+
+        private final List<byte[]> buffers = Lists.newArrayList();
+
+        private int length = RPanConstants.ZERO_INT;
+
+        int getLength() {
+            return length;
+        }
+
+        /**
+         * 从输入流中读取最多maxLength个字节，每次最多读取READ_STEP_SIZE个字节，stopped返回true时停止读取
+         *
+         * @param inputStream
+         * @param maxLength
+         * @param stopped
+         * @return 已经读取的字节数
+         * @throws IOException
+         */
+        int readFrom(InputStream inputStream, int maxLength, BooleanSupplier stopped) throws IOException {
+            while (length < maxLength && !stopped.getAsBoolean()) {
+                int offset = length % BufferPool.SIZE_1M;
+                if (length == buffers.size() * BufferPool.SIZE_1M) {
+                    buffers.add(BufferPool.acquireHeap(BufferPool.SIZE_1M));
+                }
+                int len = inputStream.read(buffers.get(buffers.size() - RPanConstants.ONE_INT), offset,
+                        Math.min(Math.min(maxLength - length, BufferPool.SIZE_1M - offset), READ_STEP_SIZE));
+                if (len == RPanConstants.MINUS_ONE_INT) {
+                    break;
+                }
+                length += len;
+            }
+            return length;
+        }
+
+        InputStream newInputStream() {
+            List<InputStream> inputStreams = Lists.newArrayList();
+            for (int i = RPanConstants.ZERO_INT; i < buffers.size(); i++) {
+                inputStreams.add(new ByteArrayInputStream(buffers.get(i), RPanConstants.ZERO_INT, lengthOf(i)));
+            }
+            return new SequenceInputStream(Collections.enumeration(inputStreams));
+        }
+
+        void writeTo(OutputStream outputStream) throws IOException {
+            for (int i = RPanConstants.ZERO_INT; i < buffers.size(); i++) {
+                outputStream.write(buffers.get(i), RPanConstants.ZERO_INT, lengthOf(i));
+            }
+        }
+
+        void release() {
+            buffers.forEach(BufferPool::release);
+            buffers.clear();
+            length = RPanConstants.ZERO_INT;
+        }
+
+        private int lengthOf(int index) {
+            return Math.max(Math.min(length - index * BufferPool.SIZE_1M, BufferPool.SIZE_1M), RPanConstants.ZERO_INT);
+        }
+
+    }
+
     /**
      * 获取分片上传的缓存Key
      *
@@ -6,8 +6,11 @@ import lombok.Data;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.ThreadPoolExecutor;
+
 /**
  * OSS文件存储引擎配置类
  */
@@ -26,6 +29,71 @@ public class OssStorageEngineConfig {
 
     private Boolean autoCreateBucket = Boolean.TRUE;
 
+    /**
+     * 单文件上传时使用并行分片上传的文件大小阈值，单位字节
+     */
+    private Long multipartUploadThreshold = 100L * 1024 * 1024;
+
+    /**
+     * 并行分片上传时每个分片的大小，单位字节
+     */
+    private Long multipartUploadPartSize = 10L * 1024 * 1024;
+
+    /**
+     * 并行分片上传的最大并发数
+     */
+    private Integer multipartUploadParallelism = 4;
+
+    /**
+     * 并行分片上传时单个分片失败后的重试次数
+     */
+    private Integer multipartUploadRetryTimes = 3;
+
+    /**
+     * 分片上传失败后第一次重试之前的等待时间，之后每次重试翻倍，单位毫秒
+     */
+    private Long multipartUploadRetryBackoffMillis = 200L;
+
+    /**
+     * 分片上传重试的最长等待时间，单位毫秒
+     */
+    private Long multipartUploadRetryMaxBackoffMillis = 5000L;
+
+    /**
+     * 同时进行并行分片上传的最大文件数，与单个文件的并发数一起决定分片上传线程池的大小
+     */
+    private Integer multipartUploadMaxConcurrentUploads = 8;
+
+    /**
+     * 所有并行分片上传同时缓存在内存中的分片总大小上限，单位字节
+     */
+    private Long multipartUploadMaxBufferBytes = 256L * 1024 * 1024;
+
+    /**
+     * 读取文件时使用并行区间下载的文件大小阈值，单位字节
+     */
+    private Long parallelReadThreshold = 32L * 1024 * 1024;
+
+    /**
+     * 并行区间下载时每个区间的大小，单位字节
+     */
+    private Long parallelReadPartSize = 8L * 1024 * 1024;
+
+    /**
+     * 并行区间下载的最大并发数，同时也是预读的区间数
+     */
+    private Integer parallelReadParallelism = 4;
+
+    /**
+     * 同时进行并行区间下载的最大文件数，与单个文件的并发数一起决定区间下载线程池的大小
+     */
+    private Integer parallelReadMaxConcurrentReads = 8;
+
+    /**
+     * 客户端直传直下时预签名地址的有效期，单位秒
+     */
+    private Long presignExpireSeconds = 15L * 60;
+
     /**
      * 注入OSS操作客户端对象
      *
@@ -39,5 +107,48 @@ public class OssStorageEngineConfig {
         return new OSSClient(getEndpoint(), getAccessKeyId(), getAccessKeySecret());
     }
 
+    /**
+     * 并行区间下载的线程池
+     * 线程数为 同时下载的文件数 * 单个文件的并发数，单个文件预读的区间数由存储引擎控制；
+     * 不排队，线程用完之后由调用线程直接下载区间，超出的文件退化为顺序下载，不会排在其他文件的区间后面等待
+     *
+     * @return
+     */
+    @Bean(name = "ossParallelReadTaskExecutor")
+    public ThreadPoolTaskExecutor ossParallelReadTaskExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+
+        int poolSize = getParallelReadParallelism() * getParallelReadMaxConcurrentReads();
+        taskExecutor.setCorePoolSize(poolSize);
+        taskExecutor.setMaxPoolSize(poolSize);
+        taskExecutor.setKeepAliveSeconds(200);
+        taskExecutor.setQueueCapacity(0);
+        taskExecutor.setThreadNamePrefix("oss-parallel-read-thread");
+        taskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+
+        return taskExecutor;
+    }
+
+    /**
+     * 并行分片上传的线程池
+     * 线程数为 同时上传的文件数 * 单个文件的并发数，单个文件同时上传的分片数由存储引擎控制；
+     * 不排队，线程用完之后由调用线程直接上传分片，超出的文件退化为顺序上传，不会排在其他文件的分片后面等待
+     *
+     * @return
+     */
+    @Bean(name = "ossMultipartUploadTaskExecutor")
+    public ThreadPoolTaskExecutor ossMultipartUploadTaskExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+
+        int poolSize = getMultipartUploadParallelism() * getMultipartUploadMaxConcurrentUploads();
+        taskExecutor.setCorePoolSize(poolSize);
+        taskExecutor.setMaxPoolSize(poolSize);
+        taskExecutor.setKeepAliveSeconds(200);
+        taskExecutor.setQueueCapacity(0);
+        taskExecutor.setThreadNamePrefix("oss-multipart-upload-thread");
+        taskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+
+        return taskExecutor;
+    }
 
 }
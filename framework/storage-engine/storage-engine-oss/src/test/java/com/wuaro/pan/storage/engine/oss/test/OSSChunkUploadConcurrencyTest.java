@@ -0,0 +1,92 @@
+package com.wuaro.pan.storage.engine.oss.test;
+
+import com.wuaro.pan.storage.engine.core.context.StoreFileChunkContext;
+import com.wuaro.pan.storage.engine.oss.OSSStorageEngine;
+import com.wuaro.pan.storage.engine.oss.config.OssStorageEngineConfig;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * OSS文件存储引擎分片上传的并发测试
+ * <p>
+ * 使用本地的OSS客户端替身，每个分片上传固定耗时，验证同一文件的多个分片可以并行上传，并且只初始化一次分片上传
+ */
+public class OSSChunkUploadConcurrencyTest {
+
+    private static final int CHUNK_COUNT = 8;
+
+    private static final long UPLOAD_PART_COST_MILLIS = 500L;
+
+    private StubOSSClient client;
+
+    private OSSStorageEngine engine;
+
+    @Before
+    public void before() {
+        client = new StubOSSClient(UPLOAD_PART_COST_MILLIS, 0L);
+        OssStorageEngineConfig config = new OssStorageEngineConfig();
+        config.setBucketName("r-pan-test");
+
+        engine = new OSSStorageEngine();
+        ReflectionTestUtils.setField(engine, "config", config);
+        ReflectionTestUtils.setField(engine, "client", client);
+        ReflectionTestUtils.setField(engine, "cacheManager", new ConcurrentMapCacheManager());
+    }
+
+    /**
+     * 测试同一文件的N个分片并行上传的耗时约等于一个分片的耗时
+     */
+    @Test
+    public void testStoreChunksInParallel() throws InterruptedException {
+        CountDownLatch startLatch = new CountDownLatch(1);
+        CountDownLatch finishLatch = new CountDownLatch(CHUNK_COUNT);
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        for (int i = 1; i <= CHUNK_COUNT; i++) {
+            int chunkNumber = i;
+            new Thread(() -> {
+                try {
+                    startLatch.await();
+                    engine.storeChunk(createContext(chunkNumber));
+                } catch (Throwable e) {
+                    errors.add(e);
+                } finally {
+                    finishLatch.countDown();
+                }
+            }).start();
+        }
+
+        long start = System.currentTimeMillis();
+        startLatch.countDown();
+        finishLatch.await();
+        long cost = System.currentTimeMillis() - start;
+
+        Assert.assertTrue(errors.isEmpty());
+        Assert.assertEquals(1, client.initiateCount.get());
+        Assert.assertEquals(CHUNK_COUNT, client.uploadPartCount.get());
+        Assert.assertTrue("parallel upload cost " + cost + " ms", cost < UPLOAD_PART_COST_MILLIS * 2);
+    }
+
+    /*****************************************private*****************************************/
+
+    private StoreFileChunkContext createContext(int chunkNumber) {
+        StoreFileChunkContext context = new StoreFileChunkContext();
+        context.setFilename("test.txt");
+        context.setIdentifier("test-identifier");
+        context.setUserId(1L);
+        context.setTotalChunks(CHUNK_COUNT);
+        context.setChunkNumber(chunkNumber);
+        context.setCurrentChunkSize(1L);
+        context.setTotalSize((long) CHUNK_COUNT);
+        context.setInputStream(new ByteArrayInputStream(new byte[]{1}));
+        return context;
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.wuaro.pan.storage.engine.oss.test;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.storage.engine.core.context.DeleteFileContext;
+import com.wuaro.pan.storage.engine.oss.OSSStorageEngine;
+import com.wuaro.pan.storage.engine.oss.config.OssStorageEngineConfig;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * OSS文件存储引擎批量删除的测试
+ * <p>
+ * 使用本地的OSS客户端替身注入部分失败，验证每个路径单独记录删除结果
+ */
+public class OSSDeleteTest {
+
+    private StubOSSClient client;
+
+    private OSSStorageEngine engine;
+
+    @Before
+    public void before() {
+        client = new StubOSSClient(0L, 0L);
+        OssStorageEngineConfig config = new OssStorageEngineConfig();
+        config.setBucketName("r-pan-test");
+
+        engine = new OSSStorageEngine();
+        ReflectionTestUtils.setField(engine, "config", config);
+        ReflectionTestUtils.setField(engine, "client", client);
+        ReflectionTestUtils.setField(engine, "cacheManager", new ConcurrentMapCacheManager());
+    }
+
+    /**
+     * 测试普通文件每1000个合并成一次批量删除，只有没有被删除的对象回填到删除失败的集合中
+     */
+    @Test
+    public void testBatchDeletePartialFailure() throws IOException {
+        List<String> objectKeys = IntStream.range(0, 2500).mapToObj(i -> "2024/01/01/object-" + i).collect(Collectors.toList());
+        objectKeys.forEach(objectKey -> client.objects.put(objectKey, new byte[1]));
+        client.failDeleteKeys.add("2024/01/01/object-5");
+        client.failDeleteKeys.add("2024/01/01/object-1500");
+
+        DeleteFileContext context = delete(objectKeys);
+
+        Assert.assertEquals(Lists.newArrayList(1000, 1000, 500), client.deleteBatchSizes);
+        Assert.assertEquals(Lists.newArrayList("2024/01/01/object-5", "2024/01/01/object-1500"), context.getFailedRealFilePathList());
+        Assert.assertEquals(2, client.objects.size());
+    }
+
+    /**
+     * 测试一批删除请求抛出异常时，只有这一批的路径删除失败，其余批次正常删除
+     */
+    @Test
+    public void testBatchDeleteException() throws IOException {
+        List<String> objectKeys = IntStream.range(0, 1200).mapToObj(i -> "2024/01/01/object-" + i).collect(Collectors.toList());
+        objectKeys.forEach(objectKey -> client.objects.put(objectKey, new byte[1]));
+        client.errorDeleteKeys.add("2024/01/01/object-1100");
+
+        DeleteFileContext context = delete(objectKeys);
+
+        Assert.assertEquals(Lists.newArrayList(1000, 200), client.deleteBatchSizes);
+        Assert.assertEquals(objectKeys.subList(1000, 1200), context.getFailedRealFilePathList());
+        Assert.assertEquals(200, client.objects.size());
+    }
+
+    /**
+     * 测试文件分片的路径按uploadId只取消一次，取消失败时该uploadId的所有分片路径都回填到删除失败的集合中，
+     * 分片上传已经不存在时视为取消成功
+     */
+    @Test
+    public void testAbortChunkUploadPartialFailure() throws IOException {
+        client.failAbortUploadIds.add("upload-2");
+        client.noSuchUploadIds.add("upload-3");
+        client.objects.put("2024/01/01/object", new byte[1]);
+        List<String> realPaths = Lists.newArrayList(
+                chunkPath("upload-1", 1),
+                chunkPath("upload-2", 1),
+                chunkPath("upload-1", 2),
+                chunkPath("upload-2", 2),
+                chunkPath("upload-3", 1),
+                "2024/01/01/object"
+        );
+
+        DeleteFileContext context = delete(realPaths);
+
+        Assert.assertEquals(3, client.abortCount.get());
+        Assert.assertEquals(Lists.newArrayList(chunkPath("upload-2", 1), chunkPath("upload-2", 2)), context.getFailedRealFilePathList());
+        Assert.assertEquals(Lists.newArrayList(1), client.deleteBatchSizes);
+        Assert.assertTrue(client.objects.isEmpty());
+    }
+
+    /*****************************************private*****************************************/
+
+    private DeleteFileContext delete(List<String> realPaths) throws IOException {
+        DeleteFileContext context = new DeleteFileContext();
+        context.setRealFilePathList(realPaths);
+        engine.delete(context);
+        return context;
+    }
+
+    private String chunkPath(String uploadId, int partNumber) {
+        return "2024/01/01/" + uploadId + "?identifier=identifier-" + uploadId + "&uploadId=" + uploadId
+                + "&userId=1&partNumber=" + partNumber + "&eTag=etag-" + partNumber;
+    }
+
+}
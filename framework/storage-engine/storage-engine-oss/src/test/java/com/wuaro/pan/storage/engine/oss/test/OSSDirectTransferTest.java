@@ -0,0 +1,175 @@
+package com.wuaro.pan.storage.engine.oss.test;
+
+import com.google.common.hash.Hashing;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.storage.engine.core.context.CompleteDirectUploadContext;
+import com.wuaro.pan.storage.engine.core.context.InitDirectUploadContext;
+import com.wuaro.pan.storage.engine.core.context.PresignDownloadContext;
+import com.wuaro.pan.storage.engine.oss.OSSStorageEngine;
+import com.wuaro.pan.storage.engine.oss.config.OssStorageEngineConfig;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * OSS文件存储引擎客户端直传直下的测试
+ * 预签名只是本地计算，客户端的上传动作直接写入OSS客户端替身
+ */
+public class OSSDirectTransferTest {
+
+    private static final long PART_SIZE = 1024 * 1024;
+
+    /**
+     * 测试小文件生成一个带Content-MD5和固定Content-Type的PUT地址，确认时校验对象大小，大小不一致时删除对象
+     */
+    @Test
+    public void testSinglePutUpload() throws IOException {
+        StubOSSClient client = new StubOSSClient(0L, 0L);
+        OSSStorageEngine engine = createEngine(client, 10 * PART_SIZE);
+        byte[] content = createContent(5000);
+        byte[] digest = Hashing.md5().hashBytes(content).asBytes();
+        String identifier = Hashing.md5().hashBytes(content).toString();
+
+        InitDirectUploadContext initContext = createInitContext(identifier, content.length);
+        engine.initDirectUpload(initContext);
+
+        Assert.assertNull(initContext.getUploadId());
+        Assert.assertEquals(1, initContext.getUploadUrlList().size());
+        Assert.assertTrue(initContext.getUploadUrlList().get(0).contains("Signature="));
+        Assert.assertEquals(Base64.getEncoder().encodeToString(digest), initContext.getUploadHeaders().get("Content-MD5"));
+        Assert.assertEquals("application/octet-stream", initContext.getUploadHeaders().get("Content-Type"));
+        Assert.assertTrue(initContext.getContentVerified());
+        Assert.assertTrue(initContext.getExpireTime().getTime() > System.currentTimeMillis());
+
+        CompleteDirectUploadContext completeContext = createCompleteContext(initContext);
+        try {
+            engine.completeDirectUpload(completeContext);
+            Assert.fail();
+        } catch (RPanFrameworkException e) {
+            // expected, the client has not uploaded yet
+        }
+
+        client.objects.put(initContext.getRealPath(), content);
+        engine.completeDirectUpload(completeContext);
+
+        client.objects.put(initContext.getRealPath(), createContent(4000));
+        try {
+            engine.completeDirectUpload(completeContext);
+            Assert.fail();
+        } catch (RPanFrameworkException e) {
+            Assert.assertFalse(client.objects.containsKey(initContext.getRealPath()));
+        }
+    }
+
+    /**
+     * 测试大文件为每个分片生成上传地址，确认时按照OSS列出的分片校验之后再合并
+     */
+    @Test
+    public void testMultipartUpload() throws IOException {
+        StubOSSClient client = new StubOSSClient(0L, 0L);
+        client.listPartsPageSize = 2;
+        OSSStorageEngine engine = createEngine(client, PART_SIZE);
+        long totalSize = 2 * PART_SIZE + 100;
+
+        InitDirectUploadContext initContext = createInitContext("not-a-md5", totalSize);
+        engine.initDirectUpload(initContext);
+
+        Assert.assertEquals(1, client.initiateCount.get());
+        Assert.assertNotNull(initContext.getUploadId());
+        Assert.assertEquals(Long.valueOf(PART_SIZE), initContext.getPartSize());
+        Assert.assertEquals(3, initContext.getUploadUrlList().size());
+        for (int i = 0; i < 3; i++) {
+            String url = initContext.getUploadUrlList().get(i);
+            Assert.assertTrue(url.contains("partNumber=" + (i + 1)));
+            Assert.assertTrue(url.contains("uploadId=" + initContext.getUploadId()));
+        }
+        Assert.assertFalse(initContext.getContentVerified());
+        Assert.assertEquals(Collections.singletonMap("Content-Type", "application/octet-stream"), initContext.getUploadHeaders());
+
+        CompleteDirectUploadContext completeContext = createCompleteContext(initContext);
+        client.uploadedParts.put(1, PART_SIZE);
+        client.uploadedParts.put(3, 100L);
+        assertCompleteFailed(engine, completeContext);
+
+        client.uploadedParts.put(2, PART_SIZE - 1);
+        assertCompleteFailed(engine, completeContext);
+
+        client.uploadedParts.put(2, PART_SIZE);
+        engine.completeDirectUpload(completeContext);
+        Assert.assertEquals(1, client.completeCount.get());
+
+        engine.abortDirectUpload(completeContext);
+        Assert.assertEquals(1, client.abortCount.get());
+    }
+
+    /**
+     * 测试生成的下载地址通过响应头覆盖参数指定下载的文件名称
+     */
+    @Test
+    public void testPresignDownload() throws IOException {
+        OSSStorageEngine engine = createEngine(new StubOSSClient(0L, 0L), PART_SIZE);
+
+        PresignDownloadContext context = new PresignDownloadContext();
+        context.setRealPath("2024/1/1/test.txt");
+        context.setFilename("测试 文件.txt");
+        engine.presignDownload(context);
+
+        Assert.assertTrue(context.getUrl().contains("2024/1/1/test.txt"));
+        Assert.assertTrue(context.getUrl().contains("response-content-disposition="));
+        Assert.assertTrue(context.getUrl().contains("Signature="));
+        Assert.assertTrue(context.getExpireTime().getTime() > System.currentTimeMillis());
+    }
+
+    /*****************************************private*****************************************/
+
+    private OSSStorageEngine createEngine(StubOSSClient client, long threshold) {
+        OssStorageEngineConfig config = new OssStorageEngineConfig();
+        config.setBucketName("r-pan-test");
+        config.setMultipartUploadThreshold(threshold);
+        config.setMultipartUploadPartSize(PART_SIZE);
+
+        OSSStorageEngine engine = new OSSStorageEngine();
+        ReflectionTestUtils.setField(engine, "config", config);
+        ReflectionTestUtils.setField(engine, "client", client);
+        return engine;
+    }
+
+    private InitDirectUploadContext createInitContext(String identifier, long totalSize) {
+        InitDirectUploadContext context = new InitDirectUploadContext();
+        context.setFilename("test.txt");
+        context.setIdentifier(identifier);
+        context.setTotalSize(totalSize);
+        context.setUserId(1L);
+        return context;
+    }
+
+    private CompleteDirectUploadContext createCompleteContext(InitDirectUploadContext initContext) {
+        CompleteDirectUploadContext context = new CompleteDirectUploadContext();
+        context.setRealPath(initContext.getRealPath());
+        context.setUploadId(initContext.getUploadId());
+        context.setPartSize(initContext.getPartSize());
+        context.setTotalSize(initContext.getTotalSize());
+        return context;
+    }
+
+    private void assertCompleteFailed(OSSStorageEngine engine, CompleteDirectUploadContext context) throws IOException {
+        try {
+            engine.completeDirectUpload(context);
+            Assert.fail();
+        } catch (RPanFrameworkException e) {
+            // expected
+        }
+    }
+
+    private byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.wuaro.pan.storage.engine.oss.test;
+
+import com.aliyun.oss.ClientException;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.storage.engine.core.context.StoreFileContext;
+import com.wuaro.pan.storage.engine.oss.OSSStorageEngine;
+import com.wuaro.pan.storage.engine.oss.config.OssStorageEngineConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * OSS文件存储引擎单文件并行分片上传的测试
+ * <p>
+ * 吞吐量基准测试默认跳过，需要添加启动参数 -Drpan.benchmark=true 才会执行
+ */
+public class OSSMultipartStoreTest {
+
+    private static final String BENCHMARK_SWITCH = "rpan.benchmark";
+
+    private static final long PART_SIZE = 1024 * 1024;
+
+    private ThreadPoolTaskExecutor executor;
+
+    private OssStorageEngineConfig config;
+
+    @After
+    public void after() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 测试小于阈值的文件直接上传
+     */
+    @Test
+    public void testStoreBelowThresholdUsePutObject() throws IOException {
+        StubOSSClient client = new StubOSSClient(0L, 0L);
+        OSSStorageEngine engine = createEngine(client, 10 * PART_SIZE, 4);
+
+        engine.store(createContext(5 * PART_SIZE));
+
+        Assert.assertEquals(1, client.putObjectCount.get());
+        Assert.assertEquals(0, client.initiateCount.get());
+    }
+
+    /**
+     * 测试超过阈值的文件拆分成分片上传，失败的分片单独重试，最后完成合并
+     */
+    @Test
+    public void testStoreAboveThresholdUploadPartsWithRetry() throws IOException {
+        StubOSSClient client = new StubOSSClient(0L, 0L);
+        client.failOncePartNumbers.add(2);
+        OSSStorageEngine engine = createEngine(client, PART_SIZE, 4);
+
+        engine.store(createContext(5 * PART_SIZE + 100));
+
+        Assert.assertEquals(0, client.putObjectCount.get());
+        Assert.assertEquals(1, client.initiateCount.get());
+        Assert.assertEquals(6, client.uploadPartCount.get());
+        Assert.assertEquals(Long.valueOf(PART_SIZE), client.uploadedParts.get(2));
+        Assert.assertEquals(Long.valueOf(100L), client.uploadedParts.get(6));
+        Assert.assertEquals(1, client.completeCount.get());
+        Assert.assertEquals(0, client.abortCount.get());
+    }
+
+    /**
+     * 测试失败的分片等待退避时间之后再重试
+     */
+    @Test
+    public void testRetryWaitsBackoff() throws IOException {
+        StubOSSClient client = new StubOSSClient(0L, 0L);
+        client.failOncePartNumbers.add(1);
+        OSSStorageEngine engine = createEngine(client, PART_SIZE, 4);
+        config.setMultipartUploadRetryBackoffMillis(300L);
+
+        long start = System.currentTimeMillis();
+        engine.store(createContext(2 * PART_SIZE));
+
+        Assert.assertTrue(System.currentTimeMillis() - start >= 300L);
+        Assert.assertEquals(2, client.uploadPartCount.get());
+        Assert.assertEquals(1, client.completeCount.get());
+    }
+
+    /**
+     * 测试所有文件同时缓存的分片总大小不超过全局的内存预算
+     */
+    @Test
+    public void testBufferBudgetBoundsConcurrentParts() throws IOException {
+        StubOSSClient client = new StubOSSClient(50L, 0L);
+        OSSStorageEngine engine = createEngine(client, PART_SIZE, 4, 2 * PART_SIZE);
+
+        engine.store(createContext(8 * PART_SIZE));
+
+        Assert.assertEquals(8, client.uploadPartCount.get());
+        Assert.assertEquals(1, client.completeCount.get());
+        Assert.assertTrue("max running parts " + client.maxRunningUploadParts.get(), client.maxRunningUploadParts.get() <= 2);
+    }
+
+    /**
+     * 测试分片最终上传失败时取消分片上传，抛出的异常保留失败的原因
+     */
+    @Test
+    public void testStoreFailureKeepsCause() {
+        StubOSSClient client = new StubOSSClient(0L, 0L);
+        client.failOncePartNumbers.add(3);
+        OSSStorageEngine engine = createEngine(client, PART_SIZE, 4);
+        config.setMultipartUploadRetryTimes(0);
+
+        try {
+            engine.store(createContext(5 * PART_SIZE));
+            Assert.fail("the store should fail");
+        } catch (RPanFrameworkException e) {
+            Assert.assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof ClientException);
+        } catch (IOException e) {
+            Assert.fail(e.getMessage());
+        }
+        Assert.assertEquals(0, client.completeCount.get());
+        Assert.assertEquals(1, client.abortCount.get());
+    }
+
+    /**
+     * 单连接带宽 8MB/s、每个请求 20ms 的替身上，64MB 文件顺序上传与 4 并发分片上传的吞吐量对比
+     */
+    @Test
+    public void benchmarkStore() throws IOException {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_SWITCH));
+
+        long totalSize = 64 * PART_SIZE;
+        long bytesPerSecond = 8 * PART_SIZE;
+
+        OSSStorageEngine sequentialEngine = createEngine(new StubOSSClient(20L, bytesPerSecond), totalSize, 4);
+        long sequentialStart = System.currentTimeMillis();
+        sequentialEngine.store(createContext(totalSize));
+        long sequentialCost = System.currentTimeMillis() - sequentialStart;
+        executor.shutdown();
+
+        OSSStorageEngine parallelEngine = createEngine(new StubOSSClient(20L, bytesPerSecond), 8 * PART_SIZE, 4);
+        long parallelStart = System.currentTimeMillis();
+        parallelEngine.store(createContext(totalSize));
+        long parallelCost = System.currentTimeMillis() - parallelStart;
+
+        System.out.println(String.format("sequential put object: %d ms, %.1f MB/s", sequentialCost, totalSize * 1000.0 / sequentialCost / PART_SIZE));
+        System.out.println(String.format("parallel multipart upload: %d ms, %.1f MB/s", parallelCost, totalSize * 1000.0 / parallelCost / PART_SIZE));
+        Assert.assertTrue(parallelCost < sequentialCost);
+    }
+
+    /*****************************************private*****************************************/
+
+    private OSSStorageEngine createEngine(StubOSSClient client, long threshold, int parallelism) {
+        return createEngine(client, threshold, parallelism, 256 * PART_SIZE);
+    }
+
+    private OSSStorageEngine createEngine(StubOSSClient client, long threshold, int parallelism, long maxBufferBytes) {
+        config = new OssStorageEngineConfig();
+        config.setBucketName("r-pan-test");
+        config.setMultipartUploadThreshold(threshold);
+        config.setMultipartUploadPartSize(PART_SIZE);
+        config.setMultipartUploadParallelism(parallelism);
+        config.setMultipartUploadMaxBufferBytes(maxBufferBytes);
+        executor = config.ossMultipartUploadTaskExecutor();
+        executor.initialize();
+
+        OSSStorageEngine engine = new OSSStorageEngine();
+        ReflectionTestUtils.setField(engine, "config", config);
+        ReflectionTestUtils.setField(engine, "client", client);
+        ReflectionTestUtils.setField(engine, "cacheManager", new ConcurrentMapCacheManager());
+        ReflectionTestUtils.setField(engine, "multipartUploadTaskExecutor", executor);
+        return engine;
+    }
+
+    private StoreFileContext createContext(long totalSize) {
+        StoreFileContext context = new StoreFileContext();
+        context.setFilename("test.txt");
+        context.setTotalSize(totalSize);
+        context.setInputStream(new ByteArrayInputStream(new byte[(int) totalSize]));
+        return context;
+    }
+
+}
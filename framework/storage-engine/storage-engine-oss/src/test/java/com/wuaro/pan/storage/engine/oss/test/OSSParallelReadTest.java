@@ -0,0 +1,187 @@
+package com.wuaro.pan.storage.engine.oss.test;
+
+import com.aliyun.oss.ClientException;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
+import com.wuaro.pan.storage.engine.core.context.ReadFileContext;
+import com.wuaro.pan.storage.engine.oss.OSSStorageEngine;
+import com.wuaro.pan.storage.engine.oss.config.OssStorageEngineConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * OSS文件存储引擎并行区间下载的测试
+ * <p>
+ * 吞吐量基准测试默认跳过，需要添加启动参数 -Drpan.benchmark=true 才会执行
+ */
+public class OSSParallelReadTest {
+
+    private static final String BENCHMARK_SWITCH = "rpan.benchmark";
+
+    private static final String OBJECT_KEY = "2024/1/1/test.txt";
+
+    private static final long PART_SIZE = 1024 * 1024;
+
+    private ThreadPoolTaskExecutor executor;
+
+    @After
+    public void after() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 测试不超过一个区间的文件只发起一次请求，并且不请求对象的元数据
+     */
+    @Test
+    public void testReadSmallObjectWithOneRequest() throws IOException {
+        StubOSSClient client = new StubOSSClient(0L, 0L);
+        byte[] content = createContent(100);
+        client.objects.put(OBJECT_KEY, content);
+        client.objects.put("empty", new byte[0]);
+        OSSStorageEngine engine = createEngine(client, 10 * PART_SIZE);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        engine.realFile(createContext(outputStream));
+        Assert.assertArrayEquals(content, outputStream.toByteArray());
+
+        ByteArrayOutputStream emptyOutputStream = new ByteArrayOutputStream();
+        ReadFileContext emptyContext = createContext(emptyOutputStream);
+        emptyContext.setRealPath("empty");
+        engine.realFile(emptyContext);
+        Assert.assertEquals(0, emptyOutputStream.size());
+
+        Assert.assertEquals(2, client.remoteGetCount());
+        Assert.assertEquals(0, client.getObjectMetadataCount.get());
+    }
+
+    /**
+     * 测试小于阈值的文件读完第一个区间之后用单个流读取剩余的内容
+     */
+    @Test
+    public void testReadBelowThresholdUseSingleStream() throws IOException {
+        StubOSSClient client = new StubOSSClient(0L, 0L);
+        byte[] content = createContent((int) (3 * PART_SIZE));
+        client.objects.put(OBJECT_KEY, content);
+        OSSStorageEngine engine = createEngine(client, 10 * PART_SIZE);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        engine.realFile(createContext(outputStream));
+
+        Assert.assertArrayEquals(content, outputStream.toByteArray());
+        Assert.assertEquals(2, client.rangeGetCount.get());
+        Assert.assertEquals(0, client.getObjectMetadataCount.get());
+    }
+
+    /**
+     * 测试超过阈值的文件并发拉取区间后按顺序写入输出流
+     */
+    @Test
+    public void testReadAboveThresholdKeepOrder() throws IOException {
+        StubOSSClient client = new StubOSSClient(0L, 0L);
+        byte[] content = createContent((int) (5 * PART_SIZE + 100));
+        client.objects.put(OBJECT_KEY, content);
+        OSSStorageEngine engine = createEngine(client, PART_SIZE);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        engine.realFile(createContext(outputStream));
+
+        Assert.assertArrayEquals(content, outputStream.toByteArray());
+        Assert.assertEquals(6, client.rangeGetCount.get());
+        Assert.assertEquals(0, client.getObjectMetadataCount.get());
+    }
+
+    /**
+     * 测试一个区间失败之后终止下载，后面的区间不再发起请求，抛出的异常保留失败的原因
+     */
+    @Test
+    public void testFailedPartStopsRemainingParts() {
+        StubOSSClient client = new StubOSSClient(50L, 0L);
+        client.objects.put(OBJECT_KEY, createContent((int) (20 * PART_SIZE)));
+        client.failRangeStarts.add(2 * PART_SIZE);
+        OSSStorageEngine engine = createEngine(client, PART_SIZE);
+
+        try {
+            engine.realFile(createContext(new ByteArrayOutputStream()));
+            Assert.fail("the read should fail");
+        } catch (RPanFrameworkException e) {
+            Assert.assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof ClientException);
+        } catch (IOException e) {
+            Assert.fail(e.getMessage());
+        }
+        Assert.assertTrue("range gets " + client.rangeGetCount.get(), client.rangeGetCount.get() <= 6);
+    }
+
+    /**
+     * 单连接带宽 8MB/s、每个请求 20ms 的替身上，64MB 文件单流读取与 4 并发区间读取的吞吐量对比
+     */
+    @Test
+    public void benchmarkRead() throws IOException {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_SWITCH));
+
+        byte[] content = createContent((int) (64 * PART_SIZE));
+        long bytesPerSecond = 8 * PART_SIZE;
+
+        StubOSSClient sequentialClient = new StubOSSClient(20L, bytesPerSecond);
+        sequentialClient.objects.put(OBJECT_KEY, content);
+        OSSStorageEngine sequentialEngine = createEngine(sequentialClient, content.length);
+        long sequentialStart = System.currentTimeMillis();
+        sequentialEngine.realFile(createContext(new ByteArrayOutputStream()));
+        long sequentialCost = System.currentTimeMillis() - sequentialStart;
+        executor.shutdown();
+
+        StubOSSClient parallelClient = new StubOSSClient(20L, bytesPerSecond);
+        parallelClient.objects.put(OBJECT_KEY, content);
+        OSSStorageEngine parallelEngine = createEngine(parallelClient, PART_SIZE);
+        long parallelStart = System.currentTimeMillis();
+        parallelEngine.realFile(createContext(new ByteArrayOutputStream()));
+        long parallelCost = System.currentTimeMillis() - parallelStart;
+
+        System.out.println(String.format("single stream read: %d ms, %.1f MB/s", sequentialCost, content.length * 1000.0 / sequentialCost / PART_SIZE));
+        System.out.println(String.format("parallel range read: %d ms, %.1f MB/s", parallelCost, content.length * 1000.0 / parallelCost / PART_SIZE));
+        Assert.assertTrue(parallelCost * 2 < sequentialCost);
+    }
+
+    /*****************************************private*****************************************/
+
+    private OSSStorageEngine createEngine(StubOSSClient client, long threshold) {
+        OssStorageEngineConfig config = new OssStorageEngineConfig();
+        config.setBucketName("r-pan-test");
+        config.setParallelReadThreshold(threshold);
+        config.setParallelReadPartSize(PART_SIZE);
+        config.setParallelReadParallelism(4);
+        executor = config.ossParallelReadTaskExecutor();
+        executor.initialize();
+
+        OSSStorageEngine engine = new OSSStorageEngine();
+        ReflectionTestUtils.setField(engine, "config", config);
+        ReflectionTestUtils.setField(engine, "client", client);
+        ReflectionTestUtils.setField(engine, "cacheManager", new ConcurrentMapCacheManager());
+        ReflectionTestUtils.setField(engine, "parallelReadTaskExecutor", executor);
+        return engine;
+    }
+
+    private ReadFileContext createContext(ByteArrayOutputStream outputStream) {
+        ReadFileContext context = new ReadFileContext();
+        context.setRealPath(OBJECT_KEY);
+        context.setOutputStream(outputStream);
+        return context;
+    }
+
+    private byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        return content;
+    }
+
+}
@@ -0,0 +1,292 @@
+package com.wuaro.pan.storage.engine.oss.test;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSClient;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * 本地的OSS客户端替身，不发起网络请求
+ * <p>
+ * 每个请求固定耗时 requestCostMillis，并且按照单连接带宽 bytesPerSecond 计算传输耗时，
+ * 用来模拟单个流顺序上传与多个分片并行上传的吞吐差异
+ */
+public class StubOSSClient extends OSSClient {
+
+    final AtomicInteger initiateCount = new AtomicInteger();
+
+    final AtomicInteger uploadPartCount = new AtomicInteger();
+
+    final AtomicInteger putObjectCount = new AtomicInteger();
+
+    final AtomicInteger completeCount = new AtomicInteger();
+
+    final AtomicInteger abortCount = new AtomicInteger();
+
+    final AtomicInteger rangeGetCount = new AtomicInteger();
+
+    final AtomicInteger getObjectCount = new AtomicInteger();
+
+    final AtomicInteger getObjectMetadataCount = new AtomicInteger();
+
+    /**
+     * 正在上传的分片数，以及同时上传的最大分片数
+     */
+    final AtomicInteger runningUploadParts = new AtomicInteger();
+
+    final AtomicInteger maxRunningUploadParts = new AtomicInteger();
+
+    /**
+     * 可供读取的对象内容，key为对象名称
+     */
+    final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+
+    /**
+     * 已上传的分片大小，key为分片编号
+     */
+    final Map<Integer, Long> uploadedParts = new ConcurrentHashMap<>();
+
+    /**
+     * 第一次上传时需要失败的分片编号
+     */
+    final Set<Integer> failOncePartNumbers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 批量删除时不会被删除的对象名称，删除结果中不包含这些对象
+     */
+    final Set<String> failDeleteKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 批量删除时整批请求失败的对象名称，批量请求中包含这些对象时直接抛出异常
+     */
+    final Set<String> errorDeleteKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 每次批量删除请求的对象数
+     */
+    final List<Integer> deleteBatchSizes = new CopyOnWriteArrayList<>();
+
+    /**
+     * 取消时抛出客户端异常的uploadId
+     */
+    final Set<String> failAbortUploadIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 已经完成或者已经取消的uploadId，取消时抛出NoSuchUpload异常
+     */
+    final Set<String> noSuchUploadIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 区间下载时需要失败的区间起始位置
+     */
+    final Set<Long> failRangeStarts = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 列出分片时每一页的分片数
+     */
+    int listPartsPageSize = 1000;
+
+    private final long requestCostMillis;
+
+    private final long bytesPerSecond;
+
+    StubOSSClient(long requestCostMillis, long bytesPerSecond) {
+        super("http://127.0.0.1", "accessKeyId", "accessKeySecret");
+        this.requestCostMillis = requestCostMillis;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+        InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+        result.setUploadId("upload-id-" + initiateCount.incrementAndGet());
+        return result;
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest request) {
+        maxRunningUploadParts.accumulateAndGet(runningUploadParts.incrementAndGet(), Math::max);
+        long size;
+        try {
+            size = transfer(request.getInputStream());
+        } finally {
+            runningUploadParts.decrementAndGet();
+        }
+        if (failOncePartNumbers.remove(request.getPartNumber())) {
+            throw new ClientException("mock upload part failure");
+        }
+        uploadPartCount.incrementAndGet();
+        uploadedParts.put(request.getPartNumber(), size);
+        UploadPartResult result = new UploadPartResult();
+        result.setPartNumber(request.getPartNumber());
+        result.setETag("etag-" + request.getPartNumber());
+        result.setPartSize(size);
+        return result;
+    }
+
+    @Override
+    public PutObjectResult putObject(String bucketName, String key, InputStream input) {
+        transfer(input);
+        putObjectCount.incrementAndGet();
+        return new PutObjectResult();
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        completeCount.incrementAndGet();
+        return new CompleteMultipartUploadResult();
+    }
+
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+        abortCount.incrementAndGet();
+        if (failAbortUploadIds.contains(request.getUploadId())) {
+            throw new ClientException("mock abort multipart upload failure");
+        }
+        if (noSuchUploadIds.contains(request.getUploadId())) {
+            throw new OSSException("Not Found", "NoSuchUpload", null, null, null, null, null);
+        }
+    }
+
+    @Override
+    public PartListing listParts(ListPartsRequest request) {
+        int marker = Objects.isNull(request.getPartNumberMarker()) ? 0 : request.getPartNumberMarker();
+        PartListing partListing = new PartListing();
+        uploadedParts.keySet().stream()
+                .filter(partNumber -> partNumber > marker)
+                .sorted()
+                .limit(listPartsPageSize)
+                .forEach(partNumber -> {
+                    PartSummary partSummary = new PartSummary();
+                    partSummary.setPartNumber(partNumber);
+                    partSummary.setSize(uploadedParts.get(partNumber));
+                    partSummary.setETag("etag-" + partNumber);
+                    partListing.addPart(partSummary);
+                });
+        int count = partListing.getParts().size();
+        if (count > 0) {
+            int lastPartNumber = partListing.getParts().get(count - 1).getPartNumber();
+            partListing.setNextPartNumberMarker(lastPartNumber);
+            partListing.setTruncated(uploadedParts.keySet().stream().anyMatch(partNumber -> partNumber > lastPartNumber));
+        }
+        return partListing;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+        getObjectMetadataCount.incrementAndGet();
+        if (!objects.containsKey(key)) {
+            throw new OSSException("Not Found", "NoSuchKey", null, null, null, null, null);
+        }
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+        objectMetadata.setContentLength(objects.get(key).length);
+        return objectMetadata;
+    }
+
+    @Override
+    public OSSObject getObject(String bucketName, String key) {
+        getObjectCount.incrementAndGet();
+        return createOSSObject(key, objects.get(key));
+    }
+
+    @Override
+    public OSSObject getObject(GetObjectRequest request) {
+        byte[] content = objects.get(request.getKey());
+        long[] range = request.getRange();
+        if (range == null) {
+            getObjectCount.incrementAndGet();
+            return createOSSObject(request.getKey(), content);
+        }
+        rangeGetCount.incrementAndGet();
+        if (failRangeStarts.contains(range[0])) {
+            throw new ClientException("mock range get failure");
+        }
+        if (range[0] >= content.length) {
+            // 与OSS一致，区间不合法时忽略Range返回整个对象
+            return createOSSObject(request.getKey(), content);
+        }
+        int end = (int) Math.min(range[1], content.length - 1);
+        OSSObject ossObject = createOSSObject(request.getKey(), Arrays.copyOfRange(content, (int) range[0], end + 1));
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+        objectMetadata.setHeader("Content-Range", "bytes " + range[0] + "-" + end + "/" + content.length);
+        ossObject.setObjectMetadata(objectMetadata);
+        return ossObject;
+    }
+
+    @Override
+    public DeleteObjectsResult deleteObjects(DeleteObjectsRequest request) {
+        deleteBatchSizes.add(request.getKeys().size());
+        if (request.getKeys().stream().anyMatch(errorDeleteKeys::contains)) {
+            throw new ClientException("mock delete objects failure");
+        }
+        List<String> deletedKeys = request.getKeys().stream()
+                .filter(key -> !failDeleteKeys.contains(key))
+                .collect(Collectors.toList());
+        deletedKeys.forEach(objects::remove);
+        return new DeleteObjectsResult(deletedKeys);
+    }
+
+    /**
+     * 读取对象的请求总数，包括整个对象的读取和区间读取
+     *
+     * @return
+     */
+    int remoteGetCount() {
+        return getObjectCount.get() + rangeGetCount.get();
+    }
+
+    /**
+     * 创建对象，读取对象时按照请求耗时和带宽休眠
+     *
+     * @param key
+     * @param content
+     * @return
+     */
+    private OSSObject createOSSObject(String key, byte[] content) {
+        transfer(new ByteArrayInputStream(content));
+        OSSObject ossObject = new OSSObject();
+        ossObject.setKey(key);
+        ossObject.setObjectContent(new ByteArrayInputStream(content));
+        return ossObject;
+    }
+
+    /**
+     * 读完输入流，并按照请求耗时和带宽休眠
+     *
+     * @param inputStream
+     * @return 读取的字节数
+     */
+    private long transfer(InputStream inputStream) {
+        long size = 0;
+        byte[] buffer = new byte[8192];
+        int len;
+        try {
+            while ((len = inputStream.read(buffer)) != -1) {
+                size += len;
+            }
+        } catch (IOException e) {
+            throw new ClientException(e);
+        }
+        long costMillis = requestCostMillis + (bytesPerSecond > 0 ? size * 1000 / bytesPerSecond : 0);
+        try {
+            Thread.sleep(costMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return size;
+    }
+
+}
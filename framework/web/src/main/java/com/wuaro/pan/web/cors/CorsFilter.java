@@ -12,7 +12,7 @@ import java.io.IOException;
 /**
  * 跨域设置
  */
-@WebFilter(filterName = "corsFilter")
+@WebFilter(filterName = "corsFilter", asyncSupported = true)
 @Order(1)
 public class CorsFilter implements Filter {
 
@@ -6,29 +6,55 @@ import org.springframework.core.annotation.Order;
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.springframework.web.util.ContentCachingRequestWrapper;
 import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.util.WebUtils;
 
+import javax.servlet.DispatcherType;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebFilter;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Objects;
 
 /**
  * 打印HTTP调用日志过滤器，使用者可以按需将其注入到过滤器容器中使用
  * 这里只提供基础的过滤实现
+ * <p>
+ * 支持异步请求：开启异步处理之后第一次过滤直接返回，等异步结果派发回来时复用第一次创建的包装对象，
+ * 再打印日志并把缓存的响应体写回真正的响应
  */
-@WebFilter(filterName = "httpLogFilter")
+@WebFilter(filterName = "httpLogFilter", asyncSupported = true, dispatcherTypes = {DispatcherType.REQUEST, DispatcherType.ASYNC})
 @Slf4j
 @Order(Integer.MAX_VALUE)
 public class HttpLogFilter extends OncePerRequestFilter {
 
+    private static final String STOP_WATCH_ATTRIBUTE = HttpLogFilter.class.getName() + ".STOP_WATCH";
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
-        StopWatch stopWatch = StopWatch.createStarted();
-        ContentCachingRequestWrapper requestWrapper = new ContentCachingRequestWrapper(request);
-        ContentCachingResponseWrapper responseWrapper = new ContentCachingResponseWrapper(response);
+        StopWatch stopWatch = (StopWatch) request.getAttribute(STOP_WATCH_ATTRIBUTE);
+        if (Objects.isNull(stopWatch)) {
+            stopWatch = StopWatch.createStarted();
+            request.setAttribute(STOP_WATCH_ATTRIBUTE, stopWatch);
+        }
+        ContentCachingRequestWrapper requestWrapper = WebUtils.getNativeRequest(request, ContentCachingRequestWrapper.class);
+        if (Objects.isNull(requestWrapper)) {
+            requestWrapper = new ContentCachingRequestWrapper(request);
+        }
+        ContentCachingResponseWrapper responseWrapper = WebUtils.getNativeResponse(response, ContentCachingResponseWrapper.class);
+        if (Objects.isNull(responseWrapper)) {
+            responseWrapper = new ContentCachingResponseWrapper(response);
+        }
         filterChain.doFilter(requestWrapper, responseWrapper);
+        if (isAsyncStarted(request)) {
+            return;
+        }
         HttpLogEntity httpLogEntity = HttpLogEntityBuilder.build(requestWrapper, responseWrapper, stopWatch);
         httpLogEntity.print();
         responseWrapper.copyBodyToResponse();
@@ -0,0 +1,111 @@
+package com.wuaro.pan.web.test;
+
+import com.wuaro.pan.web.log.HttpLogFilter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.StandardServletAsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * HTTP调用日志过滤器的单元测试类
+ * 异步请求按照Spring MVC处理DeferredResult的方式开启异步处理，再由测试模拟容器的异步派发
+ */
+public class HttpLogFilterTest {
+
+    private HttpLogFilter filter;
+
+    private MockHttpServletRequest request;
+
+    private MockHttpServletResponse response;
+
+    @Before
+    public void before() {
+        filter = new HttpLogFilter();
+        request = new MockHttpServletRequest("GET", "/file/download");
+        request.setAsyncSupported(true);
+        response = new MockHttpServletResponse();
+    }
+
+    /**
+     * 测试同步请求的响应体在过滤器中写回真正的响应
+     */
+    @Test
+    public void testSyncRequest() throws Exception {
+        filter.doFilter(request, response, (req, res) -> write(res, "hello"));
+
+        Assert.assertEquals("hello", response.getContentAsString());
+    }
+
+    /**
+     * 测试开启异步处理之后第一次过滤不写回响应体，异步派发时复用第一次的包装对象，
+     * 两次写入的响应体只在异步派发结束时写回真正的响应一次
+     */
+    @Test
+    public void testAsyncDispatch() throws Exception {
+        AtomicReference<ServletRequest> firstRequest = new AtomicReference<>();
+        AtomicReference<ServletResponse> firstResponse = new AtomicReference<>();
+        DeferredResult<String> deferredResult = new DeferredResult<>();
+        filter.doFilter(request, response, (req, res) -> {
+            firstRequest.set(req);
+            firstResponse.set(res);
+            write(res, "hello ");
+            startAsync(req, res, deferredResult);
+        });
+
+        Assert.assertTrue(request.isAsyncStarted());
+        Assert.assertEquals(0, response.getContentAsByteArray().length);
+
+        deferredResult.setResult("done");
+        MockAsyncContext asyncContext = (MockAsyncContext) request.getAsyncContext();
+        request.setAsyncStarted(false);
+        request.setDispatcherType(DispatcherType.ASYNC);
+        filter.doFilter(asyncContext.getRequest(), asyncContext.getResponse(), (req, res) -> {
+            Assert.assertSame(firstRequest.get(), req);
+            Assert.assertSame(firstResponse.get(), res);
+            write(res, "world");
+        });
+
+        Assert.assertEquals("hello world", response.getContentAsString());
+    }
+
+    /*****************************************private*****************************************/
+
+    private void write(ServletResponse res, String content) throws IOException {
+        res.getOutputStream().write(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 与Spring MVC处理DeferredResult返回值一样开启异步处理
+     *
+     * @param req
+     * @param res
+     * @param deferredResult
+     * @throws ServletException
+     */
+    private void startAsync(ServletRequest req, ServletResponse res, DeferredResult<String> deferredResult) throws ServletException {
+        WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(req);
+        asyncManager.setAsyncWebRequest(new StandardServletAsyncWebRequest((HttpServletRequest) req, (HttpServletResponse) res));
+        try {
+            asyncManager.startDeferredResultProcessing(deferredResult);
+        } catch (Exception e) {
+            throw new ServletException(e);
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.wuaro.pan.server.common.accelerate;
+
+import com.wuaro.pan.server.common.config.AcceleratedDownloadConfig;
+import com.wuaro.pan.server.modules.file.entity.RPanFile;
+import com.wuaro.pan.storage.engine.core.direct.LocalFileStorageEngine;
+import com.wuaro.pan.storage.engine.core.routing.RoutingStorageEngine;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriUtils;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * 加速下载的处理器
+ * <p>
+ * 开启之后，存放在本地存储引擎中的独立文件不再由应用线程读取并写入响应，
+ * 而是返回X-Accel-Redirect或者X-Sendfile响应头，由前置代理使用sendfile直接发送文件内容，
+ * 区间请求也由前置代理处理
+ * <p>
+ * 以下文件仍然由应用传输：压缩存储的文件、打包存储在段文件中的文件、其他存储引擎中的文件、
+ * 以及X_ACCEL_REDIRECT模式下没有配置location映射的文件
+ */
+@Component
+@Slf4j
+public class AcceleratedDownloadHandler {
+
+    private static final String X_ACCEL_REDIRECT_MODE = "X_ACCEL_REDIRECT";
+
+    private static final String X_SENDFILE_MODE = "X_SENDFILE";
+
+    private static final String X_ACCEL_REDIRECT_HEADER = "X-Accel-Redirect";
+
+    private static final String X_SENDFILE_HEADER = "X-Sendfile";
+
+    private static final String SLASH_STR = "/";
+
+    @Autowired
+    private AcceleratedDownloadConfig config;
+
+    @Autowired
+    private RoutingStorageEngine routingStorageEngine;
+
+    @Autowired(required = false)
+    private LocalFileStorageEngine localFileStorageEngine;
+
+    /**
+     * 尝试把文件交给前置代理发送
+     * 调用之前需要完成权限校验并设置好Content-Type、Content-Disposition等响应头，前置代理会沿用这些响应头
+     *
+     * @param realFileRecord
+     * @param response
+     * @return 是否已经设置了内部跳转的响应头，返回false时需要由应用自己传输文件内容
+     */
+    public boolean accelerate(RPanFile realFileRecord, HttpServletResponse response) {
+        if (!config.getEnabled() || Objects.isNull(localFileStorageEngine) || StringUtils.isNotBlank(realFileRecord.getCompressCodec())) {
+            return false;
+        }
+        String realPath = realFileRecord.getRealPath();
+        if (!Objects.equals(localFileStorageEngine.getEngineName(), routingStorageEngine.resolveEngineName(realPath))) {
+            return false;
+        }
+        File file = localFileStorageEngine.getLocalFile(RoutingStorageEngine.unwrap(realPath));
+        if (Objects.isNull(file)) {
+            return false;
+        }
+
+        if (X_SENDFILE_MODE.equals(config.getMode())) {
+            response.setHeader(X_SENDFILE_HEADER, file.getAbsolutePath());
+            return true;
+        }
+        if (X_ACCEL_REDIRECT_MODE.equals(config.getMode())) {
+            String internalUri = mapInternalUri(file);
+            if (Objects.isNull(internalUri)) {
+                log.warn("no accelerated download location matches file {}", file.getAbsolutePath());
+                return false;
+            }
+            response.setHeader(X_ACCEL_REDIRECT_HEADER, internalUri);
+            return true;
+        }
+        log.warn("unknown accelerated download mode {}", config.getMode());
+        return false;
+    }
+
+    /*****************************************private*****************************************/
+
+    /**
+     * 把文件的磁盘路径映射成nginx的内部location路径
+     * 多个根目录都匹配时使用最长的那个
+     *
+     * @param file
+     * @return 没有匹配的根目录时返回null
+     */
+    private String mapInternalUri(File file) {
+        String filePath = file.getAbsolutePath();
+        AcceleratedDownloadConfig.Location matched = null;
+        String matchedRootPath = null;
+        for (AcceleratedDownloadConfig.Location location : config.getLocations()) {
+            if (StringUtils.isAnyBlank(location.getPath(), location.getUri())) {
+                continue;
+            }
+            String rootPath = StringUtils.removeEnd(new File(location.getPath()).getAbsolutePath(), File.separator) + File.separator;
+            if (filePath.startsWith(rootPath) && (Objects.isNull(matchedRootPath) || rootPath.length() > matchedRootPath.length())) {
+                matched = location;
+                matchedRootPath = rootPath;
+            }
+        }
+        if (Objects.isNull(matched)) {
+            return null;
+        }
+        String relativePath = filePath.substring(matchedRootPath.length()).replace(File.separatorChar, '/');
+        String uriPrefix = StringUtils.appendIfMissing(matched.getUri(), SLASH_STR);
+        return uriPrefix + UriUtils.encodePath(relativePath, StandardCharsets.UTF_8);
+    }
+
+}
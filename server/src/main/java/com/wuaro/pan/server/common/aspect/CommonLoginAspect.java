@@ -21,6 +21,7 @@ import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Component;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.servlet.http.HttpServletRequest;
 import java.lang.reflect.Method;
@@ -133,7 +134,7 @@ public class CommonLoginAspect {
             log.info("成功拦截到请求，URI为：{}", requestURI);
             if (!checkAndSaveUserId(request)) {
                 log.warn("成功拦截到请求，URI为：{}. 检测到用户未登录，将跳转至登录页面", requestURI);
-                return R.fail(ResponseCode.NEED_LOGIN);
+                return needLoginResult(proceedingJoinPoint);
             }
 
             log.info("成功拦截到请求，URI为：{}，请求通过", requestURI);
@@ -287,5 +288,23 @@ public class CommonLoginAspect {
         return !method.isAnnotationPresent(LoginIgnore.class);
     }
 
+    /**
+     * 构造未登录的响应
+     * 异步处理的接口返回值是DeferredResult，需要把未登录的响应包装成已经完成的DeferredResult
+     *
+     * @param proceedingJoinPoint
+     * @return
+     */
+    private Object needLoginResult(ProceedingJoinPoint proceedingJoinPoint) {
+        R result = R.fail(ResponseCode.NEED_LOGIN);
+        MethodSignature methodSignature = (MethodSignature) proceedingJoinPoint.getSignature();
+        if (DeferredResult.class.isAssignableFrom(methodSignature.getReturnType())) {
+            DeferredResult<R> deferredResult = new DeferredResult<>();
+            deferredResult.setResult(result);
+            return deferredResult;
+        }
+        return result;
+    }
+
 
 }
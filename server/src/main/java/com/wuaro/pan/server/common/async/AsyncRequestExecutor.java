@@ -0,0 +1,129 @@
+package com.wuaro.pan.server.common.async;
+
+import com.wuaro.pan.core.exception.RPanBusinessException;
+import com.wuaro.pan.core.response.R;
+import com.wuaro.pan.server.common.config.PanServerConfig;
+import com.wuaro.pan.storage.engine.core.async.IoFuture;
+import com.wuaro.pan.storage.engine.core.async.StorageEngineIoExecutor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件传输类请求的异步执行器
+ * <p>
+ * 请求线程只负责解析参数，随后立即释放；上传、下载等阻塞的文件读写交给存储引擎的IO线程池执行，
+ * 执行完成之后再通过DeferredResult完成请求，这样并发传输的数量不再受Web容器请求线程数的限制
+ * <p>
+ * 1、execute：整个处理逻辑都在IO线程池中执行，用于文件读写夹在数据库事务中间的上传、合并等请求
+ * 2、compose：请求线程做完校验之后通过异步存储引擎发起读写，用返回的异步结果完成请求，用于下载、预览等直接写响应流的请求，
+ * 这类请求以null完成，不再输出响应体
+ * <p>
+ * 请求超时或者出错时取消处理逻辑：还在排队的不再执行，正在执行的中断IO线程，并且在处理逻辑退出之后才结束请求，
+ * 避免IO线程继续读写已经被容器回收的请求和响应
+ */
+@Component
+@Slf4j
+public class AsyncRequestExecutor {
+
+    private static final String SERVER_BUSY_MESSAGE = "服务器繁忙，请稍后重试";
+
+    private static final String REQUEST_TIMEOUT_MESSAGE = "请求超时，请稍后重试";
+
+    private static final String IO_FAILURE_MESSAGE = "文件读写失败";
+
+    @Autowired
+    private StorageEngineIoExecutor ioExecutor;
+
+    @Autowired
+    private PanServerConfig config;
+
+    /**
+     * 在IO线程池中执行请求的处理逻辑
+     *
+     * @param task 请求的处理逻辑，返回值作为响应体
+     * @return
+     */
+    public DeferredResult<R> execute(Callable<R> task) {
+        return compose(ioExecutor.submit(task));
+    }
+
+    /**
+     * 以已经提交的异步IO结果完成请求，处理逻辑直接写响应流的请求（下载、预览）以null完成
+     *
+     * @param future 异步存储引擎或者IO线程池返回的异步结果，超时或者出错时被取消
+     * @return
+     */
+    public <T> DeferredResult<R> compose(CompletableFuture<T> future) {
+        DeferredResult<R> deferredResult = new DeferredResult<>(config.getAsyncRequestTimeout());
+        deferredResult.onTimeout(() -> {
+            cancel(future);
+            deferredResult.setErrorResult(new RPanBusinessException(REQUEST_TIMEOUT_MESSAGE));
+        });
+        deferredResult.onError(throwable -> cancel(future));
+        future.whenComplete((result, throwable) -> {
+            if (future.isCancelled()) {
+                return;
+            }
+            if (Objects.isNull(throwable)) {
+                deferredResult.setResult(result instanceof R ? (R) result : null);
+                return;
+            }
+            deferredResult.setErrorResult(translate(throwable));
+        });
+        return deferredResult;
+    }
+
+    /*****************************************private*****************************************/
+
+    /**
+     * 转换异步执行的异常，交给全局异常处理器处理
+     *
+     * @param throwable
+     * @return
+     */
+    private Throwable translate(Throwable throwable) {
+        Throwable cause = throwable;
+        if (cause instanceof CompletionException && Objects.nonNull(cause.getCause())) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RejectedExecutionException) {
+            log.warn("storage engine io executor is full, reject the request");
+            return new RPanBusinessException(SERVER_BUSY_MESSAGE);
+        }
+        if (cause instanceof IOException) {
+            log.error("the async request failed to read or write the file", cause);
+            return new RPanBusinessException(IO_FAILURE_MESSAGE);
+        }
+        return cause;
+    }
+
+    /**
+     * 取消请求的处理逻辑：还在排队的IO任务不再执行，正在执行的中断IO线程，并等待IO任务退出
+     *
+     * @param future
+     */
+    private void cancel(CompletableFuture<?> future) {
+        if (!future.cancel(true) || !(future instanceof IoFuture)) {
+            return;
+        }
+        long waitMillis = config.getAsyncRequestCancelTimeout();
+        try {
+            if (!((IoFuture<?>) future).awaitExit(waitMillis, TimeUnit.MILLISECONDS)) {
+                log.warn("the cancelled request is still running after {} ms", waitMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.wuaro.pan.server.common.config;
+
+import com.google.common.collect.Lists;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 加速下载的配置
+ * 本地存储引擎中的文件由前置代理直接发送，应用只做权限校验并返回内部跳转的响应头
+ */
+@Component
+@ConfigurationProperties(prefix = "com.wuaro.pan.server.accelerated-download")
+@Data
+public class AcceleratedDownloadConfig {
+
+    /**
+     * 是否开启加速下载，只有前置代理配置好了内部跳转才能开启
+     */
+    private Boolean enabled = Boolean.FALSE;
+
+    /**
+     * 前置代理的类型
+     * X_ACCEL_REDIRECT：nginx，响应头的值是映射之后的内部location路径
+     * X_SENDFILE：Apache/lighttpd，响应头的值是文件在磁盘上的完整路径
+     */
+    private String mode = "X_ACCEL_REDIRECT";
+
+    /**
+     * X_ACCEL_REDIRECT模式下存储根目录到nginx内部location的映射，多块磁盘时每块磁盘配置一个
+     */
+    private List<Location> locations = Lists.newArrayList();
+
+    /**
+     * 存储根目录与内部location的映射
+     */
+    @Data
+    public static class Location {
+
+        /**
+         * 本地存储引擎存放文件的根目录
+         */
+        private String path;
+
+        /**
+         * nginx中对应的internal location，比如 /protected-files/
+         */
+        private String uri;
+
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.wuaro.pan.server.common.config;
+
+import com.wuaro.pan.core.utils.FileUtils;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 存储引擎之间迁移文件的配置
+ * 把源存储引擎中的所有文件在后台逐步迁移到目标存储引擎，迁移过程中文件正常读写
+ */
+@Component
+@ConfigurationProperties(prefix = "com.wuaro.pan.server.migration")
+@Data
+public class FileMigrationConfig {
+
+    /**
+     * 是否开启存储引擎迁移任务，需要同时引入源存储引擎和目标存储引擎
+     */
+    private Boolean enabled = Boolean.FALSE;
+
+    /**
+     * 源存储引擎的名称
+     */
+    private String sourceEngine = "local";
+
+    /**
+     * 目标存储引擎的名称
+     */
+    private String targetEngine = "oss";
+
+    /**
+     * 同时迁移的文件数
+     */
+    private Integer parallelism = 4;
+
+    /**
+     * 所有迁移线程读写的总带宽上限，单位字节每秒
+     */
+    private Long maxBytesPerSecond = 20L * 1024 * 1024;
+
+    /**
+     * 每批扫描的物理文件记录数
+     */
+    private Integer batchSize = 100;
+
+    /**
+     * 每次执行的最长时间，单位秒，超过之后在当前批次完成时停止，下次执行从断点继续
+     * 配合执行表达式可以把迁移限制在业务低峰的时间段内
+     */
+    private Integer maxRunSeconds = 540;
+
+    /**
+     * 写入目标存储引擎之后是否读回来校验内容
+     */
+    private Boolean verifyTarget = Boolean.TRUE;
+
+    /**
+     * 文件迁移之后延迟多少秒删除源存储引擎中的文件，留给正在读取原路径的请求
+     */
+    private Integer deleteGraceSeconds = 600;
+
+    /**
+     * 迁移文件时的本地临时目录
+     */
+    private String tempPath = FileUtils.generateDefaultStoreFileRealPath() + File.separator + "migration";
+
+    /**
+     * 迁移任务的执行表达式
+     */
+    private String migrationCron = "0 */10 * * * ?";
+
+    /**
+     * 迁移文件的线程池
+     * 每次只提交一批文件，队列长度不会超过批次大小
+     *
+     * @return
+     */
+    @Bean(name = "fileMigrationTaskExecutor")
+    public ThreadPoolTaskExecutor fileMigrationTaskExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+
+        taskExecutor.setCorePoolSize(getParallelism());
+        taskExecutor.setMaxPoolSize(getParallelism());
+        taskExecutor.setKeepAliveSeconds(200);
+        taskExecutor.setQueueCapacity(getBatchSize());
+        taskExecutor.setThreadNamePrefix("file-migration-thread");
+        taskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        taskExecutor.setWaitForTasksToCompleteOnShutdown(true);
+        taskExecutor.setAwaitTerminationSeconds(60);
+
+        return taskExecutor;
+    }
+
+    /**
+     * 执行迁移任务的线程，迁移不占用定时任务共用的调度线程
+     * 只有一个线程并且不排队，上一次执行还没有结束时拒绝新的执行
+     *
+     * @return
+     */
+    @Bean(name = "fileMigrationDispatchExecutor")
+    public ThreadPoolTaskExecutor fileMigrationDispatchExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+
+        taskExecutor.setCorePoolSize(1);
+        taskExecutor.setMaxPoolSize(1);
+        taskExecutor.setQueueCapacity(0);
+        taskExecutor.setThreadNamePrefix("file-migration-dispatch-thread");
+        taskExecutor.setWaitForTasksToCompleteOnShutdown(true);
+        taskExecutor.setAwaitTerminationSeconds(60);
+
+        return taskExecutor;
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.wuaro.pan.server.common.config;
+
+import com.wuaro.pan.core.utils.FileUtils;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 冷热分层存储的配置
+ * 按照文件的访问频率，把长期不访问的文件从热存储引擎迁移到冷存储引擎，把频繁访问的文件迁回热存储引擎
+ */
+@Component
+@ConfigurationProperties(prefix = "com.wuaro.pan.server.tiering")
+@Data
+public class FileTieringConfig {
+
+    /**
+     * 是否开启文件访问频率统计以及冷热分层迁移
+     * 需要同时引入热存储引擎和冷存储引擎
+     */
+    private Boolean enabled = Boolean.FALSE;
+
+    /**
+     * 热存储引擎的名称
+     */
+    private String hotEngine = "local";
+
+    /**
+     * 冷存储引擎的名称
+     */
+    private String coldEngine = "oss";
+
+    /**
+     * 超过多少天没有访问的文件迁移到冷存储引擎
+     */
+    private Integer coldAfterDays = 90;
+
+    /**
+     * 访问次数达到多少的冷存储文件迁回热存储引擎，访问次数每次分层任务执行完之后减半
+     */
+    private Long hotAccessCount = 20L;
+
+    /**
+     * 迁移文件时读写的总带宽上限，单位字节每秒
+     */
+    private Long maxBytesPerSecond = 20L * 1024 * 1024;
+
+    /**
+     * 每批扫描的物理文件记录数
+     */
+    private Integer batchSize = 100;
+
+    /**
+     * 文件迁移之后延迟多少秒删除原存储引擎中的文件，留给正在读取原路径的请求
+     */
+    private Integer deleteGraceSeconds = 600;
+
+    /**
+     * 每次执行的最长时间，单位秒，超过之后在当前批次完成时停止，下次执行从停止的位置继续扫描
+     */
+    private Integer maxRunSeconds = 3600;
+
+    /**
+     * 迁移文件时的本地临时目录
+     */
+    private String tempPath = FileUtils.generateDefaultStoreFileRealPath() + File.separator + "tiering";
+
+    /**
+     * 一个统计窗口最多记录的被访问文件数量，达到之后提前刷新该窗口，新的访问记录到新的统计窗口
+     */
+    private Integer maxTrackedFiles = 100000;
+
+    /**
+     * 冷热分层迁移任务的执行表达式
+     */
+    private String tieringCron = "0 0 2 * * ?";
+
+    /**
+     * 访问次数刷新到数据库的执行表达式
+     */
+    private String flushCron = "0 * * * * ?";
+
+    /**
+     * 执行冷热分层迁移的线程池
+     * 迁移任务在单独的线程中执行，不占用定时任务共用的调度线程；不排队，上一次还没有执行完时本次跳过
+     *
+     * @return
+     */
+    @Bean(name = "fileTieringTaskExecutor")
+    public ThreadPoolTaskExecutor fileTieringTaskExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+
+        taskExecutor.setCorePoolSize(1);
+        taskExecutor.setMaxPoolSize(1);
+        taskExecutor.setQueueCapacity(0);
+        taskExecutor.setThreadNamePrefix("file-tiering-thread");
+        taskExecutor.setWaitForTasksToCompleteOnShutdown(true);
+        taskExecutor.setAwaitTerminationSeconds(60);
+
+        return taskExecutor;
+    }
+
+    /**
+     * 统计窗口记录满之后提前刷新访问次数的线程池
+     * 队列满了之后由记录访问的线程自己刷新，限制等待刷新的统计窗口数量
+     *
+     * @return
+     */
+    @Bean(name = "fileAccessFlushTaskExecutor")
+    public ThreadPoolTaskExecutor fileAccessFlushTaskExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+
+        taskExecutor.setCorePoolSize(1);
+        taskExecutor.setMaxPoolSize(1);
+        taskExecutor.setQueueCapacity(4);
+        taskExecutor.setThreadNamePrefix("file-access-flush-thread");
+        taskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        taskExecutor.setWaitForTasksToCompleteOnShutdown(true);
+        taskExecutor.setAwaitTerminationSeconds(60);
+
+        return taskExecutor;
+    }
+
+}
@@ -15,9 +15,36 @@ public class PanServerConfig {
      */
     private Integer chunkFileExpirationDays = RPanConstants.ONE_INT;
 
+    /**
+     * 分片上传时提前到达的分片等待前面的分片计算完md5的最长时间，单位毫秒
+     * 超时之后该文件不再累加计算md5，合并时跳过文件内容的校验
+     */
+    private Long chunkDigestWaitMillis = 5000L;
+
     /**
      * 分享链接的前缀
      */
     private String sharePrefix = "http://127.0.0.1:8080/share/";
 
+    /**
+     * 文件上传、下载等异步请求的超时时间，单位毫秒（一小时）
+     */
+    private Long asyncRequestTimeout = 60L * 60 * 1000;
+
+    /**
+     * 异步请求超时或者出错之后，等待正在执行的处理逻辑响应中断的最长时间，单位毫秒
+     * 处理逻辑退出之前不结束请求，避免IO线程继续写已经被容器回收的响应
+     */
+    private Long asyncRequestCancelTimeout = 10L * 1000;
+
+    /**
+     * 是否开启客户端直传直下，开启之后支持直传的存储引擎由客户端直接上传、下载文件内容
+     */
+    private Boolean directTransferEnabled = Boolean.FALSE;
+
+    /**
+     * 一个区间请求合并重叠、相邻的区间之后最多允许的区间数，超过之后忽略Range请求头并传输完整的文件
+     */
+    private Integer maxRangesPerRequest = 16;
+
 }
@@ -85,6 +85,7 @@ public class FilePhysicalDeleteEventListener implements ApplicationContextAware
 
     /**
      * 委托文件存储引擎执行物理文件的删除
+     * 存储引擎按照每个路径回填删除结果，只针对删除失败的路径记录错误日志
      *
      * @param realFileRecords
      */
@@ -94,6 +95,10 @@ public class FilePhysicalDeleteEventListener implements ApplicationContextAware
         deleteFileContext.setRealFilePathList(realPathList);
         try {
             storageEngine.delete(deleteFileContext);
+            List<String> failedRealPathList = deleteFileContext.getFailedRealFilePathList();
+            if (CollectionUtils.isNotEmpty(failedRealPathList)) {
+                applicationContext.publishEvent(new ErrorLogEvent(this, "实体文件：" + JSON.toJSONString(failedRealPathList) + "， 物理删除失败，请执行手动删除", RPanConstants.ZERO_LONG));
+            }
         } catch (IOException e) {
             applicationContext.publishEvent(new ErrorLogEvent(this, "实体文件：" + JSON.toJSONString(realPathList) + "， 物理删除失败，请执行手动删除", RPanConstants.ZERO_LONG));
         }
@@ -0,0 +1,350 @@
+package com.wuaro.pan.server.common.range;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.core.constants.RPanConstants;
+import com.wuaro.pan.core.exception.RPanBusinessException;
+import com.wuaro.pan.core.utils.UUIDUtil;
+import com.wuaro.pan.server.common.config.PanServerConfig;
+import com.wuaro.pan.server.modules.file.constants.FileConstants;
+import com.wuaro.pan.server.modules.file.entity.RPanFile;
+import com.wuaro.pan.storage.engine.core.async.AsyncStorageEngine;
+import com.wuaro.pan.storage.engine.core.async.IoFuture;
+import com.wuaro.pan.storage.engine.core.context.ReadFileContext;
+import com.wuaro.pan.storage.engine.core.context.ReadFileRangeContext;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * 文件下载、预览时的区间请求处理器
+ * <p>
+ * 1、没有Range请求头，响应200并传输完整的文件
+ * 2、重叠或者相邻的区间合并之后只有一个区间，响应206并只传输该区间的内容
+ * 3、合并之后有多个区间，响应206并以multipart/byteranges的格式传输每一个区间
+ * 4、合并之后的区间数超过上限时忽略Range请求头，响应200并传输完整的文件，避免一个请求反复读取同一个文件
+ * 5、Range请求头的格式不合法时忽略该请求头，响应200并传输完整的文件
+ * 6、格式合法但是没有一个区间的起始位置落在文件内，响应416；部分区间无法满足时只传输可以满足的区间
+ * 7、压缩存储的文件在没有Range请求头并且客户端支持对应的编码时，直接传输压缩后的内容并设置Content-Encoding
+ * <p>
+ * 文件内容通过异步存储引擎读取，调用线程只负责设置响应头和发起读取，返回的异步结果完成之后响应才写完
+ */
+@Component
+@Slf4j
+public class RangeDownloadHandler {
+
+    @Autowired
+    private AsyncStorageEngine asyncStorageEngine;
+
+    @Autowired
+    private PanServerConfig panServerConfig;
+
+    /**
+     * 根据请求的Range请求头读取文件内容并写入到响应中
+     * 调用之前需要设置好Content-Type、Content-Disposition等响应头
+     *
+     * @param realFileRecord
+     * @param contentTypeValue multipart/byteranges每一段的Content-Type
+     * @param request
+     * @param response
+     * @return 文件内容写完之后完成的异步结果，被取消时同时取消正在进行的读取
+     */
+    public CompletableFuture<Void> write(RPanFile realFileRecord, String contentTypeValue, HttpServletRequest request, HttpServletResponse response) {
+        long fileSize = Long.parseLong(realFileRecord.getFileSize());
+        response.setHeader(FileConstants.ACCEPT_RANGES_STR, FileConstants.BYTES_STR);
+        if (StringUtils.isNotBlank(realFileRecord.getCompressCodec())) {
+            response.setHeader(FileConstants.VARY_STR, FileConstants.ACCEPT_ENCODING_STR);
+        }
+
+        List<long[]> ranges;
+        try {
+            ranges = parseRanges(request, fileSize);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(FileConstants.CONTENT_RANGE_STR, FileConstants.BYTES_STR + " */" + fileSize);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (ranges.size() > panServerConfig.getMaxRangesPerRequest()) {
+            log.warn("file {} is requested with {} ranges, send the whole file instead", realFileRecord.getFileId(), ranges.size());
+            ranges = Lists.newArrayList();
+        }
+
+        if (CollectionUtils.isEmpty(ranges)) {
+            boolean keepCompressed = acceptCompressed(realFileRecord, request);
+            if (keepCompressed) {
+                response.setHeader(FileConstants.CONTENT_ENCODING_STR, realFileRecord.getCompressCodec());
+                response.setContentLengthLong(Long.parseLong(realFileRecord.getStoredSize()));
+            } else {
+                response.setContentLengthLong(fileSize);
+            }
+            return writeWholeFile(realFileRecord, keepCompressed, response);
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (ranges.size() == RPanConstants.ONE_INT) {
+            return writeSingleRange(realFileRecord, ranges.get(RPanConstants.ZERO_INT), fileSize, response);
+        }
+        return writeMultipleRanges(realFileRecord, ranges, fileSize, contentTypeValue, response);
+    }
+
+    /*****************************************private*****************************************/
+
+    /**
+     * 解析请求中的Range请求头，丢弃起始位置超出文件大小的区间，并把重叠或者相邻的区间合并
+     * 请求头的格式不合法时按照没有Range请求头处理，返回空集合
+     * 格式合法但是所有区间都无法满足时抛出IllegalArgumentException，由调用方响应416
+     *
+     * @param request
+     * @param fileSize
+     * @return 按起始位置排序的区间，每个区间是 起始位置和结束位置（包含）
+     */
+    private List<long[]> parseRanges(HttpServletRequest request, long fileSize) {
+        List<long[]> ranges = Lists.newArrayList();
+        if (Objects.isNull(request) || fileSize <= RPanConstants.ZERO_LONG) {
+            return ranges;
+        }
+        String rangeHeader = request.getHeader(FileConstants.RANGE_STR);
+        if (StringUtils.isBlank(rangeHeader)) {
+            return ranges;
+        }
+        List<HttpRange> httpRanges;
+        try {
+            httpRanges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            log.debug("ignore the invalid range header: {}", rangeHeader);
+            return ranges;
+        }
+        for (HttpRange range : httpRanges) {
+            long start = range.getRangeStart(fileSize);
+            if (start < fileSize) {
+                ranges.add(new long[]{start, range.getRangeEnd(fileSize)});
+            }
+        }
+        if (CollectionUtils.isEmpty(ranges) && CollectionUtils.isNotEmpty(httpRanges)) {
+            throw new IllegalArgumentException("none of the ranges is satisfiable");
+        }
+        return coalesceRanges(ranges);
+    }
+
+    /**
+     * 合并重叠或者相邻的区间
+     *
+     * @param ranges
+     * @return
+     */
+    private List<long[]> coalesceRanges(List<long[]> ranges) {
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        List<long[]> coalesced = Lists.newArrayList();
+        for (long[] range : ranges) {
+            long[] last = coalesced.isEmpty() ? null : coalesced.get(coalesced.size() - RPanConstants.ONE_INT);
+            if (Objects.nonNull(last) && range[0] <= last[1] + RPanConstants.ONE_INT) {
+                last[1] = Math.max(last[1], range[1]);
+            } else {
+                coalesced.add(new long[]{range[0], range[1]});
+            }
+        }
+        return coalesced;
+    }
+
+    /**
+     * 判断是否可以直接传输压缩存储的文件内容
+     * 文件是压缩存储的并且客户端的Accept-Encoding请求头支持该编码方式
+     *
+     * @param realFileRecord
+     * @param request
+     * @return
+     */
+    private boolean acceptCompressed(RPanFile realFileRecord, HttpServletRequest request) {
+        String codec = realFileRecord.getCompressCodec();
+        if (StringUtils.isBlank(codec) || Objects.isNull(request)) {
+            return false;
+        }
+        String acceptEncoding = request.getHeader(FileConstants.ACCEPT_ENCODING_STR);
+        if (StringUtils.isBlank(acceptEncoding)) {
+            return false;
+        }
+        for (String encoding : acceptEncoding.split(",")) {
+            String[] encodingParts = encoding.split(";");
+            if (codec.equalsIgnoreCase(encodingParts[0].trim())) {
+                return encodingParts.length == 1 || !encodingParts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 传输单个区间的文件内容
+     *
+     * @param realFileRecord
+     * @param range
+     * @param fileSize
+     * @param response
+     * @return
+     */
+    private CompletableFuture<Void> writeSingleRange(RPanFile realFileRecord, long[] range, long fileSize, HttpServletResponse response) {
+        long start = range[0];
+        long end = range[1];
+        response.setHeader(FileConstants.CONTENT_RANGE_STR, assembleContentRange(start, end, fileSize));
+        response.setContentLengthLong(end - start + RPanConstants.ONE_INT);
+        return writeRange(realFileRecord, getOutputStream(response), start, end - start + RPanConstants.ONE_INT);
+    }
+
+    /**
+     * 以multipart/byteranges的格式传输多个区间的文件内容
+     * 每一段的头部和区间的内容按顺序依次写入，前一个区间读取完成之后才开始下一个区间
+     *
+     * @param realFileRecord
+     * @param ranges
+     * @param fileSize
+     * @param contentTypeValue
+     * @param response
+     * @return
+     */
+    private CompletableFuture<Void> writeMultipleRanges(RPanFile realFileRecord, List<long[]> ranges, long fileSize, String contentTypeValue, HttpServletResponse response) {
+        String boundary = UUIDUtil.getUUID();
+        response.setContentType(FileConstants.MULTIPART_BYTERANGES_PREFIX_STR + boundary);
+        OutputStream outputStream = getOutputStream(response);
+        List<Supplier<? extends CompletableFuture<?>>> steps = Lists.newArrayList();
+        for (long[] range : ranges) {
+            long start = range[0];
+            long end = range[1];
+            StringBuffer partHeader = new StringBuffer()
+                    .append(FileConstants.CRLF_STR)
+                    .append(FileConstants.BOUNDARY_PREFIX_STR)
+                    .append(boundary)
+                    .append(FileConstants.CRLF_STR);
+            if (StringUtils.isNotBlank(contentTypeValue)) {
+                partHeader.append(FileConstants.CONTENT_TYPE_STR)
+                        .append(": ")
+                        .append(contentTypeValue)
+                        .append(FileConstants.CRLF_STR);
+            }
+            partHeader.append(FileConstants.CONTENT_RANGE_STR)
+                    .append(": ")
+                    .append(assembleContentRange(start, end, fileSize))
+                    .append(FileConstants.CRLF_STR)
+                    .append(FileConstants.CRLF_STR);
+            steps.add(() -> writeString(outputStream, partHeader.toString()));
+            steps.add(() -> writeRange(realFileRecord, outputStream, start, end - start + RPanConstants.ONE_INT));
+        }
+        String endBoundary = FileConstants.CRLF_STR + FileConstants.BOUNDARY_PREFIX_STR + boundary + FileConstants.BOUNDARY_PREFIX_STR + FileConstants.CRLF_STR;
+        steps.add(() -> writeString(outputStream, endBoundary));
+        return IoFuture.sequence(steps);
+    }
+
+    /**
+     * 拼装Content-Range响应头的值
+     *
+     * @param start
+     * @param end
+     * @param fileSize
+     * @return bytes start-end/fileSize
+     */
+    private String assembleContentRange(long start, long end, long fileSize) {
+        return new StringBuffer(FileConstants.BYTES_STR)
+                .append(" ")
+                .append(start)
+                .append("-")
+                .append(end)
+                .append(RPanConstants.SLASH_STR)
+                .append(fileSize)
+                .toString();
+    }
+
+    /**
+     * 委托文件存储引擎去读取文件指定区间的内容并写入到输出流中
+     *
+     * @param realFileRecord
+     * @param outputStream
+     * @param offset
+     * @param length
+     * @return
+     */
+    private CompletableFuture<Void> writeRange(RPanFile realFileRecord, OutputStream outputStream, long offset, long length) {
+        ReadFileRangeContext context = new ReadFileRangeContext();
+        context.setRealPath(realFileRecord.getRealPath());
+        context.setCodec(realFileRecord.getCompressCodec());
+        context.setStoredSize(getStoredSize(realFileRecord));
+        context.setOutputStream(outputStream);
+        context.setOffset(offset);
+        context.setLength(length);
+        return asyncStorageEngine.realFileRange(context);
+    }
+
+    /**
+     * 委托文件存储引擎去读取文件内容并写入到输出流中
+     *
+     * @param realFileRecord
+     * @param keepCompressed 是否直接输出压缩存储的内容
+     * @param response
+     * @return
+     */
+    private CompletableFuture<Void> writeWholeFile(RPanFile realFileRecord, boolean keepCompressed, HttpServletResponse response) {
+        ReadFileContext context = new ReadFileContext();
+        context.setRealPath(realFileRecord.getRealPath());
+        context.setCodec(realFileRecord.getCompressCodec());
+        context.setKeepCompressed(keepCompressed);
+        context.setStoredSize(getStoredSize(realFileRecord));
+        context.setOutputStream(getOutputStream(response));
+        return asyncStorageEngine.realFile(context);
+    }
+
+    /**
+     * 获取响应的输出流
+     *
+     * @param response
+     * @return
+     */
+    private OutputStream getOutputStream(HttpServletResponse response) {
+        try {
+            return response.getOutputStream();
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RPanBusinessException("文件下载失败");
+        }
+    }
+
+    /**
+     * 向输出流中写入multipart/byteranges的分隔内容
+     *
+     * @param outputStream
+     * @param content
+     * @return 写入失败时以IOException异常完成
+     */
+    private CompletableFuture<Void> writeString(OutputStream outputStream, String content) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            outputStream.write(content.getBytes(StandardCharsets.ISO_8859_1));
+            future.complete(null);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 获取文件在存储引擎中保存的字节数，没有记录时未压缩的文件取文件大小
+     *
+     * @param realFileRecord
+     * @return 无法确定时返回null
+     */
+    private Long getStoredSize(RPanFile realFileRecord) {
+        String storedSize = StringUtils.isNotBlank(realFileRecord.getStoredSize()) ? realFileRecord.getStoredSize()
+                : StringUtils.isBlank(realFileRecord.getCompressCodec()) ? realFileRecord.getFileSize() : null;
+        return StringUtils.isNumeric(storedSize) ? Long.valueOf(storedSize) : null;
+    }
+
+}
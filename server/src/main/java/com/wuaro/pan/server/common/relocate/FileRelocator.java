@@ -0,0 +1,325 @@
+package com.wuaro.pan.server.common.relocate;
+
+import com.alibaba.fastjson.JSON;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.google.common.util.concurrent.RateLimiter;
+import com.wuaro.pan.core.constants.RPanConstants;
+import com.wuaro.pan.core.utils.MessageDigestUtil;
+import com.wuaro.pan.core.utils.ThrottledInputStream;
+import com.wuaro.pan.core.utils.ThrottledOutputStream;
+import com.wuaro.pan.core.utils.UUIDUtil;
+import com.wuaro.pan.server.common.event.log.ErrorLogEvent;
+import com.wuaro.pan.server.modules.file.entity.RPanFile;
+import com.wuaro.pan.server.modules.file.entity.RPanFilePendingDelete;
+import com.wuaro.pan.server.modules.file.service.IFilePendingDeleteService;
+import com.wuaro.pan.server.modules.file.service.IFileService;
+import com.wuaro.pan.storage.engine.core.StorageEngine;
+import com.wuaro.pan.storage.engine.core.compress.CompressionStorageEngine;
+import com.wuaro.pan.storage.engine.core.context.DeleteFileContext;
+import com.wuaro.pan.storage.engine.core.context.ReadFileContext;
+import com.wuaro.pan.storage.engine.core.context.StoreFileContext;
+import com.wuaro.pan.storage.engine.core.routing.RoutingStorageEngine;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 在存储引擎之间搬迁物理文件的组件，供存储引擎迁移任务和冷热分层任务共用
+ * <p>
+ * 单个文件的搬迁过程：
+ * 1、从原存储引擎读取原始字节（压缩存储的文件不解压）到本地临时文件，校验大小，按需校验文件唯一标识
+ * 2、写入目标存储引擎，按需读回来比较内容的md5
+ * 3、以原路径为条件原子地替换文件的真实存储路径，替换失败说明文件记录已经变化，删除新写入的文件
+ * 4、替换成功之后延迟一段时间再删除原存储引擎中的文件，留给正在读取原路径的请求
+ * <p>
+ * 任何一步失败都不会影响文件记录指向的原文件
+ * <p>
+ * 延迟删除的原路径和到期时间保存在待删除物理文件表中，服务重启之后在启动时以及每次搬迁任务执行之前补删，
+ * 删除之前再确认没有文件记录指向该路径
+ */
+@Component
+@Slf4j
+public class FileRelocator implements ApplicationContextAware {
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    @Autowired
+    private IFileService iFileService;
+
+    @Autowired
+    private RoutingStorageEngine routingStorageEngine;
+
+    @Autowired
+    private StorageEngine storageEngine;
+
+    @Autowired
+    private IFilePendingDeleteService iFilePendingDeleteService;
+
+    @Autowired
+    private ThreadPoolTaskScheduler taskScheduler;
+
+    private ApplicationContext applicationContext;
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    /**
+     * 滚动查询物理文件记录
+     *
+     * @param scrollPointer 上一批的最大文件ID
+     * @param batchSize
+     * @return
+     */
+    public List<RPanFile> scrollQueryFileRecords(Long scrollPointer, Integer batchSize) {
+        QueryWrapper<RPanFile> queryWrapper = Wrappers.query();
+        queryWrapper.select("file_id", "filename", "real_path", "file_size", "stored_size", "identifier", "compress_codec",
+                "access_count", "last_access_time");
+        queryWrapper.gt("file_id", scrollPointer);
+        queryWrapper.orderByAsc("file_id");
+        queryWrapper.last(" limit " + batchSize);
+        return iFileService.list(queryWrapper);
+    }
+
+    /**
+     * 创建本地临时目录，并清理上次中断时留下的临时文件
+     *
+     * @param taskName
+     * @param tempPath
+     * @return 临时目录是否可用
+     */
+    public boolean prepareTempFolder(String taskName, String tempPath) {
+        File tempFolder = new File(tempPath);
+        if (!tempFolder.exists() && !tempFolder.mkdirs()) {
+            log.error("{} create temp folder {} failed", taskName, tempFolder.getAbsolutePath());
+            return false;
+        }
+        File[] tempFiles = tempFolder.listFiles((dir, name) -> name.endsWith(TEMP_FILE_SUFFIX));
+        if (Objects.nonNull(tempFiles)) {
+            for (File tempFile : tempFiles) {
+                org.apache.commons.io.FileUtils.deleteQuietly(tempFile);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把文件搬到目标存储引擎，成功之后把新的真实存储路径回填到文件记录中
+     *
+     * @param context
+     * @return 是否搬迁成功
+     */
+    public boolean relocate(RelocateFileContext context) {
+        RPanFile record = context.getRecord();
+        String taskName = context.getTaskName();
+        String oldRealPath = record.getRealPath();
+        long storedSize = getStoredSize(record);
+        RateLimiter rateLimiter = context.getRateLimiter();
+        File tempFile = new File(context.getTempPath(), UUIDUtil.getUUID() + TEMP_FILE_SUFFIX);
+        String newRealPath = null;
+        try {
+            MessageDigest sourceDigest = MessageDigestUtil.newMd5Digest();
+            try (OutputStream outputStream = new ThrottledOutputStream(new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)), sourceDigest), rateLimiter)) {
+                ReadFileContext readFileContext = new ReadFileContext();
+                readFileContext.setRealPath(oldRealPath);
+                readFileContext.setOutputStream(outputStream);
+                routingStorageEngine.realFile(readFileContext);
+            }
+            if (tempFile.length() != storedSize) {
+                log.error("{} file {} size mismatch, expected: {}, actual: {}", taskName, record.getFileId(), storedSize, tempFile.length());
+                return false;
+            }
+            String sourceDigestHex = MessageDigestUtil.digestHex(sourceDigest);
+            if (context.getVerifySource() && !verifyIdentifier(record, tempFile, sourceDigestHex)) {
+                log.error("{} file {} identifier mismatch, the source copy may be corrupted", taskName, record.getFileId());
+                return false;
+            }
+
+            try (InputStream inputStream = new ThrottledInputStream(new FileInputStream(tempFile), rateLimiter)) {
+                StoreFileContext storeFileContext = new StoreFileContext();
+                storeFileContext.setFilename(record.getFilename());
+                storeFileContext.setTotalSize(storedSize);
+                storeFileContext.setInputStream(inputStream);
+                routingStorageEngine.storeTo(context.getTargetEngineName(), storeFileContext);
+                newRealPath = storeFileContext.getRealPath();
+            }
+            if (context.getVerifyTarget() && !verifyTarget(newRealPath, storedSize, sourceDigestHex, rateLimiter)) {
+                log.error("{} file {} verify target copy failed", taskName, record.getFileId());
+                deleteRealFile(newRealPath);
+                return false;
+            }
+
+            if (!iFileService.changeRealPath(record.getFileId(), oldRealPath, newRealPath)) {
+                log.warn("{} file {} changed during migration, discard the new copy", taskName, record.getFileId());
+                deleteRealFile(newRealPath);
+                return false;
+            }
+        } catch (Exception e) {
+            log.error("{} migrate file {} to {} failed", taskName, record.getFileId(), context.getTargetEngineName(), e);
+            if (Objects.nonNull(newRealPath)) {
+                deleteRealFile(newRealPath);
+            }
+            return false;
+        } finally {
+            org.apache.commons.io.FileUtils.deleteQuietly(tempFile);
+        }
+
+        record.setRealPath(newRealPath);
+        Date dueTime = new Date(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(context.getDeleteGraceSeconds()));
+        iFilePendingDeleteService.addPendingDelete(oldRealPath, dueTime);
+        taskScheduler.schedule(this::deleteDuePendingFiles, dueTime);
+        return true;
+    }
+
+    /**
+     * 删除所有已经到期的待删除文件
+     * 先删除待删除记录再删除文件，并发执行时同一个文件只会被删除一次；删除失败的文件记录错误日志
+     */
+    public void deleteDuePendingFiles() {
+        List<RPanFilePendingDelete> pendingDeletes = iFilePendingDeleteService.listDuePendingDeletes();
+        for (RPanFilePendingDelete pendingDelete : pendingDeletes) {
+            if (!iFilePendingDeleteService.removeById(pendingDelete.getId())) {
+                continue;
+            }
+            if (isReferenced(pendingDelete.getRealPath())) {
+                log.warn("pending delete file {} is referenced by a file record, skip it", pendingDelete.getRealPath());
+                continue;
+            }
+            deleteRealFile(pendingDelete.getRealPath());
+        }
+    }
+
+    /**
+     * 服务启动之后补删重启之前没有来得及删除的文件
+     * 已经到期的立即删除，还没有到期的在最晚的到期时间统一删除
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePendingDeletes() {
+        deleteDuePendingFiles();
+        List<RPanFilePendingDelete> pendingDeletes = iFilePendingDeleteService.list();
+        pendingDeletes.stream()
+                .map(RPanFilePendingDelete::getDueTime)
+                .max(Date::compareTo)
+                .ifPresent(dueTime -> taskScheduler.schedule(this::deleteDuePendingFiles, dueTime));
+    }
+
+    /**
+     * 获取文件在存储引擎中的实际字节数，压缩存储的文件是压缩之后的大小
+     *
+     * @param record
+     * @return
+     */
+    public long getStoredSize(RPanFile record) {
+        return Long.parseLong(StringUtils.isNotBlank(record.getStoredSize()) ? record.getStoredSize() : record.getFileSize());
+    }
+
+    /*********************************************private*********************************************/
+
+    /**
+     * 校验源文件的内容与文件唯一标识一致
+     * 文件唯一标识是原始内容的md5，压缩存储的文件解压之后再计算；没有记录文件唯一标识的文件不校验
+     *
+     * @param record
+     * @param tempFile
+     * @param sourceDigestHex 存储内容的md5
+     * @return
+     * @throws IOException
+     */
+    private boolean verifyIdentifier(RPanFile record, File tempFile, String sourceDigestHex) throws IOException {
+        if (StringUtils.isBlank(record.getIdentifier())) {
+            return true;
+        }
+        if (StringUtils.isBlank(record.getCompressCodec())) {
+            return sourceDigestHex.equalsIgnoreCase(record.getIdentifier());
+        }
+        if (!CompressionStorageEngine.GZIP_CODEC.equals(record.getCompressCodec())) {
+            return true;
+        }
+        MessageDigest digest = MessageDigestUtil.newMd5Digest();
+        try (InputStream inputStream = new DigestInputStream(new GZIPInputStream(new FileInputStream(tempFile)), digest)) {
+            org.apache.commons.io.IOUtils.copyLarge(inputStream, NullOutputStream.NULL_OUTPUT_STREAM);
+        }
+        return MessageDigestUtil.digestHex(digest).equalsIgnoreCase(record.getIdentifier());
+    }
+
+    /**
+     * 从目标存储引擎读回文件，校验大小和内容的md5与源文件一致
+     *
+     * @param newRealPath
+     * @param storedSize
+     * @param sourceDigestHex
+     * @param rateLimiter
+     * @return
+     * @throws IOException
+     */
+    private boolean verifyTarget(String newRealPath, long storedSize, String sourceDigestHex, RateLimiter rateLimiter) throws IOException {
+        MessageDigest digest = MessageDigestUtil.newMd5Digest();
+        org.apache.commons.io.output.CountingOutputStream countingOutputStream =
+                new org.apache.commons.io.output.CountingOutputStream(new DigestOutputStream(NullOutputStream.NULL_OUTPUT_STREAM, digest));
+        try (OutputStream outputStream = new ThrottledOutputStream(countingOutputStream, rateLimiter)) {
+            ReadFileContext readFileContext = new ReadFileContext();
+            readFileContext.setRealPath(newRealPath);
+            readFileContext.setOutputStream(outputStream);
+            routingStorageEngine.realFile(readFileContext);
+        }
+        return countingOutputStream.getByteCount() == storedSize && MessageDigestUtil.digestHex(digest).equalsIgnoreCase(sourceDigestHex);
+    }
+
+    /**
+     * 判断是否还有文件记录指向该真实存储路径
+     *
+     * @param realPath
+     * @return
+     */
+    private boolean isReferenced(String realPath) {
+        QueryWrapper<RPanFile> queryWrapper = Wrappers.query();
+        queryWrapper.eq("real_path", realPath);
+        return iFileService.count(queryWrapper) > RPanConstants.ZERO_INT;
+    }
+
+    /**
+     * 删除搬迁之后不再使用的文件
+     * 经过完整的存储引擎调用链删除，同时清理读缓存
+     *
+     * @param realPath
+     */
+    private void deleteRealFile(String realPath) {
+        DeleteFileContext deleteFileContext = new DeleteFileContext();
+        deleteFileContext.setRealFilePathList(Collections.singletonList(realPath));
+        try {
+            storageEngine.delete(deleteFileContext);
+            if (CollectionUtils.isNotEmpty(deleteFileContext.getFailedRealFilePathList())) {
+                saveErrorLog(deleteFileContext.getFailedRealFilePathList());
+            }
+        } catch (Exception e) {
+            saveErrorLog(Collections.singletonList(realPath));
+        }
+    }
+
+    private void saveErrorLog(List<String> realPaths) {
+        ErrorLogEvent event = new ErrorLogEvent(this, "文件物理删除失败，请手动执行文件删除！文件路径为：" + JSON.toJSONString(realPaths), RPanConstants.ZERO_LONG);
+        applicationContext.publishEvent(event);
+    }
+
+}
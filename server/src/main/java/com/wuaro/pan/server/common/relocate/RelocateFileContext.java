@@ -0,0 +1,53 @@
+package com.wuaro.pan.server.common.relocate;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.wuaro.pan.server.modules.file.entity.RPanFile;
+import lombok.Data;
+
+/**
+ * 把物理文件搬到另一个存储引擎的上下文实体
+ */
+@Data
+public class RelocateFileContext {
+
+    /**
+     * 发起搬迁的任务名称，用于打印日志
+     */
+    private String taskName;
+
+    /**
+     * 要搬迁的物理文件记录，搬迁成功之后回填新的真实存储路径
+     */
+    private RPanFile record;
+
+    /**
+     * 目标存储引擎的名称
+     */
+    private String targetEngineName;
+
+    /**
+     * 本地临时目录
+     */
+    private String tempPath;
+
+    /**
+     * 读写共用的限流器
+     */
+    private RateLimiter rateLimiter;
+
+    /**
+     * 是否校验源文件的内容与文件唯一标识一致
+     */
+    private Boolean verifySource = Boolean.FALSE;
+
+    /**
+     * 写入目标存储引擎之后是否读回来校验内容
+     */
+    private Boolean verifyTarget = Boolean.FALSE;
+
+    /**
+     * 搬迁之后延迟多少秒删除原存储引擎中的文件
+     */
+    private Integer deleteGraceSeconds;
+
+}
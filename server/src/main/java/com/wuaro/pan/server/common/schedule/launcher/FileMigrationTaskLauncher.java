@@ -0,0 +1,35 @@
+package com.wuaro.pan.server.common.schedule.launcher;
+
+import com.wuaro.pan.schedule.ScheduleManager;
+import com.wuaro.pan.server.common.config.FileMigrationConfig;
+import com.wuaro.pan.server.common.schedule.task.FileMigrationTask;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * 定时存储引擎迁移任务触发器
+ * 只有开启了存储引擎迁移才启动
+ */
+@Slf4j
+@Component
+public class FileMigrationTaskLauncher implements CommandLineRunner {
+
+    @Autowired
+    private FileMigrationTask task;
+
+    @Autowired
+    private ScheduleManager scheduleManager;
+
+    @Autowired
+    private FileMigrationConfig config;
+
+    @Override
+    public void run(String... args) throws Exception {
+        if (config.getEnabled()) {
+            scheduleManager.startTask(task, config.getMigrationCron());
+        }
+    }
+
+}
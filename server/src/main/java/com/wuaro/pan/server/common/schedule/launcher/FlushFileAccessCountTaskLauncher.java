@@ -0,0 +1,35 @@
+package com.wuaro.pan.server.common.schedule.launcher;
+
+import com.wuaro.pan.schedule.ScheduleManager;
+import com.wuaro.pan.server.common.config.FileTieringConfig;
+import com.wuaro.pan.server.common.schedule.task.FlushFileAccessCountTask;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * 定时刷新文件访问次数任务触发器
+ * 只有开启了冷热分层存储才启动
+ */
+@Slf4j
+@Component
+public class FlushFileAccessCountTaskLauncher implements CommandLineRunner {
+
+    @Autowired
+    private FlushFileAccessCountTask task;
+
+    @Autowired
+    private ScheduleManager scheduleManager;
+
+    @Autowired
+    private FileTieringConfig config;
+
+    @Override
+    public void run(String... args) throws Exception {
+        if (config.getEnabled()) {
+            scheduleManager.startTask(task, config.getFlushCron());
+        }
+    }
+
+}
@@ -68,7 +68,7 @@ public class CleanExpireChunkFileTask implements ScheduleTask , ApplicationConte
      * <p>
      * 1、滚动查询过期的文件分片
      * 2、删除物理文件（委托文件存储引擎去实现）
-     * 3、删除过期文件分片的记录信息
+     * 3、删除过期文件分片的记录信息，并清除对应文件的准备合并标记
      * 4、重置上次查询的最大文件分片记录ID，继续滚动查询
      */
     @Override
@@ -108,6 +108,7 @@ public class CleanExpireChunkFileTask implements ScheduleTask , ApplicationConte
 
     /**
      * 物理删除过期的文件分片文件实体
+     * 存储引擎按照每个路径回填删除结果，只针对删除失败的路径记录错误日志
      *
      * @param expireFileChunkRecords
      */
@@ -117,6 +118,9 @@ public class CleanExpireChunkFileTask implements ScheduleTask , ApplicationConte
         deleteFileContext.setRealFilePathList(realPaths);
         try {
             storageEngine.delete(deleteFileContext);
+            if (CollectionUtils.isNotEmpty(deleteFileContext.getFailedRealFilePathList())) {
+                saveErrorLog(deleteFileContext.getFailedRealFilePathList());
+            }
         } catch (IOException e) {
             saveErrorLog(realPaths);
         }
@@ -133,6 +137,7 @@ public class CleanExpireChunkFileTask implements ScheduleTask , ApplicationConte
 
     /**
      * 删除过期文件分片记录
+     * 同时清除这些文件的准备合并标记，重新上传过期的分片之后可以再次通知合并
      *
      * @param expireFileChunkRecords
      * @return
@@ -140,6 +145,10 @@ public class CleanExpireChunkFileTask implements ScheduleTask , ApplicationConte
     private List<Long> deleteChunkFileRecords(List<RPanFileChunk> expireFileChunkRecords) {
         List<Long> idList = expireFileChunkRecords.stream().map(RPanFileChunk::getId).collect(Collectors.toList());
         iFileChunkService.removeByIds(idList);
+        expireFileChunkRecords.stream()
+                .collect(Collectors.toMap(record -> record.getIdentifier() + RPanConstants.COMMON_SEPARATOR + record.getCreateUser(), record -> record, (a, b) -> a))
+                .values()
+                .forEach(record -> iFileChunkService.clearMergeReady(record.getIdentifier(), record.getCreateUser()));
         return idList;
     }
 
@@ -0,0 +1,266 @@
+package com.wuaro.pan.server.common.schedule.task;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import com.wuaro.pan.cache.core.constants.CacheConstants;
+import com.wuaro.pan.core.constants.RPanConstants;
+import com.wuaro.pan.schedule.ScheduleTask;
+import com.wuaro.pan.server.common.config.FileMigrationConfig;
+import com.wuaro.pan.server.common.relocate.FileRelocator;
+import com.wuaro.pan.server.common.relocate.RelocateFileContext;
+import com.wuaro.pan.server.modules.file.entity.RPanFile;
+import com.wuaro.pan.storage.engine.core.routing.RoutingStorageEngine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 存储引擎之间的文件迁移任务
+ * <p>
+ * 1、按照文件ID滚动扫描物理文件记录，从上次的断点继续，只处理源存储引擎中的文件
+ * 2、每一批文件由迁移线程池并行迁移，所有线程共用一个限流器限制总带宽
+ * 3、每一批迁移完成之后把这一批的最大文件ID作为断点保存到缓存中，扫描到最后时断点归零，下次从头检查新写入源存储引擎的文件
+ * 4、迁移在单独的线程中执行，不占用定时任务共用的调度线程；每次执行超过最长时间或者应用停机时，在当前批次完成之后停止
+ * <p>
+ * 单个文件的迁移由{@link FileRelocator}完成，迁移之前校验源文件与文件唯一标识一致，开启了校验时读回目标文件比较内容的md5
+ * <p>
+ * 迁移失败的文件只记录日志，下一轮扫描时重试；任何一步中断都不会影响文件记录指向的原文件
+ */
+@Component
+@Slf4j
+public class FileMigrationTask implements ScheduleTask, MeterBinder {
+
+    private static final String CHECKPOINT_KEY_PREFIX = "file_migration_checkpoint_";
+
+    private static final String METRIC_PREFIX = "rpan.file.migration.";
+
+    @Autowired
+    private RoutingStorageEngine routingStorageEngine;
+
+    @Autowired
+    private FileRelocator fileRelocator;
+
+    @Autowired
+    @Qualifier(value = "fileMigrationTaskExecutor")
+    private TaskExecutor migrationTaskExecutor;
+
+    @Autowired
+    @Qualifier(value = "fileMigrationDispatchExecutor")
+    private TaskExecutor migrationDispatchExecutor;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private FileMigrationConfig config;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private volatile boolean stopping = false;
+
+    private final AtomicLong scannedCount = new AtomicLong();
+
+    private final AtomicLong migratedCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final AtomicLong migratedBytes = new AtomicLong();
+
+    private final AtomicLong checkpoint = new AtomicLong();
+
+    /**
+     * 获取定时任务的名称
+     *
+     * @return
+     */
+    @Override
+    public String getName() {
+        return "FileMigrationTask";
+    }
+
+    /**
+     * 注册迁移进度的指标
+     *
+     * @param registry
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder(METRIC_PREFIX + "scanned", scannedCount, AtomicLong::doubleValue)
+                .description("扫描过的源存储引擎中的文件数")
+                .register(registry);
+        FunctionCounter.builder(METRIC_PREFIX + "migrated", migratedCount, AtomicLong::doubleValue)
+                .description("迁移成功的文件数")
+                .register(registry);
+        FunctionCounter.builder(METRIC_PREFIX + "failed", failedCount, AtomicLong::doubleValue)
+                .description("迁移失败的文件数")
+                .register(registry);
+        FunctionCounter.builder(METRIC_PREFIX + "bytes", migratedBytes, AtomicLong::doubleValue)
+                .description("迁移成功的文件的存储字节数")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder(METRIC_PREFIX + "checkpoint", checkpoint, AtomicLong::doubleValue)
+                .description("已经迁移完成的最大文件ID")
+                .register(registry);
+        Gauge.builder(METRIC_PREFIX + "running", running, value -> value.get() ? 1D : 0D)
+                .description("迁移任务是否正在执行")
+                .register(registry);
+    }
+
+    /**
+     * 把存储引擎迁移提交到迁移任务的线程中执行
+     */
+    @Override
+    public void run() {
+        if (!routingStorageEngine.containsEngine(config.getSourceEngine()) || !routingStorageEngine.containsEngine(config.getTargetEngine())
+                || Objects.equals(config.getSourceEngine(), config.getTargetEngine())) {
+            log.warn("{} skipped, source engine {} or target engine {} is not available", getName(), config.getSourceEngine(), config.getTargetEngine());
+            return;
+        }
+        try {
+            migrationDispatchExecutor.execute(this::runOnce);
+        } catch (TaskRejectedException e) {
+            log.warn("{} skipped, the previous run is still running", getName());
+        }
+    }
+
+    /**
+     * 停机时在当前批次完成之后停止，迁移线程池会等待正在迁移的文件完成
+     */
+    @PreDestroy
+    public void stop() {
+        stopping = true;
+    }
+
+    /*********************************************private*********************************************/
+
+    private void runOnce() {
+        running.set(true);
+        try {
+            doRun();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 执行一次存储引擎迁移，从上次的断点继续
+     * 开始之前先补删已经到期的搬迁前的原文件
+     */
+    private void doRun() {
+        fileRelocator.deleteDuePendingFiles();
+        if (!fileRelocator.prepareTempFolder(getName(), config.getTempPath())) {
+            return;
+        }
+
+        RateLimiter rateLimiter = RateLimiter.create(config.getMaxBytesPerSecond());
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(config.getMaxRunSeconds());
+        Long scrollPointer = loadCheckpoint();
+        log.info("{} start migrating files from {} to {}, checkpoint: {}", getName(), config.getSourceEngine(), config.getTargetEngine(), scrollPointer);
+
+        List<RPanFile> records;
+        do {
+            records = fileRelocator.scrollQueryFileRecords(scrollPointer, config.getBatchSize());
+            if (CollectionUtils.isEmpty(records)) {
+                scrollPointer = RPanConstants.ZERO_LONG;
+                log.info("{} finish a full pass", getName());
+            } else {
+                migrateBatch(records, rateLimiter);
+                scrollPointer = records.get(records.size() - RPanConstants.ONE_INT).getFileId();
+            }
+            saveCheckpoint(scrollPointer);
+        } while (CollectionUtils.isNotEmpty(records) && !stopping && System.currentTimeMillis() < deadline);
+
+        log.info("{} pause at checkpoint {}, migrated: {}, failed: {}", getName(), scrollPointer, migratedCount.get(), failedCount.get());
+    }
+
+    /**
+     * 并行迁移一批文件中属于源存储引擎的文件，等待这一批全部完成
+     *
+     * @param records
+     * @param rateLimiter
+     */
+    private void migrateBatch(List<RPanFile> records, RateLimiter rateLimiter) {
+        List<CompletableFuture<Void>> futures = Lists.newArrayList();
+        for (RPanFile record : records) {
+            if (!Objects.equals(config.getSourceEngine(), routingStorageEngine.resolveEngineName(record.getRealPath()))) {
+                continue;
+            }
+            scannedCount.incrementAndGet();
+            long storedSize = fileRelocator.getStoredSize(record);
+            futures.add(CompletableFuture.runAsync(() -> {
+                if (migrate(record, rateLimiter)) {
+                    migratedCount.incrementAndGet();
+                    migratedBytes.addAndGet(storedSize);
+                } else {
+                    failedCount.incrementAndGet();
+                }
+            }, migrationTaskExecutor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    }
+
+    /**
+     * 把文件迁移到目标存储引擎，迁移之前校验源文件与文件唯一标识一致
+     *
+     * @param record
+     * @param rateLimiter
+     * @return 是否迁移成功
+     */
+    private boolean migrate(RPanFile record, RateLimiter rateLimiter) {
+        RelocateFileContext context = new RelocateFileContext();
+        context.setTaskName(getName());
+        context.setRecord(record);
+        context.setTargetEngineName(config.getTargetEngine());
+        context.setTempPath(config.getTempPath());
+        context.setRateLimiter(rateLimiter);
+        context.setVerifySource(Boolean.TRUE);
+        context.setVerifyTarget(config.getVerifyTarget());
+        context.setDeleteGraceSeconds(config.getDeleteGraceSeconds());
+        return fileRelocator.relocate(context);
+    }
+
+    private Long loadCheckpoint() {
+        String value = getCache().get(getCheckpointKey(), String.class);
+        long pointer = StringUtils.isNumeric(value) ? Long.parseLong(value) : RPanConstants.ZERO_LONG;
+        checkpoint.set(pointer);
+        return pointer;
+    }
+
+    private void saveCheckpoint(Long scrollPointer) {
+        getCache().put(getCheckpointKey(), String.valueOf(scrollPointer));
+        checkpoint.set(scrollPointer);
+    }
+
+    /**
+     * 断点按照源存储引擎和目标存储引擎区分，更换迁移方向时从头开始
+     *
+     * @return
+     */
+    private String getCheckpointKey() {
+        return CHECKPOINT_KEY_PREFIX + config.getSourceEngine() + "_" + config.getTargetEngine();
+    }
+
+    private Cache getCache() {
+        return cacheManager.getCache(CacheConstants.R_PAN_CACHE_NAME);
+    }
+
+}
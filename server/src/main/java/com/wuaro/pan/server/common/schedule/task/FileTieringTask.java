@@ -0,0 +1,179 @@
+package com.wuaro.pan.server.common.schedule.task;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.wuaro.pan.core.constants.RPanConstants;
+import com.wuaro.pan.schedule.ScheduleTask;
+import com.wuaro.pan.server.common.config.FileTieringConfig;
+import com.wuaro.pan.server.common.relocate.FileRelocator;
+import com.wuaro.pan.server.common.relocate.RelocateFileContext;
+import com.wuaro.pan.server.modules.file.entity.RPanFile;
+import com.wuaro.pan.server.modules.file.service.IFileService;
+import com.wuaro.pan.storage.engine.core.routing.RoutingStorageEngine;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections.CollectionUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 冷热分层迁移任务
+ * <p>
+ * 1、按照文件ID滚动扫描物理文件记录
+ * 2、热存储引擎中超过指定天数没有访问、并且访问次数没有达到热文件阈值的文件迁移到冷存储引擎
+ * 3、冷存储引擎中访问次数达到热文件阈值的文件迁回热存储引擎
+ * 4、扫描完成之后所有文件的访问次数减半，让访问次数反映的是近期的访问频率
+ * 5、迁移在单独的线程中执行，不占用定时任务共用的调度线程；每次执行超过最长时间或者应用停机时，
+ * 在当前批次完成之后停止，下次执行从停止的位置继续扫描，完整扫描一遍之后才衰减访问次数
+ * <p>
+ * 单个文件的迁移由{@link FileRelocator}完成，读写共用一个限流器限制总带宽
+ */
+@Component
+@Slf4j
+public class FileTieringTask implements ScheduleTask {
+
+    @Autowired
+    private IFileService iFileService;
+
+    @Autowired
+    private RoutingStorageEngine routingStorageEngine;
+
+    @Autowired
+    private FileRelocator fileRelocator;
+
+    @Autowired
+    @Qualifier(value = "fileTieringTaskExecutor")
+    private TaskExecutor tieringTaskExecutor;
+
+    @Autowired
+    private FileTieringConfig config;
+
+    /**
+     * 上次执行停止时扫描到的文件ID，完整扫描一遍之后归零
+     */
+    private volatile Long scrollPointer = RPanConstants.ZERO_LONG;
+
+    private volatile boolean stopping = false;
+
+    /**
+     * 获取定时任务的名称
+     *
+     * @return
+     */
+    @Override
+    public String getName() {
+        return "FileTieringTask";
+    }
+
+    /**
+     * 把冷热分层迁移提交到迁移线程中执行
+     */
+    @Override
+    public void run() {
+        if (!routingStorageEngine.containsEngine(config.getHotEngine()) || !routingStorageEngine.containsEngine(config.getColdEngine())) {
+            log.warn("{} skipped, hot engine {} or cold engine {} is not available", getName(), config.getHotEngine(), config.getColdEngine());
+            return;
+        }
+        try {
+            tieringTaskExecutor.execute(this::doRun);
+        } catch (TaskRejectedException e) {
+            log.warn("{} skipped, the previous run is still running", getName());
+        }
+    }
+
+    /**
+     * 停机时在当前批次完成之后停止
+     */
+    @PreDestroy
+    public void stop() {
+        stopping = true;
+    }
+
+    /*********************************************private*********************************************/
+
+    /**
+     * 执行冷热分层迁移，从上次停止的位置继续扫描
+     * 开始之前先补删已经到期的搬迁前的原文件
+     */
+    private void doRun() {
+        fileRelocator.deleteDuePendingFiles();
+        if (!fileRelocator.prepareTempFolder(getName(), config.getTempPath())) {
+            return;
+        }
+
+        RateLimiter rateLimiter = RateLimiter.create(config.getMaxBytesPerSecond());
+        Date coldBefore = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(config.getColdAfterDays()));
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(config.getMaxRunSeconds());
+        log.info("{} start tiering files from file id {}...", getName(), scrollPointer);
+
+        int demoted = 0;
+        int promoted = 0;
+        List<RPanFile> records;
+        do {
+            records = fileRelocator.scrollQueryFileRecords(scrollPointer, config.getBatchSize());
+            if (CollectionUtils.isEmpty(records)) {
+                break;
+            }
+            for (RPanFile record : records) {
+                String engineName = routingStorageEngine.resolveEngineName(record.getRealPath());
+                if (shouldDemote(record, engineName, coldBefore) && migrate(record, config.getColdEngine(), rateLimiter)) {
+                    demoted++;
+                } else if (shouldPromote(record, engineName) && migrate(record, config.getHotEngine(), rateLimiter)) {
+                    promoted++;
+                }
+            }
+            scrollPointer = records.get(records.size() - RPanConstants.ONE_INT).getFileId();
+        } while (!stopping && System.currentTimeMillis() < deadline);
+
+        if (CollectionUtils.isEmpty(records)) {
+            scrollPointer = RPanConstants.ZERO_LONG;
+            iFileService.decayAccessCount();
+            log.info("{} finish tiering files, demoted: {}, promoted: {}", getName(), demoted, promoted);
+        } else {
+            log.info("{} pause at file id {}, demoted: {}, promoted: {}", getName(), scrollPointer, demoted, promoted);
+        }
+    }
+
+    private boolean shouldDemote(RPanFile record, String engineName, Date coldBefore) {
+        return Objects.equals(engineName, config.getHotEngine())
+                && Objects.nonNull(record.getLastAccessTime())
+                && record.getLastAccessTime().before(coldBefore)
+                && getAccessCount(record) < config.getHotAccessCount();
+    }
+
+    private boolean shouldPromote(RPanFile record, String engineName) {
+        return Objects.equals(engineName, config.getColdEngine())
+                && getAccessCount(record) >= config.getHotAccessCount();
+    }
+
+    private long getAccessCount(RPanFile record) {
+        return Objects.isNull(record.getAccessCount()) ? RPanConstants.ZERO_LONG : record.getAccessCount();
+    }
+
+    /**
+     * 把文件迁移到目标存储引擎
+     *
+     * @param record
+     * @param targetEngineName
+     * @param rateLimiter
+     * @return 是否迁移成功
+     */
+    private boolean migrate(RPanFile record, String targetEngineName, RateLimiter rateLimiter) {
+        RelocateFileContext context = new RelocateFileContext();
+        context.setTaskName(getName());
+        context.setRecord(record);
+        context.setTargetEngineName(targetEngineName);
+        context.setTempPath(config.getTempPath());
+        context.setRateLimiter(rateLimiter);
+        context.setDeleteGraceSeconds(config.getDeleteGraceSeconds());
+        return fileRelocator.relocate(context);
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.wuaro.pan.server.common.schedule.task;
+
+import com.wuaro.pan.schedule.ScheduleTask;
+import com.wuaro.pan.server.common.tiering.FileAccessTracker;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 文件访问次数刷新任务
+ * 把内存中统计的文件访问次数累加到数据库中
+ */
+@Component
+@Slf4j
+public class FlushFileAccessCountTask implements ScheduleTask {
+
+    @Autowired
+    private FileAccessTracker fileAccessTracker;
+
+    /**
+     * 获取定时任务的名称
+     *
+     * @return
+     */
+    @Override
+    public String getName() {
+        return "FlushFileAccessCountTask";
+    }
+
+    @Override
+    public void run() {
+        int flushed = fileAccessTracker.flush();
+        if (flushed > 0) {
+            log.debug("{} flush access count of {} files", getName(), flushed);
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.wuaro.pan.server.common.tiering;
+
+import com.wuaro.pan.server.common.config.FileTieringConfig;
+import com.wuaro.pan.server.modules.file.service.IFileService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 物理文件访问频率的统计器
+ * <p>
+ * 1、下载、预览文件时只在内存中计数，不访问数据库
+ * 2、每个统计窗口按文件ID精确计数，记录的文件数有上限，达到上限时切换到新的统计窗口，记满的窗口交给刷新线程池提前刷新，
+ * 新文件的访问记录到新的统计窗口，不会丢失，内存占用有界
+ * 3、定期把被访问过的文件的计数累加到数据库，并更新最近访问时间，刷新时整体切换到新的统计窗口
+ * <p>
+ * 切换窗口的瞬间记录的访问可能丢失，对于冷热分层的判断来说这个精度已经足够；
+ * 数据库中的访问次数是累加的，同一个文件在多个窗口中的计数分别刷新，结果一致
+ */
+@Component
+@Slf4j
+public class FileAccessTracker {
+
+    private final FileTieringConfig config;
+
+    private final IFileService iFileService;
+
+    private final TaskExecutor flushTaskExecutor;
+
+    private final AtomicReference<AccessWindow> window;
+
+    @Autowired
+    public FileAccessTracker(FileTieringConfig config,
+                             IFileService iFileService,
+                             @Qualifier(value = "fileAccessFlushTaskExecutor") TaskExecutor flushTaskExecutor) {
+        this.config = config;
+        this.iFileService = iFileService;
+        this.flushTaskExecutor = flushTaskExecutor;
+        this.window = new AtomicReference<>(new AccessWindow());
+    }
+
+    /**
+     * 记录一次物理文件的访问
+     *
+     * @param fileId 物理文件ID
+     */
+    public void record(Long fileId) {
+        if (!config.getEnabled() || Objects.isNull(fileId)) {
+            return;
+        }
+        AccessWindow current = window.get();
+        LongAdder counter = current.counters.get(fileId);
+        if (Objects.isNull(counter)) {
+            AccessWindow target = current.size.get() >= config.getMaxTrackedFiles() ? rotate(current) : current;
+            counter = target.counters.computeIfAbsent(fileId, key -> {
+                target.size.incrementAndGet();
+                return new LongAdder();
+            });
+        }
+        counter.increment();
+    }
+
+    /**
+     * 把当前统计窗口的访问次数刷新到数据库
+     *
+     * @return 刷新的文件数量
+     */
+    public int flush() {
+        return flush(window.getAndSet(new AccessWindow()));
+    }
+
+    /**
+     * 停机之前刷新最后一个统计窗口
+     */
+    @PreDestroy
+    public void close() {
+        if (config.getEnabled()) {
+            flush();
+        }
+    }
+
+    /*****************************************private*****************************************/
+
+    /**
+     * 记满的统计窗口切换到新的统计窗口，记满的窗口交给刷新线程池刷新
+     * 多个线程同时发现窗口记满时只有一个线程切换，其他线程使用切换之后的窗口
+     *
+     * @param full
+     * @return 新的统计窗口
+     */
+    private AccessWindow rotate(AccessWindow full) {
+        AccessWindow fresh = new AccessWindow();
+        if (!window.compareAndSet(full, fresh)) {
+            return window.get();
+        }
+        flushTaskExecutor.execute(() -> {
+            int flushed = flush(full);
+            log.info("the file access window is full, flushed {} files early", flushed);
+        });
+        return fresh;
+    }
+
+    /**
+     * 把一个统计窗口的访问次数累加到数据库
+     *
+     * @param current
+     * @return 刷新的文件数量
+     */
+    private int flush(AccessWindow current) {
+        if (current.counters.isEmpty()) {
+            return 0;
+        }
+        Date accessTime = new Date();
+        int flushed = 0;
+        for (Map.Entry<Long, LongAdder> entry : current.counters.entrySet()) {
+            try {
+                iFileService.increaseAccessCount(entry.getKey(), entry.getValue().sum(), accessTime);
+                flushed++;
+            } catch (Exception e) {
+                log.error("flush file access count failed, fileId: {}", entry.getKey(), e);
+            }
+        }
+        return flushed;
+    }
+
+    /**
+     * 两次刷新之间的统计窗口
+     */
+    private static class AccessWindow {
+
+        private final Map<Long, LongAdder> counters = new ConcurrentHashMap<>();
+
+        private final AtomicInteger size = new AtomicInteger();
+
+    }
+
+}
@@ -46,4 +46,69 @@ public interface FileConstants {
 
     String IOS_8859_1_STR = "ISO-8859-1";
 
+    /**
+     * 声明支持区间请求的响应头
+     */
+    String ACCEPT_RANGES_STR = "Accept-Ranges";
+
+    /**
+     * 区间请求的请求头
+     */
+    String RANGE_STR = "Range";
+
+    /**
+     * 区间响应的响应头
+     */
+    String CONTENT_RANGE_STR = "Content-Range";
+
+    /**
+     * 区间的单位
+     */
+    String BYTES_STR = "bytes";
+
+    /**
+     * 多区间响应的Content-Type前缀
+     */
+    String MULTIPART_BYTERANGES_PREFIX_STR = "multipart/byteranges; boundary=";
+
+    /**
+     * 多区间响应中分隔每一部分的换行符
+     */
+    String CRLF_STR = "\r\n";
+
+    /**
+     * 多区间响应中分隔符的前缀
+     */
+    String BOUNDARY_PREFIX_STR = "--";
+
+    /**
+     * 客户端支持的内容编码的请求头
+     */
+    String ACCEPT_ENCODING_STR = "Accept-Encoding";
+
+    /**
+     * 响应内容编码的响应头
+     */
+    String CONTENT_ENCODING_STR = "Content-Encoding";
+
+    /**
+     * 响应内容随请求头变化的响应头
+     */
+    String VARY_STR = "Vary";
+
+    /**
+     * 客户端直传信息在缓存中的key的前缀
+     */
+    String DIRECT_UPLOAD_PREFIX = "direct_upload_";
+
+    /**
+     * 文件分片准备合并标记在缓存中的key的前缀
+     */
+    String CHUNK_MERGE_READY_PREFIX = "chunk_merge_ready_";
+
+    /**
+     * 文件分片上传计数在缓存中的key的前缀
+     */
+    String CHUNK_COUNTER_PREFIX = "chunk_counter_";
+
 }
@@ -0,0 +1,40 @@
+package com.wuaro.pan.server.modules.file.context;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 初始化客户端直传的上下文实体
+ */
+@Data
+public class DirectUploadContext implements Serializable {
+
+    private static final long serialVersionUID = 6651094387129455047L;
+
+    /**
+     * 文件名称
+     */
+    private String filename;
+
+    /**
+     * 文件唯一标识
+     */
+    private String identifier;
+
+    /**
+     * 文件大小
+     */
+    private Long totalSize;
+
+    /**
+     * 文件的父文件夹ID
+     */
+    private Long parentId;
+
+    /**
+     * 当前登录的用户ID
+     */
+    private Long userId;
+
+}
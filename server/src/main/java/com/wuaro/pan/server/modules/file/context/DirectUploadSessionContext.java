@@ -0,0 +1,61 @@
+package com.wuaro.pan.server.modules.file.context;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 进行中的客户端直传的上下文实体
+ * 初始化直传时保存到缓存中，确认上传完成时取出来保存文件记录
+ */
+@Data
+public class DirectUploadSessionContext implements Serializable {
+
+    private static final long serialVersionUID = 1862093366418650921L;
+
+    /**
+     * 发起直传的用户ID
+     */
+    private Long userId;
+
+    /**
+     * 文件的父文件夹ID
+     */
+    private Long parentId;
+
+    /**
+     * 文件名称
+     */
+    private String filename;
+
+    /**
+     * 文件唯一标识
+     */
+    private String identifier;
+
+    /**
+     * 文件大小
+     */
+    private Long totalSize;
+
+    /**
+     * 文件在存储引擎内部的路径，不带存储引擎名称的前缀
+     */
+    private String realPath;
+
+    /**
+     * 分片上传的ID，整个文件一次直传时为空
+     */
+    private String uploadId;
+
+    /**
+     * 分片大小
+     */
+    private Long partSize;
+
+    /**
+     * 存储引擎是否已经校验了上传的内容与文件唯一标识一致
+     */
+    private Boolean contentVerified;
+
+}
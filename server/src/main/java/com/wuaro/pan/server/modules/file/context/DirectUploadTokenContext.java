@@ -0,0 +1,25 @@
+package com.wuaro.pan.server.modules.file.context;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 根据直传凭证操作客户端直传的上下文实体
+ */
+@Data
+public class DirectUploadTokenContext implements Serializable {
+
+    private static final long serialVersionUID = -3960398211705526172L;
+
+    /**
+     * 直传凭证
+     */
+    private String uploadToken;
+
+    /**
+     * 当前登录的用户ID
+     */
+    private Long userId;
+
+}
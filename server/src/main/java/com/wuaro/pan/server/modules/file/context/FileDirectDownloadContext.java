@@ -0,0 +1,25 @@
+package com.wuaro.pan.server.modules.file.context;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 获取文件直接下载地址的上下文实体
+ */
+@Data
+public class FileDirectDownloadContext implements Serializable {
+
+    private static final long serialVersionUID = -1439201775268153508L;
+
+    /**
+     * 文件ID
+     */
+    private Long fileId;
+
+    /**
+     * 当前登录的用户ID
+     */
+    private Long userId;
+
+}
@@ -2,6 +2,7 @@ package com.wuaro.pan.server.modules.file.context;
 
 import lombok.Data;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.Serializable;
 
@@ -23,6 +24,12 @@ public class FileDownloadContext implements Serializable {
      */
     private HttpServletResponse response;
 
+    /**
+     * 请求对象
+     * 用于读取Range等请求头
+     */
+    private HttpServletRequest request;
+
     /**
      * 当前登录的用户ID
      */
@@ -47,4 +47,14 @@ public class FileSaveContext implements Serializable {
      */
     private String realPath;
 
+    /**
+     * 文件压缩存储的编码方式，为空表示未压缩
+     */
+    private String codec;
+
+    /**
+     * 文件实际存储的大小
+     */
+    private Long storedSize;
+
 }
@@ -5,6 +5,7 @@ import com.google.common.base.Splitter;
 import com.wuaro.pan.core.constants.RPanConstants;
 import com.wuaro.pan.core.response.R;
 import com.wuaro.pan.core.utils.IdUtil;
+import com.wuaro.pan.server.common.async.AsyncRequestExecutor;
 import com.wuaro.pan.server.common.utils.UserIdUtil;
 import com.wuaro.pan.server.modules.file.constants.FileConstants;
 //import com.wuaro.pan.server.modules.file.context.*;
@@ -24,8 +25,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 //import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.constraints.NotBlank;
 import java.util.List;
@@ -46,6 +49,9 @@ public class FileController {
     @Autowired
     private FileConverter fileConverter;
 
+    @Autowired
+    private AsyncRequestExecutor asyncRequestExecutor;
+
     /**
      * 查询文件列表
      *
@@ -458,10 +464,12 @@ public class FileController {
             produces = MediaType.APPLICATION_JSON_UTF8_VALUE
     )
     @PostMapping("file/upload")
-    public R upload(@Validated FileUploadPO fileUploadPO) {
+    public DeferredResult<R> upload(@Validated FileUploadPO fileUploadPO) {
         FileUploadContext context = fileConverter.fileUploadPO2FileUploadContext(fileUploadPO);
-        iUserFileService.upload(context);
-        return R.success();
+        return asyncRequestExecutor.execute(() -> {
+            iUserFileService.upload(context);
+            return R.success();
+        });
     }
 
     /*
@@ -476,10 +484,12 @@ public class FileController {
             produces = MediaType.APPLICATION_JSON_UTF8_VALUE
     )
     @PostMapping("file/chunk-upload")
-    public R<FileChunkUploadVO> chunkUpload(@Validated FileChunkUploadPO fileChunkUploadPO) {
+    public DeferredResult<R> chunkUpload(@Validated FileChunkUploadPO fileChunkUploadPO) {
         FileChunkUploadContext context = fileConverter.fileChunkUploadPO2FileChunkUploadContext(fileChunkUploadPO);
-        FileChunkUploadVO vo = iUserFileService.chunkUpload(context);
-        return R.data(vo);
+        return asyncRequestExecutor.execute(() -> {
+            FileChunkUploadVO vo = iUserFileService.chunkUpload(context);
+            return R.data(vo);
+        });
     }
 
     /**
@@ -523,10 +533,90 @@ public class FileController {
             produces = MediaType.APPLICATION_JSON_UTF8_VALUE
     )
     @PostMapping("file/merge")
-    public R mergeFile(@Validated @RequestBody FileChunkMergePO fileChunkMergePO) {
+    public DeferredResult<R> mergeFile(@Validated @RequestBody FileChunkMergePO fileChunkMergePO) {
         FileChunkMergeContext context = fileConverter.fileChunkMergePO2FileChunkMergeContext(fileChunkMergePO);
-        iUserFileService.mergeFile(context);
-        return R.success();
+        return asyncRequestExecutor.execute(() -> {
+            iUserFileService.mergeFile(context);
+            return R.success();
+        });
+    }
+
+    /**
+     * 初始化客户端直传
+     *
+     * @param directUploadPO
+     * @return
+     */
+    @ApiOperation(
+            value = "初始化客户端直传",
+            notes = "该接口返回预签名的上传地址，客户端直接把文件内容上传到对象存储，上传完成之后调用确认接口",
+            consumes = MediaType.APPLICATION_JSON_UTF8_VALUE,
+            produces = MediaType.APPLICATION_JSON_UTF8_VALUE
+    )
+    @PostMapping("file/direct-upload")
+    public DeferredResult<R> initDirectUpload(@Validated @RequestBody DirectUploadPO directUploadPO) {
+        DirectUploadContext context = fileConverter.directUploadPO2DirectUploadContext(directUploadPO);
+        return asyncRequestExecutor.execute(() -> R.data(iUserFileService.initDirectUpload(context)));
+    }
+
+    /**
+     * 重新获取客户端直传的上传地址
+     *
+     * @param directUploadTokenPO
+     * @return
+     */
+    @ApiOperation(
+            value = "重新获取客户端直传的上传地址",
+            notes = "该接口用于上传地址过期之后继续上传",
+            consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE,
+            produces = MediaType.APPLICATION_JSON_UTF8_VALUE
+    )
+    @GetMapping("file/direct-upload/urls")
+    public R<DirectUploadVO> refreshDirectUploadUrls(@Validated DirectUploadTokenPO directUploadTokenPO) {
+        DirectUploadTokenContext context = fileConverter.directUploadTokenPO2DirectUploadTokenContext(directUploadTokenPO);
+        return R.data(iUserFileService.refreshDirectUploadUrls(context));
+    }
+
+    /**
+     * 确认客户端直传完成
+     *
+     * @param directUploadTokenPO
+     * @return
+     */
+    @ApiOperation(
+            value = "确认客户端直传完成",
+            notes = "该接口校验上传的内容并保存文件记录",
+            consumes = MediaType.APPLICATION_JSON_UTF8_VALUE,
+            produces = MediaType.APPLICATION_JSON_UTF8_VALUE
+    )
+    @PostMapping("file/direct-upload/complete")
+    public DeferredResult<R> completeDirectUpload(@Validated @RequestBody DirectUploadTokenPO directUploadTokenPO) {
+        DirectUploadTokenContext context = fileConverter.directUploadTokenPO2DirectUploadTokenContext(directUploadTokenPO);
+        return asyncRequestExecutor.execute(() -> {
+            iUserFileService.completeDirectUpload(context);
+            return R.success();
+        });
+    }
+
+    /**
+     * 取消客户端直传
+     *
+     * @param directUploadTokenPO
+     * @return
+     */
+    @ApiOperation(
+            value = "取消客户端直传",
+            notes = "该接口清理已经上传的内容",
+            consumes = MediaType.APPLICATION_JSON_UTF8_VALUE,
+            produces = MediaType.APPLICATION_JSON_UTF8_VALUE
+    )
+    @PostMapping("file/direct-upload/cancel")
+    public DeferredResult<R> cancelDirectUpload(@Validated @RequestBody DirectUploadTokenPO directUploadTokenPO) {
+        DirectUploadTokenContext context = fileConverter.directUploadTokenPO2DirectUploadTokenContext(directUploadTokenPO);
+        return asyncRequestExecutor.execute(() -> {
+            iUserFileService.cancelDirectUpload(context);
+            return R.success();
+        });
     }
 
     /**
@@ -542,13 +632,35 @@ public class FileController {
             produces = MediaType.APPLICATION_OCTET_STREAM_VALUE
     )
     @GetMapping("file/download")
-    public void download(@NotBlank(message = "文件ID不能为空") @RequestParam(value = "fileId", required = false) String fileId,
-                         HttpServletResponse response) {
+    public DeferredResult<R> download(@NotBlank(message = "文件ID不能为空") @RequestParam(value = "fileId", required = false) String fileId,
+                                      HttpServletRequest request,
+                                      HttpServletResponse response) {
         FileDownloadContext context = new FileDownloadContext();
         context.setFileId(IdUtil.decrypt(fileId));
         context.setResponse(response);
+        context.setRequest(request);
+        context.setUserId(UserIdUtil.get());
+        return asyncRequestExecutor.compose(iUserFileService.download(context));
+    }
+
+    /**
+     * 获取文件的直接下载地址
+     *
+     * @param fileId
+     * @return
+     */
+    @ApiOperation(
+            value = "获取文件的直接下载地址",
+            notes = "该接口返回预签名的下载地址，客户端直接从对象存储下载文件",
+            consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE,
+            produces = MediaType.APPLICATION_JSON_UTF8_VALUE
+    )
+    @GetMapping("file/direct-download-url")
+    public R<DirectDownloadUrlVO> getDirectDownloadUrl(@NotBlank(message = "文件ID不能为空") @RequestParam(value = "fileId", required = false) String fileId) {
+        FileDirectDownloadContext context = new FileDirectDownloadContext();
+        context.setFileId(IdUtil.decrypt(fileId));
         context.setUserId(UserIdUtil.get());
-        iUserFileService.download(context);
+        return R.data(iUserFileService.getDirectDownloadUrl(context));
     }
 
 
@@ -565,13 +677,15 @@ public class FileController {
             produces = MediaType.APPLICATION_OCTET_STREAM_VALUE
     )
     @GetMapping("file/preview")
-    public void preview(@NotBlank(message = "文件ID不能为空") @RequestParam(value = "fileId", required = false) String fileId,
-                        HttpServletResponse response) {
+    public DeferredResult<R> preview(@NotBlank(message = "文件ID不能为空") @RequestParam(value = "fileId", required = false) String fileId,
+                                     HttpServletRequest request,
+                                     HttpServletResponse response) {
         FilePreviewContext context = new FilePreviewContext();
         context.setFileId(IdUtil.decrypt(fileId));
         context.setResponse(response);
+        context.setRequest(request);
         context.setUserId(UserIdUtil.get());
-        iUserFileService.preview(context);
+        return asyncRequestExecutor.compose(iUserFileService.preview(context));
     }
 
     /**
@@ -87,6 +87,13 @@ public interface FileConverter {
 
     FileChunkMergeAndSaveContext fileChunkMergeContext2FileChunkMergeAndSaveContext(FileChunkMergeContext context);
 
+    @Mapping(target = "parentId", expression = "java(com.wuaro.pan.core.utils.IdUtil.decrypt(directUploadPO.getParentId()))")
+    @Mapping(target = "userId", expression = "java(com.wuaro.pan.server.common.utils.UserIdUtil.get())")
+    DirectUploadContext directUploadPO2DirectUploadContext(DirectUploadPO directUploadPO);
+
+    @Mapping(target = "userId", expression = "java(com.wuaro.pan.server.common.utils.UserIdUtil.get())")
+    DirectUploadTokenContext directUploadTokenPO2DirectUploadTokenContext(DirectUploadTokenPO directUploadTokenPO);
+
     @Mapping(target = "label", source = "record.filename")
     @Mapping(target = "id", source = "record.fileId")
     @Mapping(target = "children", expression = "java(com.google.common.collect.Lists.newArrayList())")
@@ -85,6 +85,30 @@ public class RPanFile implements Serializable {
     @TableField(value = "identifier")
     private String identifier;
 
+    /**
+     * 文件压缩存储的编码方式，为空表示未压缩
+     */
+    @TableField(value = "compress_codec")
+    private String compressCodec;
+
+    /**
+     * 文件实际存储的大小
+     */
+    @TableField(value = "stored_size")
+    private String storedSize;
+
+    /**
+     * 文件的访问次数，定期衰减
+     */
+    @TableField(value = "access_count")
+    private Long accessCount;
+
+    /**
+     * 文件最近一次被访问的时间
+     */
+    @TableField(value = "last_access_time")
+    private Date lastAccessTime;
+
     /**
      * 创建人
      */
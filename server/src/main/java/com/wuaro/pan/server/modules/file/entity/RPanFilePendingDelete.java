@@ -0,0 +1,46 @@
+package com.wuaro.pan.server.modules.file.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * 待删除物理文件表
+ * 文件搬迁到其他存储引擎之后，原存储引擎中的文件延迟删除，到期之前保存在这里，服务重启之后不会丢失
+ * @TableName r_pan_file_pending_delete
+ */
+@TableName(value ="r_pan_file_pending_delete")
+@Data
+public class RPanFilePendingDelete implements Serializable {
+    /**
+     * 主键
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 待删除文件的真实存储路径
+     */
+    @TableField(value = "real_path")
+    private String realPath;
+
+    /**
+     * 到期删除的时间
+     */
+    @TableField(value = "due_time")
+    private Date dueTime;
+
+    /**
+     * 创建时间
+     */
+    @TableField(value = "create_time")
+    private Date createTime;
+
+    @TableField(exist = false)
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,13 @@
+package com.wuaro.pan.server.modules.file.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wuaro.pan.server.modules.file.entity.RPanFilePendingDelete;
+
+/**
+* @author wuaro
+* @description 针对表【r_pan_file_pending_delete(待删除物理文件表)】的数据库操作Mapper
+* @Entity com.wuaro.pan.server.modules.file.entity.RPanFilePendingDelete
+*/
+public interface RPanFilePendingDeleteMapper extends BaseMapper<RPanFilePendingDelete> {
+
+}
@@ -0,0 +1,33 @@
+package com.wuaro.pan.server.modules.file.po;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import java.io.Serializable;
+
+@ApiModel(value = "初始化客户端直传参数实体对象")
+@Data
+public class DirectUploadPO implements Serializable {
+
+    private static final long serialVersionUID = 3177465590417393841L;
+
+    @ApiModelProperty(value = "文件名称", required = true)
+    @NotBlank(message = "文件名称不能为空")
+    private String filename;
+
+    @ApiModelProperty(value = "文件的唯一标识", required = true)
+    @NotBlank(message = "文件的唯一标识不能为空")
+    private String identifier;
+
+    @ApiModelProperty(value = "文件的总大小", required = true)
+    @NotNull(message = "文件的总大小不能为空")
+    private Long totalSize;
+
+    @ApiModelProperty(value = "文件的父文件夹ID", required = true)
+    @NotBlank(message = "文件的父文件夹ID不能为空")
+    private String parentId;
+
+}
@@ -0,0 +1,20 @@
+package com.wuaro.pan.server.modules.file.po;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import javax.validation.constraints.NotBlank;
+import java.io.Serializable;
+
+@ApiModel(value = "客户端直传凭证参数实体对象")
+@Data
+public class DirectUploadTokenPO implements Serializable {
+
+    private static final long serialVersionUID = -2048716651853318874L;
+
+    @ApiModelProperty(value = "初始化直传时返回的直传凭证", required = true)
+    @NotBlank(message = "直传凭证不能为空")
+    private String uploadToken;
+
+}
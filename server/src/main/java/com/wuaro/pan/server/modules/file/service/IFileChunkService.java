@@ -18,4 +18,21 @@ public interface IFileChunkService extends IService<RPanFileChunk> {
      */
     void saveChunkFile(FileChunkSaveContext context);
 
+    /**
+     * 清除文件的准备合并标记、分片上传计数以及累加计算的md5
+     *
+     * @param identifier
+     * @param userId
+     */
+    void clearMergeReady(String identifier, Long userId);
+
+    /**
+     * 获取分片上传时按分片顺序累加计算出的文件内容的md5
+     *
+     * @param identifier
+     * @param userId
+     * @return 所有分片都按顺序在当前节点上计算过时返回md5，否则返回null
+     */
+    String getUploadDigest(String identifier, Long userId);
+
 }
@@ -0,0 +1,30 @@
+package com.wuaro.pan.server.modules.file.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.wuaro.pan.server.modules.file.entity.RPanFilePendingDelete;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @author wuaro
+ * @description 针对表【r_pan_file_pending_delete(待删除物理文件表)】的数据库操作Service
+ */
+public interface IFilePendingDeleteService extends IService<RPanFilePendingDelete> {
+
+    /**
+     * 记录一个到期之后删除的物理文件
+     *
+     * @param realPath
+     * @param dueTime
+     */
+    void addPendingDelete(String realPath, Date dueTime);
+
+    /**
+     * 查询已经到期的待删除物理文件
+     *
+     * @return
+     */
+    List<RPanFilePendingDelete> listDuePendingDeletes();
+
+}
@@ -6,6 +6,7 @@ import com.wuaro.pan.server.modules.file.context.QueryRealFileListContext;
 import com.wuaro.pan.server.modules.file.entity.RPanFile;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -36,4 +37,37 @@ public interface IFileService extends IService<RPanFile> {
      * @param context
      */
     void mergeFileChunkAndSaveFile(FileChunkMergeAndSaveContext context);
+
+    /**
+     * 保存客户端直传的物理文件记录
+     * 文件内容已经由客户端直接上传到存储引擎并且校验完成，这里只保存记录
+     *
+     * @param context
+     */
+    void saveDirectUploadFile(FileSaveContext context);
+
+    /**
+     * 累加物理文件的访问次数并更新最近访问时间
+     *
+     * @param fileId
+     * @param count
+     * @param accessTime
+     */
+    void increaseAccessCount(Long fileId, Long count, Date accessTime);
+
+    /**
+     * 所有物理文件的访问次数减半，让访问次数反映的是近期的访问频率
+     */
+    void decayAccessCount();
+
+    /**
+     * 原子地替换物理文件的真实存储路径
+     * 只有当前的真实存储路径仍然是oldRealPath时才替换
+     *
+     * @param fileId
+     * @param oldRealPath
+     * @param newRealPath
+     * @return 是否替换成功
+     */
+    boolean changeRealPath(Long fileId, String oldRealPath, String newRealPath);
 }
\ No newline at end of file
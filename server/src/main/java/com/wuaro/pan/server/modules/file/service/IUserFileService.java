@@ -6,6 +6,7 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.wuaro.pan.server.modules.file.vo.*;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author 11391
@@ -90,26 +91,67 @@ public interface IUserFileService extends IService<RPanUserFile> {
      */
     void mergeFile(FileChunkMergeContext context);
 
+    /**
+     * 初始化客户端直传
+     *
+     * @param context
+     * @return
+     */
+    DirectUploadVO initDirectUpload(DirectUploadContext context);
+
+    /**
+     * 重新获取客户端直传的上传地址
+     *
+     * @param context
+     * @return
+     */
+    DirectUploadVO refreshDirectUploadUrls(DirectUploadTokenContext context);
+
+    /**
+     * 确认客户端直传完成
+     *
+     * @param context
+     */
+    void completeDirectUpload(DirectUploadTokenContext context);
+
+    /**
+     * 取消客户端直传
+     *
+     * @param context
+     */
+    void cancelDirectUpload(DirectUploadTokenContext context);
+
     /**
      * 文件下载
      *
      * @param context
+     * @return 文件内容写完之后完成的异步结果
      */
-    void download(FileDownloadContext context);
+    CompletableFuture<Void> download(FileDownloadContext context);
 
     /**
      * 文件下载 不校验用户是否是否是上传用户
      *
      * @param context
+     * @return 文件内容写完之后完成的异步结果
      */
-    void downloadWithoutCheckUser(FileDownloadContext context);
+    CompletableFuture<Void> downloadWithoutCheckUser(FileDownloadContext context);
 
     /**
      * 文件预览
      *
      * @param context
+     * @return 文件内容写完之后完成的异步结果
+     */
+    CompletableFuture<Void> preview(FilePreviewContext context);
+
+    /**
+     * 获取文件的直接下载地址
+     *
+     * @param context
+     * @return
      */
-    void preview(FilePreviewContext context);
+    DirectDownloadUrlVO getDirectDownloadUrl(FileDirectDownloadContext context);
 
     /**
      * 查询用户的文件夹树
@@ -4,9 +4,15 @@ import cn.hutool.core.date.DateUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.google.common.cache.CacheBuilder;
+import com.wuaro.pan.cache.core.constants.CacheConstants;
+import com.wuaro.pan.core.constants.RPanConstants;
 import com.wuaro.pan.core.exception.RPanBusinessException;
 import com.wuaro.pan.core.utils.IdUtil;
+import com.wuaro.pan.core.utils.MessageDigestUtil;
+import com.wuaro.pan.core.utils.UUIDUtil;
 import com.wuaro.pan.server.common.config.PanServerConfig;
+import com.wuaro.pan.server.modules.file.constants.FileConstants;
 import com.wuaro.pan.server.modules.file.context.FileChunkSaveContext;
 import com.wuaro.pan.server.modules.file.converter.FileConverter;
 import com.wuaro.pan.server.modules.file.entity.RPanFileChunk;
@@ -15,11 +21,25 @@ import com.wuaro.pan.server.modules.file.mapper.RPanFileChunkMapper;
 import com.wuaro.pan.server.modules.file.service.IFileChunkService;
 import com.wuaro.pan.storage.engine.core.StorageEngine;
 import com.wuaro.pan.storage.engine.core.context.StoreFileChunkContext;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.Date;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * @author wuaro
@@ -27,8 +47,22 @@ import java.util.Date;
  * @createDate 2022-11-09 18:36:41
  */
 @Service
+@Slf4j
 public class FileChunkServiceImpl extends ServiceImpl<RPanFileChunkMapper, RPanFileChunk> implements IFileChunkService {
 
+    private static final String CHUNK_KEY_SEPARATOR = "_chunk_";
+
+    private static final String SEQUENCE_KEY_SEPARATOR = "_seq_";
+
+    private static final String SEQUENCE_HINT_SUFFIX = "_seq_hint";
+
+    /**
+     * 累加计算md5的状态在最后一次访问之后保留的时间，单位小时
+     */
+    private static final long UPLOAD_DIGEST_EXPIRE_HOURS = 24L;
+
+    private static final long UPLOAD_DIGEST_MAXIMUM_SIZE = 10000L;
+
     @Autowired
     private PanServerConfig config;
 
@@ -38,56 +72,231 @@ public class FileChunkServiceImpl extends ServiceImpl<RPanFileChunkMapper, RPanF
     @Autowired
     private StorageEngine storageEngine;
 
+    @Autowired
+    private CacheManager cacheManager;
+
+    /**
+     * 正在分片上传的文件按分片顺序累加计算md5的状态，只保存在当前节点的内存中
+     */
+    private final com.google.common.cache.Cache<String, ChunkUploadDigest> uploadDigests = CacheBuilder.newBuilder()
+            .expireAfterAccess(UPLOAD_DIGEST_EXPIRE_HOURS, TimeUnit.HOURS)
+            .maximumSize(UPLOAD_DIGEST_MAXIMUM_SIZE)
+            .build();
+
     /**
      * 文件分片保存
      *
      * 1、保存文件分片和记录
      * 2、判断文件分片是否全部上传完成
      *
+     * 不做全局加锁，不同文件以及同一文件的不同分片都可以并发保存，
+     * 已上传的分片数量由共享缓存中的计数维护，每个分片只做常数次缓存操作，计数丢失时从数据库中的分片记录重建，
+     * 是否可以合并由共享缓存中的原子标记保证只通知一次，多个节点之间同样有效
+     *
      * @param context
      */
     @Override
-    public synchronized void saveChunkFile(FileChunkSaveContext context) {
+    public void saveChunkFile(FileChunkSaveContext context) {
         doSaveChunkFile(context);
         doJudgeMergeFile(context);
     }
 
     /**
-     * 判断是否所有的分片均没上传完成
+     * 清除文件的准备合并标记和分片上传计数
+     * 文件合并完成或者分片过期被清理之后调用，之后再次上传同一文件时重新计数并可以重新通知合并
+     *
+     * @param identifier
+     * @param userId
+     */
+    @Override
+    public void clearMergeReady(String identifier, Long userId) {
+        getCache().evict(getMergeReadyKey(identifier, userId));
+        getCache().evict(getCounterKey(identifier, userId));
+        uploadDigests.invalidate(getCounterKey(identifier, userId));
+    }
+
+    /**
+     * 获取分片上传时按分片顺序累加计算出的文件内容的md5
+     *
+     * @param identifier
+     * @param userId
+     * @return 所有分片都按顺序在当前节点上计算过时返回md5，否则返回null
+     */
+    @Override
+    public String getUploadDigest(String identifier, Long userId) {
+        ChunkUploadDigest uploadDigest = uploadDigests.getIfPresent(getCounterKey(identifier, userId));
+        return Objects.isNull(uploadDigest) ? null : uploadDigest.getDigestHex();
+    }
+
+    /************************************************private************************************************/
+
+    /**
+     * 判断是否所有的分片均已上传完成
      *
      * @param context
      */
     /*
     执行逻辑：
-        1. 查询r_pan_file_chunk表
-        2. 根据identifier和create_user查询，并计算查询数量
-            注意：同一文件的不同分片，identifier（文件唯一标识）是相同的，create_user也是相同的
-            按照这个两个条件查询出的记录条数 就等于 当前该文件已经上传的总分片数量
-        3. 如果当前该文件已经上传的总分片数量 等于 该文件的所切分的分片总数，则说明全部上传成功了，则将合并flag设为ready，准备合并
+        1. 在共享缓存中对该文件已经上传的分片计数，同一文件同一用户的计数共用一个代号，代号下的每个分片编号以putIfAbsent的方式登记，
+            重复上传的分片登记失败，不会重复计数
+        2. 首次登记的分片以putIfAbsent的方式领取下一个序号，领取到的序号就是算上该分片之后已经上传的分片数量，
+            从上一次领取的序号开始尝试，正常情况下一次就能领取成功
+        3. 缓存中没有计数代号时（首个分片或者缓存条目被淘汰），新建代号并把数据库中该文件未过期的分片编号全部登记一遍
+        4. 领取到最后一个序号的请求再查询一次数据库确认分片齐全，确认之后在共享缓存中以putIfAbsent的方式原子地设置准备合并标记，
+            只有设置成功的请求将合并flag设为ready；数据库中的分片不全说明计数因为缓存淘汰出现了偏差，丢弃当前的代号，之后的分片重新计数
+        5. 文件合并完成或者分片过期被清理时清除标记和计数，之后再次上传同一文件时重新通知
      */
     private void doJudgeMergeFile(FileChunkSaveContext context) {
-        QueryWrapper queryWrapper = Wrappers.query();
-        queryWrapper.eq("identifier", context.getIdentifier());
-        queryWrapper.eq("create_user", context.getUserId());
-        int count = count(queryWrapper);
-        if (count == context.getTotalChunks().intValue()) {
+        if (countUploadedChunk(context) != context.getTotalChunks()) {
+            return;
+        }
+        if (loadUploadedChunkNumbers(context).size() < context.getTotalChunks()) {
+            getCache().evict(getCounterKey(context.getIdentifier(), context.getUserId()));
+            return;
+        }
+        Cache.ValueWrapper existing = getCache().putIfAbsent(getMergeReadyKey(context.getIdentifier(), context.getUserId()), String.valueOf(context.getChunkNumber()));
+        if (Objects.isNull(existing)) {
             context.setMergeFlagEnum(MergeFlagEnum.READY);
         }
     }
 
+    /**
+     * 在共享缓存中登记当前分片并计数
+     *
+     * @param context
+     * @return 当前请求领取到的最大序号，分片重复上传时返回0
+     */
+    private int countUploadedChunk(FileChunkSaveContext context) {
+        String counterKey = getCounterKey(context.getIdentifier(), context.getUserId());
+        String generation = getCache().get(counterKey, String.class);
+        if (Objects.nonNull(generation)) {
+            return registerChunk(counterKey + RPanConstants.COMMON_SEPARATOR + generation, context.getChunkNumber());
+        }
+
+        generation = UUIDUtil.getUUID();
+        Cache.ValueWrapper existing = getCache().putIfAbsent(counterKey, generation);
+        if (Objects.nonNull(existing)) {
+            generation = (String) existing.get();
+        }
+        String generationKey = counterKey + RPanConstants.COMMON_SEPARATOR + generation;
+        int maxSequence = RPanConstants.ZERO_INT;
+        for (Integer chunkNumber : loadUploadedChunkNumbers(context)) {
+            maxSequence = Math.max(maxSequence, registerChunk(generationKey, chunkNumber));
+        }
+        return maxSequence;
+    }
+
+    /**
+     * 登记分片编号，首次登记时领取下一个序号
+     *
+     * @param generationKey
+     * @param chunkNumber
+     * @return 领取到的序号，已经登记过时返回0
+     */
+    private int registerChunk(String generationKey, Integer chunkNumber) {
+        Cache cache = getCache();
+        if (Objects.nonNull(cache.putIfAbsent(generationKey + CHUNK_KEY_SEPARATOR + chunkNumber, String.valueOf(chunkNumber)))) {
+            return RPanConstants.ZERO_INT;
+        }
+        String hintKey = generationKey + SEQUENCE_HINT_SUFFIX;
+        String hint = cache.get(hintKey, String.class);
+        int sequence = StringUtils.isNumeric(hint) ? Integer.parseInt(hint) : RPanConstants.ZERO_INT;
+        do {
+            sequence++;
+        } while (Objects.nonNull(cache.putIfAbsent(generationKey + SEQUENCE_KEY_SEPARATOR + sequence, String.valueOf(chunkNumber))));
+        cache.put(hintKey, String.valueOf(sequence));
+        return sequence;
+    }
+
+    /**
+     * 查询该文件已经上传的分片编号
+     *
+     * @param context
+     * @return 去重之后的分片编号
+     */
+    private Set<Integer> loadUploadedChunkNumbers(FileChunkSaveContext context) {
+        QueryWrapper<RPanFileChunk> queryWrapper = Wrappers.query();
+        queryWrapper.select("chunk_number");
+        queryWrapper.eq("identifier", context.getIdentifier());
+        queryWrapper.eq("create_user", context.getUserId());
+        queryWrapper.ge("expiration_time", new Date());
+        return list(queryWrapper).stream().map(RPanFileChunk::getChunkNumber).collect(Collectors.toSet());
+    }
+
+    private String getMergeReadyKey(String identifier, Long userId) {
+        return FileConstants.CHUNK_MERGE_READY_PREFIX + identifier + RPanConstants.COMMON_SEPARATOR + userId;
+    }
+
+    private String getCounterKey(String identifier, Long userId) {
+        return FileConstants.CHUNK_COUNTER_PREFIX + identifier + RPanConstants.COMMON_SEPARATOR + userId;
+    }
+
+    private Cache getCache() {
+        return cacheManager.getCache(CacheConstants.R_PAN_CACHE_NAME);
+    }
+
     /**
      * 执行文件分片上传保存的操作
      *
-     * 1、委托文件存储引擎存储文件分片
+     * 1、委托文件存储引擎存储文件分片，同时按分片顺序累加计算文件内容的md5
      * 2、保存文件分片记录
      *
      * @param context
      */
     private void doSaveChunkFile(FileChunkSaveContext context) {
-        doStoreFileChunk(context);
+        ChunkUploadDigest uploadDigest = getOrCreateUploadDigest(context);
+        if (uploadDigest.tryAcquire(context.getChunkNumber())) {
+            boolean stored = false;
+            try {
+                doStoreFileChunk(context, uploadDigest.getDigest());
+                stored = true;
+            } finally {
+                uploadDigest.release(stored);
+            }
+        } else {
+            doStoreFileChunk(context, null);
+            digestStoredChunk(context, uploadDigest);
+        }
         doSaveRecord(context);
     }
 
+    /**
+     * 获取该文件累加计算md5的状态，不存在时创建
+     *
+     * @param context
+     * @return
+     */
+    private ChunkUploadDigest getOrCreateUploadDigest(FileChunkSaveContext context) {
+        try {
+            return uploadDigests.get(getCounterKey(context.getIdentifier(), context.getUserId()), () -> new ChunkUploadDigest(context.getTotalChunks()));
+        } catch (ExecutionException e) {
+            throw new RPanBusinessException("文件分片上传失败");
+        }
+    }
+
+    /**
+     * 提前到达的分片在存储之后等待轮到自己，再读取一遍请求中的分片内容累加计算md5
+     * 请求中的分片内容保存在本地的临时文件或者内存中，不需要从存储引擎读取
+     * 等待超时之后该文件不再累加计算md5，合并时跳过文件内容的校验
+     *
+     * @param context
+     * @param uploadDigest
+     */
+    private void digestStoredChunk(FileChunkSaveContext context, ChunkUploadDigest uploadDigest) {
+        if (!uploadDigest.acquire(context.getChunkNumber(), config.getChunkDigestWaitMillis())) {
+            return;
+        }
+        boolean digested = false;
+        try (InputStream inputStream = new DigestInputStream(context.getFile().getInputStream(), uploadDigest.getDigest())) {
+            IOUtils.copyLarge(inputStream, NullOutputStream.NULL_OUTPUT_STREAM);
+            digested = true;
+        } catch (IOException e) {
+            log.warn("digest chunk {} of file {} failed, the merged file will not be verified", context.getChunkNumber(), context.getIdentifier(), e);
+        } finally {
+            uploadDigest.release(digested);
+        }
+    }
+
     /**
      * 保存文件分片记录
      *
@@ -111,11 +320,13 @@ public class FileChunkServiceImpl extends ServiceImpl<RPanFileChunkMapper, RPanF
      * 委托文件存储引擎保存文件分片
      *
      * @param context
+     * @param messageDigest 不为null时存储引擎读取分片内容的同时累加计算md5
      */
-    private void doStoreFileChunk(FileChunkSaveContext context) {
+    private void doStoreFileChunk(FileChunkSaveContext context, MessageDigest messageDigest) {
         try {
             StoreFileChunkContext storeFileChunkContext = fileConverter.fileChunkSaveContext2StoreFileChunkContext(context);
-            storeFileChunkContext.setInputStream(context.getFile().getInputStream());
+            InputStream inputStream = context.getFile().getInputStream();
+            storeFileChunkContext.setInputStream(Objects.isNull(messageDigest) ? inputStream : new DigestInputStream(inputStream, messageDigest));
             storageEngine.storeChunk(storeFileChunkContext);
             context.setRealPath(storeFileChunkContext.getRealPath());
         } catch (IOException e) {
@@ -124,8 +335,109 @@ public class FileChunkServiceImpl extends ServiceImpl<RPanFileChunkMapper, RPanF
         }
     }
 
-}
+    /**
+     * 一次分片上传按分片顺序累加计算md5的状态
+     * 同一时刻只有轮到的下一个分片可以累加，提前到达的分片有限时间地等待前面的分片；
+     * 有分片累加失败或者等待超时之后不再累加，合并时跳过文件内容的校验
+     */
+    private static class ChunkUploadDigest {
+
+        private final MessageDigest digest = MessageDigestUtil.newMd5Digest();
+
+        private final int totalChunks;
+
+        private int nextChunkNumber = RPanConstants.ONE_INT;
+
+        private boolean digesting = false;
+
+        private boolean broken = false;
 
+        ChunkUploadDigest(int totalChunks) {
+            this.totalChunks = totalChunks;
+        }
+
+        MessageDigest getDigest() {
+            return digest;
+        }
+
+        /**
+         * 当前分片正好轮到并且没有其他分片正在累加时占用累加的权利，不等待
+         *
+         * @param chunkNumber
+         * @return
+         */
+        synchronized boolean tryAcquire(int chunkNumber) {
+            if (broken || digesting || nextChunkNumber != chunkNumber) {
+                return false;
+            }
+            digesting = true;
+            return true;
+        }
+
+        /**
+         * 等待轮到当前分片之后占用累加的权利
+         * 等待超时说明前面的分片没有在当前节点上传或者上传失败，之后的分片都无法按顺序累加
+         *
+         * @param chunkNumber
+         * @param waitMillis
+         * @return 重复上传的分片、等待超时或者已经无法累加时返回false
+         */
+        synchronized boolean acquire(int chunkNumber, long waitMillis) {
+            long deadline = System.currentTimeMillis() + waitMillis;
+            while (!broken && (digesting || nextChunkNumber < chunkNumber)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= RPanConstants.ZERO_LONG) {
+                    broken = true;
+                    notifyAll();
+                    return false;
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    broken = true;
+                    notifyAll();
+                    return false;
+                }
+            }
+            if (broken || nextChunkNumber != chunkNumber) {
+                return false;
+            }
+            digesting = true;
+            return true;
+        }
+
+        /**
+         * 释放累加的权利，唤醒等待的分片
+         *
+         * @param success 分片内容是否完整地累加到了md5中
+         */
+        synchronized void release(boolean success) {
+            digesting = false;
+            if (success) {
+                nextChunkNumber++;
+            } else {
+                broken = true;
+            }
+            notifyAll();
+        }
 
+        /**
+         * 获取累加计算出的md5
+         *
+         * @return 所有分片都已经按顺序累加时返回md5，否则返回null
+         */
+        synchronized String getDigestHex() {
+            if (broken || nextChunkNumber <= totalChunks) {
+                return null;
+            }
+            try {
+                return MessageDigestUtil.digestHex((MessageDigest) digest.clone());
+            } catch (CloneNotSupportedException e) {
+                return null;
+            }
+        }
 
+    }
 
+}
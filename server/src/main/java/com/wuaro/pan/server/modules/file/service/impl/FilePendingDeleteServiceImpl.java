@@ -0,0 +1,50 @@
+package com.wuaro.pan.server.modules.file.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.wuaro.pan.server.modules.file.entity.RPanFilePendingDelete;
+import com.wuaro.pan.server.modules.file.mapper.RPanFilePendingDeleteMapper;
+import com.wuaro.pan.server.modules.file.service.IFilePendingDeleteService;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @author wuaro
+ * @description 针对表【r_pan_file_pending_delete(待删除物理文件表)】的数据库操作Service实现
+ */
+@Service
+public class FilePendingDeleteServiceImpl extends ServiceImpl<RPanFilePendingDeleteMapper, RPanFilePendingDelete>
+        implements IFilePendingDeleteService {
+
+    /**
+     * 记录一个到期之后删除的物理文件
+     *
+     * @param realPath
+     * @param dueTime
+     */
+    @Override
+    public void addPendingDelete(String realPath, Date dueTime) {
+        RPanFilePendingDelete record = new RPanFilePendingDelete();
+        record.setRealPath(realPath);
+        record.setDueTime(dueTime);
+        record.setCreateTime(new Date());
+        save(record);
+    }
+
+    /**
+     * 查询已经到期的待删除物理文件
+     *
+     * @return
+     */
+    @Override
+    public List<RPanFilePendingDelete> listDuePendingDeletes() {
+        QueryWrapper<RPanFilePendingDelete> queryWrapper = Wrappers.query();
+        queryWrapper.le("due_time", new Date());
+        queryWrapper.orderByAsc("id");
+        return list(queryWrapper);
+    }
+
+}
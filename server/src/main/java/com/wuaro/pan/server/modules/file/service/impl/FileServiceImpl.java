@@ -2,19 +2,23 @@ package com.wuaro.pan.server.modules.file.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.baomidou.mybatisplus.core.toolkit.CollectionUtils;
 import com.baomidou.mybatisplus.core.toolkit.StringUtils;
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.wuaro.pan.core.constants.RPanConstants;
 import com.wuaro.pan.core.exception.RPanBusinessException;
 import com.wuaro.pan.core.utils.FileUtils;
 import com.wuaro.pan.core.utils.IdUtil;
+import com.wuaro.pan.core.utils.MessageDigestUtil;
 import com.wuaro.pan.server.common.event.log.ErrorLogEvent;
 import com.wuaro.pan.server.modules.file.context.FileChunkMergeAndSaveContext;
 import com.wuaro.pan.server.modules.file.context.FileSaveContext;
 import com.wuaro.pan.server.modules.file.context.QueryRealFileListContext;
 import com.wuaro.pan.server.modules.file.entity.RPanFile;
 import com.wuaro.pan.server.modules.file.entity.RPanFileChunk;
+import com.wuaro.pan.server.modules.file.enums.FileTypeEnum;
 import com.wuaro.pan.server.modules.file.service.IFileChunkService;
 import com.wuaro.pan.server.modules.file.service.IFileService;
 import com.wuaro.pan.server.modules.file.mapper.RPanFileMapper;
@@ -22,16 +26,21 @@ import com.wuaro.pan.storage.engine.core.StorageEngine;
 import com.wuaro.pan.storage.engine.core.context.DeleteFileContext;
 import com.wuaro.pan.storage.engine.core.context.MergeFileContext;
 import com.wuaro.pan.storage.engine.core.context.StoreFileContext;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.stereotype.Service;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.io.IOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.Date;
 import java.util.stream.Collectors;
 
@@ -41,6 +50,7 @@ import java.util.stream.Collectors;
  * @createDate 2024-03-06 08:59:39
  */
 @Service
+@Slf4j
 public class FileServiceImpl extends ServiceImpl<RPanFileMapper, RPanFile>
         implements IFileService ,ApplicationContextAware{
 
@@ -53,6 +63,15 @@ public class FileServiceImpl extends ServiceImpl<RPanFileMapper, RPanFile>
 
     private ApplicationContext applicationContext;
 
+    /**
+     * 适合压缩存储的文件类型
+     */
+    private static final Set<Integer> COMPRESSIBLE_FILE_TYPE_CODES = Sets.newHashSet(
+            FileTypeEnum.TXT_FILE.getCode(),
+            FileTypeEnum.CSV_FILE.getCode(),
+            FileTypeEnum.SOURCE_CODE_FILE.getCode()
+    );
+
 
 
     @Override
@@ -91,36 +110,115 @@ public class FileServiceImpl extends ServiceImpl<RPanFileMapper, RPanFile>
     /**
      * 上传单文件并保存实体记录
      * 
-     * 1、上传单文件
-     * 2、保存实体记录
+     * 1、上传单文件，上传的同时计算文件内容的md5
+     * 2、校验文件唯一标识与文件内容的md5是否一致，不一致时删除已上传的文件并拒绝上传
+     * 3、保存实体记录
      *
      * @param context
      */
     @Override
     public void saveFile(FileSaveContext context) {
-        storeMultipartFile(context);
+        String digest = storeMultipartFile(context);
+        if (!digest.equalsIgnoreCase(context.getIdentifier())) {
+            deleteStoredFile(context.getRealPath(), context.getUserId());
+            throw new RPanBusinessException("文件校验失败，文件唯一标识与文件内容不一致");
+        }
         RPanFile record = doSaveFile(context.getFilename(),
                 context.getRealPath(),
                 context.getTotalSize(),
                 context.getIdentifier(),
-                context.getUserId());
+                context.getUserId(),
+                context.getCodec(),
+                context.getStoredSize());
         context.setRecord(record);
     }
 
     /**
      * 合并物理文件并保存物理文件记录
      *
-     * 1、委托文件存储引擎合并文件分片
-     * 2、保存物理文件记录
+     * 1、取出分片上传时按分片顺序累加计算出的md5
+     * 2、委托文件存储引擎合并文件分片
+     * 3、md5与文件唯一标识不一致时删除合并后的文件并拒绝合并
+     * 4、保存物理文件记录
+     *
+     * 分片乱序到达并且等待超时，或者分片分散在多个节点上传时，当前节点没有完整的md5，
+     * 此时跳过文件内容的校验，不再从存储引擎读取一遍合并后的文件
      *
      * @param context
      */
     @Override
     public void mergeFileChunkAndSaveFile(FileChunkMergeAndSaveContext context) {
+        String digest = iFileChunkService.getUploadDigest(context.getIdentifier(), context.getUserId());
         doMergeFileChunk(context);
-        RPanFile record = doSaveFile(context.getFilename(), context.getRealPath(), context.getTotalSize(), context.getIdentifier(), context.getUserId());
+        if (Objects.isNull(digest)) {
+            log.info("chunks of file {} were not digested in order on this node, skip verifying the merged file", context.getIdentifier());
+        } else if (!digest.equalsIgnoreCase(context.getIdentifier())) {
+            deleteStoredFile(context.getRealPath(), context.getUserId());
+            throw new RPanBusinessException("文件校验失败，文件唯一标识与文件内容不一致");
+        }
+        RPanFile record = doSaveFile(context.getFilename(), context.getRealPath(), context.getTotalSize(), context.getIdentifier(), context.getUserId(),
+                context.getCodec(), context.getStoredSize());
+        context.setRecord(record);
+    }
+
+    /**
+     * 保存客户端直传的物理文件记录
+     * 直传的文件不经过压缩，实际存储的大小就是文件大小
+     *
+     * @param context
+     */
+    @Override
+    public void saveDirectUploadFile(FileSaveContext context) {
+        RPanFile record = doSaveFile(context.getFilename(), context.getRealPath(), context.getTotalSize(), context.getIdentifier(), context.getUserId(),
+                RPanConstants.EMPTY_STR, context.getTotalSize());
         context.setRecord(record);
     }
+
+    /**
+     * 累加物理文件的访问次数并更新最近访问时间
+     *
+     * @param fileId
+     * @param count
+     * @param accessTime
+     */
+    @Override
+    public void increaseAccessCount(Long fileId, Long count, Date accessTime) {
+        UpdateWrapper<RPanFile> updateWrapper = Wrappers.update();
+        updateWrapper.setSql("access_count = access_count + " + count);
+        updateWrapper.set("last_access_time", accessTime);
+        updateWrapper.eq("file_id", fileId);
+        update(null, updateWrapper);
+    }
+
+    /**
+     * 所有物理文件的访问次数减半
+     */
+    @Override
+    public void decayAccessCount() {
+        UpdateWrapper<RPanFile> updateWrapper = Wrappers.update();
+        updateWrapper.setSql("access_count = access_count DIV 2");
+        updateWrapper.gt("access_count", RPanConstants.ZERO_INT);
+        update(null, updateWrapper);
+    }
+
+    /**
+     * 原子地替换物理文件的真实存储路径
+     * 以旧的真实存储路径作为更新条件，避免覆盖并发的修改
+     *
+     * @param fileId
+     * @param oldRealPath
+     * @param newRealPath
+     * @return
+     */
+    @Override
+    public boolean changeRealPath(Long fileId, String oldRealPath, String newRealPath) {
+        UpdateWrapper<RPanFile> updateWrapper = Wrappers.update();
+        updateWrapper.set("real_path", newRealPath);
+        updateWrapper.eq("file_id", fileId);
+        updateWrapper.eq("real_path", oldRealPath);
+        return update(null, updateWrapper);
+    }
+
     /************************************************private************************************************/
 
     /**
@@ -128,7 +226,7 @@ public class FileServiceImpl extends ServiceImpl<RPanFileMapper, RPanFile>
      *
      * 1、查询文件分片的记录
      * 2、根据文件分片的记录去合并物理文件
-     * 3、删除文件分片记录
+     * 3、删除文件分片记录，并清除准备合并标记
      * 4、封装合并文件的真实存储路径到上下文信息中
      *
      * @param context
@@ -180,9 +278,13 @@ public class FileServiceImpl extends ServiceImpl<RPanFileMapper, RPanFile>
             mergeFileContext.setFilename(context.getFilename());
             mergeFileContext.setIdentifier(context.getIdentifier());
             mergeFileContext.setUserId(context.getUserId());
+            mergeFileContext.setTotalSize(context.getTotalSize());
             mergeFileContext.setRealPathList(realPathList);
+            mergeFileContext.setCompressible(isCompressible(context.getFilename()));
             storageEngine.mergeFile(mergeFileContext);
             context.setRealPath(mergeFileContext.getRealPath());
+            context.setCodec(mergeFileContext.getCodec());
+            context.setStoredSize(mergeFileContext.getStoredSize());
         } catch (IOException e) {
             e.printStackTrace();
             throw new RPanBusinessException("文件分片合并失败");
@@ -190,6 +292,7 @@ public class FileServiceImpl extends ServiceImpl<RPanFileMapper, RPanFile>
 
         List<Long> fileChunkRecordIdList = chunkRecoredList.stream().map(RPanFileChunk::getId).collect(Collectors.toList());
         iFileChunkService.removeByIds(fileChunkRecordIdList);
+        iFileChunkService.clearMergeReady(context.getIdentifier(), context.getUserId());
     }
 
     /**
@@ -200,6 +303,8 @@ public class FileServiceImpl extends ServiceImpl<RPanFileMapper, RPanFile>
      * @param totalSize
      * @param identifier
      * @param userId
+     * @param codec
+     * @param storedSize
      * @return
      */
     /*
@@ -210,20 +315,35 @@ public class FileServiceImpl extends ServiceImpl<RPanFileMapper, RPanFile>
                 创建删除文件上下文实体，设置要删除的文件的路径集合，删除
             如果删除失败则抛出异常，并发布错误日志事件
      */
-    private RPanFile doSaveFile(String filename, String realPath, Long totalSize, String identifier, Long userId) {
-        RPanFile record = assembleRPanFile(filename, realPath, totalSize, identifier, userId);
+    private RPanFile doSaveFile(String filename, String realPath, Long totalSize, String identifier, Long userId, String codec, Long storedSize) {
+        RPanFile record = assembleRPanFile(filename, realPath, totalSize, identifier, userId, codec, storedSize);
         if (!save(record)) {
-            try {
-                DeleteFileContext deleteFileContext = new DeleteFileContext();
-                deleteFileContext.setRealFilePathList(Lists.newArrayList(realPath));
-                storageEngine.delete(deleteFileContext);
-            } catch (IOException e) {
-                e.printStackTrace();
+            deleteStoredFile(realPath, userId);
+        }
+        return record;
+    }
+
+    /**
+     * 删除已经存储的物理文件
+     * 删除失败时发布错误日志事件，提醒手动删除
+     *
+     * @param realPath
+     * @param userId
+     */
+    private void deleteStoredFile(String realPath, Long userId) {
+        try {
+            DeleteFileContext deleteFileContext = new DeleteFileContext();
+            deleteFileContext.setRealFilePathList(Lists.newArrayList(realPath));
+            storageEngine.delete(deleteFileContext);
+            if (CollectionUtils.isNotEmpty(deleteFileContext.getFailedRealFilePathList())) {
                 ErrorLogEvent errorLogEvent = new ErrorLogEvent(this,"文件物理删除失败，请执行手动删除！文件路径: " + realPath,userId);
                 applicationContext.publishEvent(errorLogEvent);
             }
+        } catch (IOException e) {
+            e.printStackTrace();
+            ErrorLogEvent errorLogEvent = new ErrorLogEvent(this,"文件物理删除失败，请执行手动删除！文件路径: " + realPath,userId);
+            applicationContext.publishEvent(errorLogEvent);
         }
-        return record;
     }
 
 
@@ -235,9 +355,11 @@ public class FileServiceImpl extends ServiceImpl<RPanFileMapper, RPanFile>
      * @param totalSize
      * @param identifier
      * @param userId
+     * @param codec
+     * @param storedSize
      * @return
      */
-    private RPanFile assembleRPanFile(String filename, String realPath, Long totalSize, String identifier, Long userId) {
+    private RPanFile assembleRPanFile(String filename, String realPath, Long totalSize, String identifier, Long userId, String codec, Long storedSize) {
         RPanFile record = new RPanFile();
 
         record.setFileId(IdUtil.get());
@@ -248,6 +370,8 @@ public class FileServiceImpl extends ServiceImpl<RPanFileMapper, RPanFile>
         record.setFileSuffix(FileUtils.getFileSuffix(filename));
         record.setFilePreviewContentType(FileUtils.getContentType(realPath));
         record.setIdentifier(identifier);
+        record.setCompressCodec(StringUtils.isNotBlank(codec) ? codec : RPanConstants.EMPTY_STR);
+        record.setStoredSize(String.valueOf(Objects.nonNull(storedSize) ? storedSize : totalSize));
         record.setCreateUser(userId);
         record.setCreateTime(new Date());
 
@@ -256,9 +380,10 @@ public class FileServiceImpl extends ServiceImpl<RPanFileMapper, RPanFile>
 
     /**
      * 上传单文件
-     * 该方法委托文件存储引擎实现
+     * 该方法委托文件存储引擎实现，存储引擎读取输入流的同时计算文件内容的md5，不需要再次读取已存储的文件
      *
      * @param context
+     * @return 文件内容的md5
      */
     /*
     注意：
@@ -267,17 +392,35 @@ public class FileServiceImpl extends ServiceImpl<RPanFileMapper, RPanFile>
             是org.springframework.web.multipart.MultipartFile;
             存储的是文件实体，其中MultipartFile对象的getInputStream()方法可以获取文件内容的输入流
      */
-    private void storeMultipartFile(FileSaveContext context) {
+    private String storeMultipartFile(FileSaveContext context) {
         try {
+            MessageDigest messageDigest = MessageDigestUtil.newMd5Digest();
             StoreFileContext storeFileContext = new StoreFileContext();
-            storeFileContext.setInputStream(context.getFile().getInputStream());
+            storeFileContext.setInputStream(new DigestInputStream(context.getFile().getInputStream(), messageDigest));
             storeFileContext.setFilename(context.getFilename());
             storeFileContext.setTotalSize(context.getTotalSize());
+            storeFileContext.setUserId(context.getUserId());
+            storeFileContext.setCompressible(isCompressible(context.getFilename()));
             storageEngine.store(storeFileContext);
             context.setRealPath(storeFileContext.getRealPath());
+            context.setCodec(storeFileContext.getCodec());
+            context.setStoredSize(storeFileContext.getStoredSize());
+            return MessageDigestUtil.digestHex(messageDigest);
         } catch (IOException e) {
             e.printStackTrace();
             throw new RPanBusinessException("文件上传失败");
         }
     }
+
+    /**
+     * 判断文件是否适合压缩存储
+     * 文本、CSV以及源码等纯文本类型的文件压缩率高，其他类型的文件大多已经是压缩格式
+     *
+     * @param filename
+     * @return
+     */
+    private boolean isCompressible(String filename) {
+        Integer fileTypeCode = FileTypeEnum.getFileTypeCode(FileUtils.getFileSuffix(filename));
+        return COMPRESSIBLE_FILE_TYPE_CODES.contains(fileTypeCode);
+    }
 }
\ No newline at end of file
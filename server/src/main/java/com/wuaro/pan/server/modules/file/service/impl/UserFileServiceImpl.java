@@ -2,11 +2,19 @@ package com.wuaro.pan.server.modules.file.service.impl;
 
 import com.google.common.collect.Lists;
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.alibaba.fastjson.JSON;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.wuaro.pan.cache.core.constants.CacheConstants;
 import com.wuaro.pan.core.constants.RPanConstants;
 import com.wuaro.pan.core.exception.RPanBusinessException;
+import com.wuaro.pan.core.exception.RPanFrameworkException;
 import com.wuaro.pan.core.utils.FileUtils;
 import com.wuaro.pan.core.utils.IdUtil;
+import com.wuaro.pan.core.utils.UUIDUtil;
+import com.wuaro.pan.server.common.accelerate.AcceleratedDownloadHandler;
+import com.wuaro.pan.server.common.config.PanServerConfig;
+import com.wuaro.pan.server.common.range.RangeDownloadHandler;
+import com.wuaro.pan.server.common.tiering.FileAccessTracker;
 import com.wuaro.pan.server.common.event.file.DeleteFileEvent;
 import com.wuaro.pan.server.common.event.search.UserSearchEvent;
 import com.wuaro.pan.server.common.utils.HttpUtil;
@@ -22,11 +30,16 @@ import com.wuaro.pan.server.modules.file.service.IFileService;
 import com.wuaro.pan.server.modules.file.service.IUserFileService;
 import com.wuaro.pan.server.modules.file.mapper.RPanUserFileMapper;
 import com.wuaro.pan.server.modules.file.vo.*;
-import com.wuaro.pan.storage.engine.core.AbstractStorageEngine;
-import com.wuaro.pan.storage.engine.core.context.ReadFileContext;
+import com.wuaro.pan.storage.engine.core.context.CompleteDirectUploadContext;
+import com.wuaro.pan.storage.engine.core.context.InitDirectUploadContext;
+import com.wuaro.pan.storage.engine.core.context.PresignDownloadContext;
+import com.wuaro.pan.storage.engine.core.direct.DirectTransferStorageEngine;
+import com.wuaro.pan.storage.engine.core.routing.RoutingStorageEngine;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.http.MediaType;
@@ -36,11 +49,13 @@ import org.apache.commons.collections.CollectionUtils;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.Date;
 
@@ -71,7 +86,25 @@ public class UserFileServiceImpl extends ServiceImpl<RPanUserFileMapper, RPanUse
     private FileChunkServiceImpl iFileChunkService;
 
     @Autowired
-    private AbstractStorageEngine storageEngine;
+    private RangeDownloadHandler rangeDownloadHandler;
+
+    @Autowired
+    private FileAccessTracker fileAccessTracker;
+
+    @Autowired
+    private AcceleratedDownloadHandler acceleratedDownloadHandler;
+
+    @Autowired
+    private RoutingStorageEngine routingStorageEngine;
+
+    @Autowired(required = false)
+    private DirectTransferStorageEngine directTransferStorageEngine;
+
+    @Autowired
+    private PanServerConfig panServerConfig;
+
+    @Autowired
+    private CacheManager cacheManager;
 
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) {
@@ -280,6 +313,143 @@ public class UserFileServiceImpl extends ServiceImpl<RPanUserFileMapper, RPanUse
                 context.getRecord().getFileSizeDesc());
     }
 
+    /**
+     * 初始化客户端直传
+     *
+     * 1、委托支持直传的存储引擎生成文件的存储路径和预签名的上传地址
+     * 2、把直传的信息保存到缓存中，返回直传凭证，文件记录等到确认上传完成时再保存
+     *
+     * @param context
+     * @return
+     */
+    @Override
+    public DirectUploadVO initDirectUpload(DirectUploadContext context) {
+        DirectTransferStorageEngine engine = getDirectTransferStorageEngine();
+        InitDirectUploadContext initDirectUploadContext = new InitDirectUploadContext();
+        initDirectUploadContext.setFilename(context.getFilename());
+        initDirectUploadContext.setIdentifier(context.getIdentifier());
+        initDirectUploadContext.setTotalSize(context.getTotalSize());
+        initDirectUploadContext.setUserId(context.getUserId());
+        try {
+            engine.initDirectUpload(initDirectUploadContext);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RPanBusinessException("文件直传初始化失败");
+        }
+
+        DirectUploadSessionContext session = new DirectUploadSessionContext();
+        session.setUserId(context.getUserId());
+        session.setParentId(context.getParentId());
+        session.setFilename(context.getFilename());
+        session.setIdentifier(context.getIdentifier());
+        session.setTotalSize(context.getTotalSize());
+        session.setRealPath(initDirectUploadContext.getRealPath());
+        session.setUploadId(initDirectUploadContext.getUploadId());
+        session.setPartSize(initDirectUploadContext.getPartSize());
+        session.setContentVerified(initDirectUploadContext.getContentVerified());
+        String uploadToken = UUIDUtil.getUUID();
+        getCache().put(FileConstants.DIRECT_UPLOAD_PREFIX + uploadToken, JSON.toJSONString(session));
+
+        return assembleDirectUploadVO(uploadToken, initDirectUploadContext);
+    }
+
+    /**
+     * 重新获取客户端直传的上传地址
+     *
+     * @param context
+     * @return
+     */
+    @Override
+    public DirectUploadVO refreshDirectUploadUrls(DirectUploadTokenContext context) {
+        DirectTransferStorageEngine engine = getDirectTransferStorageEngine();
+        DirectUploadSessionContext session = getDirectUploadSession(context);
+        InitDirectUploadContext initDirectUploadContext = new InitDirectUploadContext();
+        initDirectUploadContext.setFilename(session.getFilename());
+        initDirectUploadContext.setIdentifier(session.getIdentifier());
+        initDirectUploadContext.setTotalSize(session.getTotalSize());
+        initDirectUploadContext.setUserId(session.getUserId());
+        initDirectUploadContext.setRealPath(session.getRealPath());
+        initDirectUploadContext.setUploadId(session.getUploadId());
+        initDirectUploadContext.setPartSize(session.getPartSize());
+        try {
+            engine.presignUploadUrls(initDirectUploadContext);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RPanBusinessException("获取文件直传地址失败");
+        }
+        return assembleDirectUploadVO(context.getUploadToken(), initDirectUploadContext);
+    }
+
+    /**
+     * 确认客户端直传完成
+     *
+     * 1、委托存储引擎校验上传的内容，分片直传时合并分片
+     * 2、保存物理文件记录，存储引擎没有校验过内容的文件不记录文件唯一标识，避免被秒传误用
+     * 3、保存文件用户关系映射，清理缓存中的直传信息
+     *
+     * @param context
+     */
+    @Transactional(rollbackFor = Exception.class)
+    @Override
+    public void completeDirectUpload(DirectUploadTokenContext context) {
+        DirectTransferStorageEngine engine = getDirectTransferStorageEngine();
+        DirectUploadSessionContext session = getDirectUploadSession(context);
+        CompleteDirectUploadContext completeDirectUploadContext = new CompleteDirectUploadContext();
+        completeDirectUploadContext.setRealPath(session.getRealPath());
+        completeDirectUploadContext.setUploadId(session.getUploadId());
+        completeDirectUploadContext.setPartSize(session.getPartSize());
+        completeDirectUploadContext.setTotalSize(session.getTotalSize());
+        try {
+            engine.completeDirectUpload(completeDirectUploadContext);
+        } catch (RPanFrameworkException e) {
+            throw new RPanBusinessException(e.getMessage());
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RPanBusinessException("文件直传确认失败");
+        }
+
+        FileSaveContext fileSaveContext = new FileSaveContext();
+        fileSaveContext.setFilename(session.getFilename());
+        fileSaveContext.setIdentifier(Boolean.TRUE.equals(session.getContentVerified()) ? session.getIdentifier() : RPanConstants.EMPTY_STR);
+        fileSaveContext.setTotalSize(session.getTotalSize());
+        fileSaveContext.setUserId(session.getUserId());
+        fileSaveContext.setRealPath(RoutingStorageEngine.wrap(engine.getEngineName(), session.getRealPath()));
+        iFileService.saveDirectUploadFile(fileSaveContext);
+        RPanFile record = fileSaveContext.getRecord();
+        saveUserFile(session.getParentId(),
+                session.getFilename(),
+                FolderFlagEnum.NO,
+                FileTypeEnum.getFileTypeCode(FileUtils.getFileSuffix(session.getFilename())),
+                record.getFileId(),
+                session.getUserId(),
+                record.getFileSizeDesc());
+        getCache().evict(FileConstants.DIRECT_UPLOAD_PREFIX + context.getUploadToken());
+    }
+
+    /**
+     * 取消客户端直传
+     * 委托存储引擎清理已经上传的内容，并清理缓存中的直传信息
+     *
+     * @param context
+     */
+    @Override
+    public void cancelDirectUpload(DirectUploadTokenContext context) {
+        DirectTransferStorageEngine engine = getDirectTransferStorageEngine();
+        DirectUploadSessionContext session = getDirectUploadSession(context);
+        CompleteDirectUploadContext completeDirectUploadContext = new CompleteDirectUploadContext();
+        completeDirectUploadContext.setRealPath(session.getRealPath());
+        completeDirectUploadContext.setUploadId(session.getUploadId());
+        completeDirectUploadContext.setPartSize(session.getPartSize());
+        completeDirectUploadContext.setTotalSize(session.getTotalSize());
+        try {
+            engine.abortDirectUpload(completeDirectUploadContext);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RPanBusinessException("取消文件直传失败");
+        }
+        getCache().evict(FileConstants.DIRECT_UPLOAD_PREFIX + context.getUploadToken());
+    }
+
     /**
      * 文件下载
      *
@@ -290,13 +460,13 @@ public class UserFileServiceImpl extends ServiceImpl<RPanUserFileMapper, RPanUse
      * @param context
      */
     @Override
-    public void download(FileDownloadContext context) {
+    public CompletableFuture<Void> download(FileDownloadContext context) {
         RPanUserFile record = getById(context.getFileId());
         checkOperatePermission(record, context.getUserId());
         if (checkIsFolder(record)) {
             throw new RPanBusinessException("文件夹暂不支持下载");
         }
-        doDownload(record, context.getResponse());
+        return doDownload(record, context.getRequest(), context.getResponse());
     }
 
     /**
@@ -305,7 +475,7 @@ public class UserFileServiceImpl extends ServiceImpl<RPanUserFileMapper, RPanUse
      * @param context
      */
     @Override
-    public void downloadWithoutCheckUser(FileDownloadContext context) {
+    public CompletableFuture<Void> downloadWithoutCheckUser(FileDownloadContext context) {
         RPanUserFile record = getById(context.getFileId());
         if (Objects.isNull(record)) {
             throw new RPanBusinessException("当前文件记录不存在");
@@ -313,7 +483,7 @@ public class UserFileServiceImpl extends ServiceImpl<RPanUserFileMapper, RPanUse
         if (checkIsFolder(record)) {
             throw new RPanBusinessException("文件夹暂不支持下载");
         }
-        doDownload(record, context.getResponse());
+        return doDownload(record, context.getRequest(), context.getResponse());
     }
 
 
@@ -326,13 +496,58 @@ public class UserFileServiceImpl extends ServiceImpl<RPanUserFileMapper, RPanUse
      * @param context
      */
     @Override
-    public void preview(FilePreviewContext context) {
+    public CompletableFuture<Void> preview(FilePreviewContext context) {
         RPanUserFile record = getById(context.getFileId());
         checkOperatePermission(record, context.getUserId());
         if (checkIsFolder(record)) {
             throw new RPanBusinessException("文件夹暂不支持下载");
         }
-        doPreview(record, context.getResponse());
+        return doPreview(record, context.getRequest(), context.getResponse());
+    }
+
+    /**
+     * 获取文件的直接下载地址
+     *
+     * 1、参数校验：校验文件是否存在，文件是否属于该用户，不能是文件夹
+     * 2、只有存储在支持直传的存储引擎中、并且没有压缩存储的文件才能直接下载
+     * 3、委托存储引擎生成预签名的下载地址，记录一次文件访问用于冷热分层
+     *
+     * @param context
+     * @return
+     */
+    @Override
+    public DirectDownloadUrlVO getDirectDownloadUrl(FileDirectDownloadContext context) {
+        DirectTransferStorageEngine engine = getDirectTransferStorageEngine();
+        RPanUserFile record = getById(context.getFileId());
+        checkOperatePermission(record, context.getUserId());
+        if (checkIsFolder(record)) {
+            throw new RPanBusinessException("文件夹暂不支持下载");
+        }
+        RPanFile realFileRecord = iFileService.getById(record.getRealFileId());
+        if (Objects.isNull(realFileRecord)) {
+            throw new RPanBusinessException("当前的文件记录不存在");
+        }
+        if (StringUtils.isNotBlank(realFileRecord.getCompressCodec())
+                || !Objects.equals(engine.getEngineName(), routingStorageEngine.resolveEngineName(realFileRecord.getRealPath()))) {
+            throw new RPanBusinessException("该文件不支持直接下载，请使用普通下载");
+        }
+
+        PresignDownloadContext presignDownloadContext = new PresignDownloadContext();
+        presignDownloadContext.setRealPath(RoutingStorageEngine.unwrap(realFileRecord.getRealPath()));
+        presignDownloadContext.setFilename(record.getFilename());
+        presignDownloadContext.setAttachment(Boolean.TRUE);
+        try {
+            engine.presignDownload(presignDownloadContext);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RPanBusinessException("获取文件下载地址失败");
+        }
+        fileAccessTracker.record(realFileRecord.getFileId());
+
+        DirectDownloadUrlVO vo = new DirectDownloadUrlVO();
+        vo.setUrl(presignDownloadContext.getUrl());
+        vo.setExpireTime(presignDownloadContext.getExpireTime());
+        return vo;
     }
 
     /**
@@ -789,26 +1004,33 @@ public class UserFileServiceImpl extends ServiceImpl<RPanUserFileMapper, RPanUse
 
     /**
      * 执行文件预览的动作
-     * 1、查询文件的真实存储路径
+     * 1、查询文件的真实存储路径，记录一次文件访问用于冷热分层
      * 2、添加跨域的公共响应头
-     * 3、委托文件存储引擎去读取文件内容到响应的输出流中
+     * 3、开启了加速下载并且文件可以由前置代理直接发送时，只返回内部跳转的响应头
+     * 4、否则委托文件存储引擎去读取文件内容到响应的输出流中，支持区间请求以便音视频、PDF拖动预览
      *
      * @param record
+     * @param request
      * @param response
+     * @return
      */
-    private void doPreview(RPanUserFile record, HttpServletResponse response) {
+    private CompletableFuture<Void> doPreview(RPanUserFile record, HttpServletRequest request, HttpServletResponse response) {
         RPanFile realFileRecord = iFileService.getById(record.getRealFileId());
         if (Objects.isNull(realFileRecord)) {
             throw new RPanBusinessException("当前的文件记录不存在");
         }
+        fileAccessTracker.record(realFileRecord.getFileId());
         addCommonResponseHeader(response, realFileRecord.getFilePreviewContentType());
-        realFile2OutputStream(realFileRecord.getRealPath(), response);
+        if (acceleratedDownloadHandler.accelerate(realFileRecord, response)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return rangeDownloadHandler.write(realFileRecord, realFileRecord.getFilePreviewContentType(), request, response);
     }
 
     /**
      * 执行文件下载的动作
      *
-     * 1、查询文件的真实存储路径
+     * 1、查询文件的真实存储路径，记录一次文件访问用于冷热分层
      * 2、添加跨域的公共响应头
      *      跨域：两个不同域名之间的调用，会有一个跨域的校验
      *      为什么会出现跨域错误：
@@ -819,37 +1041,26 @@ public class UserFileServiceImpl extends ServiceImpl<RPanUserFileMapper, RPanUse
  *              因为H5下载动作都会模拟一个a标签，模拟一个触发去调用一个下载
  *              如果没有进行一些跨域的设置，浏览器会直接拦截的
      * 3、拼装下载文件的名称、长度等等响应信息
-     * 4、委托文件存储引擎去读取文件内容到响应的输出流中
+     * 4、开启了加速下载并且文件可以由前置代理直接发送时，只返回内部跳转的响应头
+     * 5、否则委托文件存储引擎去读取文件内容到响应的输出流中，支持区间请求以便断点续传
      *
      * @param record
+     * @param request
      * @param response
+     * @return
      */
-    private void doDownload(RPanUserFile record, HttpServletResponse response) {
+    private CompletableFuture<Void> doDownload(RPanUserFile record, HttpServletRequest request, HttpServletResponse response) {
         RPanFile realFileRecord = iFileService.getById(record.getRealFileId());
         if (Objects.isNull(realFileRecord)) {
             throw new RPanBusinessException("当前的文件记录不存在");
         }
+        fileAccessTracker.record(realFileRecord.getFileId());
         addCommonResponseHeader(response, MediaType.APPLICATION_OCTET_STREAM_VALUE);
-        addDownloadAttribute(response, record, realFileRecord);
-        realFile2OutputStream(realFileRecord.getRealPath(), response);
-    }
-
-    /**
-     * 委托文件存储引擎去读取文件内容并写入到输出流中
-     *
-     * @param realPath
-     * @param response
-     */
-    private void realFile2OutputStream(String realPath, HttpServletResponse response) {
-        try {
-            ReadFileContext context = new ReadFileContext();
-            context.setRealPath(realPath);
-            context.setOutputStream(response.getOutputStream());
-            storageEngine.realFile(context);
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw new RPanBusinessException("文件下载失败");
+        addDownloadAttribute(response, record);
+        if (acceleratedDownloadHandler.accelerate(realFileRecord, response)) {
+            return CompletableFuture.completedFuture(null);
         }
+        return rangeDownloadHandler.write(realFileRecord, MediaType.APPLICATION_OCTET_STREAM_VALUE, request, response);
     }
 
     /**
@@ -857,7 +1068,6 @@ public class UserFileServiceImpl extends ServiceImpl<RPanUserFileMapper, RPanUse
      *
      * @param response
      * @param record
-     * @param realFileRecord
      */
     /*
     注意：
@@ -867,11 +1077,10 @@ public class UserFileServiceImpl extends ServiceImpl<RPanUserFileMapper, RPanUse
             这行代码添加了一个 HTTP 响应头，其中包含了文件下载属性。
             具体地说，它设置了 Content-Disposition 头，值为 "attachment; filename=..."，
             这个值告诉浏览器下载文件而不是直接打开，并指定了下载文件的文件名。这里使用了 GB2312 编码来处理文件名。
-        response.setContentLengthLong(Long.valueOf(realFileRecord.getFileSize()));
-            这行代码设置了 HTTP 响应的内容长度，即下载文件的大小。它通过 realFileRecord.getFileSize() 获取文件大小，并将其设置为响应的内容长度。
-        综合起来，这个方法的作用是设置 HTTP 响应的下载属性，包括指定下载文件的文件名和文件大小，以便客户端下载文件时能够正确显示这些信息。
+        响应的内容长度不在这里设置，而是在读取文件时根据是否为区间请求设置完整文件大小或者区间的大小。
+        综合起来，这个方法的作用是设置 HTTP 响应的下载属性，指定下载文件的文件名，以便客户端下载文件时能够正确显示这些信息。
      */
-    private void addDownloadAttribute(HttpServletResponse response, RPanUserFile record, RPanFile realFileRecord) {
+    private void addDownloadAttribute(HttpServletResponse response, RPanUserFile record) {
         try {
             response.addHeader(FileConstants.CONTENT_DISPOSITION_STR,
                     FileConstants.CONTENT_DISPOSITION_VALUE_PREFIX_STR + new String(record.getFilename().getBytes(FileConstants.GB2312_STR), FileConstants.IOS_8859_1_STR));
@@ -879,7 +1088,6 @@ public class UserFileServiceImpl extends ServiceImpl<RPanUserFileMapper, RPanUse
             e.printStackTrace();
             throw new RPanBusinessException("文件下载失败");
         }
-        response.setContentLengthLong(Long.valueOf(realFileRecord.getFileSize()));
     }
 
     /**
@@ -945,6 +1153,50 @@ public class UserFileServiceImpl extends ServiceImpl<RPanUserFileMapper, RPanUse
         return FolderFlagEnum.YES.getCode().equals(record.getFolderFlag());
     }
 
+    /**
+     * 获取支持客户端直传的存储引擎
+     *
+     * @return
+     */
+    private DirectTransferStorageEngine getDirectTransferStorageEngine() {
+        if (!panServerConfig.getDirectTransferEnabled() || Objects.isNull(directTransferStorageEngine)) {
+            throw new RPanBusinessException("当前存储不支持客户端直传");
+        }
+        return directTransferStorageEngine;
+    }
+
+    private Cache getCache() {
+        return cacheManager.getCache(CacheConstants.R_PAN_CACHE_NAME);
+    }
+
+    /**
+     * 根据直传凭证获取缓存中的直传信息，并校验直传属于该用户
+     *
+     * @param context
+     * @return
+     */
+    private DirectUploadSessionContext getDirectUploadSession(DirectUploadTokenContext context) {
+        String value = getCache().get(FileConstants.DIRECT_UPLOAD_PREFIX + context.getUploadToken(), String.class);
+        if (StringUtils.isBlank(value)) {
+            throw new RPanBusinessException("直传凭证不存在或已过期");
+        }
+        DirectUploadSessionContext session = JSON.parseObject(value, DirectUploadSessionContext.class);
+        if (!Objects.equals(session.getUserId(), context.getUserId())) {
+            throw new RPanBusinessException("您没有该直传的操作权限");
+        }
+        return session;
+    }
+
+    private DirectUploadVO assembleDirectUploadVO(String uploadToken, InitDirectUploadContext context) {
+        DirectUploadVO vo = new DirectUploadVO();
+        vo.setUploadToken(uploadToken);
+        vo.setUploadUrlList(context.getUploadUrlList());
+        vo.setUploadHeaders(context.getUploadHeaders());
+        vo.setPartSize(context.getPartSize());
+        vo.setExpireTime(context.getExpireTime());
+        return vo;
+    }
+
     /**
      *
      * 合并文件分片并保存物理文件记录
@@ -0,0 +1,22 @@
+package com.wuaro.pan.server.modules.file.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Date;
+
+@ApiModel("客户端直接下载地址返回实体")
+@Data
+public class DirectDownloadUrlVO implements Serializable {
+
+    private static final long serialVersionUID = 4416807025870319226L;
+
+    @ApiModelProperty("预签名的下载地址")
+    private String url;
+
+    @ApiModelProperty("下载地址的过期时间")
+    private Date expireTime;
+
+}
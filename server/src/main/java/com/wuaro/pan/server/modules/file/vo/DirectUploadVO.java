@@ -0,0 +1,33 @@
+package com.wuaro.pan.server.modules.file.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+@ApiModel("客户端直传返回实体")
+@Data
+public class DirectUploadVO implements Serializable {
+
+    private static final long serialVersionUID = -6470285230384316541L;
+
+    @ApiModelProperty("直传凭证，刷新上传地址和确认上传完成时使用")
+    private String uploadToken;
+
+    @ApiModelProperty("预签名的上传地址列表，只有一个地址时整个文件PUT上传，否则按照顺序PUT上传每一个分片")
+    private List<String> uploadUrlList;
+
+    @ApiModelProperty("上传时必须携带的请求头")
+    private Map<String, String> uploadHeaders;
+
+    @ApiModelProperty("分片大小，除最后一个分片外每个分片都必须是这个大小")
+    private Long partSize;
+
+    @ApiModelProperty("上传地址的过期时间")
+    private Date expireTime;
+
+}
@@ -2,6 +2,7 @@ package com.wuaro.pan.server.modules.share.context;
 
 import lombok.Data;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.Serializable;
 
@@ -33,4 +34,10 @@ public class ShareFileDownloadContext implements Serializable {
      */
     private HttpServletResponse response;
 
+    /**
+     * 请求实体
+     * 用于读取Range等请求头
+     */
+    private HttpServletRequest request;
+
 }
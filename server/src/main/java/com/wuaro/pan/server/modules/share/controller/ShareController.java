@@ -6,6 +6,7 @@ import com.wuaro.pan.core.response.R;
 import com.wuaro.pan.core.utils.IdUtil;
 import com.wuaro.pan.server.common.annotation.LoginIgnore;
 import com.wuaro.pan.server.common.annotation.NeedShareCode;
+import com.wuaro.pan.server.common.async.AsyncRequestExecutor;
 import com.wuaro.pan.server.common.utils.ShareIdUtil;
 import com.wuaro.pan.server.common.utils.UserIdUtil;
 import com.wuaro.pan.server.modules.file.vo.RPanUserFileVO;
@@ -26,7 +27,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.constraints.NotBlank;
 import java.util.List;
@@ -43,6 +46,9 @@ public class ShareController {
     @Autowired
     private ShareConverter shareConverter;
 
+    @Autowired
+    private AsyncRequestExecutor asyncRequestExecutor;
+
     @ApiOperation(
             value = "创建分享链接",
             notes = "该接口提供了创建分享链接的功能",
@@ -193,14 +199,16 @@ public class ShareController {
     )
     @GetMapping("share/file/download")
     @NeedShareCode
-    public void download(@NotBlank(message = "文件ID不能为空") @RequestParam(value = "fileId", required = false) String fileId,
-                         HttpServletResponse response) {
+    public DeferredResult<R> download(@NotBlank(message = "文件ID不能为空") @RequestParam(value = "fileId", required = false) String fileId,
+                                      HttpServletRequest request,
+                                      HttpServletResponse response) {
         ShareFileDownloadContext context = new ShareFileDownloadContext();
         context.setFileId(IdUtil.decrypt(fileId));
         context.setShareId(ShareIdUtil.get());
         context.setUserId(UserIdUtil.get());
         context.setResponse(response);
-        iShareService.download(context);
+        context.setRequest(request);
+        return asyncRequestExecutor.compose(iShareService.download(context));
     }
 
 }
@@ -10,6 +10,7 @@ import com.wuaro.pan.server.modules.share.vo.ShareDetailVO;
 import com.wuaro.pan.server.modules.share.vo.ShareSimpleDetailVO;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author wuaro
@@ -84,8 +85,9 @@ public interface IShareService extends IService<RPanShare> {
      * 分享的文件下载
      *
      * @param context
+     * @return 文件内容写完之后完成的异步结果
      */
-    void download(ShareFileDownloadContext context);
+    CompletableFuture<Void> download(ShareFileDownloadContext context);
 
     /**
      * 刷新受影响的对应的分享的状态
@@ -53,6 +53,7 @@ import org.springframework.transaction.annotation.Transactional;
 import java.io.Serializable;
 import java.net.URLEncoder;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
@@ -253,10 +254,10 @@ public class ShareServiceImpl extends ServiceImpl<RPanShareMapper, RPanShare> im
      * @param context
      */
     @Override
-    public void download(ShareFileDownloadContext context) {
+    public CompletableFuture<Void> download(ShareFileDownloadContext context) {
         checkShareStatus(context.getShareId());
         checkFileIdIsOnShareStatus(context.getShareId(), Lists.newArrayList(context.getFileId()));
-        doDownload(context);
+        return doDownload(context);
     }
 
     /**
@@ -479,13 +480,15 @@ public class ShareServiceImpl extends ServiceImpl<RPanShareMapper, RPanShare> im
      * 委托文件模块去做
      *
      * @param context
+     * @return
      */
-    private void doDownload(ShareFileDownloadContext context) {
+    private CompletableFuture<Void> doDownload(ShareFileDownloadContext context) {
         FileDownloadContext fileDownloadContext = new FileDownloadContext();
         fileDownloadContext.setFileId(context.getFileId());
         fileDownloadContext.setUserId(context.getUserId());
         fileDownloadContext.setResponse(context.getResponse());
-        iUserFileService.downloadWithoutCheckUser(fileDownloadContext);
+        fileDownloadContext.setRequest(context.getRequest());
+        return iUserFileService.downloadWithoutCheckUser(fileDownloadContext);
     }
 
     /**
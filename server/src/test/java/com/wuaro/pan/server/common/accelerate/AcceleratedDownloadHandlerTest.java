@@ -0,0 +1,153 @@
+package com.wuaro.pan.server.common.accelerate;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.server.common.config.AcceleratedDownloadConfig;
+import com.wuaro.pan.server.modules.file.entity.RPanFile;
+import com.wuaro.pan.storage.engine.core.direct.LocalFileStorageEngine;
+import com.wuaro.pan.storage.engine.core.routing.RoutingStorageEngine;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+
+/**
+ * 加速下载处理器的单元测试类
+ * 本地存储引擎和多存储引擎路由使用Mockito模拟，文件只用来计算路径，不需要真实存在
+ */
+public class AcceleratedDownloadHandlerTest {
+
+    private static final String X_ACCEL_REDIRECT_HEADER = "X-Accel-Redirect";
+
+    private static final String X_SENDFILE_HEADER = "X-Sendfile";
+
+    private File root;
+
+    private AcceleratedDownloadConfig config;
+
+    private LocalFileStorageEngine localFileStorageEngine;
+
+    private AcceleratedDownloadHandler handler;
+
+    @Before
+    public void before() {
+        root = new File(System.getProperty("java.io.tmpdir"), "rpan-accelerate").getAbsoluteFile();
+        config = new AcceleratedDownloadConfig();
+        config.setEnabled(Boolean.TRUE);
+        config.setLocations(Lists.newArrayList(
+                location(new File(root, "data"), "/internal/data"),
+                location(new File(root, "data" + File.separator + "disk2"), "/internal/disk2/")
+        ));
+
+        localFileStorageEngine = Mockito.mock(LocalFileStorageEngine.class);
+        Mockito.when(localFileStorageEngine.getEngineName()).thenReturn("local");
+        Mockito.when(localFileStorageEngine.getLocalFile(Mockito.anyString()))
+                .thenAnswer(invocation -> new File(root, invocation.<String>getArgument(0)));
+        RoutingStorageEngine routingStorageEngine = Mockito.mock(RoutingStorageEngine.class);
+        Mockito.when(routingStorageEngine.resolveEngineName(Mockito.anyString()))
+                .thenAnswer(invocation -> invocation.<String>getArgument(0).split(RoutingStorageEngine.ENGINE_SEPARATOR)[0]);
+
+        handler = new AcceleratedDownloadHandler();
+        ReflectionTestUtils.setField(handler, "config", config);
+        ReflectionTestUtils.setField(handler, "routingStorageEngine", routingStorageEngine);
+        ReflectionTestUtils.setField(handler, "localFileStorageEngine", localFileStorageEngine);
+    }
+
+    /**
+     * 测试多个根目录都匹配时使用最长的根目录映射内部路径，
+     * 只是名称前缀相同的目录不算匹配
+     */
+    @Test
+    public void testLongestRootMapping() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Assert.assertTrue(handler.accelerate(record("local://data/disk2/2024/a.txt"), response));
+        Assert.assertEquals("/internal/disk2/2024/a.txt", response.getHeader(X_ACCEL_REDIRECT_HEADER));
+
+        response = new MockHttpServletResponse();
+        Assert.assertTrue(handler.accelerate(record("local://data/disk1/b.txt"), response));
+        Assert.assertEquals("/internal/data/disk1/b.txt", response.getHeader(X_ACCEL_REDIRECT_HEADER));
+
+        response = new MockHttpServletResponse();
+        Assert.assertFalse(handler.accelerate(record("local://data-backup/c.txt"), response));
+        Assert.assertNull(response.getHeader(X_ACCEL_REDIRECT_HEADER));
+    }
+
+    /**
+     * 测试内部路径中的中文、空格以及特殊字符按照路径段编码，目录分隔符保持不变
+     */
+    @Test
+    public void testUriEncoding() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        Assert.assertTrue(handler.accelerate(record("local://data/2024/测试 文件#1.txt"), response));
+
+        Assert.assertEquals("/internal/data/2024/%E6%B5%8B%E8%AF%95%20%E6%96%87%E4%BB%B6%231.txt", response.getHeader(X_ACCEL_REDIRECT_HEADER));
+    }
+
+    /**
+     * 测试X_SENDFILE模式直接返回文件的磁盘路径，不需要location映射
+     */
+    @Test
+    public void testSendfile() {
+        config.setMode("X_SENDFILE");
+        config.setLocations(Lists.newArrayList());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        Assert.assertTrue(handler.accelerate(record("local://other/d.txt"), response));
+
+        Assert.assertEquals(new File(root, "other/d.txt").getAbsolutePath(), response.getHeader(X_SENDFILE_HEADER));
+    }
+
+    /**
+     * 测试压缩存储的文件、其他存储引擎中的文件、打包存储的文件以及没有开启加速下载时都由应用传输
+     */
+    @Test
+    public void testFallbacks() {
+        RPanFile compressed = record("local://data/e.txt");
+        compressed.setCompressCodec("gzip");
+        assertNotAccelerated(compressed);
+
+        assertNotAccelerated(record("oss://data/f.txt"));
+
+        Mockito.when(localFileStorageEngine.getLocalFile("segment/g.txt")).thenReturn(null);
+        assertNotAccelerated(record("local://segment/g.txt"));
+
+        config.setMode("UNKNOWN");
+        assertNotAccelerated(record("local://data/h.txt"));
+
+        config.setMode("X_ACCEL_REDIRECT");
+        config.setEnabled(Boolean.FALSE);
+        assertNotAccelerated(record("local://data/h.txt"));
+
+        config.setEnabled(Boolean.TRUE);
+        ReflectionTestUtils.setField(handler, "localFileStorageEngine", null);
+        assertNotAccelerated(record("local://data/h.txt"));
+    }
+
+    /*****************************************private*****************************************/
+
+    private AcceleratedDownloadConfig.Location location(File path, String uri) {
+        AcceleratedDownloadConfig.Location location = new AcceleratedDownloadConfig.Location();
+        location.setPath(path.getAbsolutePath());
+        location.setUri(uri);
+        return location;
+    }
+
+    private RPanFile record(String realPath) {
+        RPanFile record = new RPanFile();
+        record.setFileId(1L);
+        record.setRealPath(realPath);
+        return record;
+    }
+
+    private void assertNotAccelerated(RPanFile record) {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Assert.assertFalse(handler.accelerate(record, response));
+        Assert.assertNull(response.getHeader(X_ACCEL_REDIRECT_HEADER));
+        Assert.assertNull(response.getHeader(X_SENDFILE_HEADER));
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.wuaro.pan.server.common.aspect;
+
+import com.wuaro.pan.core.response.R;
+import com.wuaro.pan.core.response.ResponseCode;
+import com.wuaro.pan.server.common.annotation.LoginIgnore;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.lang.reflect.Method;
+
+/**
+ * 统一登录拦截切面的单元测试类
+ * 请求不携带登录令牌，只验证未登录时返回值的形式
+ */
+public class CommonLoginAspectTest {
+
+    private CommonLoginAspect aspect;
+
+    @Before
+    public void before() {
+        aspect = new CommonLoginAspect();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest("GET", "/file/download")));
+    }
+
+    @After
+    public void after() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    /**
+     * 测试异步处理的接口未登录时返回已经完成的DeferredResult，不执行目标方法
+     */
+    @Test
+    public void testNeedLoginDeferredResult() throws Throwable {
+        ProceedingJoinPoint joinPoint = mockJoinPoint("download");
+
+        Object result = aspect.loginAuthAround(joinPoint);
+
+        Assert.assertTrue(result instanceof DeferredResult);
+        DeferredResult<?> deferredResult = (DeferredResult<?>) result;
+        Assert.assertTrue(deferredResult.hasResult());
+        Assert.assertEquals(ResponseCode.NEED_LOGIN.getCode().intValue(), ((R) deferredResult.getResult()).getCode());
+        Mockito.verify(joinPoint, Mockito.never()).proceed();
+    }
+
+    /**
+     * 测试同步处理的接口未登录时直接返回未登录的响应
+     */
+    @Test
+    public void testNeedLoginSyncResult() throws Throwable {
+        ProceedingJoinPoint joinPoint = mockJoinPoint("list");
+
+        Object result = aspect.loginAuthAround(joinPoint);
+
+        Assert.assertTrue(result instanceof R);
+        Assert.assertEquals(ResponseCode.NEED_LOGIN.getCode().intValue(), ((R) result).getCode());
+        Mockito.verify(joinPoint, Mockito.never()).proceed();
+    }
+
+    /**
+     * 测试被LoginIgnore标记的接口不校验登录信息，直接执行目标方法
+     */
+    @Test
+    public void testLoginIgnore() throws Throwable {
+        ProceedingJoinPoint joinPoint = mockJoinPoint("share");
+        DeferredResult<R> expected = new DeferredResult<>();
+        Mockito.when(joinPoint.proceed()).thenReturn(expected);
+
+        Assert.assertSame(expected, aspect.loginAuthAround(joinPoint));
+    }
+
+    /*****************************************private*****************************************/
+
+    private ProceedingJoinPoint mockJoinPoint(String methodName) throws NoSuchMethodException {
+        Method method = SampleController.class.getMethod(methodName);
+        MethodSignature signature = Mockito.mock(MethodSignature.class);
+        Mockito.when(signature.getMethod()).thenReturn(method);
+        Mockito.when(signature.getReturnType()).thenReturn(method.getReturnType());
+        ProceedingJoinPoint joinPoint = Mockito.mock(ProceedingJoinPoint.class);
+        Mockito.when(joinPoint.getSignature()).thenReturn(signature);
+        return joinPoint;
+    }
+
+    /**
+     * 提供切点方法签名的示例接口
+     */
+    public static class SampleController {
+
+        public DeferredResult<R> download() {
+            return new DeferredResult<>();
+        }
+
+        public R list() {
+            return R.success();
+        }
+
+        @LoginIgnore
+        public DeferredResult<R> share() {
+            return new DeferredResult<>();
+        }
+
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.wuaro.pan.server.common.async;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.core.exception.RPanBusinessException;
+import com.wuaro.pan.core.response.R;
+import com.wuaro.pan.server.common.config.PanServerConfig;
+import com.wuaro.pan.storage.engine.core.async.IoFuture;
+import com.wuaro.pan.storage.engine.core.async.StorageEngineIoExecutor;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * 文件传输类请求异步执行器的单元测试类
+ * 超时由测试直接触发DeferredResult注册的超时回调，模拟Web容器的异步超时
+ */
+public class AsyncRequestExecutorTest {
+
+    private ThreadPoolTaskExecutor taskExecutor;
+
+    private StorageEngineIoExecutor ioExecutor;
+
+    private AsyncRequestExecutor asyncRequestExecutor;
+
+    @Before
+    public void before() {
+        taskExecutor = new ThreadPoolTaskExecutor();
+        taskExecutor.setCorePoolSize(1);
+        taskExecutor.setMaxPoolSize(1);
+        taskExecutor.setQueueCapacity(1);
+        taskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        taskExecutor.initialize();
+        ioExecutor = new StorageEngineIoExecutor(taskExecutor);
+
+        PanServerConfig config = new PanServerConfig();
+        config.setAsyncRequestCancelTimeout(10L * 1000);
+        asyncRequestExecutor = new AsyncRequestExecutor();
+        ReflectionTestUtils.setField(asyncRequestExecutor, "ioExecutor", ioExecutor);
+        ReflectionTestUtils.setField(asyncRequestExecutor, "config", config);
+    }
+
+    @After
+    public void after() {
+        taskExecutor.shutdown();
+    }
+
+    /**
+     * 测试处理逻辑的返回值作为响应体
+     */
+    @Test
+    public void testResult() throws InterruptedException {
+        DeferredResult<R> deferredResult = asyncRequestExecutor.execute(R::success);
+
+        awaitResult(deferredResult);
+        Assert.assertTrue(((R) deferredResult.getResult()).isSuccess());
+    }
+
+    /**
+     * 测试IO线程池满了之后请求以服务器繁忙的业务异常结束
+     */
+    @Test
+    public void testServerBusy() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> running = ioExecutor.submit(() -> release.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Boolean> queued = ioExecutor.submit(() -> Boolean.TRUE);
+
+        DeferredResult<R> deferredResult = asyncRequestExecutor.execute(R::success);
+
+        Assert.assertTrue(deferredResult.hasResult());
+        Assert.assertTrue(deferredResult.getResult() instanceof RPanBusinessException);
+        release.countDown();
+        Assert.assertTrue(running.get(10, TimeUnit.SECONDS));
+        Assert.assertTrue(queued.get(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 测试超时时中断正在执行的处理逻辑，并且在处理逻辑退出之后才以超时结束请求
+     */
+    @Test
+    public void testTimeoutInterruptsRunningTask() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+        AtomicBoolean exited = new AtomicBoolean(false);
+        DeferredResult<R> deferredResult = asyncRequestExecutor.compose(ioExecutor.submit(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            } finally {
+                exited.set(true);
+            }
+            return null;
+        }));
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        fireTimeout(deferredResult);
+
+        Assert.assertTrue(interrupted.get());
+        Assert.assertTrue(exited.get());
+        Assert.assertTrue(deferredResult.getResult() instanceof RPanBusinessException);
+        Assert.assertEquals("done", ioExecutor.submit(() -> Thread.currentThread().isInterrupted() ? "interrupted" : "done").join());
+    }
+
+    /**
+     * 测试超时时还在排队的处理逻辑不再执行
+     */
+    @Test
+    public void testTimeoutSkipsQueuedTask() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> running = ioExecutor.submit(() -> release.await(10, TimeUnit.SECONDS));
+        AtomicBoolean executed = new AtomicBoolean(false);
+        DeferredResult<R> deferredResult = asyncRequestExecutor.compose(ioExecutor.submit(() -> executed.getAndSet(true)));
+
+        fireTimeout(deferredResult);
+        release.countDown();
+
+        Assert.assertTrue(running.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Boolean.TRUE, ioExecutor.submit(() -> Boolean.TRUE).get(10, TimeUnit.SECONDS));
+        Assert.assertFalse(executed.get());
+        Assert.assertTrue(deferredResult.getResult() instanceof RPanBusinessException);
+    }
+
+    /**
+     * 测试超时时按顺序执行的多个IO任务中正在执行的那一个被中断，后面的不再执行
+     */
+    @Test
+    public void testTimeoutCancelsSequence() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+        AtomicBoolean nextExecuted = new AtomicBoolean(false);
+        List<Supplier<? extends CompletableFuture<?>>> steps = Lists.newArrayList();
+        steps.add(() -> ioExecutor.submit(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+            return null;
+        }));
+        steps.add(() -> ioExecutor.submit(() -> nextExecuted.getAndSet(true)));
+        DeferredResult<R> deferredResult = asyncRequestExecutor.compose(IoFuture.sequence(steps));
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        fireTimeout(deferredResult);
+
+        Assert.assertTrue(interrupted.get());
+        Assert.assertEquals(Boolean.TRUE, ioExecutor.submit(() -> Boolean.TRUE).join());
+        Assert.assertFalse(nextExecuted.get());
+        Assert.assertTrue(deferredResult.getResult() instanceof RPanBusinessException);
+    }
+
+    /**
+     * 测试读写文件失败时请求以业务异常结束
+     */
+    @Test
+    public void testIOExceptionTranslated() throws InterruptedException {
+        DeferredResult<R> deferredResult = asyncRequestExecutor.compose(ioExecutor.submit(() -> {
+            throw new IOException("mock io failure");
+        }));
+
+        awaitResult(deferredResult);
+        Assert.assertTrue(deferredResult.getResult() instanceof RPanBusinessException);
+    }
+
+    /*****************************************private*****************************************/
+
+    private void awaitResult(DeferredResult<R> deferredResult) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!deferredResult.hasResult() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        Assert.assertTrue(deferredResult.hasResult());
+    }
+
+    /**
+     * 执行DeferredResult注册的超时回调，与Web容器异步超时时的调用方式一致
+     *
+     * @param deferredResult
+     */
+    private void fireTimeout(DeferredResult<R> deferredResult) {
+        Runnable timeoutCallback = (Runnable) ReflectionTestUtils.getField(deferredResult, "timeoutCallback");
+        Assert.assertNotNull(timeoutCallback);
+        timeoutCallback.run();
+    }
+
+}
@@ -0,0 +1,234 @@
+package com.wuaro.pan.server.common.range;
+
+import com.wuaro.pan.server.common.config.PanServerConfig;
+import com.wuaro.pan.server.modules.file.constants.FileConstants;
+import com.wuaro.pan.server.modules.file.entity.RPanFile;
+import com.wuaro.pan.storage.engine.core.StorageEngine;
+import com.wuaro.pan.storage.engine.core.async.AsyncStorageEngineAdapter;
+import com.wuaro.pan.storage.engine.core.async.StorageEngineIoExecutor;
+import com.wuaro.pan.storage.engine.core.context.ReadFileContext;
+import com.wuaro.pan.storage.engine.core.context.ReadFileRangeContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 区间请求处理器的单元测试类
+ * 存储引擎使用桩实现，文件内容保存在内存中，通过异步存储引擎适配器在IO线程池中读取
+ */
+public class RangeDownloadHandlerTest {
+
+    private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+    private RangeDownloadHandler handler;
+
+    private StorageEngine storageEngine;
+
+    private PanServerConfig panServerConfig;
+
+    private ThreadPoolTaskExecutor taskExecutor;
+
+    private RPanFile record;
+
+    @Before
+    public void before() throws Exception {
+        storageEngine = Mockito.mock(StorageEngine.class);
+        Mockito.doAnswer(invocation -> {
+            ReadFileContext context = invocation.getArgument(0);
+            context.getOutputStream().write(CONTENT.getBytes(StandardCharsets.ISO_8859_1));
+            return null;
+        }).when(storageEngine).realFile(Mockito.any(ReadFileContext.class));
+        Mockito.doAnswer(invocation -> {
+            ReadFileRangeContext context = invocation.getArgument(0);
+            int offset = context.getOffset().intValue();
+            int length = context.getLength().intValue();
+            context.getOutputStream().write(CONTENT.substring(offset, offset + length).getBytes(StandardCharsets.ISO_8859_1));
+            return null;
+        }).when(storageEngine).realFileRange(Mockito.any(ReadFileRangeContext.class));
+
+        panServerConfig = new PanServerConfig();
+        panServerConfig.setMaxRangesPerRequest(3);
+
+        taskExecutor = new ThreadPoolTaskExecutor();
+        taskExecutor.setCorePoolSize(1);
+        taskExecutor.setMaxPoolSize(1);
+        taskExecutor.initialize();
+
+        handler = new RangeDownloadHandler();
+        ReflectionTestUtils.setField(handler, "asyncStorageEngine", new AsyncStorageEngineAdapter(storageEngine, new StorageEngineIoExecutor(taskExecutor)));
+        ReflectionTestUtils.setField(handler, "panServerConfig", panServerConfig);
+
+        record = new RPanFile();
+        record.setFileId(1L);
+        record.setRealPath("/data/rpan/file");
+        record.setFileSize(String.valueOf(CONTENT.length()));
+    }
+
+    @After
+    public void after() {
+        taskExecutor.shutdown();
+    }
+
+    /**
+     * 测试没有Range请求头时响应200并传输完整的文件
+     */
+    @Test
+    public void testWholeFile() throws Exception {
+        MockHttpServletResponse response = write(null);
+        Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        Assert.assertEquals(FileConstants.BYTES_STR, response.getHeader(FileConstants.ACCEPT_RANGES_STR));
+        Assert.assertEquals(CONTENT.length(), response.getContentLength());
+        Assert.assertEquals(CONTENT, response.getContentAsString());
+    }
+
+    /**
+     * 测试单个区间以及后缀区间响应206并只传输该区间的内容
+     */
+    @Test
+    public void testSingleRange() throws Exception {
+        MockHttpServletResponse response = write("bytes=2-5");
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+        Assert.assertEquals("bytes 2-5/36", response.getHeader(FileConstants.CONTENT_RANGE_STR));
+        Assert.assertEquals(4, response.getContentLength());
+        Assert.assertEquals("2345", response.getContentAsString());
+
+        response = write("bytes=-4");
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+        Assert.assertEquals("bytes 32-35/36", response.getHeader(FileConstants.CONTENT_RANGE_STR));
+        Assert.assertEquals("wxyz", response.getContentAsString());
+
+        response = write("bytes=30-100");
+        Assert.assertEquals("bytes 30-35/36", response.getHeader(FileConstants.CONTENT_RANGE_STR));
+        Assert.assertEquals("uvwxyz", response.getContentAsString());
+    }
+
+    /**
+     * 测试区间的起始位置超出文件大小时响应416
+     */
+    @Test
+    public void testUnsatisfiableRange() throws Exception {
+        MockHttpServletResponse response = write("bytes=36-40");
+        Assert.assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatus());
+        Assert.assertEquals("bytes */36", response.getHeader(FileConstants.CONTENT_RANGE_STR));
+        Assert.assertEquals(0, response.getContentAsByteArray().length);
+        Mockito.verifyZeroInteractions(storageEngine);
+    }
+
+    /**
+     * 测试部分区间无法满足时只传输可以满足的区间
+     */
+    @Test
+    public void testPartiallySatisfiableRanges() throws Exception {
+        MockHttpServletResponse response = write("bytes=40-50,2-5");
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+        Assert.assertEquals("bytes 2-5/36", response.getHeader(FileConstants.CONTENT_RANGE_STR));
+        Assert.assertEquals("2345", response.getContentAsString());
+    }
+
+    /**
+     * 测试格式不合法的Range请求头被忽略，响应200并传输完整的文件
+     */
+    @Test
+    public void testInvalidRangeHeader() throws Exception {
+        String[] invalidHeaders = {"bytes=5-3", "bytes=abc", "items=0-5", "bytes="};
+        for (String invalidHeader : invalidHeaders) {
+            MockHttpServletResponse response = write(invalidHeader);
+            Assert.assertEquals(invalidHeader, HttpServletResponse.SC_OK, response.getStatus());
+            Assert.assertNull(response.getHeader(FileConstants.CONTENT_RANGE_STR));
+            Assert.assertEquals(CONTENT, response.getContentAsString());
+        }
+        Mockito.verify(storageEngine, Mockito.never()).realFileRange(Mockito.any(ReadFileRangeContext.class));
+    }
+
+    /**
+     * 测试多个区间以multipart/byteranges的格式按起始位置依次传输
+     */
+    @Test
+    public void testMultipleRanges() throws Exception {
+        MockHttpServletResponse response = write("bytes=20-21,0-1");
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+        String contentType = response.getContentType();
+        Assert.assertTrue(contentType.startsWith(FileConstants.MULTIPART_BYTERANGES_PREFIX_STR));
+        String boundary = contentType.substring(FileConstants.MULTIPART_BYTERANGES_PREFIX_STR.length());
+        String expected = "\r\n--" + boundary + "\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Range: bytes 0-1/36\r\n\r\n"
+                + "01"
+                + "\r\n--" + boundary + "\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Range: bytes 20-21/36\r\n\r\n"
+                + "kl"
+                + "\r\n--" + boundary + "--\r\n";
+        Assert.assertEquals(expected, response.getContentAsString());
+    }
+
+    /**
+     * 测试重叠、相邻的区间合并之后只读取一次
+     */
+    @Test
+    public void testCoalesceRanges() throws Exception {
+        MockHttpServletResponse response = write("bytes=4-7,0-3,2-5,8-9");
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+        Assert.assertEquals("bytes 0-9/36", response.getHeader(FileConstants.CONTENT_RANGE_STR));
+        Assert.assertEquals("0123456789", response.getContentAsString());
+        Mockito.verify(storageEngine, Mockito.times(1)).realFileRange(Mockito.any(ReadFileRangeContext.class));
+    }
+
+    /**
+     * 测试合并之后的区间数超过上限时传输完整的文件
+     */
+    @Test
+    public void testTooManyRanges() throws Exception {
+        MockHttpServletResponse response = write("bytes=0-0,2-2,4-4,6-6");
+        Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        Assert.assertNull(response.getHeader(FileConstants.CONTENT_RANGE_STR));
+        Assert.assertEquals(CONTENT, response.getContentAsString());
+        Mockito.verify(storageEngine, Mockito.never()).realFileRange(Mockito.any(ReadFileRangeContext.class));
+
+        response = write("bytes=0-0,2-2,4-4");
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+    }
+
+    /**
+     * 测试多个区间中的一个读取失败时以该异常结束，后面的区间不再读取
+     */
+    @Test
+    public void testMultipleRangesFailure() throws Exception {
+        Mockito.doThrow(new IOException("mock read failure"))
+                .when(storageEngine).realFileRange(Mockito.any(ReadFileRangeContext.class));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(FileConstants.RANGE_STR, "bytes=20-21,0-1");
+        try {
+            handler.write(record, "text/plain", request, new MockHttpServletResponse()).join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Mockito.verify(storageEngine, Mockito.times(1)).realFileRange(Mockito.any(ReadFileRangeContext.class));
+    }
+
+    /*****************************************private*****************************************/
+
+    private MockHttpServletResponse write(String range) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        if (range != null) {
+            request.addHeader(FileConstants.RANGE_STR, range);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        handler.write(record, "text/plain", request, response).get(10, TimeUnit.SECONDS);
+        return response;
+    }
+
+}
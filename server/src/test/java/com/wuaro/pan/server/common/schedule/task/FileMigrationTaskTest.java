@@ -0,0 +1,335 @@
+package com.wuaro.pan.server.common.schedule.task;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.cache.core.constants.CacheConstants;
+import com.wuaro.pan.core.utils.MessageDigestUtil;
+import com.wuaro.pan.server.common.config.FileMigrationConfig;
+import com.wuaro.pan.server.common.relocate.FileRelocator;
+import com.wuaro.pan.server.modules.file.entity.RPanFile;
+import com.wuaro.pan.server.modules.file.entity.RPanFilePendingDelete;
+import com.wuaro.pan.server.modules.file.service.IFilePendingDeleteService;
+import com.wuaro.pan.server.modules.file.service.IFileService;
+import com.wuaro.pan.storage.engine.core.StorageEngine;
+import com.wuaro.pan.storage.engine.core.context.DeleteFileContext;
+import com.wuaro.pan.storage.engine.core.context.ReadFileContext;
+import com.wuaro.pan.storage.engine.core.context.StoreFileContext;
+import com.wuaro.pan.storage.engine.core.routing.RoutingStorageEngine;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 存储引擎迁移任务的单元测试类
+ * 文件服务、存储引擎以及调度器使用Mockito模拟，迁移在调用线程中同步执行
+ */
+public class FileMigrationTaskTest {
+
+    private static final String CONTENT = "migration";
+
+    private static final String CHECKPOINT_KEY = "file_migration_checkpoint_local_oss";
+
+    private File workDir;
+
+    private FileMigrationConfig config;
+
+    private IFileService iFileService;
+
+    private IFilePendingDeleteService iFilePendingDeleteService;
+
+    private RoutingStorageEngine routingStorageEngine;
+
+    private StorageEngine storageEngine;
+
+    private ThreadPoolTaskScheduler taskScheduler;
+
+    private FileRelocator fileRelocator;
+
+    private Cache cache;
+
+    private FileMigrationTask task;
+
+    /**
+     * 目标存储引擎读回来的内容
+     */
+    private String targetContent = CONTENT;
+
+    @Before
+    public void before() throws IOException {
+        workDir = Files.createTempDirectory("rpan-migration").toFile();
+        config = new FileMigrationConfig();
+        config.setEnabled(Boolean.TRUE);
+        config.setTempPath(workDir.getAbsolutePath());
+
+        iFileService = Mockito.mock(IFileService.class);
+        iFilePendingDeleteService = Mockito.mock(IFilePendingDeleteService.class);
+        Mockito.when(iFilePendingDeleteService.removeById(Mockito.any())).thenReturn(true);
+        storageEngine = Mockito.mock(StorageEngine.class);
+        taskScheduler = Mockito.mock(ThreadPoolTaskScheduler.class);
+        routingStorageEngine = Mockito.mock(RoutingStorageEngine.class);
+        Mockito.when(routingStorageEngine.containsEngine(Mockito.anyString())).thenReturn(true);
+        Mockito.when(routingStorageEngine.resolveEngineName(Mockito.anyString()))
+                .thenAnswer(invocation -> invocation.<String>getArgument(0).split(RoutingStorageEngine.ENGINE_SEPARATOR)[0]);
+        Mockito.doAnswer(invocation -> {
+            ReadFileContext context = invocation.getArgument(0);
+            String content = context.getRealPath().startsWith(config.getTargetEngine()) ? targetContent : CONTENT;
+            context.getOutputStream().write(content.getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(routingStorageEngine).realFile(Mockito.any(ReadFileContext.class));
+        Mockito.doAnswer(invocation -> {
+            StoreFileContext context = invocation.getArgument(1);
+            context.setRealPath(RoutingStorageEngine.wrap(invocation.getArgument(0), "new-" + context.getFilename()));
+            return null;
+        }).when(routingStorageEngine).storeTo(Mockito.anyString(), Mockito.any(StoreFileContext.class));
+        Mockito.when(iFileService.changeRealPath(Mockito.anyLong(), Mockito.anyString(), Mockito.anyString())).thenReturn(true);
+
+        FileRelocator relocator = new FileRelocator();
+        ReflectionTestUtils.setField(relocator, "iFileService", iFileService);
+        ReflectionTestUtils.setField(relocator, "iFilePendingDeleteService", iFilePendingDeleteService);
+        ReflectionTestUtils.setField(relocator, "routingStorageEngine", routingStorageEngine);
+        ReflectionTestUtils.setField(relocator, "storageEngine", storageEngine);
+        ReflectionTestUtils.setField(relocator, "taskScheduler", taskScheduler);
+        relocator.setApplicationContext(Mockito.mock(ApplicationContext.class));
+        fileRelocator = Mockito.spy(relocator);
+
+        ConcurrentMapCacheManager cacheManager = new ConcurrentMapCacheManager();
+        cache = cacheManager.getCache(CacheConstants.R_PAN_CACHE_NAME);
+
+        task = new FileMigrationTask();
+        ReflectionTestUtils.setField(task, "routingStorageEngine", routingStorageEngine);
+        ReflectionTestUtils.setField(task, "fileRelocator", fileRelocator);
+        ReflectionTestUtils.setField(task, "migrationTaskExecutor", new SyncTaskExecutor());
+        ReflectionTestUtils.setField(task, "migrationDispatchExecutor", new SyncTaskExecutor());
+        ReflectionTestUtils.setField(task, "cacheManager", cacheManager);
+        ReflectionTestUtils.setField(task, "config", config);
+    }
+
+    @After
+    public void after() throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+    }
+
+    /**
+     * 测试源存储引擎中的文件迁移到目标存储引擎，其他存储引擎中的文件不处理，
+     * 源文件记录到待删除物理文件表中，在延迟时间到达之后才删除
+     */
+    @Test
+    public void testMigrateAndDeleteSourceAfterGrace() throws IOException {
+        stubBatches(record(1L, "local://a"), record(2L, "oss://b"));
+        long start = System.currentTimeMillis();
+
+        task.run();
+
+        Mockito.verify(iFileService).changeRealPath(1L, "local://a", "oss://new-a");
+        Mockito.verify(iFileService, Mockito.never()).changeRealPath(Mockito.eq(2L), Mockito.anyString(), Mockito.anyString());
+        Mockito.verifyZeroInteractions(storageEngine);
+        Assert.assertEquals(0, workDir.listFiles().length);
+
+        ArgumentCaptor<Date> dueTimeCaptor = ArgumentCaptor.forClass(Date.class);
+        Mockito.verify(iFilePendingDeleteService).addPendingDelete(Mockito.eq("local://a"), dueTimeCaptor.capture());
+        Assert.assertTrue(dueTimeCaptor.getValue().getTime() >= start + TimeUnit.SECONDS.toMillis(config.getDeleteGraceSeconds()));
+        ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(taskScheduler).schedule(runnableCaptor.capture(), Mockito.eq(dueTimeCaptor.getValue()));
+
+        Mockito.when(iFilePendingDeleteService.listDuePendingDeletes()).thenReturn(Lists.newArrayList(pendingDelete(1L, "local://a")));
+        runnableCaptor.getValue().run();
+        Mockito.verify(iFilePendingDeleteService).removeById(1L);
+        assertDeleted("local://a");
+    }
+
+    /**
+     * 测试每次执行之前先删除已经到期的待删除文件，重启之前没有来得及删除的文件不会遗留
+     */
+    @Test
+    public void testDeleteDuePendingFilesOnRun() throws IOException {
+        Mockito.when(iFilePendingDeleteService.listDuePendingDeletes())
+                .thenReturn(Lists.newArrayList(pendingDelete(1L, "local://old")))
+                .thenReturn(Collections.emptyList());
+        stubBatches();
+
+        task.run();
+
+        Mockito.verify(iFilePendingDeleteService).removeById(1L);
+        assertDeleted("local://old");
+    }
+
+    /**
+     * 测试待删除记录已经被其他线程处理，或者又有文件记录指向该路径时不删除文件
+     */
+    @Test
+    public void testSkipPendingDeleteClaimedOrReferenced() throws IOException {
+        Mockito.when(iFilePendingDeleteService.listDuePendingDeletes())
+                .thenReturn(Lists.newArrayList(pendingDelete(1L, "local://claimed"), pendingDelete(2L, "local://referenced")));
+        Mockito.when(iFilePendingDeleteService.removeById(1L)).thenReturn(false);
+        Mockito.when(iFileService.count(Mockito.any())).thenReturn(1);
+
+        fileRelocator.deleteDuePendingFiles();
+
+        Mockito.verify(iFilePendingDeleteService).removeById(2L);
+        Mockito.verifyZeroInteractions(storageEngine);
+    }
+
+    /**
+     * 测试服务启动时立即删除已经到期的文件，还没有到期的在最晚的到期时间统一删除
+     */
+    @Test
+    public void testResumePendingDeletesOnStartup() throws IOException {
+        Date later = new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10));
+        RPanFilePendingDelete due = pendingDelete(1L, "local://due");
+        RPanFilePendingDelete notDue = pendingDelete(2L, "local://not-due");
+        notDue.setDueTime(later);
+        Mockito.when(iFilePendingDeleteService.listDuePendingDeletes()).thenReturn(Lists.newArrayList(due));
+        Mockito.when(iFilePendingDeleteService.list()).thenReturn(Lists.newArrayList(notDue));
+
+        fileRelocator.resumePendingDeletes();
+
+        assertDeleted("local://due");
+        Mockito.verify(taskScheduler).schedule(Mockito.any(Runnable.class), Mockito.eq(later));
+    }
+
+    /**
+     * 测试超过最长执行时间时在当前批次完成之后停止，断点保存到缓存中，
+     * 下次执行从断点继续，扫描到最后时断点归零
+     */
+    @Test
+    public void testResumeFromCheckpoint() throws IOException {
+        config.setMaxRunSeconds(0);
+        cache.put(CHECKPOINT_KEY, "1");
+        Mockito.when(iFileService.list(Mockito.any()))
+                .thenReturn(Lists.newArrayList(record(2L, "local://second")))
+                .thenReturn(Lists.newArrayList(record(3L, "local://third")))
+                .thenReturn(Collections.emptyList());
+
+        task.run();
+        Mockito.verify(fileRelocator).scrollQueryFileRecords(1L, config.getBatchSize());
+        Mockito.verify(iFileService).changeRealPath(2L, "local://second", "oss://new-second");
+        Mockito.verify(iFileService, Mockito.never()).changeRealPath(Mockito.eq(3L), Mockito.anyString(), Mockito.anyString());
+        Assert.assertEquals("2", cache.get(CHECKPOINT_KEY, String.class));
+
+        task.run();
+        Mockito.verify(fileRelocator).scrollQueryFileRecords(2L, config.getBatchSize());
+        Mockito.verify(iFileService).changeRealPath(3L, "local://third", "oss://new-third");
+        Assert.assertEquals("3", cache.get(CHECKPOINT_KEY, String.class));
+
+        task.run();
+        Mockito.verify(fileRelocator).scrollQueryFileRecords(3L, config.getBatchSize());
+        Assert.assertEquals("0", cache.get(CHECKPOINT_KEY, String.class));
+    }
+
+    /**
+     * 测试迁移过程中文件记录已经变化时，删除新写入的文件并且不删除源文件
+     */
+    @Test
+    public void testDiscardCopyWhenRecordChanged() throws IOException {
+        Mockito.when(iFileService.changeRealPath(Mockito.anyLong(), Mockito.anyString(), Mockito.anyString())).thenReturn(false);
+        stubBatches(record(1L, "local://a"));
+
+        task.run();
+
+        assertDeleted("oss://new-a");
+        Mockito.verify(taskScheduler, Mockito.never()).schedule(Mockito.any(Runnable.class), Mockito.any(Date.class));
+    }
+
+    /**
+     * 测试源文件的内容与文件唯一标识不一致时不写入目标存储引擎
+     */
+    @Test
+    public void testSourceIdentifierMismatch() throws IOException {
+        RPanFile record = record(1L, "local://a");
+        record.setIdentifier(md5Hex("corrupted"));
+        stubBatches(record);
+
+        task.run();
+
+        Mockito.verify(routingStorageEngine, Mockito.never()).storeTo(Mockito.anyString(), Mockito.any(StoreFileContext.class));
+        Mockito.verify(iFileService, Mockito.never()).changeRealPath(Mockito.anyLong(), Mockito.anyString(), Mockito.anyString());
+    }
+
+    /**
+     * 测试目标存储引擎读回来的内容与源文件不一致时，删除新写入的文件并且不替换真实存储路径
+     */
+    @Test
+    public void testTargetVerifyFailure() throws IOException {
+        targetContent = "migratio!";
+        stubBatches(record(1L, "local://a"));
+
+        task.run();
+
+        assertDeleted("oss://new-a");
+        Mockito.verify(iFileService, Mockito.never()).changeRealPath(Mockito.anyLong(), Mockito.anyString(), Mockito.anyString());
+        Mockito.verify(taskScheduler, Mockito.never()).schedule(Mockito.any(Runnable.class), Mockito.any(Date.class));
+    }
+
+    /**
+     * 测试上一次迁移还没有执行完时本次跳过，不占用调度线程
+     */
+    @Test
+    public void testSkipWhenPreviousRunIsRunning() {
+        TaskExecutor busyExecutor = runnable -> {
+            throw new TaskRejectedException("busy");
+        };
+        ReflectionTestUtils.setField(task, "migrationDispatchExecutor", busyExecutor);
+
+        task.run();
+
+        Mockito.verify(iFileService, Mockito.never()).list(Mockito.any());
+    }
+
+    /*****************************************private*****************************************/
+
+    private RPanFile record(Long fileId, String realPath) {
+        RPanFile record = new RPanFile();
+        record.setFileId(fileId);
+        record.setFilename(realPath.substring(realPath.indexOf(RoutingStorageEngine.ENGINE_SEPARATOR) + RoutingStorageEngine.ENGINE_SEPARATOR.length()));
+        record.setRealPath(realPath);
+        record.setFileSize(String.valueOf(CONTENT.length()));
+        record.setIdentifier(md5Hex(CONTENT));
+        return record;
+    }
+
+    private RPanFilePendingDelete pendingDelete(Long id, String realPath) {
+        RPanFilePendingDelete pendingDelete = new RPanFilePendingDelete();
+        pendingDelete.setId(id);
+        pendingDelete.setRealPath(realPath);
+        pendingDelete.setDueTime(new Date());
+        return pendingDelete;
+    }
+
+    private String md5Hex(String content) {
+        MessageDigest digest = MessageDigestUtil.newMd5Digest();
+        digest.update(content.getBytes(StandardCharsets.UTF_8));
+        return MessageDigestUtil.digestHex(digest);
+    }
+
+    private void stubBatches(RPanFile... records) {
+        Mockito.when(iFileService.list(Mockito.any()))
+                .thenReturn(Lists.newArrayList(records))
+                .thenReturn(Collections.emptyList());
+    }
+
+    private void assertDeleted(String realPath) throws IOException {
+        ArgumentCaptor<DeleteFileContext> captor = ArgumentCaptor.forClass(DeleteFileContext.class);
+        Mockito.verify(storageEngine).delete(captor.capture());
+        Assert.assertEquals(Collections.singletonList(realPath), captor.getValue().getRealFilePathList());
+    }
+
+}
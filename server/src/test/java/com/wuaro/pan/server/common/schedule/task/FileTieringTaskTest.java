@@ -0,0 +1,219 @@
+package com.wuaro.pan.server.common.schedule.task;
+
+import com.google.common.collect.Lists;
+import com.wuaro.pan.server.common.config.FileTieringConfig;
+import com.wuaro.pan.server.common.relocate.FileRelocator;
+import com.wuaro.pan.server.modules.file.entity.RPanFile;
+import com.wuaro.pan.server.modules.file.service.IFilePendingDeleteService;
+import com.wuaro.pan.server.modules.file.service.IFileService;
+import com.wuaro.pan.storage.engine.core.StorageEngine;
+import com.wuaro.pan.storage.engine.core.context.DeleteFileContext;
+import com.wuaro.pan.storage.engine.core.context.ReadFileContext;
+import com.wuaro.pan.storage.engine.core.context.StoreFileContext;
+import com.wuaro.pan.storage.engine.core.routing.RoutingStorageEngine;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 冷热分层迁移任务的单元测试类
+ * 文件服务、存储引擎以及调度器使用Mockito模拟，迁移在调用线程中同步执行
+ */
+public class FileTieringTaskTest {
+
+    private static final String CONTENT = "tiering";
+
+    private File workDir;
+
+    private FileTieringConfig config;
+
+    private IFileService iFileService;
+
+    private RoutingStorageEngine routingStorageEngine;
+
+    private StorageEngine storageEngine;
+
+    private ThreadPoolTaskScheduler taskScheduler;
+
+    private FileTieringTask task;
+
+    @Before
+    public void before() throws IOException {
+        workDir = Files.createTempDirectory("rpan-tiering").toFile();
+        config = new FileTieringConfig();
+        config.setEnabled(Boolean.TRUE);
+        config.setTempPath(workDir.getAbsolutePath());
+
+        iFileService = Mockito.mock(IFileService.class);
+        storageEngine = Mockito.mock(StorageEngine.class);
+        taskScheduler = Mockito.mock(ThreadPoolTaskScheduler.class);
+        routingStorageEngine = Mockito.mock(RoutingStorageEngine.class);
+        Mockito.when(routingStorageEngine.containsEngine(Mockito.anyString())).thenReturn(true);
+        Mockito.when(routingStorageEngine.resolveEngineName(Mockito.anyString()))
+                .thenAnswer(invocation -> invocation.<String>getArgument(0).split(RoutingStorageEngine.ENGINE_SEPARATOR)[0]);
+        Mockito.doAnswer(invocation -> {
+            ReadFileContext context = invocation.getArgument(0);
+            context.getOutputStream().write(CONTENT.getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(routingStorageEngine).realFile(Mockito.any(ReadFileContext.class));
+        Mockito.doAnswer(invocation -> {
+            StoreFileContext context = invocation.getArgument(1);
+            context.setRealPath(RoutingStorageEngine.wrap(invocation.getArgument(0), "new-" + context.getFilename()));
+            return null;
+        }).when(routingStorageEngine).storeTo(Mockito.anyString(), Mockito.any(StoreFileContext.class));
+        Mockito.when(iFileService.changeRealPath(Mockito.anyLong(), Mockito.anyString(), Mockito.anyString())).thenReturn(true);
+
+        FileRelocator fileRelocator = new FileRelocator();
+        ReflectionTestUtils.setField(fileRelocator, "iFileService", iFileService);
+        ReflectionTestUtils.setField(fileRelocator, "iFilePendingDeleteService", Mockito.mock(IFilePendingDeleteService.class));
+        ReflectionTestUtils.setField(fileRelocator, "routingStorageEngine", routingStorageEngine);
+        ReflectionTestUtils.setField(fileRelocator, "storageEngine", storageEngine);
+        ReflectionTestUtils.setField(fileRelocator, "taskScheduler", taskScheduler);
+        fileRelocator.setApplicationContext(Mockito.mock(ApplicationContext.class));
+
+        task = new FileTieringTask();
+        ReflectionTestUtils.setField(task, "iFileService", iFileService);
+        ReflectionTestUtils.setField(task, "routingStorageEngine", routingStorageEngine);
+        ReflectionTestUtils.setField(task, "fileRelocator", fileRelocator);
+        ReflectionTestUtils.setField(task, "tieringTaskExecutor", new SyncTaskExecutor());
+        ReflectionTestUtils.setField(task, "config", config);
+    }
+
+    @After
+    public void after() throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+    }
+
+    /**
+     * 测试长期不访问的热文件迁移到冷存储引擎，访问频繁的冷文件迁回热存储引擎，
+     * 最近访问过的热文件不迁移，扫描完成之后访问次数减半，原文件延迟删除
+     */
+    @Test
+    public void testDemoteAndPromote() throws IOException {
+        RPanFile cold = record(1L, "local://cold", 100, 0L);
+        RPanFile hot = record(2L, "oss://hot", 1, 30L);
+        RPanFile recent = record(3L, "local://recent", 1, 0L);
+        stubBatches(Lists.newArrayList(cold, hot, recent));
+
+        task.run();
+
+        Mockito.verify(iFileService).changeRealPath(1L, "local://cold", "oss://new-cold");
+        Mockito.verify(iFileService).changeRealPath(2L, "oss://hot", "local://new-hot");
+        Mockito.verify(iFileService, Mockito.never()).changeRealPath(Mockito.eq(3L), Mockito.anyString(), Mockito.anyString());
+        Mockito.verify(taskScheduler, Mockito.times(2)).schedule(Mockito.any(Runnable.class), Mockito.any(Date.class));
+        Mockito.verify(iFileService).decayAccessCount();
+        Mockito.verifyZeroInteractions(storageEngine);
+        Assert.assertEquals(0, workDir.listFiles().length);
+    }
+
+    /**
+     * 测试迁移过程中文件记录已经变化时，删除新写入的文件并且不删除原文件
+     */
+    @Test
+    public void testDiscardCopyWhenRecordChanged() throws IOException {
+        Mockito.when(iFileService.changeRealPath(Mockito.anyLong(), Mockito.anyString(), Mockito.anyString())).thenReturn(false);
+        stubBatches(Lists.newArrayList(record(1L, "local://cold", 100, 0L)));
+
+        task.run();
+
+        ArgumentCaptor<DeleteFileContext> captor = ArgumentCaptor.forClass(DeleteFileContext.class);
+        Mockito.verify(storageEngine).delete(captor.capture());
+        Assert.assertEquals(Collections.singletonList("oss://new-cold"), captor.getValue().getRealFilePathList());
+        Mockito.verify(taskScheduler, Mockito.never()).schedule(Mockito.any(Runnable.class), Mockito.any(Date.class));
+    }
+
+    /**
+     * 测试读取的大小与记录不一致时不写入目标存储引擎
+     */
+    @Test
+    public void testSizeMismatch() throws IOException {
+        RPanFile record = record(1L, "local://cold", 100, 0L);
+        record.setFileSize(String.valueOf(CONTENT.length() + 1));
+        stubBatches(Lists.newArrayList(record));
+
+        task.run();
+
+        Mockito.verify(routingStorageEngine, Mockito.never()).storeTo(Mockito.anyString(), Mockito.any(StoreFileContext.class));
+        Mockito.verify(iFileService, Mockito.never()).changeRealPath(Mockito.anyLong(), Mockito.anyString(), Mockito.anyString());
+    }
+
+    /**
+     * 测试超过最长执行时间时在当前批次完成之后停止，下次执行从停止的位置继续，完整扫描一遍之后才衰减访问次数
+     */
+    @Test
+    public void testTimeBoxedRunResumes() throws IOException {
+        config.setMaxRunSeconds(0);
+        RPanFile first = record(1L, "local://first", 100, 0L);
+        RPanFile second = record(2L, "local://second", 100, 0L);
+        Mockito.when(iFileService.list(Mockito.any()))
+                .thenReturn(Lists.newArrayList(first))
+                .thenReturn(Lists.newArrayList(second))
+                .thenReturn(Collections.emptyList());
+
+        task.run();
+        Mockito.verify(iFileService).changeRealPath(1L, "local://first", "oss://new-first");
+        Mockito.verify(iFileService, Mockito.never()).changeRealPath(Mockito.eq(2L), Mockito.anyString(), Mockito.anyString());
+        Mockito.verify(iFileService, Mockito.never()).decayAccessCount();
+
+        task.run();
+        Mockito.verify(iFileService).changeRealPath(2L, "local://second", "oss://new-second");
+        Mockito.verify(iFileService, Mockito.never()).decayAccessCount();
+
+        task.run();
+        Mockito.verify(iFileService).decayAccessCount();
+        Assert.assertEquals(0L, ReflectionTestUtils.getField(task, "scrollPointer"));
+    }
+
+    /**
+     * 测试上一次迁移还没有执行完时本次跳过，不占用调度线程
+     */
+    @Test
+    public void testSkipWhenPreviousRunIsRunning() {
+        TaskExecutor busyExecutor = runnable -> {
+            throw new TaskRejectedException("busy");
+        };
+        ReflectionTestUtils.setField(task, "tieringTaskExecutor", busyExecutor);
+
+        task.run();
+
+        Mockito.verify(iFileService, Mockito.never()).list(Mockito.any());
+    }
+
+    /*****************************************private*****************************************/
+
+    private RPanFile record(Long fileId, String realPath, int lastAccessDaysAgo, Long accessCount) {
+        RPanFile record = new RPanFile();
+        record.setFileId(fileId);
+        record.setFilename(realPath.substring(realPath.indexOf(RoutingStorageEngine.ENGINE_SEPARATOR) + RoutingStorageEngine.ENGINE_SEPARATOR.length()));
+        record.setRealPath(realPath);
+        record.setFileSize(String.valueOf(CONTENT.length()));
+        record.setAccessCount(accessCount);
+        record.setLastAccessTime(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(lastAccessDaysAgo)));
+        return record;
+    }
+
+    private void stubBatches(List<RPanFile> records) {
+        Mockito.when(iFileService.list(Mockito.any()))
+                .thenReturn(records)
+                .thenReturn(Collections.emptyList());
+    }
+
+}
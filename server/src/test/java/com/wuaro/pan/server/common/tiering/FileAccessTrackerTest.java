@@ -0,0 +1,86 @@
+package com.wuaro.pan.server.common.tiering;
+
+import com.wuaro.pan.server.common.config.FileTieringConfig;
+import com.wuaro.pan.server.modules.file.service.IFileService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.core.task.SyncTaskExecutor;
+
+import java.util.Date;
+
+/**
+ * 文件访问频率统计器的单元测试类
+ * 文件服务使用Mockito模拟，只验证刷新到数据库的访问次数
+ */
+public class FileAccessTrackerTest {
+
+    private FileTieringConfig config;
+
+    private IFileService iFileService;
+
+    private FileAccessTracker tracker;
+
+    @Before
+    public void before() {
+        config = new FileTieringConfig();
+        config.setEnabled(Boolean.TRUE);
+        config.setMaxTrackedFiles(2);
+        iFileService = Mockito.mock(IFileService.class);
+        tracker = new FileAccessTracker(config, iFileService, new SyncTaskExecutor());
+    }
+
+    /**
+     * 测试每个文件的访问次数精确累加，刷新之后切换到新的统计窗口
+     */
+    @Test
+    public void testFlushExactCounts() {
+        tracker.record(1L);
+        tracker.record(1L);
+        tracker.record(2L);
+        tracker.record(1L);
+
+        Assert.assertEquals(2, tracker.flush());
+        Mockito.verify(iFileService).increaseAccessCount(Mockito.eq(1L), Mockito.eq(3L), Mockito.any(Date.class));
+        Mockito.verify(iFileService).increaseAccessCount(Mockito.eq(2L), Mockito.eq(1L), Mockito.any(Date.class));
+
+        Assert.assertEquals(0, tracker.flush());
+        Mockito.verifyNoMoreInteractions(iFileService);
+    }
+
+    /**
+     * 测试记录的文件数达到上限之后提前刷新记满的统计窗口，新文件的访问记录到新的统计窗口，不会丢失
+     */
+    @Test
+    public void testFlushEarlyWhenFull() {
+        tracker.record(1L);
+        tracker.record(2L);
+        tracker.record(2L);
+        Mockito.verifyZeroInteractions(iFileService);
+
+        tracker.record(3L);
+        Mockito.verify(iFileService).increaseAccessCount(Mockito.eq(1L), Mockito.eq(1L), Mockito.any(Date.class));
+        Mockito.verify(iFileService).increaseAccessCount(Mockito.eq(2L), Mockito.eq(2L), Mockito.any(Date.class));
+
+        tracker.record(2L);
+        tracker.record(3L);
+        Assert.assertEquals(2, tracker.flush());
+        Mockito.verify(iFileService).increaseAccessCount(Mockito.eq(3L), Mockito.eq(2L), Mockito.any(Date.class));
+        Mockito.verify(iFileService).increaseAccessCount(Mockito.eq(2L), Mockito.eq(1L), Mockito.any(Date.class));
+        Mockito.verifyNoMoreInteractions(iFileService);
+    }
+
+    /**
+     * 测试没有开启冷热分层存储时不记录访问
+     */
+    @Test
+    public void testDisabled() {
+        config.setEnabled(Boolean.FALSE);
+        tracker.record(1L);
+
+        Assert.assertEquals(0, tracker.flush());
+        Mockito.verifyZeroInteractions(iFileService);
+    }
+
+}
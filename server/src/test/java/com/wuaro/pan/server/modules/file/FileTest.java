@@ -31,11 +31,16 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 文件模块单元测试类
@@ -358,11 +363,37 @@ public class FileTest {
         boolean result = iUserFileService.secUpload(context);
         Assert.isFalse(result);
     }
+
+    /**
+     * 测试以旧的真实存储路径为条件替换物理文件的真实存储路径，旧路径不一致时替换失败
+     */
+    @Test
+    public void testChangeRealPath() {
+        Long userId = register();
+
+        RPanFile record = new RPanFile();
+        record.setFileId(IdUtil.get());
+        record.setFilename("filename");
+        record.setRealPath("local://realpath");
+        record.setFileSize("fileSize");
+        record.setFileSizeDesc("fileSizeDesc");
+        record.setFilePreviewContentType("");
+        record.setIdentifier("123456789");
+        record.setCreateUser(userId);
+        record.setCreateTime(new Date());
+        iFileService.save(record);
+
+        Assert.isTrue(iFileService.changeRealPath(record.getFileId(), "local://realpath", "oss://realpath"));
+        Assert.isTrue("oss://realpath".equals(iFileService.getById(record.getFileId()).getRealPath()));
+
+        Assert.isFalse(iFileService.changeRealPath(record.getFileId(), "local://realpath", "fastdfs://realpath"));
+        Assert.isTrue("oss://realpath".equals(iFileService.getById(record.getFileId()).getRealPath()));
+    }
     /**
      * 测试单文件上传成功
      */
     @Test
-    public void testUploadSuccess() {
+    public void testUploadSuccess() throws IOException {
         Long userId = register();
         UserInfoVO userInfoVO = info(userId);
 
@@ -371,7 +402,7 @@ public class FileTest {
         context.setFile(file);
         context.setParentId(userInfoVO.getRootFileId());
         context.setUserId(userId);
-        context.setIdentifier("12345678");
+        context.setIdentifier(DigestUtils.md5DigestAsHex(file.getBytes()));
         context.setTotalSize(file.getSize());
         context.setFilename(file.getOriginalFilename());
         iUserFileService.upload(context);
@@ -385,6 +416,25 @@ public class FileTest {
         Assert.isTrue(fileList.size() == 1);
     }
 
+    /**
+     * 测试单文件上传失败-文件唯一标识与文件内容不一致
+     */
+    @Test(expected = RPanBusinessException.class)
+    public void testUploadFailByIdentifierMismatch() {
+        Long userId = register();
+        UserInfoVO userInfoVO = info(userId);
+
+        FileUploadContext context = new FileUploadContext();
+        MultipartFile file = genarateMultipartFile();
+        context.setFile(file);
+        context.setParentId(userInfoVO.getRootFileId());
+        context.setUserId(userId);
+        context.setIdentifier("12345678");
+        context.setTotalSize(file.getSize());
+        context.setFilename(file.getOriginalFilename());
+        iUserFileService.upload(context);
+    }
+
     /**
      * 测试查询用户已上传的文件分片信息列表成功
      */
@@ -415,18 +465,68 @@ public class FileTest {
     }
 
     /**
-     * 测试文件分片上传成功
+     * 测试文件分片并发上传成功
+     * 只有一个分片检测到可以合并，合并时校验文件唯一标识成功
      */
     @Test
-    public void uploadWithChunkTest() throws InterruptedException {
+    public void uploadWithChunkTest() throws Exception {
         Long userId = register();
         UserInfoVO userInfoVO = info(userId);
 
+        byte[] chunkBytes = genarateMultipartFile().getBytes();
+        byte[] fileBytes = new byte[chunkBytes.length * 10];
+        for (int i = 0; i < 10; i++) {
+            System.arraycopy(chunkBytes, 0, fileBytes, i * chunkBytes.length, chunkBytes.length);
+        }
+        String identifier = DigestUtils.md5DigestAsHex(fileBytes);
+
         CountDownLatch countDownLatch = new CountDownLatch(10);
+        AtomicInteger mergeCount = new AtomicInteger();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
         for (int i = 0; i < 10; i++) {
-            new ChunkUploader(countDownLatch, i + 1, 10, iUserFileService, userId, userInfoVO.getRootFileId()).start();
+            new ChunkUploader(countDownLatch, mergeCount, errors, identifier, i + 1, 10, iUserFileService, userId, userInfoVO.getRootFileId()).start();
+        }
+        Assert.isTrue(countDownLatch.await(60, TimeUnit.SECONDS));
+        Assert.isTrue(errors.isEmpty());
+        Assert.isTrue(mergeCount.get() == 1);
+
+        QueryRealFileListContext queryRealFileListContext = new QueryRealFileListContext();
+        queryRealFileListContext.setUserId(userId);
+        queryRealFileListContext.setIdentifier(identifier);
+        Assert.isTrue(iFileService.getFileList(queryRealFileListContext).size() == 1);
+    }
+
+    /**
+     * 测试文件分片按顺序上传时校验文件唯一标识成功
+     */
+    @Test
+    public void uploadWithChunkInOrderVerifySuccess() throws IOException {
+        Long userId = register();
+        UserInfoVO userInfoVO = info(userId);
+
+        byte[] chunkBytes = genarateMultipartFile().getBytes();
+        byte[] fileBytes = new byte[chunkBytes.length * 3];
+        for (int i = 0; i < 3; i++) {
+            System.arraycopy(chunkBytes, 0, fileBytes, i * chunkBytes.length, chunkBytes.length);
         }
-        countDownLatch.await();
+        String identifier = DigestUtils.md5DigestAsHex(fileBytes);
+        uploadChunksInOrderAndMerge(userId, userInfoVO.getRootFileId(), identifier, 3);
+
+        QueryRealFileListContext queryRealFileListContext = new QueryRealFileListContext();
+        queryRealFileListContext.setUserId(userId);
+        queryRealFileListContext.setIdentifier(identifier);
+        List<RPanFile> fileList = iFileService.getFileList(queryRealFileListContext);
+        Assert.isTrue(fileList.size() == 1);
+    }
+
+    /**
+     * 测试文件分片按顺序上传时校验文件唯一标识失败
+     */
+    @Test(expected = RPanBusinessException.class)
+    public void uploadWithChunkInOrderVerifyFail() {
+        Long userId = register();
+        UserInfoVO userInfoVO = info(userId);
+        uploadChunksInOrderAndMerge(userId, userInfoVO.getRootFileId(), "123456789", 3);
     }
 
     /**
@@ -652,6 +752,12 @@ public class FileTest {
 
         private CountDownLatch countDownLatch;
 
+        private AtomicInteger mergeCount;
+
+        private List<Throwable> errors;
+
+        private String identifier;
+
         private Integer chunk;
 
         private Integer chunks;
@@ -665,14 +771,23 @@ public class FileTest {
         /**
          * 1、上传文件分片
          * 2、根据上传的结果来调用文件分片合并
+         * 3、无论成功还是失败都要计数，失败时记录异常，避免测试线程一直等待
          */
         @Override
         public void run() {
-            super.run();
+            try {
+                doUpload();
+            } catch (Throwable e) {
+                errors.add(e);
+            } finally {
+                countDownLatch.countDown();
+            }
+        }
+
+        private void doUpload() {
             MultipartFile file = genarateMultipartFile();
             Long totalSize = file.getSize() * chunks;
             String filename = "test.txt";
-            String identifier = "123456789";
 
             FileChunkUploadContext fileChunkUploadContext = new FileChunkUploadContext();
             fileChunkUploadContext.setFilename(filename);
@@ -696,17 +811,48 @@ public class FileTest {
                 fileChunkMergeContext.setParentId(parentId);
                 fileChunkMergeContext.setUserId(userId);
 
+                mergeCount.incrementAndGet();
                 iUserFileService.mergeFile(fileChunkMergeContext);
-                countDownLatch.countDown();
-            } else {
-                countDownLatch.countDown();
             }
-
         }
 
     }
 
 
+    /**
+     * 按顺序上传全部文件分片并合并
+     *
+     * @param userId
+     * @param parentId
+     * @param identifier
+     * @param chunks
+     */
+    private void uploadChunksInOrderAndMerge(Long userId, Long parentId, String identifier, Integer chunks) {
+        MultipartFile file = genarateMultipartFile();
+        Long totalSize = file.getSize() * chunks;
+        String filename = "test.txt";
+        for (int i = 1; i <= chunks; i++) {
+            FileChunkUploadContext fileChunkUploadContext = new FileChunkUploadContext();
+            fileChunkUploadContext.setFilename(filename);
+            fileChunkUploadContext.setIdentifier(identifier);
+            fileChunkUploadContext.setTotalChunks(chunks);
+            fileChunkUploadContext.setChunkNumber(i);
+            fileChunkUploadContext.setCurrentChunkSize(file.getSize());
+            fileChunkUploadContext.setTotalSize(totalSize);
+            fileChunkUploadContext.setFile(file);
+            fileChunkUploadContext.setUserId(userId);
+            iUserFileService.chunkUpload(fileChunkUploadContext);
+        }
+
+        FileChunkMergeContext fileChunkMergeContext = new FileChunkMergeContext();
+        fileChunkMergeContext.setFilename(filename);
+        fileChunkMergeContext.setIdentifier(identifier);
+        fileChunkMergeContext.setTotalSize(totalSize);
+        fileChunkMergeContext.setParentId(parentId);
+        fileChunkMergeContext.setUserId(userId);
+        iUserFileService.mergeFile(fileChunkMergeContext);
+    }
+
     /**
      * 生成模拟的网络文件实体
      *